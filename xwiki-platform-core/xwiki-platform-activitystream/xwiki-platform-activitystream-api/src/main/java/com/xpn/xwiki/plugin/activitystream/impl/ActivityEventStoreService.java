@@ -0,0 +1,367 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.activitystream.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.context.ExecutionContext;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.plugin.activitystream.api.ActivityEvent;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Back-end activity events storing service. Events are put in a bounded queue by the thread which generated them and
+ * are saved in batches (one transaction per database) by a dedicated thread.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class ActivityEventStoreService extends AbstractXWikiRunnable
+{
+    /**
+     * Logging tools.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ActivityEventStoreService.class);
+
+    /**
+     * Item used to stop the storing thread.
+     */
+    private static final ActivityEventStoreItem STOP = new ActivityEventStoreItem(null, null, 0);
+
+    /**
+     * The queue containing the events to store.
+     */
+    private final BlockingQueue<ActivityEventStoreItem> queue;
+
+    /**
+     * The maximum number of events saved in the same transaction.
+     */
+    private final int batchSize;
+
+    /**
+     * Lock used to number the events in the order they are put in the queue, and to wait for them to be processed.
+     */
+    private final Object sequenceLock = new Object();
+
+    /**
+     * The sequence number of the last event added to the queue.
+     */
+    private long addedSequence;
+
+    /**
+     * The sequence number of the last event processed (saved or given up) by the storing thread. Since the queue is
+     * consumed in order, all the events with a lower sequence number have been processed too.
+     */
+    private long processedSequence;
+
+    /**
+     * The number of events saved by the storing thread.
+     */
+    private final AtomicLong storedCount = new AtomicLong();
+
+    /**
+     * The number of events which could not be saved by the storing thread.
+     */
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * The number of events which have been saved synchronously because the queue was full.
+     */
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    /**
+     * The thread on which the storing service is running.
+     */
+    private Thread thread;
+
+    /**
+     * The xwiki context.
+     */
+    private XWikiContext xwikiContext;
+
+    /**
+     * @param queueSize the maximum number of events waiting to be saved
+     * @param batchSize the maximum number of events saved in the same transaction
+     * @param context the XWiki context
+     */
+    public ActivityEventStoreService(int queueSize, int batchSize, XWikiContext context)
+    {
+        this.xwikiContext = context.clone();
+        this.queue = new ArrayBlockingQueue<ActivityEventStoreItem>(queueSize);
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    protected void declareProperties(ExecutionContext executionContext)
+    {
+        this.xwikiContext.declareInExecutionContext(executionContext);
+        this.xwikiContext = null;
+    }
+
+    /**
+     * Start storing thread.
+     */
+    public synchronized void start()
+    {
+        if (this.thread == null) {
+            this.thread = new Thread(this, "Activity stream storing daemon");
+            // The JVM should be allowed to shutdown while this thread is running
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    /**
+     * Stop storing thread after saving the events still in the queue.
+     */
+    public synchronized void stop()
+    {
+        if (this.thread != null) {
+            try {
+                this.queue.put(STOP);
+                this.thread.join();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Thread join has been interrupted", e);
+            }
+            this.thread = null;
+        }
+    }
+
+    /**
+     * @return true if the storing thread is running
+     */
+    public boolean isStarted()
+    {
+        return this.thread != null;
+    }
+
+    /**
+     * Add an event to the queue.
+     *
+     * @param event the event to save
+     * @param databases the databases in which to save the event
+     * @return false if the queue is full or the service is stopped, in which case the caller is responsible for saving
+     *         the event
+     */
+    public boolean add(ActivityEvent event, List<String> databases)
+    {
+        if (!isStarted()) {
+            return false;
+        }
+
+        // Number and enqueue the event atomically so that the sequence numbers follow the queue order
+        synchronized (this.sequenceLock) {
+            long sequence = this.addedSequence + 1;
+            if (!this.queue.offer(new ActivityEventStoreItem(event, databases, sequence))) {
+                this.overflowCount.incrementAndGet();
+
+                return false;
+            }
+            this.addedSequence = sequence;
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait until all the events added to the queue before this call have been processed. Events added after this call
+     * are not waited for, so a continuous flow of new events cannot delay the caller.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if the events have been processed, false if the timeout expired
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean flush(long timeout) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeout;
+
+        synchronized (this.sequenceLock) {
+            long ticket = this.addedSequence;
+            while (this.processedSequence < ticket && isStarted()) {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                this.sequenceLock.wait(remaining);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of events waiting to be saved
+     */
+    public int getQueueSize()
+    {
+        return this.queue.size();
+    }
+
+    /**
+     * @return the number of events saved by the storing thread
+     */
+    public long getStoredCount()
+    {
+        return this.storedCount.get();
+    }
+
+    /**
+     * @return the number of events the storing thread failed to save
+     */
+    public long getFailedCount()
+    {
+        return this.failedCount.get();
+    }
+
+    /**
+     * @return the number of events saved synchronously because the queue was full
+     */
+    public long getOverflowCount()
+    {
+        return this.overflowCount.get();
+    }
+
+    private void eventsProcessed(List<ActivityEventStoreItem> items)
+    {
+        if (!items.isEmpty()) {
+            synchronized (this.sequenceLock) {
+                this.processedSequence = items.get(items.size() - 1).sequence;
+                this.sequenceLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    protected void runInternal()
+    {
+        List<ActivityEventStoreItem> items = new ArrayList<ActivityEventStoreItem>(this.batchSize);
+
+        try {
+            boolean stop = false;
+            while (!stop) {
+                items.add(this.queue.take());
+                this.queue.drainTo(items, this.batchSize - 1);
+
+                stop = items.remove(STOP);
+                try {
+                    store(items);
+                } finally {
+                    eventsProcessed(items);
+                    items.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("Activity stream storing thread has been interrupted.", e);
+        }
+    }
+
+    private void store(List<ActivityEventStoreItem> items)
+    {
+        // Group the events by database to save them with one transaction per database
+        Map<String, List<ActivityEvent>> eventsByDatabase = new LinkedHashMap<String, List<ActivityEvent>>();
+        for (ActivityEventStoreItem item : items) {
+            for (String database : item.databases) {
+                List<ActivityEvent> events = eventsByDatabase.get(database);
+                if (events == null) {
+                    events = new ArrayList<ActivityEvent>();
+                    eventsByDatabase.put(database, events);
+                }
+                events.add(item.event);
+            }
+        }
+
+        XWikiContext context = Utils.getContext();
+        for (Map.Entry<String, List<ActivityEvent>> entry : eventsByDatabase.entrySet()) {
+            context.setWikiId(entry.getKey());
+            try {
+                store(entry.getValue(), context);
+
+                this.storedCount.addAndGet(entry.getValue().size());
+            } catch (Exception e) {
+                LOGGER.warn("Failed to save a batch of [{}] activity events in database [{}], saving them one by one",
+                    entry.getValue().size(), entry.getKey(), e);
+
+                // Don't loose the whole batch because of one invalid event
+                for (ActivityEvent event : entry.getValue()) {
+                    try {
+                        store(Collections.singletonList(event), context);
+
+                        this.storedCount.incrementAndGet();
+                    } catch (Exception eventException) {
+                        LOGGER.error("Failed to save activity event [{}] in database [{}]", event.getEventId(),
+                            entry.getKey(), eventException);
+
+                        this.failedCount.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    private void store(List<ActivityEvent> events, XWikiContext context) throws Exception
+    {
+        XWikiHibernateStore hibernateStore = context.getWiki().getHibernateStore();
+        boolean commit = false;
+        hibernateStore.beginTransaction(context);
+        try {
+            Session session = hibernateStore.getSession(context);
+            for (ActivityEvent event : events) {
+                session.save(event);
+            }
+            commit = true;
+        } finally {
+            hibernateStore.endTransaction(context, commit);
+        }
+    }
+
+    /**
+     * An event waiting to be saved.
+     *
+     * @version $Id$
+     */
+    private static final class ActivityEventStoreItem
+    {
+        private final ActivityEvent event;
+
+        private final List<String> databases;
+
+        private final long sequence;
+
+        ActivityEventStoreItem(ActivityEvent event, List<String> databases, long sequence)
+        {
+            this.event = event;
+            this.databases = databases;
+            this.sequence = sequence;
+        }
+    }
+}
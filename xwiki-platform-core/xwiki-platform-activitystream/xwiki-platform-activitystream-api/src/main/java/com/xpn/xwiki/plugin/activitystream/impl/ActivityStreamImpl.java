@@ -44,6 +44,7 @@
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.ObservationContext;
 import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.ApplicationStoppedEvent;
 import org.xwiki.observation.event.BeginFoldEvent;
 import org.xwiki.observation.event.Event;
 import org.xwiki.observation.remote.RemoteObservationManagerContext;
@@ -98,6 +99,16 @@ public class ActivityStreamImpl implements ActivityStream, EventListener
      */
     private static final String LISTENER_NAME = "activitystream";
 
+    /**
+     * Prefix of the xwiki.cfg properties configuring the asynchronous storage of the events.
+     */
+    private static final String ASYNCSTORE_PARAM_PREFIX = "xwiki.plugin.activitystream.asyncstore";
+
+    /**
+     * The default maximum time to wait for the pending events to be saved in {@link #flushEvents()}.
+     */
+    private static final long FLUSH_TIMEOUT = 10000L;
+
     /**
      * The events to match.
      */
@@ -116,9 +127,15 @@ public class ActivityStreamImpl implements ActivityStream, EventListener
             add(new AnnotationAddedEvent());
             add(new AnnotationDeletedEvent());
             add(new AnnotationUpdatedEvent());
+            add(new ApplicationStoppedEvent());
         }
     };
 
+    /**
+     * The service saving events asynchronously, null if events are saved synchronously.
+     */
+    private ActivityEventStoreService storeService;
+
     /**
      * Set fields related to the document which fired the event in the given event object.
      * 
@@ -234,6 +251,56 @@ public void init(XWikiContext context) throws XWikiException
         }
         // Init activitystream cleaner.
         ActivityStreamCleaner.getInstance().init(context);
+        // Init asynchronous events storage.
+        initStoreService(context);
+    }
+
+    /**
+     * Start the thread saving the events asynchronously if enabled in xwiki.cfg.
+     *
+     * @param context the XWiki context
+     */
+    private synchronized void initStoreService(XWikiContext context)
+    {
+        if (this.storeService == null && context.getWiki().ParamAsLong(ASYNCSTORE_PARAM_PREFIX, 0) == 1) {
+            int queueSize = (int) context.getWiki().ParamAsLong(ASYNCSTORE_PARAM_PREFIX + ".queuesize", 1000);
+            int batchSize = (int) context.getWiki().ParamAsLong(ASYNCSTORE_PARAM_PREFIX + ".batchsize", 100);
+
+            this.storeService = new ActivityEventStoreService(queueSize, batchSize, context);
+            this.storeService.start();
+        }
+    }
+
+    /**
+     * @return the service saving events asynchronously, null if events are saved synchronously
+     * @since 7.1M1
+     */
+    public ActivityEventStoreService getStoreService()
+    {
+        return this.storeService;
+    }
+
+    /**
+     * Wait until the events added before this call are saved in the database. The search methods call it so that they
+     * always see the events recorded before them.
+     *
+     * @return true if all the pending events have been saved, false if the wait timed out
+     * @since 7.1M1
+     */
+    public boolean flushEvents()
+    {
+        if (this.storeService != null) {
+            try {
+                return this.storeService.flush(FLUSH_TIMEOUT);
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted while waiting for the activity events to be saved");
+                Thread.currentThread().interrupt();
+
+                return false;
+            }
+        }
+
+        return true;
     }
 
     @Override
@@ -300,6 +367,21 @@ public void addActivityEvent(ActivityEvent event, XWikiDocument doc, XWikiContex
     {
         prepareEvent(event, doc, context);
 
+        if (this.storeService != null) {
+            List<String> databases = new ArrayList<String>(2);
+            if (useLocalStore(context)) {
+                databases.add(context.getWikiId());
+            }
+            if (useMainStore(context)) {
+                databases.add(context.getMainXWiki());
+            }
+
+            // Fallback on synchronous storage when the queue is full
+            if (databases.isEmpty() || this.storeService.add(event, databases)) {
+                return;
+            }
+        }
+
         if (useLocalStore(context)) {
             // store event in the local database
             XWikiHibernateStore localHibernateStore = context.getWiki().getHibernateStore();
@@ -484,6 +566,9 @@ private ActivityEventImpl loadActivityEvent(ActivityEvent event, boolean bTransa
     @Override
     public void deleteActivityEvent(ActivityEvent event, XWikiContext context) throws ActivityStreamException
     {
+        // The event might still be waiting to be saved
+        flushEvents();
+
         boolean bTransaction = true;
         ActivityEventImpl evImpl = loadActivityEvent(event, true, context);
         String oriDatabase = context.getWikiId();
@@ -644,6 +729,9 @@ private void addOptionalEventsFilter(StringBuffer query, String optionalWhereCla
     public List<ActivityEvent> searchEvents(String fromHql, String hql, boolean filter, boolean globalSearch, int nb,
         int start, List<Object> parameterValues, XWikiContext context) throws ActivityStreamException
     {
+        // Make sure the events recorded so far can be found
+        flushEvents();
+
         StringBuffer searchHql = new StringBuffer();
         List<ActivityEvent> results;
 
@@ -856,6 +944,18 @@ public boolean matches(Object otherEvent)
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
+        if (event instanceof ApplicationStoppedEvent) {
+            // Save the pending events before shutting down
+            synchronized (this) {
+                if (this.storeService != null) {
+                    this.storeService.stop();
+                    this.storeService = null;
+                }
+            }
+
+            return;
+        }
+
         // Do not record some ignored events
         ObservationContext observationContext = Utils.getComponent(ObservationContext.class);
         if (observationContext.isIn(IGNORED_EVENTS)) {
@@ -967,6 +1067,8 @@ public List<Object[]> searchUniquePages(String optionalWhereClause, int maxItems
     public List<Object[]> searchUniquePages(String optionalWhereClause, List<Object> parametersValues, int maxItems,
         int startAt, XWikiContext context) throws ActivityStreamException
     {
+        flushEvents();
+
         StringBuffer searchHql = new StringBuffer();
         List<Object[]> results;
 
@@ -1000,6 +1102,8 @@ public List<Object[]> searchDailyPages(String optionalWhereClause, int maxItems,
     public List<Object[]> searchDailyPages(String optionalWhereClause, List<Object> parametersValues, int maxItems,
         int startAt, XWikiContext context) throws ActivityStreamException
     {
+        flushEvents();
+
         StringBuffer searchHql = new StringBuffer();
         List<Object[]> results = new ArrayList<Object[]>();
 
@@ -34,6 +34,7 @@
 import com.xpn.xwiki.plugin.XWikiPluginInterface;
 import com.xpn.xwiki.plugin.activitystream.api.ActivityStream;
 import com.xpn.xwiki.plugin.activitystream.api.ActivityStreamException;
+import com.xpn.xwiki.plugin.activitystream.impl.ActivityStreamImpl;
 
 /**
  * API for {@link ActivityStreamPlugin}.
@@ -79,6 +80,22 @@ public void addActivityEvent(com.xpn.xwiki.plugin.activitystream.api.ActivityEve
         }
     }
 
+    /**
+     * Wait until the events recorded asynchronously before this call are saved in the database. To be called before
+     * searching events which have just been recorded.
+     * 
+     * @return true if all the pending events have been saved, false if the wait timed out
+     * @since 7.1M1
+     */
+    public boolean flushEvents()
+    {
+        if (getActivityStream() instanceof ActivityStreamImpl) {
+            return ((ActivityStreamImpl) getActivityStream()).flushEvents();
+        }
+
+        return true;
+    }
+
     /**
      * Records in database the a event built upon the passed parameters.
      * 
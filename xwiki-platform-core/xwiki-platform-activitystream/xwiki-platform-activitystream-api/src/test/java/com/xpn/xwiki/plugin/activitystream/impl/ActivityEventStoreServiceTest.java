@@ -0,0 +1,320 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.activitystream.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.test.AllLogRule;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.plugin.activitystream.api.ActivityEvent;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.web.Utils;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link ActivityEventStoreService}.
+ *
+ * @version $Id$
+ */
+public class ActivityEventStoreServiceTest
+{
+    private static final List<String> WIKI = Collections.singletonList("wiki");
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    /**
+     * Capture the logs of the failed saves.
+     */
+    @Rule
+    public AllLogRule logRule = new AllLogRule();
+
+    private XWikiContext context = mock(XWikiContext.class);
+
+    private XWikiHibernateStore hibernateStore = mock(XWikiHibernateStore.class);
+
+    private Session session = mock(Session.class);
+
+    /**
+     * Released to let the first transaction of the storing thread begin.
+     */
+    private CountDownLatch firstTransactionGate = new CountDownLatch(1);
+
+    /**
+     * Released when the storing thread tries to begin its first transaction.
+     */
+    private CountDownLatch firstTransactionStarted = new CountDownLatch(1);
+
+    private ActivityEventStoreService service;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Utils.setComponentManager(this.mocker);
+
+        this.mocker.registerMockComponent(Execution.class);
+        this.mocker.registerMockComponent(ExecutionContextManager.class);
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(this.context);
+
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.clone()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        when(xwiki.getHibernateStore()).thenReturn(this.hibernateStore);
+        when(this.hibernateStore.getSession(this.context)).thenReturn(this.session);
+
+        final AtomicInteger transactions = new AtomicInteger();
+        when(this.hibernateStore.beginTransaction(this.context)).thenAnswer(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable
+            {
+                if (transactions.incrementAndGet() == 1) {
+                    firstTransactionStarted.countDown();
+                    firstTransactionGate.await();
+                }
+
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.firstTransactionGate.countDown();
+        if (this.service != null) {
+            this.service.stop();
+        }
+
+        Utils.setComponentManager(null);
+    }
+
+    private void startService(int queueSize, int batchSize)
+    {
+        this.service = new ActivityEventStoreService(queueSize, batchSize, this.context);
+        this.service.start();
+    }
+
+    private FutureTask<Boolean> flushInBackground() throws Exception
+    {
+        FutureTask<Boolean> flush = new FutureTask<Boolean>(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return service.flush(10000);
+            }
+        });
+        Thread thread = new Thread(flush);
+        thread.start();
+
+        // Wait for the flush to take its ticket
+        while (thread.getState() != Thread.State.TIMED_WAITING && !flush.isDone()) {
+            Thread.sleep(10);
+        }
+
+        return flush;
+    }
+
+    @Test
+    public void addWhenNotStarted()
+    {
+        this.service = new ActivityEventStoreService(10, 10, this.context);
+
+        assertFalse(this.service.add(mock(ActivityEvent.class), WIKI));
+    }
+
+    @Test
+    public void flushWaitsForTheEventsAddedBefore() throws Exception
+    {
+        startService(10, 10);
+
+        ActivityEvent event = mock(ActivityEvent.class);
+        assertTrue(this.service.add(event, WIKI));
+        this.firstTransactionStarted.await();
+
+        assertFalse(this.service.flush(50));
+
+        this.firstTransactionGate.countDown();
+
+        assertTrue(this.service.flush(10000));
+        verify(this.session).save(event);
+        verify(this.hibernateStore).endTransaction(this.context, true);
+        assertEquals(1, this.service.getStoredCount());
+    }
+
+    @Test
+    public void flushDoesNotWaitForTheEventsAddedAfter() throws Exception
+    {
+        startService(10, 10);
+
+        ActivityEvent event1 = mock(ActivityEvent.class, "event1");
+        this.service.add(event1, WIKI);
+        this.firstTransactionStarted.await();
+
+        FutureTask<Boolean> flush = flushInBackground();
+
+        // The second event can't be saved
+        final CountDownLatch secondGate = new CountDownLatch(1);
+        ActivityEvent event2 = mock(ActivityEvent.class, "event2");
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                secondGate.await();
+
+                return null;
+            }
+        }).when(this.session).save(event2);
+        this.service.add(event2, WIKI);
+
+        this.firstTransactionGate.countDown();
+
+        try {
+            assertTrue(flush.get(10, TimeUnit.SECONDS));
+            verify(this.session).save(event1);
+        } finally {
+            secondGate.countDown();
+        }
+    }
+
+    @Test
+    public void eventsAreSavedInBatchesInTheOrderTheyAreAdded() throws Exception
+    {
+        startService(10, 2);
+
+        ActivityEvent event1 = mock(ActivityEvent.class, "event1");
+        ActivityEvent event2 = mock(ActivityEvent.class, "event2");
+        ActivityEvent event3 = mock(ActivityEvent.class, "event3");
+        this.service.add(event1, WIKI);
+        this.firstTransactionStarted.await();
+        this.service.add(event2, Arrays.asList("wiki", "main"));
+        this.service.add(event3, WIKI);
+
+        this.firstTransactionGate.countDown();
+        assertTrue(this.service.flush(10000));
+
+        InOrder inOrder = inOrder(this.context, this.session, this.hibernateStore);
+        // First batch
+        inOrder.verify(this.context).setWikiId("wiki");
+        inOrder.verify(this.session).save(event1);
+        inOrder.verify(this.hibernateStore).endTransaction(this.context, true);
+        // Second batch, one transaction per database
+        inOrder.verify(this.context).setWikiId("wiki");
+        inOrder.verify(this.session).save(event2);
+        inOrder.verify(this.session).save(event3);
+        inOrder.verify(this.hibernateStore).endTransaction(this.context, true);
+        inOrder.verify(this.context).setWikiId("main");
+        inOrder.verify(this.session).save(event2);
+        inOrder.verify(this.hibernateStore).endTransaction(this.context, true);
+
+        assertEquals(4, this.service.getStoredCount());
+    }
+
+    @Test
+    public void failedBatchIsSavedEventByEvent() throws Exception
+    {
+        startService(10, 10);
+
+        ActivityEvent event1 = mock(ActivityEvent.class, "event1");
+        ActivityEvent event2 = mock(ActivityEvent.class, "event2");
+        ActivityEvent event3 = mock(ActivityEvent.class, "event3");
+        when(this.session.save(event2)).thenThrow(new RuntimeException("invalid event"));
+
+        this.service.add(event1, WIKI);
+        this.firstTransactionStarted.await();
+        this.service.add(event2, WIKI);
+        this.service.add(event3, WIKI);
+        this.firstTransactionGate.countDown();
+
+        assertTrue(this.service.flush(10000));
+
+        verify(this.session, times(2)).save(event3);
+        assertEquals(2, this.service.getStoredCount());
+        assertEquals(1, this.service.getFailedCount());
+    }
+
+    @Test
+    public void addWhenQueueIsFull() throws Exception
+    {
+        startService(1, 10);
+
+        this.service.add(mock(ActivityEvent.class), WIKI);
+        this.firstTransactionStarted.await();
+
+        assertTrue(this.service.add(mock(ActivityEvent.class), WIKI));
+        ActivityEvent overflow = mock(ActivityEvent.class);
+        assertFalse(this.service.add(overflow, WIKI));
+        assertEquals(1, this.service.getOverflowCount());
+
+        this.firstTransactionGate.countDown();
+        assertTrue(this.service.flush(10000));
+
+        verify(this.session, never()).save(overflow);
+        assertEquals(2, this.service.getStoredCount());
+    }
+
+    @Test
+    public void stopSavesThePendingEvents() throws Exception
+    {
+        startService(10, 10);
+
+        ActivityEvent event1 = mock(ActivityEvent.class, "event1");
+        ActivityEvent event2 = mock(ActivityEvent.class, "event2");
+        this.service.add(event1, WIKI);
+        this.firstTransactionStarted.await();
+        this.service.add(event2, WIKI);
+
+        this.firstTransactionGate.countDown();
+        this.service.stop();
+
+        assertFalse(this.service.isStarted());
+        verify(this.session).save(event1);
+        verify(this.session).save(event2);
+        assertTrue(this.service.flush(0));
+    }
+}
@@ -65,6 +65,16 @@ public class DocumentInstanceOutputProperties extends InstanceOutputProperties
      */
     private boolean stoppedWhenSaveFail = true;
 
+    /**
+     * @see #isBulkImport()
+     */
+    private boolean bulkImport;
+
+    /**
+     * @see #getBulkImportBatchSize()
+     */
+    private int bulkImportBatchSize = 100;
+
     /**
      * @return The base reference to use to resolve reference from events
      */
@@ -193,4 +203,48 @@ public void setStoppedWhenSaveFail(boolean stoppedWhenSaveFail)
     {
         this.stoppedWhenSaveFail = stoppedWhenSaveFail;
     }
+
+    /**
+     * @return Indicate if documents should be saved in batches sharing the same database transaction, with secondary
+     *         listeners (activity stream, watchlist, etc.) being notified only once at the end of the import
+     * @since 7.1M1
+     */
+    @PropertyName("Bulk import")
+    @PropertyDescription("Indicate if documents should be saved in batches sharing the same database transaction, "
+        + "the listeners being notified of the saved documents once their batch is committed")
+    public boolean isBulkImport()
+    {
+        return this.bulkImport;
+    }
+
+    /**
+     * @param bulkImport Indicate if documents should be saved in batches sharing the same database transaction
+     * @since 7.1M1
+     */
+    public void setBulkImport(boolean bulkImport)
+    {
+        this.bulkImport = bulkImport;
+    }
+
+    /**
+     * @return The maximum number of documents saved in the same database transaction when {@link #isBulkImport()} is
+     *         enabled
+     * @since 7.1M1
+     */
+    @PropertyName("Bulk import batch size")
+    @PropertyDescription("The maximum number of documents saved in the same database transaction in bulk import mode")
+    public int getBulkImportBatchSize()
+    {
+        return this.bulkImportBatchSize;
+    }
+
+    /**
+     * @param bulkImportBatchSize The maximum number of documents saved in the same database transaction when
+     *            {@link #isBulkImport()} is enabled
+     * @since 7.1M1
+     */
+    public void setBulkImportBatchSize(int bulkImportBatchSize)
+    {
+        this.bulkImportBatchSize = bulkImportBatchSize;
+    }
 }
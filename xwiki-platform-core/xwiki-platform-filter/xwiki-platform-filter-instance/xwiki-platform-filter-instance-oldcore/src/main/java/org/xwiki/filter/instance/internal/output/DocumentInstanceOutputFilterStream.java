@@ -20,13 +20,16 @@
 package org.xwiki.filter.instance.internal.output;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
@@ -39,12 +42,19 @@
 import org.xwiki.filter.instance.output.DocumentInstanceOutputProperties;
 import org.xwiki.filter.output.AbstractBeanOutputFilterStream;
 import org.xwiki.logging.marker.TranslationMarker;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.observation.ObservationManager;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.DocumentsImportedEvent;
+import com.xpn.xwiki.internal.event.DocumentsImportingEvent;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
 
 /**
  * @version $Id$
@@ -86,6 +96,9 @@ public class DocumentInstanceOutputFilterStream extends AbstractBeanOutputFilter
     @Inject
     private XWikiDocumentOutputFilterStream documentListener;
 
+    @Inject
+    private ObservationManager observation;
+
     @Inject
     private Logger logger;
 
@@ -93,6 +106,26 @@ public class DocumentInstanceOutputFilterStream extends AbstractBeanOutputFilter
 
     private FilterEventParameters currentLocaleParameters;
 
+    /**
+     * The documents saved in the current batch transaction in bulk import mode.
+     */
+    private List<BatchEntry> batch = new ArrayList<BatchEntry>();
+
+    /**
+     * The wiki of the current batch transaction, null if no batch is started.
+     */
+    private String batchWiki;
+
+    /**
+     * The documents saved in the current batch transaction, for which the listeners are notified after the commit.
+     */
+    private List<SavedDocument> batchSavedDocuments = new ArrayList<SavedDocument>();
+
+    /**
+     * The documents committed since the beginning of the bulk import, null if no bulk import is started.
+     */
+    private List<DocumentReference> importedDocuments;
+
     @Override
     protected Object createFilter() throws FilterException
     {
@@ -102,7 +135,22 @@ protected Object createFilter() throws FilterException
     @Override
     public void close() throws IOException
     {
-        // Nothing to close
+        if (this.importedDocuments != null) {
+            XWikiContext xcontext = this.xcontextProvider.get();
+
+            try {
+                if (this.batchWiki != null) {
+                    commitBatch(xcontext.getWiki().getHibernateStore(), xcontext);
+                }
+            } catch (FilterException e) {
+                throw new IOException("Failed to save the last batch of documents", e);
+            } finally {
+                // Always close the bulk import so that the listeners don't keep ignoring document events
+                this.observation.notify(new DocumentsImportedEvent(), this.importedDocuments, xcontext);
+
+                this.importedDocuments = null;
+            }
+        }
     }
 
     @Override
@@ -152,101 +200,320 @@ public void endWikiDocumentRevision(String version, FilterEventParameters parame
 
         XWikiContext xcontext = this.xcontextProvider.get();
 
-        try {
-            XWikiDocument document =
-                xcontext.getWiki().getDocument(inputDocument.getDocumentReferenceWithLocale(), xcontext);
+        XWikiHibernateStore store = this.properties.isBulkImport() ? xcontext.getWiki().getHibernateStore() : null;
+        if (store != null && (this.batchWiki != null || store.getTransaction(xcontext) == null)) {
+            saveInBatch(inputDocument, parameters, store, xcontext);
+        } else {
+            try {
+                saveDocument(inputDocument, parameters, this.currentLocaleParameters, xcontext);
+            } catch (Exception e) {
+                onSaveFailed(inputDocument, e);
+            }
+        }
+    }
 
-            boolean isNew = document.isNew();
+    private void onSaveFailed(XWikiDocument inputDocument, Exception e) throws FilterException
+    {
+        this.logger.error(LOG_DOCUMENT_FAILSAVE, "Failed to save document [{}]",
+            inputDocument.getDocumentReferenceWithLocale(), e);
+
+        if (this.properties.isStoppedWhenSaveFail()) {
+            throw new FilterException("Failed to save document", e);
+        }
+    }
+
+    private void saveDocument(XWikiDocument inputDocument, FilterEventParameters parameters,
+        FilterEventParameters localeParameters, XWikiContext xcontext) throws Exception
+    {
+        XWikiDocument document =
+            xcontext.getWiki().getDocument(inputDocument.getDocumentReferenceWithLocale(), xcontext);
+
+        boolean isNew = document.isNew();
+
+        if (document.isNew()) {
+            document = inputDocument;
+        } else {
+            if (this.properties.isPreviousDeleted() && !this.documentDeleted) {
+                // Put previous version in recycle bin
+                if (xcontext.getWiki().hasRecycleBin(xcontext)) {
+                    xcontext.getWiki().getRecycleBinStore()
+                        .saveToRecycleBin(document, xcontext.getUser(), new Date(), xcontext, true);
+                }
 
-            if (document.isNew()) {
+                // Make sure to not generate DocumentDeletedEvent since from listener point of view it's not
+                xcontext.getWiki().getStore().deleteXWikiDoc(document, xcontext);
+
+                this.documentDeleted = true;
                 document = inputDocument;
             } else {
-                if (this.properties.isPreviousDeleted() && !this.documentDeleted) {
-                    // Put previous version in recycle bin
-                    if (xcontext.getWiki().hasRecycleBin(xcontext)) {
-                        xcontext.getWiki().getRecycleBinStore()
-                            .saveToRecycleBin(document, xcontext.getUser(), new Date(), xcontext, true);
-                    }
-
-                    // Make sure to not generate DocumentDeletedEvent since from listener point of view it's not
-                    xcontext.getWiki().getStore().deleteXWikiDoc(document, xcontext);
-
-                    this.documentDeleted = true;
-                    document = inputDocument;
-                } else {
-                    // Safer to clone for thread safety and in case the save fail
-                    document = document.clone();
-
-                    document.loadAttachmentsContent(xcontext);
-                    document.apply(inputDocument);
-                }
+                // Safer to clone for thread safety and in case the save fail
+                document = document.clone();
+
+                document.loadAttachmentsContent(xcontext);
+                document.apply(inputDocument);
             }
+        }
 
-            document.setMinorEdit(inputDocument.isMinorEdit());
+        document.setMinorEdit(inputDocument.isMinorEdit());
 
-            // Author
+        // Author
 
-            if (this.properties.isAuthorPreserved()
-                && parameters.containsKey(WikiDocumentFilter.PARAMETER_REVISION_AUTHOR)) {
-                document.setAuthorReference(inputDocument.getAuthorReference());
-            } else {
-                document.setAuthorReference(xcontext.getUserReference());
+        if (this.properties.isAuthorPreserved()
+            && parameters.containsKey(WikiDocumentFilter.PARAMETER_REVISION_AUTHOR)) {
+            document.setAuthorReference(inputDocument.getAuthorReference());
+        } else {
+            document.setAuthorReference(xcontext.getUserReference());
+        }
+
+        // Content author
+
+        if (this.properties.isAuthorPreserved()
+            && parameters.containsKey(WikiDocumentFilter.PARAMETER_CONTENT_AUTHOR)) {
+            document.setContentAuthorReference(inputDocument.getContentAuthorReference());
+        } else {
+            document.setContentAuthorReference(document.getAuthorReference());
+        }
+
+        // Creator
+
+        if (document.isNew() && !this.properties.isAuthorPreserved()
+            || !localeParameters.containsKey(WikiDocumentFilter.PARAMETER_CREATION_AUTHOR)) {
+            document.setCreatorReference(document.getAuthorReference());
+        }
+
+        // Save history
+        if (document.isNew() && document.getDocumentArchive() != null) {
+            // we need to force the saving the document archive
+            if (document.getDocumentArchive() != null) {
+                xcontext.getWiki().getVersioningStore()
+                    .saveXWikiDocArchive(document.getDocumentArchive(xcontext), true, xcontext);
             }
+        }
 
-            // Content author
+        // Don't preserve version or history if we don't delete the previous document
+        if (document.isNew() && (this.properties.isAuthorPreserved() || this.properties.isVersionPreserved())) {
+            // Make sure version is set
+            document.setVersion(document.getVersion());
 
-            if (this.properties.isAuthorPreserved()
-                && parameters.containsKey(WikiDocumentFilter.PARAMETER_CONTENT_AUTHOR)) {
-                document.setContentAuthorReference(inputDocument.getContentAuthorReference());
+            document.setMetaDataDirty(false);
+            document.setContentDirty(false);
+
+            save(document, document.getComment(), document.isMinorEdit(), xcontext);
+        } else {
+            save(document, this.properties.getSaveComment(), false, xcontext);
+        }
+
+        if (this.properties.isVerbose()) {
+            if (isNew) {
+                this.logger.info(LOG_DOCUMENT_CREATED, "Created document [{}]",
+                    document.getDocumentReferenceWithLocale());
             } else {
-                document.setContentAuthorReference(document.getAuthorReference());
+                this.logger.info(LOG_DOCUMENT_UPDATED, "Updated document [{}]",
+                    document.getDocumentReferenceWithLocale());
             }
+        }
+    }
+
+    private void save(XWikiDocument document, String comment, boolean minorEdit, XWikiContext xcontext)
+        throws XWikiException
+    {
+        if (this.batchWiki != null) {
+            saveInTransaction(document, comment, minorEdit, xcontext);
+        } else {
+            xcontext.getWiki().saveDocument(document, comment, minorEdit, xcontext);
+        }
+    }
 
-            // Creator
+    // Bulk import
 
-            if (document.isNew() && !this.properties.isAuthorPreserved()
-                || !this.currentLocaleParameters.containsKey(WikiDocumentFilter.PARAMETER_CREATION_AUTHOR)) {
-                document.setCreatorReference(document.getAuthorReference());
-            }
+    /**
+     * Save the document without notifying the listeners that it has been created or updated. They are notified only
+     * once the batch transaction is committed since, before that, the document is not visible by the other threads or
+     * the other members of the cluster.
+     */
+    private void saveInTransaction(XWikiDocument document, String comment, boolean minorEdit, XWikiContext xcontext)
+        throws XWikiException
+    {
+        XWikiDocument originalDocument =
+            xcontext.getWiki().saveDocumentWithoutSavedNotification(document, comment, minorEdit, xcontext);
 
-            // Save history
-            if (document.isNew() && document.getDocumentArchive() != null) {
-                // we need to force the saving the document archive
-                if (document.getDocumentArchive() != null) {
-                    xcontext.getWiki().getVersioningStore()
-                        .saveXWikiDocArchive(document.getDocumentArchive(xcontext), true, xcontext);
-                }
-            }
+        this.batchSavedDocuments.add(new SavedDocument(document, originalDocument));
+    }
 
-            // Don't preserve version or history if we don't delete the previous document
-            if (document.isNew() && (this.properties.isAuthorPreserved() || this.properties.isVersionPreserved())) {
-                // Make sure version is set
-                document.setVersion(document.getVersion());
+    private void saveInBatch(XWikiDocument inputDocument, FilterEventParameters parameters,
+        XWikiHibernateStore store, XWikiContext xcontext) throws FilterException
+    {
+        if (this.importedDocuments == null) {
+            this.importedDocuments = new ArrayList<DocumentReference>();
+
+            // Secondary listeners are expected to ignore document events sent inside this event
+            this.observation.notify(new DocumentsImportingEvent(), null, xcontext);
+        }
 
-                document.setMetaDataDirty(false);
-                document.setContentDirty(false);
+        String wiki = inputDocument.getDocumentReference().getWikiReference().getName();
 
-                xcontext.getWiki().saveDocument(document, document.getComment(), document.isMinorEdit(), xcontext);
-            } else {
-                xcontext.getWiki().saveDocument(document, this.properties.getSaveComment(), xcontext);
+        // The database is selected when the session is opened so a batch can't be shared between several wikis
+        if (this.batchWiki != null
+            && (!this.batchWiki.equals(wiki) || this.batch.size() >= this.properties.getBulkImportBatchSize())) {
+            commitBatch(store, xcontext);
+        }
+
+        // Keep a copy of the input in case the batch has to be replayed
+        BatchEntry entry =
+            new BatchEntry(inputDocument.clone(), parameters, this.currentLocaleParameters, this.documentDeleted);
+
+        String currentWiki = xcontext.getWikiId();
+        try {
+            xcontext.setWikiId(wiki);
+
+            if (this.batchWiki == null) {
+                store.beginTransaction(xcontext);
+                this.batchWiki = wiki;
             }
 
-            if (this.properties.isVerbose()) {
-                if (isNew) {
-                    this.logger.info(LOG_DOCUMENT_CREATED, "Created document [{}]",
-                        document.getDocumentReferenceWithLocale());
-                } else {
-                    this.logger.info(LOG_DOCUMENT_UPDATED, "Updated document [{}]",
-                        document.getDocumentReferenceWithLocale());
+            saveDocument(inputDocument, parameters, this.currentLocaleParameters, xcontext);
+
+            // Send the statements of the document to the database and make sure the next revisions of the same
+            // document can be loaded and saved in the same session
+            Session session = store.getSession(xcontext);
+            session.flush();
+            session.clear();
+
+            this.batch.add(entry);
+        } catch (Exception e) {
+            this.batch.add(entry);
+
+            rollbackBatch(store, xcontext, e);
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+
+    private void commitBatch(XWikiHibernateStore store, XWikiContext xcontext) throws FilterException
+    {
+        String currentWiki = xcontext.getWikiId();
+        try {
+            xcontext.setWikiId(this.batchWiki);
+
+            store.endTransaction(xcontext, true);
+        } catch (Exception e) {
+            rollbackBatch(store, xcontext, e);
+
+            return;
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+
+        // Another thread might have loaded and cached the previous version of a document before the commit
+        evictFromCache(this.batch, xcontext);
+
+        for (BatchEntry entry : this.batch) {
+            this.importedDocuments.add(entry.inputDocument.getDocumentReferenceWithLocale());
+        }
+
+        List<SavedDocument> savedDocuments = new ArrayList<SavedDocument>(this.batchSavedDocuments);
+
+        this.batch.clear();
+        this.batchSavedDocuments.clear();
+        this.batchWiki = null;
+
+        // Now that the documents are visible by everyone
+        notifySaved(savedDocuments, xcontext);
+    }
+
+    private void notifySaved(List<SavedDocument> savedDocuments, XWikiContext xcontext)
+    {
+        for (SavedDocument savedDocument : savedDocuments) {
+            xcontext.getWiki().notifyDocumentSaved(savedDocument.document, savedDocument.originalDocument, xcontext);
+        }
+    }
+
+    /**
+     * Remove the documents of the batch from the document cache.
+     */
+    private void evictFromCache(List<BatchEntry> entries, XWikiContext xcontext)
+    {
+        XWikiCacheStore cacheStore = getCacheStore(xcontext);
+        if (cacheStore != null && cacheStore.getCache() != null) {
+            for (BatchEntry entry : entries) {
+                String key = entry.inputDocument.getKey();
+                cacheStore.getCache().remove(key);
+                if (cacheStore.getPageExistCache() != null) {
+                    cacheStore.getPageExistCache().remove(key);
                 }
             }
-        } catch (Exception e) {
-            this.logger.error(LOG_DOCUMENT_FAILSAVE, "Failed to save document [{}]",
-                inputDocument.getDocumentReferenceWithLocale(), e);
+        }
+    }
+
+    private void rollbackBatch(XWikiHibernateStore store, XWikiContext xcontext, Exception cause)
+        throws FilterException
+    {
+        this.logger.warn("Failed to save a batch of [{}] documents, saving them one by one: {}", this.batch.size(),
+            cause.getMessage());
+
+        if (store.getTransaction(xcontext) != null) {
+            store.endTransaction(xcontext, false);
+        }
 
-            if (this.properties.isStoppedWhenSaveFail()) {
-                throw new FilterException("Failed to save document", e);
+        // The documents of the batch might have been cached with the rolled back content
+        evictFromCache(this.batch, xcontext);
+
+        // The listeners never get to know about the rolled back documents
+        List<BatchEntry> entries = new ArrayList<BatchEntry>(this.batch);
+        this.batch.clear();
+        this.batchSavedDocuments.clear();
+        this.batchWiki = null;
+
+        // Replay the batch with one transaction per document to find out which document can't be saved
+        for (BatchEntry entry : entries) {
+            this.documentDeleted = entry.documentDeleted;
+
+            try {
+                saveDocument(entry.inputDocument.clone(), entry.parameters, entry.localeParameters, xcontext);
+
+                this.importedDocuments.add(entry.inputDocument.getDocumentReferenceWithLocale());
+            } catch (Exception e) {
+                onSaveFailed(entry.inputDocument, e);
             }
         }
     }
+
+    private XWikiCacheStore getCacheStore(XWikiContext xcontext)
+    {
+        return xcontext.getWiki().getStore() instanceof XWikiCacheStore ? (XWikiCacheStore) xcontext.getWiki()
+            .getStore() : null;
+    }
+
+    private static class SavedDocument
+    {
+        private final XWikiDocument document;
+
+        private final XWikiDocument originalDocument;
+
+        SavedDocument(XWikiDocument document, XWikiDocument originalDocument)
+        {
+            this.document = document;
+            this.originalDocument = originalDocument;
+        }
+    }
+
+    private static class BatchEntry
+    {
+        private final XWikiDocument inputDocument;
+
+        private final FilterEventParameters parameters;
+
+        private final FilterEventParameters localeParameters;
+
+        private final boolean documentDeleted;
+
+        BatchEntry(XWikiDocument inputDocument, FilterEventParameters parameters,
+            FilterEventParameters localeParameters, boolean documentDeleted)
+        {
+            this.inputDocument = inputDocument;
+            this.parameters = parameters;
+            this.localeParameters = localeParameters;
+            this.documentDeleted = documentDeleted;
+        }
+    }
 }
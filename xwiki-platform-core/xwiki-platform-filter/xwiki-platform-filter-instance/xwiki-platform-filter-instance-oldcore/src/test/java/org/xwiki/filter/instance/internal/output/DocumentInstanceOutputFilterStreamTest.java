@@ -25,22 +25,51 @@
 import java.util.Locale;
 import java.util.Map;
 
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
 import org.xwiki.filter.FilterException;
 import org.xwiki.filter.instance.internal.AbstractInstanceFilterStreamTest;
 import org.xwiki.filter.instance.output.DocumentInstanceOutputProperties;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
 import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.rendering.syntax.SyntaxType;
 import org.xwiki.test.annotation.AllComponents;
 
+import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.objects.classes.NumberClass;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Validate {@link DocumentInstanceOutputFilterStream}.
@@ -50,6 +79,86 @@
 @AllComponents
 public class DocumentInstanceOutputFilterStreamTest extends AbstractInstanceFilterStreamTest
 {
+    private XWikiHibernateStore mockHibernateStore() throws Exception
+    {
+        XWikiHibernateStore hibernateStore = mock(XWikiHibernateStore.class);
+        when(this.oldcore.getMockXWiki().getHibernateStore()).thenReturn(hibernateStore);
+        when(hibernateStore.getSession(any(XWikiContext.class))).thenReturn(mock(Session.class));
+
+        // A transaction is open between beginTransaction and endTransaction
+        final Transaction transaction = mock(Transaction.class);
+        final boolean[] open = new boolean[1];
+        when(hibernateStore.getTransaction(any(XWikiContext.class))).then(new Answer<Transaction>()
+        {
+            @Override
+            public Transaction answer(InvocationOnMock invocation) throws Throwable
+            {
+                return open[0] ? transaction : null;
+            }
+        });
+        when(hibernateStore.beginTransaction(any(XWikiContext.class))).then(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable
+            {
+                open[0] = true;
+                return true;
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                open[0] = false;
+                return null;
+            }
+        }).when(hibernateStore).endTransaction(any(XWikiContext.class), anyBoolean());
+
+        return hibernateStore;
+    }
+
+    /**
+     * Make the passed store save the documents where the mocked XWiki instance finds them.
+     */
+    private void storeSavedDocuments(XWikiStoreInterface store) throws XWikiException
+    {
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                XWikiDocument document = (XWikiDocument) invocation.getArguments()[0];
+                document.setNew(false);
+                oldcore.getDocuments().put(document.getDocumentReferenceWithLocale(), document.clone());
+
+                return null;
+            }
+        }).when(store).saveXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+    }
+
+    private EventListener addDocumentListener() throws Exception
+    {
+        EventListener listener = mock(EventListener.class);
+        when(listener.getName()).thenReturn("test");
+        when(listener.getEvents()).thenReturn(
+            Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent()));
+        this.oldcore.getObservationManager().addListener(listener);
+
+        return listener;
+    }
+
+    private DocumentInstanceOutputProperties createBulkImportProperties(int batchSize)
+    {
+        DocumentInstanceOutputProperties outputProperties = new DocumentInstanceOutputProperties();
+
+        outputProperties.setBulkImport(true);
+        outputProperties.setBulkImportBatchSize(batchSize);
+        outputProperties.setVerbose(false);
+
+        return outputProperties;
+    }
+
     // Tests
 
     @Test
@@ -257,4 +366,104 @@ public void testDocumentwithattachmentwithoutdate() throws FilterException, XWik
         Assert.assertEquals("1.1", attachment.getVersion());
         Assert.assertEquals("", attachment.getComment());
     }
+
+    @Test
+    public void testImportDocumentsInBulkWithoutHibernateStore() throws FilterException, XWikiException
+    {
+        DocumentInstanceOutputProperties outputProperties = new DocumentInstanceOutputProperties();
+
+        outputProperties.setBulkImport(true);
+        outputProperties.setVerbose(false);
+
+        importFromXML("document1", outputProperties);
+
+        XWikiDocument document =
+            this.oldcore.getMockXWiki().getDocument(new DocumentReference("wiki", "space", "page"),
+                this.oldcore.getXWikiContext());
+
+        Assert.assertFalse(document.isNew());
+        Assert.assertEquals("content", document.getContent());
+    }
+
+    @Test
+    public void testImportDocumentsInBulk() throws Exception
+    {
+        XWikiHibernateStore hibernateStore = mockHibernateStore();
+        storeSavedDocuments(this.oldcore.getMockStore());
+        EventListener listener = addDocumentListener();
+
+        importFromXML("document1", createBulkImportProperties(100));
+
+        XWikiDocument document =
+            this.oldcore.getMockXWiki().getDocument(new DocumentReference("wiki", "space", "page"),
+                this.oldcore.getXWikiContext());
+
+        Assert.assertFalse(document.isNew());
+        Assert.assertEquals("content", document.getContent());
+
+        // Both documents are saved in the same transaction and the listeners are notified after the commit
+        InOrder inOrder = inOrder(hibernateStore, listener);
+        inOrder.verify(hibernateStore).beginTransaction(any(XWikiContext.class));
+        inOrder.verify(hibernateStore).endTransaction(any(XWikiContext.class), eq(true));
+        inOrder.verify(listener, times(2)).onEvent(isA(DocumentCreatedEvent.class), any(), any());
+
+        verify(hibernateStore, times(1)).beginTransaction(any(XWikiContext.class));
+        verify(listener, times(2)).onEvent(any(Event.class), any(), any());
+        verify(this.oldcore.getMockXWiki(), never()).saveDocument(any(XWikiDocument.class), anyString(),
+            anyBoolean(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void testImportDocumentsInSeveralBatches() throws Exception
+    {
+        XWikiHibernateStore hibernateStore = mockHibernateStore();
+        storeSavedDocuments(this.oldcore.getMockStore());
+        EventListener listener = addDocumentListener();
+
+        importFromXML("document1", createBulkImportProperties(1));
+
+        // One transaction per document, each document being notified after its commit
+        InOrder inOrder = inOrder(hibernateStore, listener);
+        inOrder.verify(hibernateStore).endTransaction(any(XWikiContext.class), eq(true));
+        inOrder.verify(listener).onEvent(isA(DocumentCreatedEvent.class), any(), any());
+        inOrder.verify(hibernateStore).endTransaction(any(XWikiContext.class), eq(true));
+        inOrder.verify(listener).onEvent(isA(DocumentCreatedEvent.class), any(), any());
+
+        verify(hibernateStore, times(2)).beginTransaction(any(XWikiContext.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testImportDocumentsInBulkWhenCommitFails() throws Exception
+    {
+        XWikiHibernateStore hibernateStore = mockHibernateStore();
+        doThrow(new HibernateException("commit failed")).when(hibernateStore).endTransaction(
+            any(XWikiContext.class), eq(true));
+
+        XWikiCacheStore cacheStore = mock(XWikiCacheStore.class);
+        Cache<XWikiDocument> cache = mock(Cache.class);
+        when(cacheStore.getCache()).thenReturn(cache);
+        when(this.oldcore.getMockXWiki().getStore()).thenReturn(cacheStore);
+
+        EventListener listener = addDocumentListener();
+
+        importFromXML("document1", createBulkImportProperties(100));
+
+        // The batch is rolled back and the documents are saved again one by one
+        verify(hibernateStore).endTransaction(any(XWikiContext.class), eq(false));
+        verify(this.oldcore.getMockXWiki(), times(2)).saveDocument(any(XWikiDocument.class), anyString(),
+            anyBoolean(), any(XWikiContext.class));
+
+        XWikiDocument document =
+            this.oldcore.getMockXWiki().getDocument(new DocumentReference("wiki", "space", "page"),
+                this.oldcore.getXWikiContext());
+        Assert.assertFalse(document.isNew());
+
+        // The listeners are never notified of the rolled back documents
+        verify(listener, never()).onEvent(any(Event.class), any(), any());
+
+        // Only the documents of the batch are removed from the cache
+        verify(cache, times(2)).remove(anyString());
+        verify(cacheStore, never()).flushCache();
+    }
 }
@@ -66,9 +66,10 @@ public AbstractCachedTranslationBundle(String id, int priority)
 
     /**
      * @param locale the Locale
-     * @return the bundle containing translation for the passed Locale
+     * @return the bundle containing translation for the passed Locale, null if it can't be loaded yet
+     * @since 7.1M1
      */
-    private LocalizedTranslationBundle getLocalizedBundle(Locale locale)
+    public LocalizedTranslationBundle getLocalizedBundle(Locale locale)
     {
         LocalizedTranslationBundle bundle = this.bundleCache.get(locale);
         if (bundle == null) {
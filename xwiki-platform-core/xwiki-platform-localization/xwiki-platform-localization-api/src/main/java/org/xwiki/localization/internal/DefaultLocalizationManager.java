@@ -19,6 +19,7 @@
  */
 package org.xwiki.localization.internal;
 
+import java.util.Collection;
 import java.util.Locale;
 
 import javax.inject.Inject;
@@ -71,7 +72,21 @@ public class DefaultLocalizationManager implements LocalizationManager
     @Override
     public Translation getTranslation(String key, Locale locale)
     {
-        for (TranslationBundle bundle : this.bundleContext.getBundles()) {
+        Collection<TranslationBundle> bundles = this.bundleContext.getBundles();
+
+        if (bundles instanceof IndexedTranslationBundleSet) {
+            IndexedTranslationBundleSet indexedBundles = (IndexedTranslationBundleSet) bundles;
+            if (indexedBundles.isIndexed()) {
+                return indexedBundles.getTranslation(key, locale);
+            }
+        }
+
+        return getTranslation(key, locale, bundles);
+    }
+
+    private Translation getTranslation(String key, Locale locale, Collection<TranslationBundle> bundles)
+    {
+        for (TranslationBundle bundle : bundles) {
             try {
                 Translation translation = bundle.getTranslation(key, locale);
                 if (translation != null && translation.getLocale().equals(locale)) {
@@ -85,7 +100,7 @@ public Translation getTranslation(String key, Locale locale)
         // Try parent locale
         Locale parentLocale = LocaleUtils.getParentLocale(locale);
         if (parentLocale != null) {
-            return getTranslation(key, parentLocale);
+            return getTranslation(key, parentLocale, bundles);
         }
 
         return null;
@@ -19,6 +19,8 @@
  */
 package org.xwiki.localization.internal;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -77,6 +79,12 @@ public Translation getTranslation(String key)
         return translations.get(key);
     }
 
+    @Override
+    public Collection<Translation> getTranslations()
+    {
+        return Collections.unmodifiableCollection(this.translations.values());
+    }
+
     /**
      * @param translation the translation to add to the bundle
      */
@@ -20,8 +20,8 @@
 package org.xwiki.localization.internal;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.SortedSet;
-import java.util.TreeSet;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -65,6 +65,12 @@ public class DefaultTranslationBundleContext implements TranslationBundleContext
     @Named("context")
     private Provider<ComponentManager> componentManager;
 
+    /**
+     * Used to share the translation indexes between execution contexts.
+     */
+    @Inject
+    private TranslationIndexManager indexManager;
+
     /**
      * The logger.
      */
@@ -76,19 +82,19 @@ public class DefaultTranslationBundleContext implements TranslationBundleContext
      */
     private SortedSet<TranslationBundle> initializeContextBundle()
     {
-        SortedSet<TranslationBundle> bundles;
+        TranslationIndex index;
 
         try {
-            bundles =
-                new TreeSet<TranslationBundle>(this.componentManager.get().<TranslationBundle> getInstanceList(
+            index =
+                this.indexManager.getIndex(this.componentManager.get().<TranslationBundle> getInstanceList(
                     TranslationBundle.class));
         } catch (ComponentLookupException e) {
             this.logger.error("Failed to lookup Bundle components", e);
 
-            bundles = new TreeSet<TranslationBundle>();
+            index = this.indexManager.getIndex(Collections.<TranslationBundle> emptyList());
         }
 
-        return bundles;
+        return new IndexedTranslationBundleSet(index);
     }
 
     /**
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.localization.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+import org.xwiki.localization.Translation;
+import org.xwiki.localization.TranslationBundle;
+
+/**
+ * The bundles of an execution context: the bundles registered as components, whose translations are found through a
+ * shared {@link TranslationIndex}, and the bundles added to the context, which are overlaid on top of the index.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class IndexedTranslationBundleSet extends TreeSet<TranslationBundle>
+{
+    /**
+     * The version identifier for this Serializable class. Increment only if the <i>serialized</i> form of the class
+     * changes.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The index of the bundles registered as components.
+     */
+    private final transient TranslationIndex index;
+
+    /**
+     * The bundles to ask before falling back on the index, ordered by priority. Replaced (and not modified) when a
+     * bundle is added so that it can be shared with the clones of this set.
+     */
+    private transient List<TranslationBundle> overlay;
+
+    /**
+     * The number of bundles known by the index and the overlay, used to detect modifications of the set which are not
+     * supported by the index (like removing a bundle).
+     */
+    private int indexedSize;
+
+    /**
+     * @param index the index of the bundles registered as components
+     */
+    public IndexedTranslationBundleSet(TranslationIndex index)
+    {
+        for (TranslationBundle bundle : index.getBundles()) {
+            super.add(bundle);
+        }
+
+        this.index = index;
+        this.overlay = index.getOverlayBundles();
+        this.indexedSize = size();
+    }
+
+    @Override
+    public boolean add(TranslationBundle bundle)
+    {
+        boolean added = super.add(bundle);
+
+        if (added && this.index != null) {
+            List<TranslationBundle> newOverlay = new ArrayList<TranslationBundle>(this.overlay.size() + 1);
+            newOverlay.addAll(this.overlay);
+            newOverlay.add(bundle);
+            Collections.sort(newOverlay);
+
+            this.overlay = Collections.unmodifiableList(newOverlay);
+            ++this.indexedSize;
+        }
+
+        return added;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends TranslationBundle> bundles)
+    {
+        // Make sure each new bundle goes through #add(TranslationBundle)
+        boolean modified = false;
+        for (TranslationBundle bundle : bundles) {
+            modified |= add(bundle);
+        }
+
+        return modified;
+    }
+
+    /**
+     * @return true if {@link #getTranslation(String, Locale)} can be used, false if the set has been modified in a way
+     *         not supported by the index
+     */
+    public boolean isIndexed()
+    {
+        return this.index != null && this.indexedSize == size();
+    }
+
+    /**
+     * @param key the key to translate
+     * @param locale the locale to translate into
+     * @return the {@link Translation} or null if none can be found
+     */
+    public Translation getTranslation(String key, Locale locale)
+    {
+        return this.index.getTranslation(key, locale, this.overlay);
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.xwiki.localization.internal;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Locale;
 
 import org.xwiki.localization.TranslationBundle;
@@ -54,6 +56,12 @@ public Locale getLocale()
         {
             return null;
         }
+
+        @Override
+        public Collection<Translation> getTranslations()
+        {
+            return Collections.emptyList();
+        }
     };
 
     /**
@@ -73,4 +81,10 @@ public Locale getLocale()
      * @return the translation
      */
     Translation getTranslation(String key);
+
+    /**
+     * @return all the translations of the bundle
+     * @since 7.1M1
+     */
+    Collection<Translation> getTranslations();
 }
@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.localization.internal;
+
+import java.util.Locale;
+
+import org.xwiki.observation.event.Event;
+
+/**
+ * Event sent by an indexed {@link org.xwiki.localization.TranslationBundle} when its translations changed.
+ * <p>
+ * The event also send the following parameters:
+ * </p>
+ * <ul>
+ * <li>source: the {@link org.xwiki.localization.TranslationBundle} instance</li>
+ * <li>data: null</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class TranslationBundleUpdatedEvent implements Event
+{
+    /**
+     * @see #getLocale()
+     */
+    private Locale locale;
+
+    /**
+     * Listener constructor, also used when all the translations of the bundle changed.
+     */
+    public TranslationBundleUpdatedEvent()
+    {
+    }
+
+    /**
+     * @param locale the locale of the translations which changed
+     */
+    public TranslationBundleUpdatedEvent(Locale locale)
+    {
+        this.locale = locale;
+    }
+
+    /**
+     * @return the locale of the translations which changed, null if all the translations of the bundle changed
+     */
+    public Locale getLocale()
+    {
+        return this.locale;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof TranslationBundleUpdatedEvent;
+    }
+}
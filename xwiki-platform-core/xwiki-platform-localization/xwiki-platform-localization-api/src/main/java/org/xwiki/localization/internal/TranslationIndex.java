@@ -0,0 +1,316 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.localization.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.localization.LocaleUtils;
+import org.xwiki.localization.Translation;
+import org.xwiki.localization.TranslationBundle;
+
+/**
+ * Flattened index of the translations provided by a list of {@link TranslationBundle}s.
+ * <p>
+ * The first time a {@link Locale} is requested, the translations of the bundles extending
+ * {@link AbstractCachedTranslationBundle} are merged, taking into account the bundles priority and the parent locales,
+ * so that finding a translation is a single map lookup instead of asking each bundle for each parent locale. The other
+ * bundles (which can depend on the context, like the current wiki) are asked at each lookup and overlaid on top of the
+ * index according to their priority.
+ * <p>
+ * When the translations of some bundle can't be loaded (e.g. XWiki is not ready yet) the translations of the other
+ * bundles are still indexed, and merged again after a short delay.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class TranslationIndex
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(TranslationIndex.class);
+
+    /**
+     * The default time in milliseconds after which incomplete merged translations are merged again.
+     */
+    private static final long DEFAULT_RETRY_DELAY = 10000L;
+
+    /**
+     * All the bundles, ordered by priority.
+     */
+    private final List<TranslationBundle> bundles;
+
+    /**
+     * The bundles whose translations are indexed, ordered by priority.
+     */
+    private final List<AbstractCachedTranslationBundle> indexedBundles;
+
+    /**
+     * The bundles which are not indexed, ordered by priority.
+     */
+    private final List<TranslationBundle> overlayBundles;
+
+    /**
+     * The merged translations, by requested locale.
+     */
+    private final Map<Locale, IndexedTranslations> translations = new ConcurrentHashMap<Locale, IndexedTranslations>();
+
+    /**
+     * The time in milliseconds after which incomplete merged translations are merged again.
+     */
+    private final long retryDelay;
+
+    /**
+     * Incremented each time the index is invalidated so that translations merged concurrently are not kept.
+     */
+    private long generation;
+
+    /**
+     * @param bundles the bundles to index, ordered by priority
+     */
+    public TranslationIndex(Collection<TranslationBundle> bundles)
+    {
+        this(bundles, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * @param bundles the bundles to index, ordered by priority
+     * @param retryDelay the time in milliseconds after which the translations are merged again when some bundle
+     *            failed to provide its translations
+     */
+    public TranslationIndex(Collection<TranslationBundle> bundles, long retryDelay)
+    {
+        this.retryDelay = retryDelay;
+        this.bundles = Collections.unmodifiableList(new ArrayList<TranslationBundle>(bundles));
+
+        List<AbstractCachedTranslationBundle> indexed = new ArrayList<AbstractCachedTranslationBundle>();
+        List<TranslationBundle> overlay = new ArrayList<TranslationBundle>();
+        for (TranslationBundle bundle : bundles) {
+            if (bundle instanceof AbstractCachedTranslationBundle) {
+                indexed.add((AbstractCachedTranslationBundle) bundle);
+            } else {
+                overlay.add(bundle);
+            }
+        }
+        this.indexedBundles = indexed;
+        this.overlayBundles = Collections.unmodifiableList(overlay);
+    }
+
+    /**
+     * @return all the bundles, ordered by priority
+     */
+    public List<TranslationBundle> getBundles()
+    {
+        return this.bundles;
+    }
+
+    /**
+     * @return the bundles which are not indexed and are asked at each lookup, ordered by priority
+     */
+    public List<TranslationBundle> getOverlayBundles()
+    {
+        return this.overlayBundles;
+    }
+
+    /**
+     * @param bundle the bundle
+     * @return true if the translations of the passed bundle are indexed
+     */
+    public boolean isIndexed(TranslationBundle bundle)
+    {
+        return this.indexedBundles.contains(bundle);
+    }
+
+    /**
+     * @param key the key to translate
+     * @param locale the locale to translate into
+     * @return the {@link Translation} or null if none can be found
+     */
+    public Translation getTranslation(String key, Locale locale)
+    {
+        return getTranslation(key, locale, this.overlayBundles);
+    }
+
+    /**
+     * @param key the key to translate
+     * @param locale the locale to translate into
+     * @param overlay the bundles to ask before falling back on the index, ordered by priority (usually the
+     *            {@link #getOverlayBundles()} and the bundles added to the context)
+     * @return the {@link Translation} or null if none can be found
+     */
+    public Translation getTranslation(String key, Locale locale, List<TranslationBundle> overlay)
+    {
+        Translation indexedTranslation = getTranslations(locale).get(key);
+
+        for (Locale currentLocale = locale; currentLocale != null; currentLocale =
+            LocaleUtils.getParentLocale(currentLocale)) {
+            boolean indexedLocale = indexedTranslation != null && indexedTranslation.getLocale().equals(currentLocale);
+
+            for (TranslationBundle bundle : overlay) {
+                if (indexedLocale && bundle.compareTo(indexedTranslation.getBundle()) > 0) {
+                    // The indexed translation comes from a bundle with a higher priority
+                    break;
+                }
+
+                try {
+                    Translation translation = bundle.getTranslation(key, currentLocale);
+                    if (translation != null && translation.getLocale().equals(currentLocale)) {
+                        return translation;
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("Failed to get translation", e);
+                }
+            }
+
+            if (indexedLocale) {
+                return indexedTranslation;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Forget the merged translations of the passed locale and of the locales falling back on it.
+     *
+     * @param locale the locale of the translations which changed, null for all the locales
+     */
+    public synchronized void invalidate(Locale locale)
+    {
+        ++this.generation;
+
+        if (locale == null || locale.equals(Locale.ROOT)) {
+            this.translations.clear();
+        } else {
+            for (Iterator<Locale> it = this.translations.keySet().iterator(); it.hasNext();) {
+                for (Locale indexedLocale = it.next(); indexedLocale != null; indexedLocale =
+                    LocaleUtils.getParentLocale(indexedLocale)) {
+                    if (indexedLocale.equals(locale)) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private Map<String, Translation> getTranslations(Locale locale)
+    {
+        IndexedTranslations indexedTranslations = this.translations.get(locale);
+
+        if (indexedTranslations == null || indexedTranslations.isExpired()) {
+            long indexGeneration;
+            synchronized (this) {
+                indexGeneration = this.generation;
+            }
+
+            Map<String, Translation> localeTranslations = new HashMap<String, Translation>();
+            boolean complete = merge(locale, localeTranslations);
+
+            // If some bundle could not be loaded yet (e.g. XWiki is not ready) keep the other translations for a short
+            // time instead of merging everything again at each lookup
+            indexedTranslations = new IndexedTranslations(localeTranslations,
+                complete ? Long.MAX_VALUE : System.currentTimeMillis() + this.retryDelay);
+
+            // Don't keep the translations if a bundle changed in the meantime
+            synchronized (this) {
+                if (this.generation == indexGeneration) {
+                    this.translations.put(locale, indexedTranslations);
+                }
+            }
+        }
+
+        return indexedTranslations.translations;
+    }
+
+    /**
+     * @param locale the locale
+     * @param localeTranslations the map to fill
+     * @return false if the translations of some bundle could not be loaded
+     */
+    private boolean merge(Locale locale, Map<String, Translation> localeTranslations)
+    {
+        boolean complete = true;
+
+        // The translations of the parent locale are overwritten by the ones of the more specific locale, whatever
+        // the priority of their bundle
+        Locale parentLocale = LocaleUtils.getParentLocale(locale);
+        if (parentLocale != null) {
+            complete = merge(parentLocale, localeTranslations);
+        }
+
+        // Start with the lowest priority so that the translations of the highest priority bundles win
+        for (ListIterator<AbstractCachedTranslationBundle> it =
+            this.indexedBundles.listIterator(this.indexedBundles.size()); it.hasPrevious();) {
+            AbstractCachedTranslationBundle bundle = it.previous();
+
+            try {
+                LocalizedTranslationBundle localizedBundle = bundle.getLocalizedBundle(locale);
+                if (localizedBundle != null) {
+                    for (Translation translation : localizedBundle.getTranslations()) {
+                        localeTranslations.put(translation.getKey(), translation);
+                    }
+                } else {
+                    complete = false;
+                }
+            } catch (Exception e) {
+                LOGGER.error("Failed to get translations of bundle [{}]", bundle.getId(), e);
+
+                complete = false;
+            }
+        }
+
+        return complete;
+    }
+
+    /**
+     * Translations merged for a locale.
+     *
+     * @version $Id$
+     */
+    private static final class IndexedTranslations
+    {
+        private final Map<String, Translation> translations;
+
+        /**
+         * The time after which the translations must be merged again, {@link Long#MAX_VALUE} if they are complete.
+         */
+        private final long expirationTime;
+
+        IndexedTranslations(Map<String, Translation> translations, long expirationTime)
+        {
+            this.translations = translations;
+            this.expirationTime = expirationTime;
+        }
+
+        boolean isExpired()
+        {
+            return this.expirationTime != Long.MAX_VALUE && System.currentTimeMillis() >= this.expirationTime;
+        }
+    }
+}
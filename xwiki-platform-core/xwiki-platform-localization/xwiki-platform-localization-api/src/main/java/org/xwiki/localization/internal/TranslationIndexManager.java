@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.localization.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.localization.TranslationBundle;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Share the {@link TranslationIndex}es between the execution contexts seeing the same bundles and keep them up to date
+ * when the indexed bundles change.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component(roles = TranslationIndexManager.class)
+@Singleton
+public class TranslationIndexManager implements Initializable
+{
+    /**
+     * The maximum number of distinct lists of bundles (usually one per wiki) for which an index is kept.
+     */
+    private static final int MAX_INDEXES = 100;
+
+    @Inject
+    private ObservationManager observation;
+
+    /**
+     * The indexes, by list of bundles as returned by the component manager, in access order.
+     */
+    private final Map<List<TranslationBundle>, TranslationIndex> indexes =
+        new LinkedHashMap<List<TranslationBundle>, TranslationIndex>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<TranslationBundle>, TranslationIndex> eldest)
+            {
+                return size() > MAX_INDEXES;
+            }
+        };
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observation.addListener(new AbstractEventListener("localization.index",
+            new TranslationBundleUpdatedEvent())
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                invalidate((TranslationBundle) source, ((TranslationBundleUpdatedEvent) event).getLocale());
+            }
+        });
+    }
+
+    /**
+     * @param bundles the bundles, in any order
+     * @return the index of the passed bundles
+     */
+    public TranslationIndex getIndex(List<TranslationBundle> bundles)
+    {
+        TranslationIndex index;
+        synchronized (this.indexes) {
+            index = this.indexes.get(bundles);
+        }
+
+        if (index == null) {
+            index = new TranslationIndex(new TreeSet<TranslationBundle>(bundles));
+
+            synchronized (this.indexes) {
+                TranslationIndex existingIndex = this.indexes.get(bundles);
+                if (existingIndex != null) {
+                    index = existingIndex;
+                } else {
+                    this.indexes.put(new ArrayList<TranslationBundle>(bundles), index);
+                }
+            }
+        }
+
+        return index;
+    }
+
+    private void invalidate(TranslationBundle bundle, Locale locale)
+    {
+        List<TranslationIndex> indexesToInvalidate = new ArrayList<TranslationIndex>();
+        synchronized (this.indexes) {
+            for (TranslationIndex index : this.indexes.values()) {
+                if (index.isIndexed(bundle)) {
+                    indexesToInvalidate.add(index);
+                }
+            }
+        }
+
+        for (TranslationIndex index : indexesToInvalidate) {
+            index.invalidate(locale);
+        }
+    }
+}
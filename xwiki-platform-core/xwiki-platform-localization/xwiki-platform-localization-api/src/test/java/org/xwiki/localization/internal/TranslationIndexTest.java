@@ -0,0 +1,216 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.localization.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.localization.Translation;
+import org.xwiki.localization.TranslationBundle;
+import org.xwiki.localization.message.TranslationMessage;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link TranslationIndex}.
+ *
+ * @version $Id$
+ */
+public class TranslationIndexTest
+{
+    private static class TestBundle extends AbstractCachedTranslationBundle
+    {
+        private final Map<Locale, Map<String, String>> messages = new HashMap<Locale, Map<String, String>>();
+
+        /**
+         * The number of times the bundle fails to create its localized bundles before succeeding.
+         */
+        private int failures;
+
+        private int lookups;
+
+        TestBundle(String id, int priority)
+        {
+            super(id, priority);
+        }
+
+        TestBundle put(Locale locale, String key, String message)
+        {
+            Map<String, String> localeMessages = this.messages.get(locale);
+            if (localeMessages == null) {
+                localeMessages = new HashMap<String, String>();
+                this.messages.put(locale, localeMessages);
+            }
+            localeMessages.put(key, message);
+
+            this.bundleCache.remove(locale);
+
+            return this;
+        }
+
+        TestBundle fail(int failures)
+        {
+            this.failures = failures;
+
+            return this;
+        }
+
+        @Override
+        public LocalizedTranslationBundle getLocalizedBundle(Locale locale)
+        {
+            ++this.lookups;
+
+            return super.getLocalizedBundle(locale);
+        }
+
+        @Override
+        protected LocalizedTranslationBundle createBundle(Locale locale)
+        {
+            if (this.failures > 0) {
+                --this.failures;
+
+                return null;
+            }
+
+            DefaultLocalizedTranslationBundle localizedBundle = new DefaultLocalizedTranslationBundle(this, locale);
+
+            Map<String, String> localeMessages = this.messages.get(locale);
+            if (localeMessages != null) {
+                for (Map.Entry<String, String> entry : localeMessages.entrySet()) {
+                    TranslationMessage message = mock(TranslationMessage.class);
+                    when(message.getRawSource()).thenReturn(entry.getValue());
+
+                    localizedBundle.addTranslation(new DefaultTranslation(null, localizedBundle, entry.getKey(),
+                        message));
+                }
+            }
+
+            return localizedBundle;
+        }
+    }
+
+    private void assertTranslation(String expectedMessage, Translation translation)
+    {
+        Assert.assertNotNull(translation);
+        Assert.assertEquals(expectedMessage, translation.getRawSource());
+    }
+
+    @Test
+    public void getTranslationByPriorityAndLocale()
+    {
+        TestBundle bundle1 = new TestBundle("bundle1", 1).put(Locale.ROOT, "key", "bundle1 root");
+        TestBundle bundle2 =
+            new TestBundle("bundle2", 2).put(Locale.ROOT, "key", "bundle2 root").put(Locale.FRENCH, "key",
+                "bundle2 fr");
+
+        TranslationIndex index = new TranslationIndex(Arrays.<TranslationBundle>asList(bundle1, bundle2));
+
+        assertTranslation("bundle1 root", index.getTranslation("key", Locale.ROOT));
+        assertTranslation("bundle1 root", index.getTranslation("key", Locale.ENGLISH));
+        // A translation in a more specific locale wins over the bundle priority
+        assertTranslation("bundle2 fr", index.getTranslation("key", Locale.FRENCH));
+        assertTranslation("bundle2 fr", index.getTranslation("key", Locale.FRANCE));
+        Assert.assertNull(index.getTranslation("missing", Locale.FRANCE));
+    }
+
+    @Test
+    public void getTranslationWithOverlay()
+    {
+        TestBundle bundle1 = new TestBundle("bundle1", 1).put(Locale.ROOT, "key", "bundle1 root");
+        TestBundle bundle3 = new TestBundle("bundle3", 3).put(Locale.FRENCH, "key", "bundle3 fr");
+
+        TestBundle overlay =
+            new TestBundle("overlay", 2).put(Locale.ROOT, "key", "overlay root").put(Locale.FRENCH, "key",
+                "overlay fr");
+
+        TranslationIndex index = new TranslationIndex(Arrays.<TranslationBundle>asList(bundle1, bundle3));
+
+        assertTranslation("bundle1 root",
+            index.getTranslation("key", Locale.ROOT, Arrays.<TranslationBundle>asList(overlay)));
+        assertTranslation("overlay fr",
+            index.getTranslation("key", Locale.FRANCE, Arrays.<TranslationBundle>asList(overlay)));
+        assertTranslation("bundle3 fr", index.getTranslation("key", Locale.FRANCE));
+    }
+
+    @Test
+    public void invalidate()
+    {
+        TestBundle bundle = new TestBundle("bundle", 1).put(Locale.ROOT, "key", "root");
+
+        TranslationIndex index = new TranslationIndex(Arrays.<TranslationBundle>asList(bundle));
+
+        assertTranslation("root", index.getTranslation("key", Locale.FRENCH));
+
+        bundle.put(Locale.FRENCH, "key", "fr");
+
+        // Still indexed
+        assertTranslation("root", index.getTranslation("key", Locale.FRENCH));
+
+        index.invalidate(Locale.FRENCH);
+
+        assertTranslation("fr", index.getTranslation("key", Locale.FRENCH));
+    }
+
+    @Test
+    public void getTranslationWhenABundleFails()
+    {
+        TestBundle bundle1 = new TestBundle("bundle1", 1).put(Locale.ROOT, "key1", "bundle1 root");
+        TestBundle bundle2 = new TestBundle("bundle2", 2).put(Locale.ROOT, "key2", "bundle2 root").fail(1);
+
+        TranslationIndex index = new TranslationIndex(Arrays.<TranslationBundle>asList(bundle1, bundle2), 60000);
+
+        // The translations of the other bundles are indexed
+        assertTranslation("bundle1 root", index.getTranslation("key1", Locale.ROOT));
+        Assert.assertNull(index.getTranslation("key2", Locale.ROOT));
+        Assert.assertEquals(1, bundle1.lookups);
+        Assert.assertEquals(1, bundle2.lookups);
+
+        // Until the index is invalidated
+        index.invalidate(null);
+
+        assertTranslation("bundle2 root", index.getTranslation("key2", Locale.ROOT));
+        assertTranslation("bundle1 root", index.getTranslation("key1", Locale.ROOT));
+        Assert.assertEquals(2, bundle1.lookups);
+    }
+
+    @Test
+    public void getTranslationRetriesFailedBundle()
+    {
+        TestBundle bundle1 = new TestBundle("bundle1", 1).put(Locale.ROOT, "key1", "bundle1 root");
+        TestBundle bundle2 = new TestBundle("bundle2", 2).put(Locale.ROOT, "key2", "bundle2 root").fail(2);
+
+        TranslationIndex index = new TranslationIndex(Arrays.<TranslationBundle>asList(bundle1, bundle2), 0);
+
+        Assert.assertNull(index.getTranslation("key2", Locale.ROOT));
+        Assert.assertNull(index.getTranslation("key2", Locale.ROOT));
+        assertTranslation("bundle2 root", index.getTranslation("key2", Locale.ROOT));
+
+        // The translations are complete so they are not merged anymore
+        assertTranslation("bundle1 root", index.getTranslation("key1", Locale.ROOT));
+        assertTranslation("bundle2 root", index.getTranslation("key2", Locale.ROOT));
+        Assert.assertEquals(3, bundle1.lookups);
+        Assert.assertEquals(3, bundle2.lookups);
+    }
+}
@@ -49,6 +49,7 @@
 import org.xwiki.localization.TranslationBundleFactoryDoesNotExistsException;
 import org.xwiki.localization.internal.DefaultLocalizationManager;
 import org.xwiki.localization.internal.DefaultTranslationBundleContext;
+import org.xwiki.localization.internal.TranslationIndexManager;
 import org.xwiki.localization.messagetool.internal.MessageToolTranslationMessageParser;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.ObservationManager;
@@ -61,7 +62,7 @@
 PlainTextBlockParser.class, ContextComponentManagerProvider.class, DefaultLocalizationManager.class,
 DefaultTranslationBundleContext.class, DefaultExecution.class, DefaultObservationManager.class,
 JARTranslationBundleFactoryListener.class, DefaultComponentManagerManager.class,
-EmbeddableComponentManagerFactory.class})
+EmbeddableComponentManagerFactory.class, TranslationIndexManager.class})
 public class JARTranslationBundleFactoryTest
 {
     @Rule
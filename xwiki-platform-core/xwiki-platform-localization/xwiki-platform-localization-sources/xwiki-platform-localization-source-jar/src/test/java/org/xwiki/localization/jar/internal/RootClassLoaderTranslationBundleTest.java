@@ -32,14 +32,17 @@
 import org.xwiki.localization.Translation;
 import org.xwiki.localization.internal.DefaultLocalizationManager;
 import org.xwiki.localization.internal.DefaultTranslationBundleContext;
+import org.xwiki.localization.internal.TranslationIndexManager;
 import org.xwiki.localization.messagetool.internal.MessageToolTranslationMessageParser;
+import org.xwiki.observation.internal.DefaultObservationManager;
 import org.xwiki.rendering.internal.parser.plain.PlainTextBlockParser;
 import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.mockito.MockitoComponentManagerRule;
 
 @ComponentList({MessageToolTranslationMessageParser.class, PlainTextBlockParser.class,
 ContextComponentManagerProvider.class, DefaultLocalizationManager.class, DefaultTranslationBundleContext.class,
-DefaultExecution.class, RootClassLoaderTranslationBundle.class})
+DefaultExecution.class, RootClassLoaderTranslationBundle.class, TranslationIndexManager.class,
+DefaultObservationManager.class})
 public class RootClassLoaderTranslationBundleTest
 {
     @Rule
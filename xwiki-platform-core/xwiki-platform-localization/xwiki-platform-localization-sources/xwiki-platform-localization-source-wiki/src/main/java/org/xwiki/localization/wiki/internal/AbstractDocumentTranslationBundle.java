@@ -44,6 +44,7 @@
 import org.xwiki.localization.internal.DefaultLocalizedTranslationBundle;
 import org.xwiki.localization.internal.DefaultTranslation;
 import org.xwiki.localization.internal.LocalizedTranslationBundle;
+import org.xwiki.localization.internal.TranslationBundleUpdatedEvent;
 import org.xwiki.localization.message.TranslationMessage;
 import org.xwiki.localization.message.TranslationMessageParser;
 import org.xwiki.model.reference.DocumentReference;
@@ -211,6 +212,16 @@ public Translation getTranslation(String key, Locale locale)
         return super.getTranslation(key, locale);
     }
 
+    @Override
+    public LocalizedTranslationBundle getLocalizedBundle(Locale locale)
+    {
+        if (this.disposed) {
+            return LocalizedTranslationBundle.EMPTY;
+        }
+
+        return super.getLocalizedBundle(locale);
+    }
+
     // DisposableCacheValue Disposable
 
     @Override
@@ -219,6 +230,8 @@ public void dispose()
         this.disposed = true;
         this.bundleCache.clear();
         this.observation.removeListener(getName());
+
+        this.observation.notify(new TranslationBundleUpdatedEvent(), this);
     }
 
     // EventListener
@@ -230,6 +243,8 @@ public void onEvent(Event event, Object source, Object data)
             this.bundleCache.clear();
 
             this.disposed = true;
+
+            this.observation.notify(new TranslationBundleUpdatedEvent(), this);
         } else {
             XWikiDocument document = (XWikiDocument) source;
 
@@ -238,6 +253,10 @@ public void onEvent(Event event, Object source, Object data)
             if (document.getLocale().equals(Locale.ROOT)) {
                 this.bundleCache.remove(document.getDefaultLocale());
             }
+
+            // Indexes merging the translations of this bundle need to forget them (the default translation is the
+            // fallback of all locales)
+            this.observation.notify(new TranslationBundleUpdatedEvent(document.getLocale()), this);
         }
     }
 
@@ -103,4 +103,11 @@
      * @since 6.4RC1
      */
     long getSendWaitTime();
+
+    /**
+     * @return the number of mails that can be sent in parallel, each sender thread using its own connection to the
+     *         SMTP server. The average delay between two mails is still {@link #getSendWaitTime()}.
+     * @since 7.1M1
+     */
+    int getSendThreads();
 }
@@ -95,6 +95,11 @@ public class DefaultMailSenderConfiguration implements MailSenderConfiguration
      */
     private static final long DEFAULT_SEND_WAIT_TIME = 8 * 1000L;
 
+    /**
+     * By default mails are sent one at a time, over a single SMTP connection.
+     */
+    private static final int DEFAULT_SEND_THREADS = 1;
+
     private static final String FROM_PROPERTY = "from";
     private static final String BCC_PROPERTY = "bcc";
     private static final String HOST_PROPERTY = "host";
@@ -103,6 +108,7 @@ public class DefaultMailSenderConfiguration implements MailSenderConfiguration
     private static final String PASSWORD_PROPERTY = "password";
     private static final String PROPERTIES_PROPERTY = "properties";
     private static final String SEND_WAIT_TIME = "sendWaitTime";
+    private static final String SEND_THREADS = "sendThreads";
 
     @Inject
     private Logger logger;
@@ -318,4 +324,10 @@ public long getSendWaitTime()
 
         return waitTime;
     }
+
+    @Override
+    public int getSendThreads()
+    {
+        return this.xwikiPropertiesSource.getProperty(PREFIX + SEND_THREADS, DEFAULT_SEND_THREADS);
+    }
 }
@@ -19,9 +19,11 @@
  */
 package org.xwiki.mail.internal.thread;
 
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
@@ -44,19 +46,23 @@
      * The Mail queue that the mail sender thread will use to send mails. We use a separate thread to allow sending
      * mail asynchronously.
      */
-    private Queue<T> mailQueue = new ConcurrentLinkedQueue<>();
+    private BlockingQueue<T> mailQueue = new LinkedBlockingQueue<>();
 
     /**
-     * @return the mail queue containing all pending mails to be sent
+     * Number of items of each batch which have been added to the queue but not yet removed from it (i.e. not yet
+     * processed). Items taken from the queue with {@link #takeMessage(long, TimeUnit)} are thus still counted while
+     * they're being processed. Also used as the lock to wait for batches to be processed.
      */
-    private Queue<T> getMailQueue()
-    {
-        return this.mailQueue;
-    }
+    private final Map<String, Integer> pendingItems = new HashMap<>();
 
     @Override
     public void addToQueue(T mailQueueItem)
     {
+        synchronized (this.pendingItems) {
+            Integer count = this.pendingItems.get(mailQueueItem.getBatchId());
+            this.pendingItems.put(mailQueueItem.getBatchId(), count != null ? count + 1 : 1);
+        }
+
         this.mailQueue.add(mailQueueItem);
     }
 
@@ -72,24 +78,55 @@ public T peekMessage()
         return this.mailQueue.peek();
     }
 
+    @Override
+    public T takeMessage(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return this.mailQueue.poll(timeout, unit);
+    }
+
     @Override
     public boolean removeMessageFromQueue(T mailQueueItem)
     {
-        return this.mailQueue.remove(mailQueueItem);
+        // The item has already been removed from the queue when it has been taken so there's only the batch to update
+        synchronized (this.pendingItems) {
+            Integer count = this.pendingItems.get(mailQueueItem.getBatchId());
+            if (count == null) {
+                return false;
+            }
+
+            if (count > 1) {
+                this.pendingItems.put(mailQueueItem.getBatchId(), count - 1);
+            } else {
+                this.pendingItems.remove(mailQueueItem.getBatchId());
+                // Wake up the threads waiting for the batch to be processed
+                this.pendingItems.notifyAll();
+            }
+        }
+
+        return true;
     }
 
     @Override
     public void waitTillProcessed(String batchId, long timeout)
     {
-        long startTime = System.currentTimeMillis();
-        while (!isProcessed(batchId) && System.currentTimeMillis() - startTime < timeout) {
-            try {
-                Thread.sleep(100L);
-            } catch (InterruptedException e) {
-                // Ignore but consider that the mail was sent
-                this.logger.warn("Interrupted while waiting for mails to be sent. Reason [{}]",
-                    ExceptionUtils.getRootCauseMessage(e));
-                break;
+        long endTime = System.currentTimeMillis() + timeout;
+        if (endTime < 0) {
+            // Overflow (timeout close to Long.MAX_VALUE), wait forever
+            endTime = Long.MAX_VALUE;
+        }
+
+        synchronized (this.pendingItems) {
+            long remaining = timeout;
+            while (this.pendingItems.containsKey(batchId) && remaining > 0) {
+                try {
+                    this.pendingItems.wait(remaining);
+                } catch (InterruptedException e) {
+                    // Ignore but consider that the mail was sent
+                    this.logger.warn("Interrupted while waiting for mails to be sent. Reason [{}]",
+                        ExceptionUtils.getRootCauseMessage(e));
+                    break;
+                }
+                remaining = endTime - System.currentTimeMillis();
             }
         }
     }
@@ -97,13 +134,8 @@ public void waitTillProcessed(String batchId, long timeout)
     @Override
     public boolean isProcessed(String batchId)
     {
-        Iterator<? extends MailQueueItem> iterator = getMailQueue().iterator();
-        while (iterator.hasNext()) {
-            MailQueueItem item = iterator.next();
-            if (batchId == item.getBatchId()) {
-                return false;
-            }
+        synchronized (this.pendingItems) {
+            return !this.pendingItems.containsKey(batchId);
         }
-        return true;
     }
 }
@@ -19,6 +19,8 @@
  */
 package org.xwiki.mail.internal.thread;
 
+import java.util.concurrent.TimeUnit;
+
 import org.xwiki.component.annotation.Role;
 
 /**
@@ -49,9 +51,22 @@
     T peekMessage();
 
     /**
-     * Removes the next mail on the queue.
+     * Hand the next mail on the queue to the caller, waiting for one to be available if necessary. The mail is still
+     * considered as being processed (see {@link #isProcessed(String)}) until
+     * {@link #removeMessageFromQueue(MailQueueItem)} is called for it.
+     *
+     * @param timeout how long to wait before giving up, in units of {@code unit}
+     * @param unit the unit of the {@code timeout} parameter
+     * @return the next mail on the queue or null if none was available before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     * @since 7.1M1
+     */
+    T takeMessage(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Marks a mail taken with {@link #takeMessage(long, TimeUnit)} as processed.
      *
-     * @param mailQueueItem the object representing the mail to remove from the queue
+     * @param mailQueueItem the object representing the processed mail
      * @return true if the removal was successful, false otherwise
      */
     boolean removeMessageFromQueue(T mailQueueItem);
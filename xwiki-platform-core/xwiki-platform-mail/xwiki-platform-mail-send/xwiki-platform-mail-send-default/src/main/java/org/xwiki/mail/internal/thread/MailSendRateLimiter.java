@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.mail.internal.thread;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket used to throttle the sending of mails: on average only one mail can be sent every
+ * {@link org.xwiki.mail.MailSenderConfiguration#getSendWaitTime()} milliseconds, whatever the number of threads sending
+ * mails, but up to {@code capacity} mails can be sent at once after an idle period.
+ * <p>
+ * Contrary to a fixed pause after each mail this doesn't slow down the sending when the time spent to actually send
+ * the mail is greater than the configured delay.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class MailSendRateLimiter
+{
+    private final int capacity;
+
+    private double tokens;
+
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param capacity the maximum number of tokens accumulated while no mail is sent
+     */
+    public MailSendRateLimiter(int capacity)
+    {
+        this.capacity = capacity;
+        this.tokens = capacity;
+    }
+
+    /**
+     * Take a token, waiting for it to be available if needed.
+     *
+     * @param interval the time needed to produce a new token, in milliseconds, 0 or less to disable the throttling
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(long interval) throws InterruptedException
+    {
+        long waitTime;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+
+            if (interval <= 0) {
+                this.tokens = this.capacity;
+                this.lastRefill = now;
+
+                return;
+            }
+
+            long intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+            this.tokens = Math.min(this.capacity, this.tokens + (double) (now - this.lastRefill) / intervalNanos);
+            this.lastRefill = now;
+
+            // Reserve the token right away (possibly going negative) so that concurrent callers queue up fairly
+            this.tokens -= 1;
+            waitTime = this.tokens < 0 ? (long) (-this.tokens * intervalNanos) : 0;
+        }
+
+        if (waitTime > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitTime);
+        }
+    }
+}
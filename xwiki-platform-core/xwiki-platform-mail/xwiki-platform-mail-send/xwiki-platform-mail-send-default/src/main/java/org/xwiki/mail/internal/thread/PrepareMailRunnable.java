@@ -22,6 +22,7 @@
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -70,6 +71,11 @@ public class PrepareMailRunnable extends AbstractMailRunnable
 
     private static final String WIKI_PARAMETER_KEY = "wikiId";
 
+    /**
+     * Maximum time to wait for a mail item, in seconds, before checking if the thread should stop.
+     */
+    private static final long POLL_TIMEOUT = 1L;
+
     @Inject
     private MailQueueManager<PrepareMailQueueItem> prepareMailQueueManager;
 
@@ -85,19 +91,18 @@ public void run()
     {
         do {
             try {
-                // Handle next message in the queue
-                if (this.prepareMailQueueManager.hasMessage()) {
-                    // Important: only remove the mail item after the message has been created and put on the sender
-                    // queue.
-                    PrepareMailQueueItem mailItem = this.prepareMailQueueManager.peekMessage();
+                // Wait for the next message in the queue
+                PrepareMailQueueItem mailItem =
+                    this.prepareMailQueueManager.takeMessage(POLL_TIMEOUT, TimeUnit.SECONDS);
+                if (mailItem != null) {
+                    // Important: only mark the mail item as processed after the message has been created and put on
+                    // the sender queue.
                     try {
                         prepareMail(mailItem);
                     } finally {
                         this.prepareMailQueueManager.removeMessageFromQueue(mailItem);
                     }
                 }
-                // Note: a short pause to catch thread interruptions and to be kind on CPU.
-                Thread.sleep(100L);
             } catch (InterruptedException e) {
                 // Thread has been stopped, exit
                 this.logger.debug("Mail Prepare Thread was forcefully stopped", e);
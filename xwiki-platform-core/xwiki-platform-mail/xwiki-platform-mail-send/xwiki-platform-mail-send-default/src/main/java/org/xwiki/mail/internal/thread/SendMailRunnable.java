@@ -19,7 +19,10 @@
  */
 package org.xwiki.mail.internal.thread;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -36,7 +39,11 @@
 import org.xwiki.mail.MailListener;
 
 /**
- * Runnable that regularly check for mails on a Queue, and for each mail tries to send it.
+ * Runnable that waits for mails on a Queue, and for each mail tries to send it.
+ * <p>
+ * Mails are sent in parallel by {@link org.xwiki.mail.MailSenderConfiguration#getSendThreads()} sender threads, each
+ * one keeping its own SMTP connection open between mails, and all of them sharing the same
+ * {@link MailSendRateLimiter rate limit}.
  *
  * @version $Id$
  * @since 6.4
@@ -48,6 +55,16 @@ public class SendMailRunnable extends AbstractMailRunnable
 {
     private static final String WIKI_PARAMETER_KEY = "wikiId";
 
+    /**
+     * Maximum time to wait for a mail item, in seconds, before checking if the thread should stop.
+     */
+    private static final long POLL_TIMEOUT = 1L;
+
+    /**
+     * Number of mails after which the SMTP connection is reopened.
+     */
+    private static final int MAILS_PER_CONNECTION = 100;
+
     @Inject
     private MailQueueManager<SendMailQueueItem> sendMailQueueManager;
 
@@ -55,44 +72,135 @@ public class SendMailRunnable extends AbstractMailRunnable
     @Named("filesystem")
     private MailContentStore mailContentStore;
 
-    private Transport currentTransport;
+    private MailSendRateLimiter rateLimiter;
+
+    /**
+     * An SMTP connection, owned by a single sender thread.
+     */
+    protected static class SMTPConnection
+    {
+        private Transport transport;
+
+        private Session session;
+
+        private int count;
+
+        /**
+         * @param session the session of the mail to send
+         * @return a connected transport for the passed session
+         * @throws MessagingException when failing to connect
+         */
+        protected Transport getTransport(Session session) throws MessagingException
+        {
+            // If the current Session in use is different from the one passed then close the current Transport, get a
+            // new one and reconnect. Also do that every 100 mails sent, to not keep a (possibly stale) connection
+            // open forever.
+            // Note: we don't use Transport.send() since it opens a new connection for each mail.
+            if (session != this.session || (this.count % MAILS_PER_CONNECTION) == 0) {
+                close();
+                this.session = session;
+                this.transport = session.getTransport("smtp");
+                this.transport.connect();
+            } else if (!this.transport.isConnected()) {
+                this.transport.connect();
+            }
 
-    private Session currentSession;
+            return this.transport;
+        }
 
-    private int count;
+        /**
+         * Indicate that a mail has been sent with the current transport.
+         */
+        protected void sent()
+        {
+            this.count++;
+        }
+
+        /**
+         * @throws MessagingException when failing to close the connection
+         */
+        protected void close() throws MessagingException
+        {
+            if (this.transport != null) {
+                Transport currentTransport = this.transport;
+                this.transport = null;
+                this.session = null;
+                this.count = 0;
+                currentTransport.close();
+            }
+        }
+    }
 
     @Override
     public void run()
     {
+        int threadCount = Math.max(1, this.configuration.getSendThreads());
+
+        this.rateLimiter = new MailSendRateLimiter(threadCount);
+
+        // The current thread is the first sender, start the other ones
+        List<Thread> threads = new ArrayList<>(threadCount - 1);
+        for (int i = 1; i < threadCount; ++i) {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runSender();
+                }
+            });
+            thread.setName(Thread.currentThread().getName() + " " + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
         try {
-            runInternal();
+            runSender();
         } finally {
-            closeTransport();
+            this.shouldStop = true;
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    this.logger.debug("Interrupted while waiting for the Mail Sender Threads to stop", e);
+                }
+            }
         }
     }
 
-    private void runInternal()
+    private void runSender()
+    {
+        SMTPConnection connection = new SMTPConnection();
+
+        try {
+            runInternal(connection);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    private void runInternal(SMTPConnection connection)
     {
         do {
             try {
-                // Handle next message in the queue
-                if (this.sendMailQueueManager.hasMessage()) {
-                    // Important: only remove the mail item from the queue after the mail has been sent as
-                    // otherwise, MailSender.waitTillSent() may return before the mail is actually sent!
-                    SendMailQueueItem mailItem = this.sendMailQueueManager.peekMessage();
+                // Wait for the next message in the queue
+                SendMailQueueItem mailItem = this.sendMailQueueManager.takeMessage(POLL_TIMEOUT, TimeUnit.SECONDS);
+                if (mailItem != null) {
+                    // Important: only mark the mail item as processed after the mail has been sent as otherwise,
+                    // MailSender.waitTillSent() may return before the mail is actually sent!
                     try {
-                        sendMail(mailItem);
+                        // Email throttling: wait for the rate limit to allow sending another mail
+                        this.rateLimiter.acquire(this.configuration.getSendWaitTime());
+
+                        sendMail(mailItem, connection);
                     } finally {
                         this.sendMailQueueManager.removeMessageFromQueue(mailItem);
                     }
-                    // Email throttling: Wait before processing the next mail queue item
-                    // Note: it's important that we wait after the previous item has been removed from the queue in
-                    // order to let users know as soon as possible that their mail has been sent (otherwise when sending
-                    // a synchronous mail, the user would have to wait the send wait time!).
-                    waitSendWaitTime();
                 }
-                // Note: a short pause to catch thread interruptions and to be kind on CPU.
-                Thread.sleep(50L);
             } catch (InterruptedException e) {
                 // Thread has been stopped, exit
                 this.logger.debug("Mail Sender Thread was forcefully stopped", e);
@@ -108,12 +216,22 @@ private void runInternal()
      * Send the mail.
      *
      * @param item the queue item containing all the data for sending the mail
+     * @param connection the SMTP connection of the current sender thread
      * @throws org.xwiki.context.ExecutionContextException when the XWiki Context fails to be set up
      */
-    protected void sendMail(SendMailQueueItem item) throws ExecutionContextException
+    protected void sendMail(SendMailQueueItem item, SMTPConnection connection) throws ExecutionContextException
     {
         prepareContext(item.getWikiId());
 
+        try {
+            sendMailInContext(item, connection);
+        } finally {
+            removeContext();
+        }
+    }
+
+    private void sendMailInContext(SendMailQueueItem item, SMTPConnection connection)
+    {
         MailListener listener = item.getListener();
 
         MimeMessage message;
@@ -127,23 +245,12 @@ protected void sendMail(SendMailQueueItem item) throws ExecutionContextException
         }
 
         try {
-            // Step 2: If the current Session in use is different from the one passed then close
-            // the current Transport, get a new one and reconnect.
-            // Also do that every 100 mails sent.
-            // TODO: explain why!
-            // TODO: Also explain why we don't use Transport.send()
-            if (item.getSession() != this.currentSession || (this.count % 100) == 0) {
-                closeTransport();
-                this.currentSession = item.getSession();
-                this.currentTransport = this.currentSession.getTransport("smtp");
-                this.currentTransport.connect();
-            } else if (!this.currentTransport.isConnected()) {
-                this.currentTransport.connect();
-            }
+            // Step 2: Get a connected transport for the mail session
+            Transport transport = connection.getTransport(item.getSession());
 
             // Step 3: Send the mail
-            this.currentTransport.sendMessage(message, message.getAllRecipients());
-            this.count++;
+            transport.sendMessage(message, message.getAllRecipients());
+            connection.sent();
 
             // Step 4: Notify the user of the success if a listener has been provided
             if (listener != null) {
@@ -157,21 +264,13 @@ protected void sendMail(SendMailQueueItem item) throws ExecutionContextException
         }
     }
 
-    private void waitSendWaitTime() throws InterruptedException
+    private void closeConnection(SMTPConnection connection)
     {
-        long sendWaitTime = this.configuration.getSendWaitTime();
-        Thread.sleep(sendWaitTime);
-    }
-
-    private void closeTransport()
-    {
-        if (this.currentTransport != null) {
-            try {
-                this.currentTransport.close();
-            } catch (MessagingException e) {
-                this.logger.warn("Failed to close JavaMail Transport connection. Reason [{}]",
-                    ExceptionUtils.getRootCauseMessage(e));
-            }
+        try {
+            connection.close();
+        } catch (MessagingException e) {
+            this.logger.warn("Failed to close JavaMail Transport connection. Reason [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
         }
     }
 }
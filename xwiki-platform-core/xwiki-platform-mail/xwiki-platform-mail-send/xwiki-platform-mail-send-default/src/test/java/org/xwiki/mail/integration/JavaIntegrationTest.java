@@ -20,11 +20,15 @@
 package org.xwiki.mail.integration;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.inject.Provider;
 import javax.mail.BodyPart;
@@ -112,6 +116,8 @@ public void registerConfiguration() throws Exception
     {
         this.configuration = new TestMailSenderConfiguration(
             this.mail.getSmtp().getPort(), null, null, new Properties());
+        // Send the mails in parallel over several SMTP connections
+        this.configuration.setSendThreads(3);
         this.componentManager.registerComponent(MailSenderConfiguration.class, this.configuration);
 
         // Set the current wiki in the Context
@@ -196,6 +202,31 @@ public void sendTextMail() throws Exception
         // messages ;) But we chekced that we received 9 emails above so that's good enough.
     }
 
+    @Test
+    public void sendManyMails() throws Exception
+    {
+        Session session = Session.getInstance(this.configuration.getAllProperties());
+
+        List<MimeMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            MimeMessage message = new MimeMessage(session);
+            message.setSubject("subject" + i);
+            message.setRecipient(MimeMessage.RecipientType.TO, new InternetAddress("john" + i + "@doe.com"));
+            message.setText("some text here");
+            messages.add(message);
+        }
+
+        this.sender.sendAsynchronously(messages, session, null);
+
+        // Verify that all the mails have been received, whatever the sender thread that sent them
+        this.mail.waitForIncomingEmail(10000L, 20);
+        Set<String> subjects = new HashSet<>();
+        for (MimeMessage receivedMessage : this.mail.getReceivedMessages()) {
+            subjects.add(receivedMessage.getSubject());
+        }
+        assertEquals(20, subjects.size());
+    }
+
     @Test
     public void sendHTMLAndCalendarInvitationMail() throws Exception
     {
@@ -42,6 +42,8 @@ public class TestMailSenderConfiguration extends DefaultMailSenderConfiguration
 
     private List<String> bccAddresses = new ArrayList<>();
 
+    private int sendThreads = 1;
+
     public TestMailSenderConfiguration(int port, String username, String password, Properties additionalProperties)
     {
         this.port = port;
@@ -104,8 +106,19 @@ public long getSendWaitTime()
         return 0;
     }
 
+    @Override
+    public int getSendThreads()
+    {
+        return this.sendThreads;
+    }
+
     public void setBCCAddresses(List<String> addresses)
     {
         this.bccAddresses = addresses;
     }
+
+    public void setSendThreads(int sendThreads)
+    {
+        this.sendThreads = sendThreads;
+    }
 }
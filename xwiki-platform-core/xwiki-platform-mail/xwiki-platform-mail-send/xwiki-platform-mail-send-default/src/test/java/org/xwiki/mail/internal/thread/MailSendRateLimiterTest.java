@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.mail.internal.thread;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link MailSendRateLimiter}.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class MailSendRateLimiterTest
+{
+    @Test
+    public void acquire() throws Exception
+    {
+        MailSendRateLimiter limiter = new MailSendRateLimiter(2);
+
+        // The bucket is full at the beginning, no need to wait
+        long start = System.currentTimeMillis();
+        limiter.acquire(500L);
+        limiter.acquire(500L);
+        assertTrue(System.currentTimeMillis() - start < 400L);
+
+        // The bucket is empty, we need to wait for a new token
+        limiter.acquire(500L);
+        assertTrue(System.currentTimeMillis() - start >= 400L);
+    }
+
+    @Test
+    public void acquireWithoutThrottling() throws Exception
+    {
+        MailSendRateLimiter limiter = new MailSendRateLimiter(1);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 100; ++i) {
+            limiter.acquire(0L);
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000L);
+    }
+}
@@ -19,19 +19,35 @@
  */
 package org.xwiki.mail.internal;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.mail.MailStatus;
 import org.xwiki.mail.MailStatusStore;
 import org.xwiki.mail.MailStoreException;
@@ -43,6 +59,13 @@
 
 /**
  * Stores mail results in the database using Hibernate.
+ * <p>
+ * Since each mail goes through several states (prepared, then sent or failed) the statuses to save or delete are
+ * buffered and written in batches, in a single transaction. The buffer is written when it's full, when its oldest
+ * entry is too old (checked by a background thread) or before executing any query (so that the statuses returned by
+ * {@link #load(Map, int, int)} and {@link #count(Map)} are always up to date). The status changes stay in the buffer
+ * until they are successfully written. The buffer only holds copies of the statuses, so that the callers can modify
+ * the statuses they save or load while they are being written.
  *
  * @version $Id$
  * @since 6.4M3
@@ -50,10 +73,23 @@
 @Component
 @Named("database")
 @Singleton
-public class DatabaseMailStatusStore implements MailStatusStore
+public class DatabaseMailStatusStore implements MailStatusStore, Initializable, Disposable
 {
     private static final String ID_PARAMETER_NAME = "id";
 
+    /**
+     * Maximum number of pending status changes before they're written to the database.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Maximum time (in milliseconds) a status change is kept pending when other statuses are saved.
+     */
+    private static final long BATCH_MAX_DELAY = 1000L;
+
+    @Inject
+    private Logger logger;
+
     @Inject
     private Provider<XWikiContext> contextProvider;
 
@@ -61,33 +97,211 @@ public class DatabaseMailStatusStore implements MailStatusStore
     @Named("hibernate")
     private XWikiStoreInterface hibernateStore;
 
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * The status changes not yet written to the database, indexed by message id. A {@code null} value means that the
+     * status must be deleted. The statuses are never modified once added, a new status change replaces the entry.
+     */
+    private final Map<String, MailStatus> pendingStatuses = new LinkedHashMap<>();
+
+    /**
+     * The date of the oldest pending status change.
+     */
+    private long pendingSince;
+
+    /**
+     * The date before which the pending status changes are not written when other statuses are saved, because the
+     * last write failed.
+     */
+    private long retrySince;
+
+    /**
+     * Write the pending status changes which are too old when no other status is saved.
+     */
+    private ScheduledExecutorService flushThread;
+
+    /**
+     * Make sure only one thread writes the pending status changes at a time and that queries wait for the changes
+     * being written.
+     */
+    private final Object flushLock = new Object();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        BasicThreadFactory factory =
+            new BasicThreadFactory.Builder().namingPattern("Mail status store flush thread").daemon(true).build();
+        this.flushThread = Executors.newSingleThreadScheduledExecutor(factory);
+        this.flushThread.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                boolean shouldFlush;
+                synchronized (pendingStatuses) {
+                    shouldFlush = !pendingStatuses.isEmpty();
+                }
+
+                if (shouldFlush) {
+                    flushInContext();
+                }
+            }
+        }, BATCH_MAX_DELAY, BATCH_MAX_DELAY, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public void save(final MailStatus status, final Map<String, Object> parameters) throws MailStoreException
     {
-        XWikiHibernateBaseStore store = (XWikiHibernateBaseStore) this.hibernateStore;
+        addPendingStatus(status.getMessageId(), copy(status));
+    }
 
-        XWikiContext xwikiContext = this.contextProvider.get();
-        // Save in the main wiki
-        String currentWiki = xwikiContext.getWikiId();
-        xwikiContext.setWikiId(xwikiContext.getMainXWiki());
+    /**
+     * @param status the status to copy
+     * @return a copy of the passed status
+     */
+    private static MailStatus copy(MailStatus status)
+    {
+        MailStatus copy = new MailStatus();
+        copy.setMessageId(status.getMessageId());
+        copy.setBatchId(status.getBatchId());
+        copy.setState(status.getState());
+        copy.setDate(status.getDate() != null ? new Date(status.getDate().getTime()) : null);
+        copy.setRecipients(status.getRecipients());
+        copy.setType(status.getType());
+        copy.setErrorSummary(status.getErrorSummary());
+        copy.setErrorDescription(status.getErrorDescription());
+        copy.setWiki(status.getWiki());
 
-        try {
-            // Delete any previous state of the message
-            delete(status.getMessageId(), parameters);
+        return copy;
+    }
 
-            store.executeWrite(xwikiContext, new XWikiHibernateBaseStore.HibernateCallback<Object>()
-            {
-                @Override
-                public Object doInHibernate(Session session) throws HibernateException, XWikiException
+    private void addPendingStatus(String messageId, MailStatus status) throws MailStoreException
+    {
+        boolean shouldFlush;
+        synchronized (this.pendingStatuses) {
+            long now = System.currentTimeMillis();
+            if (this.pendingStatuses.isEmpty()) {
+                this.pendingSince = now;
+            }
+            // Any previous state of the message is replaced
+            this.pendingStatuses.remove(messageId);
+            this.pendingStatuses.put(messageId, status);
+
+            shouldFlush =
+                now >= this.retrySince
+                    && (this.pendingStatuses.size() >= BATCH_SIZE || now - this.pendingSince >= BATCH_MAX_DELAY);
+        }
+
+        if (shouldFlush) {
+            flush();
+        }
+    }
+
+    /**
+     * Write all the pending status changes to the database, in a single transaction.
+     *
+     * @throws MailStoreException when failing to write the status changes
+     */
+    public void flush() throws MailStoreException
+    {
+        synchronized (this.flushLock) {
+            final Map<String, MailStatus> statuses;
+            synchronized (this.pendingStatuses) {
+                if (this.pendingStatuses.isEmpty()) {
+                    return;
+                }
+                // Keep the statuses pending until they are written so that they are not lost if the write fails
+                statuses = new LinkedHashMap<>(this.pendingStatuses);
+            }
+
+            XWikiHibernateBaseStore store = (XWikiHibernateBaseStore) this.hibernateStore;
+
+            XWikiContext xwikiContext = this.contextProvider.get();
+            // Save in the main wiki
+            String currentWiki = xwikiContext.getWikiId();
+            xwikiContext.setWikiId(xwikiContext.getMainXWiki());
+
+            try {
+                store.executeWrite(xwikiContext, new XWikiHibernateBaseStore.HibernateCallback<Object>()
                 {
-                    session.save(status);
-                    return null;
+                    @Override
+                    public Object doInHibernate(Session session) throws HibernateException, XWikiException
+                    {
+                        // Delete any previous state of the messages
+                        String queryString =
+                            String.format("delete from %s where mail_id in (:ids)", MailStatus.class.getName());
+                        session.createQuery(queryString)
+                            .setParameterList("ids", new ArrayList<String>(statuses.keySet())).executeUpdate();
+
+                        for (MailStatus status : statuses.values()) {
+                            if (status != null) {
+                                session.save(status);
+                            }
+                        }
+
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                synchronized (this.pendingStatuses) {
+                    // Don't retry on each status change
+                    this.retrySince = System.currentTimeMillis() + BATCH_MAX_DELAY;
                 }
-            });
+
+                throw new MailStoreException(String.format("Failed to save mail statuses for messages %s to the "
+                    + "database.", statuses.keySet()), e);
+            } finally {
+                xwikiContext.setWikiId(currentWiki);
+            }
+
+            removePendingStatuses(statuses);
+        }
+    }
+
+    /**
+     * Remove the written status changes from the pending ones, unless the status of the message changed in the
+     * meantime. Each status change is a new copy, so comparing the instances is enough.
+     *
+     * @param statuses the written status changes
+     */
+    private void removePendingStatuses(Map<String, MailStatus> statuses)
+    {
+        synchronized (this.pendingStatuses) {
+            for (Map.Entry<String, MailStatus> entry : statuses.entrySet()) {
+                if (this.pendingStatuses.get(entry.getKey()) == entry.getValue()) {
+                    this.pendingStatuses.remove(entry.getKey());
+                }
+            }
+
+            this.retrySince = 0;
+            this.pendingSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Write the pending status changes from a thread which may not have any execution context.
+     */
+    private void flushInContext()
+    {
+        boolean contextCreated = false;
+        try {
+            if (this.execution.getContext() == null) {
+                this.executionContextManager.initialize(new ExecutionContext());
+                contextCreated = true;
+            }
+
+            flush();
         } catch (Exception e) {
-            throw new MailStoreException(String.format("Failed to save mail status [%s] to the database.", status), e);
+            this.logger.error("Failed to save the pending mail statuses to the database", e);
         } finally {
-            xwikiContext.setWikiId(currentWiki);
+            if (contextCreated) {
+                this.execution.removeContext();
+            }
         }
     }
 
@@ -95,6 +309,21 @@ public Object doInHibernate(Session session) throws HibernateException, XWikiExc
     public List<MailStatus> load(final Map<String, Object> filterMap, final int offset, final int count)
         throws MailStoreException
     {
+        // Looking for the status of a single message is very common (e.g. when updating the status of a mail) and can
+        // usually be answered without going to the database
+        if (filterMap.size() == 1 && filterMap.get(ID_PARAMETER_NAME) instanceof String) {
+            synchronized (this.pendingStatuses) {
+                String messageId = (String) filterMap.get(ID_PARAMETER_NAME);
+                if (this.pendingStatuses.containsKey(messageId)) {
+                    MailStatus status = this.pendingStatuses.get(messageId);
+                    return status != null && offset <= 0 ? Collections.singletonList(copy(status))
+                        : Collections.<MailStatus>emptyList();
+                }
+            }
+        }
+
+        flush();
+
         XWikiHibernateBaseStore store = (XWikiHibernateBaseStore) this.hibernateStore;
 
         final XWikiContext xwikiContext = this.contextProvider.get();
@@ -136,6 +365,8 @@ public List<MailStatus> doInHibernate(Session session)
     @Override
     public long count(final Map<String, Object> filterMap) throws MailStoreException
     {
+        flush();
+
         XWikiHibernateBaseStore store = (XWikiHibernateBaseStore) this.hibernateStore;
 
         final XWikiContext xwikiContext = this.contextProvider.get();
@@ -171,31 +402,16 @@ public Long doInHibernate(Session session)
     @Override
     public void delete(final String messageId, Map<String, Object> parameters) throws MailStoreException
     {
-        XWikiHibernateBaseStore store = (XWikiHibernateBaseStore) this.hibernateStore;
+        addPendingStatus(messageId, null);
+    }
 
-        XWikiContext xwikiContext = this.contextProvider.get();
-        // Delete from the main wiki
-        String currentWiki = xwikiContext.getWikiId();
-        xwikiContext.setWikiId(xwikiContext.getMainXWiki());
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.flushThread.shutdownNow();
 
-        try {
-            store.executeWrite(xwikiContext, new XWikiHibernateBaseStore.HibernateCallback<Object>()
-            {
-                @Override
-                public Object doInHibernate(Session session) throws HibernateException, XWikiException
-                {
-                    // Delete the message
-                    String queryString = String.format("delete from %s where mail_id=:id", MailStatus.class.getName());
-                    session.createQuery(queryString).setParameter(ID_PARAMETER_NAME, messageId).executeUpdate();
-                    return null;
-                }
-            });
-        } catch (Exception e) {
-            throw new MailStoreException(String.format("Failed to delete mail status (message id [%s]) "
-                + "from the database.", messageId), e);
-        } finally {
-            xwikiContext.setWikiId(currentWiki);
-        }
+        // Disposed components are not necessarily disposed from a thread having an execution context
+        flushInContext();
     }
 
     protected String computeQueryString(String prefix, Map<String, Object> filterMap)
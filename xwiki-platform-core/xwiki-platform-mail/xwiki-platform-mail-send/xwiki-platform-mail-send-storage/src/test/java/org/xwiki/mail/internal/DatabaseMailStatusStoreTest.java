@@ -19,14 +19,41 @@
  */
 package org.xwiki.mail.internal;
 
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import javax.inject.Provider;
+
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.mail.MailState;
+import org.xwiki.mail.MailStatus;
+import org.xwiki.mail.MailStoreException;
+import org.xwiki.test.annotation.BeforeComponent;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit tests for {@link DatabaseMailStatusStore}.
@@ -40,6 +67,42 @@
     public MockitoComponentMockingRule<DatabaseMailStatusStore> mocker =
         new MockitoComponentMockingRule<>(DatabaseMailStatusStore.class);
 
+    private XWikiHibernateStore hibernateStore = mock(XWikiHibernateStore.class);
+
+    private XWikiContext xcontext = mock(XWikiContext.class);
+
+    @BeforeComponent
+    public void registerComponents() throws Exception
+    {
+        this.mocker.registerComponent(XWikiStoreInterface.class, "hibernate", this.hibernateStore);
+
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getMainXWiki()).thenReturn("xwiki");
+    }
+
+    private MailStatus createStatus(String messageId, MailState state)
+    {
+        MailStatus status = new MailStatus();
+        status.setMessageId(messageId);
+        status.setState(state);
+
+        return status;
+    }
+
+    private void assertStatus(String expectedMessageId, String expectedState, List<MailStatus> statuses)
+    {
+        assertEquals(1, statuses.size());
+        assertEquals(expectedMessageId, statuses.get(0).getMessageId());
+        assertEquals(expectedState, statuses.get(0).getState());
+    }
+
+    @SuppressWarnings("unchecked")
+    private XWikiHibernateBaseStore.HibernateCallback<Object> anyCallback()
+    {
+        return any(XWikiHibernateBaseStore.HibernateCallback.class);
+    }
+
     @Test
     public void computeSelectQueryString() throws Exception
     {
@@ -61,4 +124,164 @@ public void computeCountQueryString() throws Exception
         assertEquals("select count(*) from org.xwiki.mail.MailStatus where mail_status like :status and "
             + "mail_wiki like :wiki", this.mocker.getComponentUnderTest().computeCountQueryString(filterMap));
     }
+
+    @Test
+    public void saveAndLoadPendingStatus() throws Exception
+    {
+        DatabaseMailStatusStore store = this.mocker.getComponentUnderTest();
+
+        MailStatus status = new MailStatus();
+        status.setMessageId("id");
+        status.setState(MailState.READY);
+        store.save(status, Collections.<String, Object>emptyMap());
+
+        Map<String, Object> filterMap = Collections.<String, Object>singletonMap("id", "id");
+        assertStatus("id", "ready", store.load(filterMap, 0, 0));
+
+        store.delete("id", Collections.<String, Object>emptyMap());
+        assertTrue(store.load(filterMap, 0, 0).isEmpty());
+
+        // The status changes are still pending, nothing has been written to the database yet
+        verifyZeroInteractions(this.mocker.<XWikiStoreInterface>getInstance(XWikiStoreInterface.class, "hibernate"));
+    }
+
+    @Test
+    public void flushKeepsStatusesWhenWriteFails() throws Exception
+    {
+        when(this.hibernateStore.executeWrite(any(XWikiContext.class), anyCallback())).thenThrow(
+            new XWikiException()).thenReturn(null);
+
+        DatabaseMailStatusStore store = this.mocker.getComponentUnderTest();
+
+        MailStatus status = createStatus("id", MailState.READY);
+        store.save(status, Collections.<String, Object>emptyMap());
+
+        try {
+            store.flush();
+            fail("The write should have failed");
+        } catch (MailStoreException expected) {
+            // Expected
+        }
+
+        // The status is still pending
+        Map<String, Object> filterMap = Collections.<String, Object>singletonMap("id", "id");
+        assertStatus("id", "ready", store.load(filterMap, 0, 0));
+
+        store.flush();
+        // Nothing is pending anymore
+        store.flush();
+
+        verify(this.hibernateStore, times(2)).executeWrite(any(XWikiContext.class), anyCallback());
+    }
+
+    @Test
+    public void flushKeepsStatusesChangedDuringTheWrite() throws Exception
+    {
+        final DatabaseMailStatusStore store = this.mocker.getComponentUnderTest();
+
+        final MailStatus sentStatus = createStatus("id", MailState.SENT);
+        when(this.hibernateStore.executeWrite(any(XWikiContext.class), anyCallback())).then(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                store.save(sentStatus, Collections.<String, Object>emptyMap());
+                return null;
+            }
+        });
+
+        store.save(createStatus("id", MailState.READY), Collections.<String, Object>emptyMap());
+        store.flush();
+
+        // The new status has not been written yet
+        Map<String, Object> filterMap = Collections.<String, Object>singletonMap("id", "id");
+        assertStatus("id", "sent", store.load(filterMap, 0, 0));
+        verify(this.hibernateStore, times(1)).executeWrite(any(XWikiContext.class), anyCallback());
+    }
+
+    @Test
+    public void flushKeepsStatusesModifiedInPlaceDuringTheWrite() throws Exception
+    {
+        final DatabaseMailStatusStore store = this.mocker.getComponentUnderTest();
+
+        // The status is modified in place and saved again while it's being written, like the mail listener does
+        final MailStatus status = createStatus("id", MailState.READY);
+        when(this.hibernateStore.executeWrite(any(XWikiContext.class), anyCallback())).then(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                status.setState(MailState.SENT);
+                store.save(status, Collections.<String, Object>emptyMap());
+                return null;
+            }
+        }).thenReturn(null);
+
+        store.save(status, Collections.<String, Object>emptyMap());
+        store.flush();
+
+        // The final state is still pending and is written by the next flush
+        Map<String, Object> filterMap = Collections.<String, Object>singletonMap("id", "id");
+        assertStatus("id", "sent", store.load(filterMap, 0, 0));
+        store.flush();
+        verify(this.hibernateStore, times(2)).executeWrite(any(XWikiContext.class), anyCallback());
+    }
+
+    @Test
+    public void pendingStatusesAreCopies() throws Exception
+    {
+        DatabaseMailStatusStore store = this.mocker.getComponentUnderTest();
+
+        MailStatus status = createStatus("id", MailState.READY);
+        status.setDate(new Date(1000));
+        status.setBatchId("batch");
+        status.setRecipients("john@doe.com");
+        status.setWiki("wiki");
+        store.save(status, Collections.<String, Object>emptyMap());
+
+        // Modifying a saved status has no effect until it's saved again
+        status.setState(MailState.SENT);
+        status.getDate().setTime(2000);
+
+        Map<String, Object> filterMap = Collections.<String, Object>singletonMap("id", "id");
+        MailStatus loadedStatus = store.load(filterMap, 0, 0).get(0);
+        assertNotSame(status, loadedStatus);
+        assertEquals("ready", loadedStatus.getState());
+        assertEquals(new Date(1000), loadedStatus.getDate());
+        assertEquals("batch", loadedStatus.getBatchId());
+        assertEquals("john@doe.com", loadedStatus.getRecipients());
+        assertEquals("wiki", loadedStatus.getWiki());
+
+        // Same for a loaded status
+        loadedStatus.setState(MailState.FAILED);
+        assertStatus("id", "ready", store.load(filterMap, 0, 0));
+    }
+
+    @Test
+    public void pendingStatusesAreWrittenInBackground() throws Exception
+    {
+        DatabaseMailStatusStore store = this.mocker.getComponentUnderTest();
+
+        store.save(createStatus("id", MailState.READY), Collections.<String, Object>emptyMap());
+
+        verify(this.hibernateStore, timeout(5000)).executeWrite(any(XWikiContext.class), anyCallback());
+        // The background thread has no execution context
+        verify(this.mocker.<ExecutionContextManager>getInstance(ExecutionContextManager.class), timeout(5000))
+            .initialize(any(ExecutionContext.class));
+        verify(this.mocker.<Execution>getInstance(Execution.class), timeout(5000)).removeContext();
+    }
+
+    @Test
+    public void disposeWritesPendingStatusesInContext() throws Exception
+    {
+        DatabaseMailStatusStore store = this.mocker.getComponentUnderTest();
+
+        store.save(createStatus("id", MailState.READY), Collections.<String, Object>emptyMap());
+        store.dispose();
+
+        verify(this.mocker.<ExecutionContextManager>getInstance(ExecutionContextManager.class)).initialize(
+            any(ExecutionContext.class));
+        verify(this.hibernateStore).executeWrite(any(XWikiContext.class), anyCallback());
+        verify(this.mocker.<Execution>getInstance(Execution.class)).removeContext();
+    }
 }
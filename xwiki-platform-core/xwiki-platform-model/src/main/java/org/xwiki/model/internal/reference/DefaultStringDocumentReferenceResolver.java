@@ -19,13 +19,19 @@
  */
 package org.xwiki.model.internal.reference;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 
 /**
@@ -33,6 +39,9 @@
  * component to resolve {@link DocumentReference} objects from their string representation. This implementation uses
  * fixed default values when parts of the Reference are missing in the string representation. Default values are
  * retrieved from the {@link org.xwiki.model.ModelConfiguration} class.
+ * <p>
+ * Since the result only depends on the string representation and the optional base reference, resolved references
+ * are kept in a bounded cache.
  * 
  * @version $Id$
  * @since 2.2M1
@@ -41,16 +50,53 @@
 @Singleton
 public class DefaultStringDocumentReferenceResolver implements DocumentReferenceResolver<String>
 {
+    /**
+     * The maximum number of resolved references to keep, the cache is emptied when it's reached.
+     */
+    private static final int CACHE_SIZE = 10000;
+
     /**
      * Default entity reference resolver used for resolution.
      */
     @Inject
     private EntityReferenceResolver<String> entityReferenceResolver;
 
+    @Inject
+    private EntityReferencePool pool;
+
+    private final Map<Pair<String, EntityReference>, DocumentReference> cache =
+        new ConcurrentHashMap<Pair<String, EntityReference>, DocumentReference>();
+
     @Override
     public DocumentReference resolve(String documentReferenceRepresentation, Object... parameters)
     {
-        return new DocumentReference(this.entityReferenceResolver.resolve(documentReferenceRepresentation,
-            EntityType.DOCUMENT, parameters));
+        // Only cache the common cases: no parameter or a single base reference
+        Pair<String, EntityReference> key = null;
+        if (documentReferenceRepresentation != null) {
+            if (parameters.length == 0) {
+                key = new ImmutablePair<String, EntityReference>(documentReferenceRepresentation, null);
+            } else if (parameters.length == 1 && parameters[0] instanceof EntityReference) {
+                key =
+                    new ImmutablePair<String, EntityReference>(documentReferenceRepresentation,
+                        (EntityReference) parameters[0]);
+            }
+        }
+
+        DocumentReference reference = key != null ? this.cache.get(key) : null;
+
+        if (reference == null) {
+            reference =
+                this.pool.intern(new DocumentReference(this.entityReferenceResolver.resolve(
+                    documentReferenceRepresentation, EntityType.DOCUMENT, parameters)));
+
+            if (key != null) {
+                if (this.cache.size() >= CACHE_SIZE) {
+                    this.cache.clear();
+                }
+                this.cache.put(key, reference);
+            }
+        }
+
+        return reference;
     }
 }
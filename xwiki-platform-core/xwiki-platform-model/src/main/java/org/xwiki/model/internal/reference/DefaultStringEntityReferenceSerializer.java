@@ -19,6 +19,9 @@
  */
 package org.xwiki.model.internal.reference;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.inject.Singleton;
 
 import static org.xwiki.model.internal.reference.StringReferenceSeparators.ESCAPES;
@@ -28,11 +31,14 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.PartialEntityReference;
 import org.xwiki.text.StringUtils;
 
 /**
  * Generate a string representation of an entity reference (eg "wiki:space.page" for a document reference in the "wiki"
  * Wiki, the "space" Space and the "page" Page).
+ * <p>
+ * The serialized form of a reference never changes (references are immutable) so it's kept in a bounded cache.
  * 
  * @version $Id$
  * @since 2.2M1
@@ -41,6 +47,37 @@
 @Singleton
 public class DefaultStringEntityReferenceSerializer extends AbstractStringEntityReferenceSerializer
 {
+    /**
+     * The maximum number of serialized references to keep, the cache is emptied when it's reached.
+     */
+    private static final int CACHE_SIZE = 10000;
+
+    private final Map<EntityReference, String> cache = new ConcurrentHashMap<EntityReference, String>();
+
+    @Override
+    public String serialize(EntityReference reference, Object... parameters)
+    {
+        // Extending classes can depend on the parameters or the context, and partial references have a special
+        // equality so only cache the result of this exact implementation for standard references
+        if (reference == null || getClass() != DefaultStringEntityReferenceSerializer.class
+            || reference instanceof PartialEntityReference) {
+            return super.serialize(reference, parameters);
+        }
+
+        String representation = this.cache.get(reference);
+
+        if (representation == null) {
+            representation = super.serialize(reference, parameters);
+
+            if (this.cache.size() >= CACHE_SIZE) {
+                this.cache.clear();
+            }
+            this.cache.put(reference, representation);
+        }
+
+        return representation;
+    }
+
     @Override
     protected void serializeEntityReference(EntityReference currentReference, StringBuilder representation,
         boolean isLastReference, Object... parameters)
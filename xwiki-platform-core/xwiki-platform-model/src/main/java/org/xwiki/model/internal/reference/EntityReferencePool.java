@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.model.internal.reference;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.PartialEntityReference;
+
+/**
+ * Optional pool of canonical {@link EntityReference} instances. When enabled (see the
+ * {@code model.reference.interning} property of xwiki.properties) equal references returned by the resolvers are the
+ * same instance which make {@link EntityReference#equals(Object)} return on the identity check most of the time and
+ * reduce the memory used by long lived collections of references.
+ * <p>
+ * References are only weakly held so the pool never prevents a reference from being garbage collected.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component(roles = EntityReferencePool.class)
+@Singleton
+public class EntityReferencePool implements Initializable
+{
+    /**
+     * The name of the property used to enable the pool.
+     */
+    private static final String PROPERTY_INTERNING = "model.reference.interning";
+
+    /**
+     * We want to make sure this component can be loaded and used even if there's no ConfigurationSource available
+     * in the system. This is why we lazy load the ConfigurationSource component.
+     */
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    private Logger logger;
+
+    private boolean enabled;
+
+    private final Map<EntityReference, WeakReference<EntityReference>> pool =
+        new WeakHashMap<EntityReference, WeakReference<EntityReference>>();
+
+    @Override
+    public void initialize()
+    {
+        try {
+            ConfigurationSource configuration =
+                this.componentManager.getInstance(ConfigurationSource.class, "xwikiproperties");
+            this.enabled = configuration.getProperty(PROPERTY_INTERNING, Boolean.FALSE);
+        } catch (ComponentLookupException e) {
+            this.logger.debug("Failed to load [{}]. Entity reference interning is disabled",
+                ConfigurationSource.class.getName(), e);
+        }
+    }
+
+    /**
+     * @return true if the references are actually interned
+     */
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    /**
+     * @param enabled true if the references should be interned
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+        if (!enabled) {
+            synchronized (this.pool) {
+                this.pool.clear();
+            }
+        }
+    }
+
+    /**
+     * @param <T> the type of the reference
+     * @param reference the reference to intern
+     * @return the canonical instance equal to the passed reference, or the passed reference itself if the pool is
+     *         disabled or it's the first time such reference is seen
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends EntityReference> T intern(T reference)
+    {
+        // Partial references have a special (non symmetric) equality and should never be shared
+        if (!this.enabled || reference == null || reference instanceof PartialEntityReference) {
+            return reference;
+        }
+
+        synchronized (this.pool) {
+            WeakReference<EntityReference> weakReference = this.pool.get(reference);
+            EntityReference canonical = weakReference != null ? weakReference.get() : null;
+
+            // A DocumentReference and a EntityReference of type DOCUMENT can be equal but are not interchangeable
+            if (canonical != null && canonical.getClass() == reference.getClass()) {
+                return (T) canonical;
+            }
+
+            this.pool.put(reference, new WeakReference<EntityReference>(reference));
+        }
+
+        return reference;
+    }
+
+    /**
+     * @return the number of references currently in the pool
+     */
+    public int size()
+    {
+        synchronized (this.pool) {
+            return this.pool.size();
+        }
+    }
+}
@@ -72,6 +72,12 @@ public class EntityReference implements Serializable, Cloneable, Comparable<Enti
      */
     private Map<String, Serializable> parameters;
 
+    /**
+     * Cached value of {@link #hashCode()}, 0 when not yet computed. References are immutable once built so the value
+     * only has to be reset by the (protected) setters used during construction.
+     */
+    private transient int hashCodeCache;
+
     /**
      * Clone an EntityReference.
      *
@@ -183,6 +189,7 @@ protected void setName(String name)
             throw new IllegalArgumentException("An Entity Reference name cannot be null or empty");
         }
         this.name = name;
+        this.hashCodeCache = 0;
     }
 
     /**
@@ -204,6 +211,7 @@ public final String getName()
     protected void setParent(EntityReference parent)
     {
         this.parent = parent;
+        this.hashCodeCache = 0;
     }
 
     /**
@@ -225,6 +233,7 @@ protected void setType(EntityType type)
             throw new IllegalArgumentException("An Entity Reference type cannot be null");
         }
         this.type = type;
+        this.hashCodeCache = 0;
     }
 
     /**
@@ -273,6 +282,7 @@ protected void setParameter(String name, Serializable value)
                 parameters = null;
             }
         }
+        this.hashCodeCache = 0;
     }
 
     /**
@@ -416,6 +426,11 @@ public boolean equals(Object obj)
 
         EntityReference ref = (EntityReference) obj;
 
+        // Cheap rejection when both hash codes are already known
+        if (this.hashCodeCache != 0 && ref.hashCodeCache != 0 && this.hashCodeCache != ref.hashCodeCache) {
+            return false;
+        }
+
         return name.equals(ref.name) && type.equals(ref.type)
             && (parent == null ? ref.parent == null : parent.equals(ref.parent))
             && (parameters == null ? ref.parameters == null : parameters.equals(ref.parameters));
@@ -424,12 +439,18 @@ public boolean equals(Object obj)
     @Override
     public int hashCode()
     {
-        return new HashCodeBuilder(3, 17)
-            .append(getName())
-            .append(getType())
-            .append(getParent())
-            .append(this.parameters)
-            .toHashCode();
+        int hash = this.hashCodeCache;
+        if (hash == 0) {
+            hash = new HashCodeBuilder(3, 17)
+                .append(getName())
+                .append(getType())
+                .append(getParent())
+                .append(this.parameters)
+                .toHashCode();
+            this.hashCodeCache = hash;
+        }
+
+        return hash;
     }
 
     @Override
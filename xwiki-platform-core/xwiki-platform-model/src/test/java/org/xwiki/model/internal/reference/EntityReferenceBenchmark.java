@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.model.internal.reference;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceValueProvider;
+
+/**
+ * JMH benchmark of the most common reference operations: resolving a document reference from a string, serializing
+ * it back and using it as a map key, with and without {@link EntityReferencePool interning}.
+ * <p>
+ * It is not executed during the build, run it with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main EntityReferenceBenchmark}.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EntityReferenceBenchmark
+{
+    private static final int DOCUMENTS = 1000;
+
+    @Param({"false", "true"})
+    private boolean interning;
+
+    private DefaultStringDocumentReferenceResolver resolver;
+
+    private DefaultStringEntityReferenceSerializer serializer;
+
+    private String[] representations = new String[DOCUMENTS];
+
+    private Map<DocumentReference, String> map = new HashMap<DocumentReference, String>();
+
+    @Setup
+    public void setUp()
+    {
+        DefaultStringEntityReferenceResolver entityResolver = new DefaultStringEntityReferenceResolver();
+        ReflectionUtils.setFieldValue(entityResolver, "provider", new EntityReferenceValueProvider()
+        {
+            @Override
+            public String getDefaultValue(EntityType type)
+            {
+                return type == EntityType.WIKI ? "xwiki" : type == EntityType.SPACE ? "Main" : "WebHome";
+            }
+        });
+
+        EntityReferencePool pool = new EntityReferencePool();
+        pool.setEnabled(this.interning);
+
+        this.resolver = new DefaultStringDocumentReferenceResolver();
+        ReflectionUtils.setFieldValue(this.resolver, "entityReferenceResolver", entityResolver);
+        ReflectionUtils.setFieldValue(this.resolver, "pool", pool);
+
+        this.serializer = new DefaultStringEntityReferenceSerializer();
+
+        for (int i = 0; i < DOCUMENTS; ++i) {
+            this.representations[i] = "wiki" + (i % 10) + ":Space" + (i % 100) + ".Page" + i;
+            this.map.put(new DocumentReference("wiki" + (i % 10), "Space" + (i % 100), "Page" + i),
+                this.representations[i]);
+        }
+    }
+
+    private String nextRepresentation()
+    {
+        return this.representations[ThreadLocalRandom.current().nextInt(DOCUMENTS)];
+    }
+
+    @Benchmark
+    public DocumentReference resolve()
+    {
+        return this.resolver.resolve(nextRepresentation());
+    }
+
+    @Benchmark
+    public String resolveAndSerialize()
+    {
+        return this.serializer.serialize(this.resolver.resolve(nextRepresentation()));
+    }
+
+    @Benchmark
+    public String resolveAndLookup()
+    {
+        return this.map.get(this.resolver.resolve(nextRepresentation()));
+    }
+
+    @Benchmark
+    public boolean resolveAndCompare()
+    {
+        return this.resolver.resolve(nextRepresentation()).equals(this.resolver.resolve(nextRepresentation()));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.model.internal.reference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.PartialEntityReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link EntityReferencePool}.
+ *
+ * @version $Id$
+ */
+public class EntityReferencePoolTest
+{
+    @Rule
+    public MockitoComponentMockingRule<EntityReferencePool> mocker =
+        new MockitoComponentMockingRule<EntityReferencePool>(EntityReferencePool.class);
+
+    @BeforeComponent
+    public void registerComponents() throws Exception
+    {
+        ConfigurationSource configuration =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("model.reference.interning", Boolean.FALSE)).thenReturn(Boolean.TRUE);
+    }
+
+    @Test
+    public void intern() throws Exception
+    {
+        EntityReferencePool pool = this.mocker.getComponentUnderTest();
+
+        assertTrue(pool.isEnabled());
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        assertSame(reference, pool.intern(reference));
+        assertSame(reference, pool.intern(new DocumentReference("wiki", "space", "page")));
+
+        // An equal reference of another class is not replaced
+        EntityReference entityReference = new EntityReference(reference);
+        assertSame(entityReference, pool.intern(entityReference));
+
+        // Partial references are never interned
+        PartialEntityReference partialReference = new PartialEntityReference("page", EntityType.DOCUMENT);
+        assertSame(partialReference, pool.intern(partialReference));
+    }
+
+    @Test
+    public void disabled() throws Exception
+    {
+        EntityReferencePool pool = this.mocker.getComponentUnderTest();
+        pool.setEnabled(false);
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        DocumentReference otherReference = new DocumentReference("wiki", "space", "page");
+        assertSame(reference, pool.intern(reference));
+        assertNotSame(reference, pool.intern(otherReference));
+        assertEquals(0, pool.size());
+    }
+}
@@ -46,4 +46,22 @@
      * @return the identifier of the network adapter implementation to use to actually send and receive network messages
      */
     String getNetworkAdapter();
+
+    /**
+     * @return the maximum size (in bytes) of the events waiting to be sent, 0 to send the events synchronously
+     * @since 7.1M1
+     */
+    long getSendQueueMaxSize();
+
+    /**
+     * @return the maximum number of milliseconds to wait for more events before sending a batch
+     * @since 7.1M1
+     */
+    long getBatchWindow();
+
+    /**
+     * @return the maximum size (in bytes, before compression) of a batch of events
+     * @since 7.1M1
+     */
+    int getBatchMaxSize();
 }
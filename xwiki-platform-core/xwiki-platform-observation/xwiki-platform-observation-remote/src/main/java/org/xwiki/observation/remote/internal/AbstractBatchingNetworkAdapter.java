@@ -0,0 +1,453 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.observation.remote.NetworkAdapter;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+
+/**
+ * Base class for the {@link NetworkAdapter}s sending the remote events in batches.
+ * <p>
+ * The events are serialized by the thread generating them and queued. A dedicated thread waits a few milliseconds for
+ * more events and sends them together in a compressed batch (see {@link RemoteEventBatchFormat}). The events are sent
+ * in the order they were generated. The size of the queue is limited: when it's full the threads generating events
+ * wait for the sender to catch up.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public abstract class AbstractBatchingNetworkAdapter implements NetworkAdapter, RemoteEventSenderMBean,
+    Initializable, Disposable
+{
+    /**
+     * The maximum number of milliseconds to wait for the queued events to be sent when stopping.
+     */
+    private static final long FLUSH_TIMEOUT = 10000;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    protected Logger logger;
+
+    /**
+     * Access {@link org.xwiki.observation.remote.RemoteObservationManager} configuration.
+     */
+    @Inject
+    private RemoteObservationManagerConfiguration configuration;
+
+    private long queueMaxSize;
+
+    private long batchWindow;
+
+    private int batchMaxSize;
+
+    /**
+     * The serialized events waiting to be sent, in order.
+     */
+    private final Deque<byte[]> queue = new ArrayDeque<byte[]>();
+
+    private long queuedBytes;
+
+    /**
+     * True when the sender took some events from the queue and did not finished sending them yet.
+     */
+    private boolean sending;
+
+    /**
+     * The number of threads waiting for the queue to be emptied.
+     */
+    private int flushRequests;
+
+    private boolean stopped;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = this.lock.newCondition();
+
+    private final Condition notFull = this.lock.newCondition();
+
+    private final Condition flushed = this.lock.newCondition();
+
+    private Thread senderThread;
+
+    private ObjectName objectName;
+
+    private final AtomicLong sentEvents = new AtomicLong();
+
+    private final AtomicLong sentBatches = new AtomicLong();
+
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    private final AtomicLong blockedSends = new AtomicLong();
+
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.queueMaxSize = this.configuration.getSendQueueMaxSize();
+        this.batchWindow = TimeUnit.MILLISECONDS.toNanos(this.configuration.getBatchWindow());
+        this.batchMaxSize = this.configuration.getBatchMaxSize();
+
+        if (this.queueMaxSize > 0) {
+            this.senderThread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runSender();
+                }
+            });
+            this.senderThread.setName("XWiki remote events sender [" + getName() + "]");
+            this.senderThread.setDaemon(true);
+            this.senderThread.start();
+        }
+
+        registerMBean();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        flush();
+
+        this.lock.lock();
+        try {
+            this.stopped = true;
+            this.notEmpty.signalAll();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        unregisterMBean();
+    }
+
+    /**
+     * @return the name of the network adapter, used to identify the sender thread and statistics
+     */
+    protected abstract String getName();
+
+    /**
+     * Actually send a batch of events to all the started channels.
+     *
+     * @param batch the batch to send
+     * @return false if the batch could not be sent to some of the channels
+     */
+    protected abstract boolean sendBatch(byte[] batch);
+
+    @Override
+    public void send(RemoteEventData remoteEvent)
+    {
+        byte[] record;
+        try {
+            // Serialize the event right away since its content could be modified after the event is sent
+            record = RemoteEventBatchFormat.serialize(remoteEvent);
+        } catch (IOException e) {
+            this.logger.error("Failed to serialize remote event [" + remoteEvent + "]", e);
+
+            return;
+        }
+
+        if (!enqueue(record)) {
+            // Synchronous sending
+            send(Collections.singletonList(record));
+        }
+    }
+
+    /**
+     * @param record the serialized event
+     * @return false if the event should be sent synchronously
+     */
+    private boolean enqueue(byte[] record)
+    {
+        this.lock.lock();
+        try {
+            if (this.senderThread == null || this.stopped) {
+                return false;
+            }
+
+            if (!this.queue.isEmpty() && this.queuedBytes + record.length > this.queueMaxSize) {
+                this.blockedSends.incrementAndGet();
+                try {
+                    do {
+                        this.notFull.await();
+                    } while (!this.stopped && !this.queue.isEmpty()
+                        && this.queuedBytes + record.length > this.queueMaxSize);
+                } catch (InterruptedException e) {
+                    // Don't loose the event, queue it anyway
+                    Thread.currentThread().interrupt();
+                }
+
+                if (this.stopped) {
+                    return false;
+                }
+            }
+
+            this.queue.add(record);
+            this.queuedBytes += record.length;
+            this.notEmpty.signal();
+
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until all the queued events are sent.
+     */
+    public void flush()
+    {
+        if (this.senderThread == null) {
+            return;
+        }
+
+        this.lock.lock();
+        try {
+            ++this.flushRequests;
+            this.notEmpty.signalAll();
+
+            long remaining = TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT);
+            while ((!this.queue.isEmpty() || this.sending) && !this.stopped && remaining > 0) {
+                remaining = this.flushed.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            --this.flushRequests;
+            this.lock.unlock();
+        }
+    }
+
+    private void runSender()
+    {
+        while (true) {
+            List<byte[]> batch;
+            try {
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                this.logger.warn("The remote events sender thread has been interrupted");
+
+                break;
+            }
+
+            if (batch == null) {
+                break;
+            }
+
+            try {
+                send(batch);
+            } finally {
+                this.lock.lock();
+                try {
+                    this.sending = false;
+                    if (this.queue.isEmpty()) {
+                        this.flushed.signalAll();
+                    }
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for events to send and take as many as possible within the batch window and maximum size.
+     *
+     * @return the events to send in the next batch, null if the sender is stopped
+     * @throws InterruptedException when the thread is interrupted
+     */
+    private List<byte[]> takeBatch() throws InterruptedException
+    {
+        this.lock.lock();
+        try {
+            while (this.queue.isEmpty()) {
+                if (this.stopped) {
+                    return null;
+                }
+                this.notEmpty.await();
+            }
+
+            // Give a chance to other events to join the batch
+            long remaining = this.batchWindow;
+            while (remaining > 0 && this.queuedBytes < this.batchMaxSize && this.flushRequests == 0
+                && !this.stopped) {
+                remaining = this.notEmpty.awaitNanos(remaining);
+            }
+
+            List<byte[]> batch = new ArrayList<byte[]>();
+            int batchSize = 0;
+            while (!this.queue.isEmpty()
+                && (batch.isEmpty() || batchSize + this.queue.peek().length <= this.batchMaxSize)) {
+                byte[] record = this.queue.poll();
+                batch.add(record);
+                batchSize += record.length;
+                this.queuedBytes -= record.length;
+            }
+
+            this.sending = true;
+            this.notFull.signalAll();
+
+            return batch;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void send(List<byte[]> records)
+    {
+        try {
+            byte[] batch = RemoteEventBatchFormat.createBatch(records);
+
+            this.logger.debug("Send batch of [{}] remote events ([{}] bytes)", records.size(), batch.length);
+
+            if (sendBatch(batch)) {
+                this.sentEvents.addAndGet(records.size());
+                this.sentBatches.incrementAndGet();
+                this.sentBytes.addAndGet(batch.length);
+            } else {
+                this.failedBatches.incrementAndGet();
+            }
+        } catch (Exception e) {
+            this.failedBatches.incrementAndGet();
+
+            this.logger.error("Failed to send a batch of [" + records.size() + "] remote events", e);
+        }
+    }
+
+    private void registerMBean()
+    {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name =
+                new ObjectName("org.xwiki:type=RemoteObservation,name=" + ObjectName.quote(getName()));
+            if (!mbs.isRegistered(name)) {
+                mbs.registerMBean(new StandardMBean(this, RemoteEventSenderMBean.class), name);
+                this.objectName = name;
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to register the remote events sender statistics against the JMX Server", e);
+        }
+    }
+
+    private void unregisterMBean()
+    {
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (Exception e) {
+                this.logger.warn("Failed to unregister the remote events sender statistics from the JMX Server", e);
+            }
+        }
+    }
+
+    @Override
+    public int getQueuedEvents()
+    {
+        this.lock.lock();
+        try {
+            return this.queue.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public long getQueuedBytes()
+    {
+        this.lock.lock();
+        try {
+            return this.queuedBytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public long getSentEvents()
+    {
+        return this.sentEvents.get();
+    }
+
+    @Override
+    public long getSentBatches()
+    {
+        return this.sentBatches.get();
+    }
+
+    @Override
+    public long getSentBytes()
+    {
+        return this.sentBytes.get();
+    }
+
+    @Override
+    public double getAverageBatchEvents()
+    {
+        long batches = this.sentBatches.get();
+
+        return batches > 0 ? (double) this.sentEvents.get() / batches : 0;
+    }
+
+    @Override
+    public double getAverageBatchSize()
+    {
+        long batches = this.sentBatches.get();
+
+        return batches > 0 ? (double) this.sentBytes.get() / batches : 0;
+    }
+
+    @Override
+    public long getBlockedSends()
+    {
+        return this.blockedSends.get();
+    }
+
+    @Override
+    public long getFailedBatches()
+    {
+        return this.failedBatches.get();
+    }
+}
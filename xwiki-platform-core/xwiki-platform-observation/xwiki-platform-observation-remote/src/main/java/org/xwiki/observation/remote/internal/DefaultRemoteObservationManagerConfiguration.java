@@ -40,6 +40,12 @@
 @Singleton
 public class DefaultRemoteObservationManagerConfiguration implements RemoteObservationManagerConfiguration
 {
+    private static final long DEFAULT_QUEUE_MAXSIZE = 16 * 1024 * 1024L;
+
+    private static final long DEFAULT_BATCH_WINDOW = 10;
+
+    private static final int DEFAULT_BATCH_MAXSIZE = 64 * 1024;
+
     /**
      * USed to access configuration storage.
      */
@@ -69,4 +75,22 @@ public String getNetworkAdapter()
     {
         return this.configurationSource.getProperty("observation.remote.networkadapter", "jgroups");
     }
+
+    @Override
+    public long getSendQueueMaxSize()
+    {
+        return this.configurationSource.getProperty("observation.remote.send.queueMaxSize", DEFAULT_QUEUE_MAXSIZE);
+    }
+
+    @Override
+    public long getBatchWindow()
+    {
+        return this.configurationSource.getProperty("observation.remote.send.batchWindow", DEFAULT_BATCH_WINDOW);
+    }
+
+    @Override
+    public int getBatchMaxSize()
+    {
+        return this.configurationSource.getProperty("observation.remote.send.batchMaxSize", DEFAULT_BATCH_MAXSIZE);
+    }
 }
@@ -0,0 +1,323 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.xwiki.observation.remote.RemoteEventData;
+
+/**
+ * The format of the batches of remote events sent on the network.
+ * <p>
+ * A batch starts with a magic number, the version of the format and some flags, followed by the (optionally deflated)
+ * list of events. Each event is stored as a record of its own so that it can be serialized as soon as it's sent (the
+ * source and data of an event are not supposed to be modified afterward) and so that an event which can't be read (for
+ * example because its class is not available on the receiving member) does not prevent reading the others. Strings,
+ * the most common sources and data, are written as is, other values fallback on Java serialization.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public final class RemoteEventBatchFormat
+{
+    /**
+     * The current version of the format.
+     */
+    public static final byte VERSION = 1;
+
+    private static final byte[] MAGIC = {'X', 'W', 'R', 'E'};
+
+    private static final int HEADER_LENGTH = MAGIC.length + 2;
+
+    /**
+     * The list of events is deflated.
+     */
+    private static final byte FLAG_COMPRESSED = 0x01;
+
+    /**
+     * Don't try to compress smaller batches.
+     */
+    private static final int COMPRESSION_THRESHOLD = 256;
+
+    private static final byte TYPE_NULL = 0;
+
+    private static final byte TYPE_STRING = 1;
+
+    private static final byte TYPE_SERIALIZABLE = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Resolve the classes with the context class loader first, to find the classes coming from extensions.
+     *
+     * @version $Id$
+     */
+    private static class ContextObjectInputStream extends ObjectInputStream
+    {
+        ContextObjectInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+        {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    // Fallback on the default behavior
+                }
+            }
+
+            return super.resolveClass(desc);
+        }
+    }
+
+    private RemoteEventBatchFormat()
+    {
+        // Utility class
+    }
+
+    /**
+     * @param remoteEvent the event to serialize
+     * @return the record representing the event in a batch
+     * @throws IOException when failing to serialize the event
+     */
+    public static byte[] serialize(RemoteEventData remoteEvent) throws IOException
+    {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(stream);
+
+        writeValue(remoteEvent.getEvent(), out);
+        writeValue(remoteEvent.getSource(), out);
+        writeValue(remoteEvent.getData(), out);
+
+        out.flush();
+
+        return stream.toByteArray();
+    }
+
+    /**
+     * @param record the record representing the event in a batch
+     * @return the event
+     * @throws IOException when failing to read the record
+     * @throws ClassNotFoundException when one of the classes of the event is not available
+     */
+    public static RemoteEventData deserialize(byte[] record) throws IOException, ClassNotFoundException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+        RemoteEventData remoteEvent = new RemoteEventData();
+        remoteEvent.setEvent(readValue(in));
+        remoteEvent.setSource(readValue(in));
+        remoteEvent.setData(readValue(in));
+
+        return remoteEvent;
+    }
+
+    /**
+     * @param records the records of the events to send, in order
+     * @return the batch
+     * @throws IOException when failing to write the batch
+     */
+    public static byte[] createBatch(List<byte[]> records) throws IOException
+    {
+        int size = 4;
+        for (byte[] record : records) {
+            size += 4 + record.length;
+        }
+
+        ByteArrayOutputStream bodyStream = new ByteArrayOutputStream(size);
+        DataOutputStream body = new DataOutputStream(bodyStream);
+        body.writeInt(records.size());
+        for (byte[] record : records) {
+            body.writeInt(record.length);
+            body.write(record);
+        }
+        body.flush();
+
+        byte flags = 0;
+        byte[] bodyBytes = bodyStream.toByteArray();
+        if (bodyBytes.length >= COMPRESSION_THRESHOLD) {
+            byte[] compressedBytes = deflate(bodyBytes);
+            // Not worth it if it's not smaller
+            if (compressedBytes.length < bodyBytes.length) {
+                bodyBytes = compressedBytes;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(HEADER_LENGTH + bodyBytes.length);
+        batch.write(MAGIC);
+        batch.write(VERSION);
+        batch.write(flags);
+        batch.write(bodyBytes);
+
+        return batch.toByteArray();
+    }
+
+    /**
+     * @param buffer the buffer containing the message
+     * @param offset the offset of the message in the buffer
+     * @param length the length of the message
+     * @return true if the message is a batch of events
+     */
+    public static boolean isBatch(byte[] buffer, int offset, int length)
+    {
+        if (buffer == null || length < HEADER_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; ++i) {
+            if (buffer[offset + i] != MAGIC[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param buffer the buffer containing the batch
+     * @param offset the offset of the batch in the buffer
+     * @param length the length of the batch
+     * @return the records of the events of the batch, in order
+     * @throws IOException when failing to read the batch
+     */
+    public static List<byte[]> readBatch(byte[] buffer, int offset, int length) throws IOException
+    {
+        if (!isBatch(buffer, offset, length)) {
+            throw new IOException("Not a batch of remote events");
+        }
+
+        byte version = buffer[offset + MAGIC.length];
+        if (version != VERSION) {
+            throw new IOException("Unsupported remote events batch format version [" + version + "]");
+        }
+
+        byte flags = buffer[offset + MAGIC.length + 1];
+
+        InputStream bodyStream =
+            new ByteArrayInputStream(buffer, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            bodyStream = new InflaterInputStream(bodyStream);
+        }
+
+        DataInputStream body = new DataInputStream(bodyStream);
+        try {
+            int count = body.readInt();
+            List<byte[]> records = new ArrayList<byte[]>(count);
+            for (int i = 0; i < count; ++i) {
+                byte[] record = new byte[body.readInt()];
+                body.readFully(record);
+                records.add(record);
+            }
+
+            return records;
+        } finally {
+            body.close();
+        }
+    }
+
+    private static byte[] deflate(byte[] bytes) throws IOException
+    {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(bytes.length / 4);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream out = new DeflaterOutputStream(stream, deflater);
+            out.write(bytes);
+            out.close();
+        } finally {
+            deflater.end();
+        }
+
+        return stream.toByteArray();
+    }
+
+    private static void writeValue(Serializable value, DataOutputStream out) throws IOException
+    {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeBytes(((String) value).getBytes(UTF8), out);
+        } else {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(stream);
+            objectOut.writeObject(value);
+            objectOut.close();
+
+            out.writeByte(TYPE_SERIALIZABLE);
+            writeBytes(stream.toByteArray(), out);
+        }
+    }
+
+    private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException
+    {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Serializable readValue(DataInputStream in) throws IOException, ClassNotFoundException
+    {
+        byte type = in.readByte();
+
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return new String(readBytes(in), UTF8);
+            case TYPE_SERIALIZABLE:
+                ObjectInputStream objectIn = new ContextObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+                try {
+                    return (Serializable) objectIn.readObject();
+                } finally {
+                    objectIn.close();
+                }
+            default:
+                throw new IOException("Unknown remote event value type [" + type + "]");
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+}
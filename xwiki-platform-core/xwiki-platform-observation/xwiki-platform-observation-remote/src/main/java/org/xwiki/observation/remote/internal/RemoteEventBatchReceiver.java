@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.observation.remote.RemoteObservationManager;
+
+/**
+ * Read the batches of events received by the network adapters and send the events, in order, to
+ * {@link RemoteObservationManager} to be converted and injected as local events.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component(roles = RemoteEventBatchReceiver.class)
+@Singleton
+public class RemoteEventBatchReceiver
+{
+    /**
+     * Used to send events for conversion. Lazily loaded to avoid cross-dependency issues.
+     */
+    @Inject
+    private Provider<RemoteObservationManager> remoteObservationManagerProvider;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * @param buffer the buffer containing the batch
+     * @param offset the offset of the batch in the buffer
+     * @param length the length of the batch
+     */
+    public void receive(byte[] buffer, int offset, int length)
+    {
+        List<byte[]> records;
+        try {
+            records = RemoteEventBatchFormat.readBatch(buffer, offset, length);
+        } catch (Exception e) {
+            this.logger.error("Failed to read a batch of remote events", e);
+
+            return;
+        }
+
+        this.logger.debug("Received batch of [{}] remote events", records.size());
+
+        RemoteObservationManager remoteObservationManager = this.remoteObservationManagerProvider.get();
+
+        for (byte[] record : records) {
+            RemoteEventData remoteEvent;
+            try {
+                remoteEvent = RemoteEventBatchFormat.deserialize(record);
+            } catch (Exception e) {
+                // Skip only this event, the others of the batch can still be injected
+                this.logger.warn("Failed to read a remote event: {}", e.getMessage());
+
+                continue;
+            }
+
+            this.logger.debug("Received remote event [{}]", remoteEvent);
+
+            try {
+                remoteObservationManager.notify(remoteEvent);
+            } catch (Exception e) {
+                this.logger.error("Failed to inject remote event [" + remoteEvent + "]", e);
+            }
+        }
+    }
+}
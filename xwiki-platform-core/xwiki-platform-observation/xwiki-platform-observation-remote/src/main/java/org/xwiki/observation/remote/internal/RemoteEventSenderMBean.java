@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal;
+
+/**
+ * Statistics about the sending of remote events, exposed through JMX.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public interface RemoteEventSenderMBean
+{
+    /**
+     * @return the number of events waiting to be sent
+     */
+    int getQueuedEvents();
+
+    /**
+     * @return the size (in bytes) of the events waiting to be sent
+     */
+    long getQueuedBytes();
+
+    /**
+     * @return the number of events sent since the application started
+     */
+    long getSentEvents();
+
+    /**
+     * @return the number of batches sent since the application started
+     */
+    long getSentBatches();
+
+    /**
+     * @return the size (in bytes, after compression) of the batches sent since the application started
+     */
+    long getSentBytes();
+
+    /**
+     * @return the average number of events in a batch
+     */
+    double getAverageBatchEvents();
+
+    /**
+     * @return the average size (in bytes, after compression) of a batch
+     */
+    double getAverageBatchSize();
+
+    /**
+     * @return the number of times a thread had to wait because too many events were waiting to be sent
+     */
+    long getBlockedSends();
+
+    /**
+     * @return the number of batches which failed to be sent
+     */
+    long getFailedBatches();
+}
@@ -30,6 +30,8 @@
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.observation.remote.RemoteEventData;
 import org.xwiki.observation.remote.RemoteObservationManager;
+import org.xwiki.observation.remote.internal.RemoteEventBatchFormat;
+import org.xwiki.observation.remote.internal.RemoteEventBatchReceiver;
 import org.xwiki.observation.remote.jgroups.JGroupsReceiver;
 
 /**
@@ -54,6 +56,12 @@ public class DefaultJGroupsReceiver extends ReceiverAdapter implements JGroupsRe
     @Inject
     private ComponentManager componentManager;
 
+    /**
+     * Used to read the batches of events.
+     */
+    @Inject
+    private RemoteEventBatchReceiver batchReceiver;
+
     /**
      * The logger to log.
      */
@@ -79,6 +87,13 @@ public RemoteObservationManager getRemoteObservationManager()
     @Override
     public void receive(Message msg)
     {
+        if (RemoteEventBatchFormat.isBatch(msg.getRawBuffer(), msg.getOffset(), msg.getLength())) {
+            this.batchReceiver.receive(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+
+            return;
+        }
+
+        // Single serialized event sent by a member running an older version
         RemoteEventData remoteEvent = (RemoteEventData) msg.getObject();
 
         this.logger.debug("Received JGroups remote event [{}]", remoteEvent);
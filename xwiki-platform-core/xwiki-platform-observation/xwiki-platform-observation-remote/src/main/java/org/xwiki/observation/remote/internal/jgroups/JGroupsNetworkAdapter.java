@@ -37,18 +37,17 @@
 import org.jgroups.conf.ProtocolStackConfigurator;
 import org.jgroups.conf.XmlConfigurator;
 import org.jgroups.jmx.JmxConfigurator;
-import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.environment.Environment;
 import org.xwiki.observation.remote.NetworkAdapter;
-import org.xwiki.observation.remote.RemoteEventData;
 import org.xwiki.observation.remote.RemoteEventException;
+import org.xwiki.observation.remote.internal.AbstractBatchingNetworkAdapter;
 import org.xwiki.observation.remote.jgroups.JGroupsReceiver;
 
 /**
- * JGroups based implementation of {@link NetworkAdapter}.
+ * JGroups based implementation of {@link NetworkAdapter}. The events are sent asynchronously in batches.
  *
  * @version $Id$
  * @since 2.0RC1
@@ -56,7 +55,7 @@
 @Component
 @Named("jgroups")
 @Singleton
-public class JGroupsNetworkAdapter implements NetworkAdapter
+public class JGroupsNetworkAdapter extends AbstractBatchingNetworkAdapter
 {
     /**
      * Relative path where to find jgroups channels configurations.
@@ -69,34 +68,37 @@ public class JGroupsNetworkAdapter implements NetworkAdapter
     @Inject
     private ComponentManager componentManager;
 
-    /**
-     * The logger to log.
-     */
-    @Inject
-    private Logger logger;
-
     /**
      * The network channels.
      */
     private Map<String, JChannel> channels = new ConcurrentHashMap<String, JChannel>();
 
     @Override
-    public void send(RemoteEventData remoteEvent)
+    protected String getName()
     {
-        this.logger.debug("Send JGroups remote event [" + remoteEvent + "]");
+        return "jgroups";
+    }
 
+    @Override
+    protected boolean sendBatch(byte[] batch)
+    {
         // Send the message to the whole group
-        Message message = new Message(null, null, remoteEvent);
+        Message message = new Message(null, batch);
+
+        boolean sent = true;
 
         // Send message to JGroups channels
         for (Map.Entry<String, JChannel> entry : this.channels.entrySet()) {
             try {
                 entry.getValue().send(message);
             } catch (Exception e) {
-                this.logger.error("Failed to send message [" + remoteEvent + "] to the channel [" + entry.getKey()
-                    + "]", e);
+                this.logger.error("Failed to send a batch of remote events to the channel [" + entry.getKey() + "]",
+                    e);
+                sent = false;
             }
         }
+
+        return sent;
     }
 
     @Override
@@ -136,6 +138,9 @@ public void stopChannel(String channelId) throws RemoteEventException
             throw new RemoteEventException(MessageFormat.format("Channel [{0}] is not started", channelId));
         }
 
+        // Make sure the events sent so far are not lost
+        flush();
+
         channel.close();
 
         this.channels.remove(channelId);
@@ -217,6 +222,9 @@ private ProtocolStackConfigurator loadChannelConfiguration(String channelId) thr
     @Override
     public void stopAllChannels() throws RemoteEventException
     {
+        // Make sure the events sent so far are not lost
+        flush();
+
         for (Map.Entry<String, JChannel> channelEntry : this.channels.entrySet()) {
             channelEntry.getValue().close();
         }
@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.loopback;
+
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.remote.NetworkAdapter;
+import org.xwiki.observation.remote.RemoteEventException;
+import org.xwiki.observation.remote.internal.AbstractBatchingNetworkAdapter;
+import org.xwiki.observation.remote.internal.RemoteEventBatchReceiver;
+
+/**
+ * In-JVM implementation of {@link NetworkAdapter}: the events are sent to the other loopback network adapters (usually
+ * living in other component managers) which started the same channel. Mostly useful to test the remote observation
+ * without any network.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component
+@Named("loopback")
+@Singleton
+public class LoopbackNetworkAdapter extends AbstractBatchingNetworkAdapter
+{
+    /**
+     * The members of each channel, shared by all the loopback network adapters of the JVM.
+     */
+    private static final Map<String, Set<LoopbackNetworkAdapter>> MEMBERS =
+        new ConcurrentHashMap<String, Set<LoopbackNetworkAdapter>>();
+
+    /**
+     * Used to inject the received events.
+     */
+    @Inject
+    private RemoteEventBatchReceiver batchReceiver;
+
+    /**
+     * The channels started by this network adapter.
+     */
+    private Set<String> channels = new CopyOnWriteArraySet<String>();
+
+    @Override
+    protected String getName()
+    {
+        return "loopback";
+    }
+
+    @Override
+    protected boolean sendBatch(byte[] batch)
+    {
+        for (String channelId : this.channels) {
+            Set<LoopbackNetworkAdapter> members = MEMBERS.get(channelId);
+            if (members != null) {
+                for (LoopbackNetworkAdapter member : members) {
+                    // Don't receive its own events
+                    if (member != this) {
+                        member.batchReceiver.receive(batch, 0, batch.length);
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void startChannel(String channelId) throws RemoteEventException
+    {
+        if (!this.channels.add(channelId)) {
+            throw new RemoteEventException(MessageFormat.format("Channel [{0}] already started", channelId));
+        }
+
+        synchronized (MEMBERS) {
+            Set<LoopbackNetworkAdapter> members = MEMBERS.get(channelId);
+            if (members == null) {
+                members = new CopyOnWriteArraySet<LoopbackNetworkAdapter>();
+                MEMBERS.put(channelId, members);
+            }
+            members.add(this);
+        }
+
+        this.logger.info("Channel [{}] started", channelId);
+    }
+
+    @Override
+    public void stopChannel(String channelId) throws RemoteEventException
+    {
+        if (!this.channels.contains(channelId)) {
+            throw new RemoteEventException(MessageFormat.format("Channel [{0}] is not started", channelId));
+        }
+
+        // Make sure the events sent so far are not lost
+        flush();
+
+        leave(channelId);
+
+        this.logger.info("Channel [{}] stopped", channelId);
+    }
+
+    @Override
+    public void stopAllChannels() throws RemoteEventException
+    {
+        // Make sure the events sent so far are not lost
+        flush();
+
+        for (String channelId : this.channels) {
+            leave(channelId);
+        }
+
+        this.logger.info("All channels stopped");
+    }
+
+    private void leave(String channelId)
+    {
+        this.channels.remove(channelId);
+
+        synchronized (MEMBERS) {
+            Set<LoopbackNetworkAdapter> members = MEMBERS.get(channelId);
+            if (members != null) {
+                members.remove(this);
+                if (members.isEmpty()) {
+                    MEMBERS.remove(channelId);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.internal.AbstractBatchingNetworkAdapter;
+import org.xwiki.observation.remote.test.AbstractROMTestCase;
+import org.xwiki.observation.remote.test.TestEvent;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Validate sharing events between two instances of {@link RemoteObservationManager} through the in-JVM loopback
+ * network adapter.
+ *
+ * @version $Id$
+ */
+public class LoopbackROMTest extends AbstractROMTestCase
+{
+    private static final int EVENTS = 500;
+
+    private RemoteObservationManager rom1;
+
+    private RemoteObservationManager rom2;
+
+    private final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        getConfigurationSource1().setProperty("observation.remote.networkadapter", "loopback");
+        getConfigurationSource2().setProperty("observation.remote.networkadapter", "loopback");
+
+        this.rom1 = getComponentManager1().getInstance(RemoteObservationManager.class);
+        this.rom1.startChannel("loopback");
+        this.rom2 = getComponentManager2().getInstance(RemoteObservationManager.class);
+        this.rom2.startChannel("loopback");
+
+        getObservationManager2().addListener(new EventListener()
+        {
+            @Override
+            public String getName()
+            {
+                return "remote";
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return Arrays.<Event>asList(new TestEvent());
+            }
+
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                received.add(source);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.rom1.stopChannel("loopback");
+        this.rom2.stopChannel("loopback");
+    }
+
+    /**
+     * Validate that many events are received by the other instance in the order they were sent.
+     */
+    @Test
+    public void testEventsOrder() throws Exception
+    {
+        List<Object> expected = new ArrayList<Object>();
+        for (int i = 0; i < EVENTS; ++i) {
+            String source = "source" + i;
+            expected.add(source);
+            getObservationManager1().notify(new TestEvent(), source, Arrays.asList(i));
+        }
+
+        // Wait for the queued events to be sent
+        AbstractBatchingNetworkAdapter networkAdapter =
+            getComponentManager1().getInstance(NetworkAdapter.class, "loopback");
+        networkAdapter.flush();
+
+        assertEquals(expected, this.received);
+        assertEquals(EVENTS, networkAdapter.getSentEvents());
+        assertEquals(0, networkAdapter.getQueuedEvents());
+    }
+}
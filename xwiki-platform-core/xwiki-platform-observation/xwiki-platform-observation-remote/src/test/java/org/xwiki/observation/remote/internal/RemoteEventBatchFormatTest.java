@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.observation.remote.test.TestEvent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link RemoteEventBatchFormat}.
+ *
+ * @version $Id$
+ */
+public class RemoteEventBatchFormatTest
+{
+    private RemoteEventData createEvent(String source, Integer data)
+    {
+        RemoteEventData remoteEvent = new RemoteEventData();
+        remoteEvent.setEvent(new TestEvent());
+        remoteEvent.setSource(source);
+        remoteEvent.setData(data);
+
+        return remoteEvent;
+    }
+
+    @Test
+    public void serializeAndDeserialize() throws Exception
+    {
+        RemoteEventData remoteEvent =
+            RemoteEventBatchFormat.deserialize(RemoteEventBatchFormat.serialize(createEvent("source", 42)));
+
+        assertEquals(new TestEvent(), remoteEvent.getEvent());
+        assertEquals("source", remoteEvent.getSource());
+        assertEquals(42, remoteEvent.getData());
+
+        remoteEvent = RemoteEventBatchFormat.deserialize(RemoteEventBatchFormat.serialize(new RemoteEventData()));
+
+        assertNull(remoteEvent.getEvent());
+        assertNull(remoteEvent.getSource());
+        assertNull(remoteEvent.getData());
+    }
+
+    @Test
+    public void createAndReadBatch() throws Exception
+    {
+        List<byte[]> records = new ArrayList<byte[]>();
+        int size = 0;
+        for (int i = 0; i < 100; ++i) {
+            byte[] record = RemoteEventBatchFormat.serialize(createEvent("source" + i, i));
+            records.add(record);
+            size += record.length;
+        }
+
+        byte[] batch = RemoteEventBatchFormat.createBatch(records);
+
+        // The events are very similar so the batch is compressed
+        assertTrue(batch.length < size / 2);
+
+        // Read the batch from the middle of a bigger buffer
+        byte[] buffer = new byte[batch.length + 20];
+        System.arraycopy(batch, 0, buffer, 10, batch.length);
+
+        assertTrue(RemoteEventBatchFormat.isBatch(buffer, 10, batch.length));
+
+        List<byte[]> readRecords = RemoteEventBatchFormat.readBatch(buffer, 10, batch.length);
+
+        assertEquals(records.size(), readRecords.size());
+        for (int i = 0; i < records.size(); ++i) {
+            assertArrayEquals(records.get(i), readRecords.get(i));
+        }
+    }
+
+    @Test
+    public void isBatch() throws Exception
+    {
+        assertFalse(RemoteEventBatchFormat.isBatch(null, 0, 0));
+        assertFalse(RemoteEventBatchFormat.isBatch(new byte[] {'X', 'W'}, 0, 2));
+        assertFalse(RemoteEventBatchFormat.isBatch(new byte[10], 0, 10));
+
+        byte[] batch = RemoteEventBatchFormat.createBatch(Arrays.asList(RemoteEventBatchFormat.serialize(
+            createEvent("source", 1))));
+
+        assertTrue(RemoteEventBatchFormat.isBatch(batch, 0, batch.length));
+    }
+}
@@ -1389,6 +1389,29 @@ public void saveDocument(XWikiDocument doc, String comment, XWikiContext context
 
     public void saveDocument(XWikiDocument document, String comment, boolean isMinorEdit, XWikiContext context)
         throws XWikiException
+    {
+        XWikiDocument originalDocument = saveDocumentWithoutSavedNotification(document, comment, isMinorEdit, context);
+
+        notifyDocumentSaved(document, originalDocument, context);
+    }
+
+    /**
+     * Same as {@link #saveDocument(XWikiDocument, String, boolean, XWikiContext)} except that the listeners are not
+     * notified that the document has been created or updated. It's up to the caller to do it with
+     * {@link #notifyDocumentSaved(XWikiDocument, XWikiDocument, XWikiContext)}, for example once the current store
+     * transaction is committed.
+     *
+     * @param document the document to save
+     * @param comment the comment of the new version of the document
+     * @param isMinorEdit true if the new version of the document is a minor edit
+     * @param context the XWiki context
+     * @return the version of the document before the save, to pass to
+     *         {@link #notifyDocumentSaved(XWikiDocument, XWikiDocument, XWikiContext)}
+     * @throws XWikiException when failing to save the document
+     * @since 7.1M1
+     */
+    public XWikiDocument saveDocumentWithoutSavedNotification(XWikiDocument document, String comment,
+        boolean isMinorEdit, XWikiContext context) throws XWikiException
     {
         String currentWiki = context.getWikiId();
 
@@ -1442,36 +1465,57 @@ public void saveDocument(XWikiDocument document, String comment, boolean isMinor
             // Actually save the document.
             getStore().saveXWikiDoc(document, context);
 
-            // Since the store#saveXWikiDoc resets originalDocument, we need to temporarily put it
-            // back to send notifications.
-            XWikiDocument newOriginal = document.getOriginalDocument();
+            return originalDocument;
+        } finally {
+            context.setWikiId(currentWiki);
+        }
+    }
 
-            try {
-                document.setOriginalDocument(originalDocument);
+    /**
+     * Notify the listeners that a document saved with
+     * {@link #saveDocumentWithoutSavedNotification(XWikiDocument, String, boolean, XWikiContext)} has been created or
+     * updated.
+     *
+     * @param document the saved document
+     * @param originalDocument the version of the document before the save
+     * @param context the XWiki context
+     * @since 7.1M1
+     */
+    public void notifyDocumentSaved(XWikiDocument document, XWikiDocument originalDocument, XWikiContext context)
+    {
+        String currentWiki = context.getWikiId();
 
-                // Notify listeners about the document having been created or updated
+        // Since the store#saveXWikiDoc resets originalDocument, we need to temporarily put it
+        // back to send notifications.
+        XWikiDocument newOriginal = document.getOriginalDocument();
 
-                // First the legacy notification mechanism
+        try {
+            // Switch to document wiki
+            context.setWikiId(document.getDocumentReference().getWikiReference().getName());
 
-                // Then the new observation module
-                // Note that for the moment the event being send is a bridge event, as we are still passing around
-                // an XWikiDocument as source and an XWikiContext as data.
-                // The old version is made available using doc.getOriginalDocument()
+            document.setOriginalDocument(originalDocument);
 
-                if (om != null) {
-                    if (originalDocument.isNew()) {
-                        om.notify(new DocumentCreatedEvent(document.getDocumentReference()), document, context);
-                    } else {
-                        om.notify(new DocumentUpdatedEvent(document.getDocumentReference()), document, context);
-                    }
+            ObservationManager om = getObservationManager();
+
+            // Notify listeners about the document having been created or updated
+
+            // Note that for the moment the event being send is a bridge event, as we are still passing around
+            // an XWikiDocument as source and an XWikiContext as data.
+            // The old version is made available using doc.getOriginalDocument()
+
+            if (om != null) {
+                if (originalDocument.isNew()) {
+                    om.notify(new DocumentCreatedEvent(document.getDocumentReference()), document, context);
+                } else {
+                    om.notify(new DocumentUpdatedEvent(document.getDocumentReference()), document, context);
                 }
-            } catch (Exception ex) {
-                LOGGER.error("Failed to send document save notification for document ["
-                    + this.defaultEntityReferenceSerializer.serialize(document.getDocumentReference()) + "]", ex);
-            } finally {
-                document.setOriginalDocument(newOriginal);
             }
+        } catch (Exception ex) {
+            LOGGER.error("Failed to send document save notification for document ["
+                + this.defaultEntityReferenceSerializer.serialize(document.getDocumentReference()) + "]", ex);
         } finally {
+            document.setOriginalDocument(newOriginal);
+
             context.setWikiId(currentWiki);
         }
     }
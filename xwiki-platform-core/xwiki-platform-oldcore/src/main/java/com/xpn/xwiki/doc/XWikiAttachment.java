@@ -701,6 +701,31 @@ public byte[] getContent(XWikiContext context) throws XWikiException
      * @since 2.3M2
      */
     public InputStream getContentInputStream(XWikiContext context) throws XWikiException
+    {
+        loadContent(context);
+
+        return this.attachment_content.getContentInputStream();
+    }
+
+    /**
+     * Retrieve the content of this attachment as an input stream starting at the passed position. When the content is
+     * stored in a file the bytes before the passed position are not read.
+     *
+     * @param offset the position of the first byte to read
+     * @param context current XWikiContext
+     * @return an InputStream to consume for receiving the content of this attachment starting at the passed position
+     * @throws XWikiException when an error occurs during wiki operation
+     * @throws IOException when failing to move to the passed position
+     * @since 7.1M1
+     */
+    public InputStream getContentInputStream(long offset, XWikiContext context) throws XWikiException, IOException
+    {
+        loadContent(context);
+
+        return this.attachment_content.getContentInputStream(offset);
+    }
+
+    private void loadContent(XWikiContext context) throws XWikiException
     {
         if (this.attachment_content == null && context != null) {
             if (Objects.equals(this.getVersion(), this.getLatestStoredVersion(context))) {
@@ -722,8 +747,6 @@ public InputStream getContentInputStream(XWikiContext context) throws XWikiExcep
                 }
             }
         }
-
-        return this.attachment_content.getContentInputStream();
     }
 
     /**
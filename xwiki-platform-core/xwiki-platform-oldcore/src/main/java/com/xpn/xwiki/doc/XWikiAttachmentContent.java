@@ -21,9 +21,11 @@
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.sql.Blob;
 
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.disk.DiskFileItem;
@@ -59,6 +61,9 @@ public class XWikiAttachmentContent implements Cloneable
     /** The owner document. */
     private XWikiDocument ownerDocument;
 
+    /** The database representation of the content, streamed from or to the database by the Hibernate store. */
+    private Blob contentBlob;
+
     /**
      * Constructor which clones an existing XWikiAttachmentContent. Used by {@link #clone()}.
      *
@@ -191,6 +196,31 @@ public void setContent(byte[] content)
         }
     }
 
+    /**
+     * This is used by Hibernate to stream the content from and to the database without loading it in memory.
+     *
+     * @return the database representation of the content, as set by the store before saving it or by Hibernate when
+     *         loading it
+     * @since 7.1M1
+     */
+    public Blob getContentBlob()
+    {
+        return this.contentBlob;
+    }
+
+    /**
+     * This is used by Hibernate to stream the content from and to the database without loading it in memory. The
+     * {@link Blob} is only valid while the transaction which produced it is open, the store is responsible for copying
+     * it with {@link #setContent(InputStream)} and resetting it.
+     *
+     * @param contentBlob the database representation of the content
+     * @since 7.1M1
+     */
+    public void setContentBlob(Blob contentBlob)
+    {
+        this.contentBlob = contentBlob;
+    }
+
     /**
      * @return which attachment (Metadata) this content belongs to.
      */
@@ -247,6 +277,46 @@ public InputStream getContentInputStream()
         }
     }
 
+    /**
+     * @param offset the position of the first byte to read
+     * @return an InputStream to read the binary content of this attachment starting at the passed position
+     * @throws IOException when failing to open the content or to move to the passed position
+     * @since 7.1M1
+     */
+    public InputStream getContentInputStream(long offset) throws IOException
+    {
+        if (this.file instanceof DiskFileItem && !this.file.isInMemory()) {
+            // Seek instead of reading the whole beginning of the file
+            return getContentInputStream(((DiskFileItem) this.file).getStoreLocation(), offset);
+        }
+
+        InputStream stream = getContentInputStream();
+        IOUtils.skipFully(stream, offset);
+
+        return stream;
+    }
+
+    /**
+     * @param file the file holding the content
+     * @param offset the position of the first byte to read
+     * @return an InputStream to read the passed file starting at the passed position
+     * @throws IOException when failing to open the file or to move to the passed position
+     * @since 7.1M1
+     */
+    protected static InputStream getContentInputStream(File file, long offset) throws IOException
+    {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            stream.getChannel().position(offset);
+        } catch (IOException e) {
+            stream.close();
+
+            throw e;
+        }
+
+        return new AutoCloseInputStream(stream);
+    }
+
     /**
      * Set the content of the attachment by writing to a provided OutputStream.
      * Content is *not* appended, this method clears the content and creates new content.
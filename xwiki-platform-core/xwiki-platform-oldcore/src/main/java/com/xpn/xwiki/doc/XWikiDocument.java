@@ -150,10 +150,12 @@
 import com.xpn.xwiki.internal.render.OldRendering;
 import com.xpn.xwiki.internal.xml.DOMXMLWriter;
 import com.xpn.xwiki.internal.xml.XMLWriter;
+import com.xpn.xwiki.monitor.api.MonitorPlugin;
 import com.xpn.xwiki.objects.BaseCollection;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.BaseObjectReference;
 import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.ElementInterface;
 import com.xpn.xwiki.objects.LargeStringProperty;
 import com.xpn.xwiki.objects.ListProperty;
 import com.xpn.xwiki.objects.ObjectDiff;
@@ -510,6 +512,13 @@ public void onUpdate()
      */
     private XWikiDocument originalDocument;
 
+    /**
+     * True when {@link #originalDocument} shares its objects and class with this document.
+     *
+     * @see #resetOriginalDocument()
+     */
+    private volatile boolean originalDocumentShared;
+
     /**
      * Used to display the title and the content of this document. Do not inject the component here to avoid any simple
      * new XWikiDocument to cause many useless initialization, in particular, during initialization of the stub context
@@ -976,6 +985,116 @@ public XWikiDocument getOriginalDocument()
     public void setOriginalDocument(XWikiDocument originalDocument)
     {
         this.originalDocument = originalDocument;
+        this.originalDocumentShared = false;
+    }
+
+    /**
+     * Make the current state of this document its original document.
+     * <p>
+     * Contrary to {@code setOriginalDocument(clone())}, the objects and the class are not copied: the original document
+     * shares them with this document until they are about to be modified (see {@link #materializeOriginalDocument()}).
+     * This is what's used when loading a document from the store since most loaded documents are never modified.
+     *
+     * @since 7.1M1
+     */
+    public void resetOriginalDocument()
+    {
+        this.originalDocument = cloneInternal(getDocumentReference(), true, true);
+        this.originalDocumentShared = true;
+    }
+
+    /**
+     * Make sure the original document does not share any object or class with this document anymore. This is
+     * automatically called by the objects and class of this document before they are modified.
+     *
+     * @see #resetOriginalDocument()
+     * @since 7.1M1
+     */
+    public void materializeOriginalDocument()
+    {
+        if (this.originalDocumentShared) {
+            synchronized (this) {
+                if (this.originalDocumentShared) {
+                    this.originalDocumentShared = false;
+                    this.originalDocument.cloneSharedElements();
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure the original document does not share the passed element with this document anymore. Only the object
+     * (or the class) containing the element is copied, the other objects stay shared. This is automatically called by
+     * the objects and class of this document before they are modified.
+     *
+     * @param element the element about to be modified
+     * @see #resetOriginalDocument()
+     * @since 7.1M1
+     */
+    public void materializeOriginalDocument(ElementInterface element)
+    {
+        if (this.originalDocumentShared) {
+            synchronized (this) {
+                if (this.originalDocumentShared) {
+                    // Find the object or class containing the element
+                    ElementInterface container = element;
+                    while (container instanceof PropertyInterface
+                        && ((PropertyInterface) container).getObject() != null) {
+                        container = ((PropertyInterface) container).getObject();
+                    }
+
+                    if (container instanceof BaseObject) {
+                        this.originalDocument.cloneSharedXObject((BaseObject) container);
+                    } else if (container == this.xClass && this.originalDocument.xClass == this.xClass) {
+                        this.originalDocument.setXClass(this.xClass.clone());
+                    } else if (!(container instanceof BaseClass)) {
+                        // Can't tell what is modified
+                        materializeOriginalDocument();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the passed object by a private copy if it's shared with another document.
+     *
+     * @param object the shared object
+     */
+    private void cloneSharedXObject(BaseObject object)
+    {
+        for (List<BaseObject> objects : this.xObjects.values()) {
+            for (int i = 0; i < objects.size(); ++i) {
+                if (objects.get(i) == object) {
+                    BaseObject newObject = object.clone();
+                    newObject.setOwnerDocument(this);
+                    objects.set(i, newObject);
+
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the objects and class shared with another document by private copies.
+     */
+    private void cloneSharedElements()
+    {
+        for (List<BaseObject> objects : this.xObjects.values()) {
+            for (int i = 0; i < objects.size(); ++i) {
+                BaseObject object = objects.get(i);
+                if (object != null) {
+                    BaseObject newObject = object.clone();
+                    newObject.setOwnerDocument(this);
+                    objects.set(i, newObject);
+                }
+            }
+        }
+
+        if (this.xClass != null) {
+            setXClass(this.xClass.clone());
+        }
     }
 
     /**
@@ -1133,15 +1252,28 @@ public String getRenderedContent(Syntax targetSyntax, boolean isolateVelocityMac
 
         String renderedContent = getRenderingCache().getRenderedContent(getDocumentReference(), content, context);
 
+        MonitorPlugin monitor = Util.getMonitorPlugin(context);
         if (renderedContent == null) {
-            DocumentDisplayerParameters parameters = new DocumentDisplayerParameters();
-            parameters.setTransformationContextIsolated(isolateVelocityMacros);
-            // Render the translated content (matching the current language) using this document's syntax.
-            parameters.setContentTranslated(tdoc != this);
-            parameters.setTargetSyntax(targetSyntax);
-            XDOM contentXDOM = getDocumentDisplayer().display(this, parameters);
-            renderedContent = renderXDOM(contentXDOM, targetSyntax);
-            getRenderingCache().setRenderedContent(getDocumentReference(), content, renderedContent, context);
+            if (monitor != null) {
+                monitor.incrementCounter("cache.rendering.miss");
+                monitor.startTimer("rendering", getPrefixedFullName());
+            }
+            try {
+                DocumentDisplayerParameters parameters = new DocumentDisplayerParameters();
+                parameters.setTransformationContextIsolated(isolateVelocityMacros);
+                // Render the translated content (matching the current language) using this document's syntax.
+                parameters.setContentTranslated(tdoc != this);
+                parameters.setTargetSyntax(targetSyntax);
+                XDOM contentXDOM = getDocumentDisplayer().display(this, parameters);
+                renderedContent = renderXDOM(contentXDOM, targetSyntax);
+                getRenderingCache().setRenderedContent(getDocumentReference(), content, renderedContent, context);
+            } finally {
+                if (monitor != null) {
+                    monitor.endTimer("rendering");
+                }
+            }
+        } else if (monitor != null) {
+            monitor.incrementCounter("cache.rendering.hit");
         }
 
         return renderedContent;
@@ -2758,6 +2890,21 @@ public void duplicateXObjects(XWikiDocument templatedoc)
         cloneXObjects(templatedoc, false);
     }
 
+    /**
+     * Reference the objects of the passed document in this document without copying them and without changing their
+     * owner document.
+     *
+     * @param sourceDocument the document sharing its objects
+     */
+    private void shareXObjects(XWikiDocument sourceDocument)
+    {
+        this.xObjects.clear();
+
+        for (Map.Entry<DocumentReference, List<BaseObject>> entry : sourceDocument.getXObjects().entrySet()) {
+            this.xObjects.put(entry.getKey(), new ArrayList<BaseObject>(entry.getValue()));
+        }
+    }
+
     /**
      * Copy specified document objects into current document.
      *
@@ -3785,7 +3932,7 @@ private void clone(XWikiDocument document)
     @Override
     public XWikiDocument clone()
     {
-        return cloneInternal(getDocumentReference(), true);
+        return cloneInternal(getDocumentReference(), true, false);
     }
 
     /**
@@ -3795,10 +3942,19 @@ public XWikiDocument clone()
      */
     public XWikiDocument duplicate(DocumentReference newDocumentReference)
     {
-        return cloneInternal(newDocumentReference, false);
+        return cloneInternal(newDocumentReference, false, false);
     }
 
-    private XWikiDocument cloneInternal(DocumentReference newDocumentReference, boolean keepsIdentity)
+    /**
+     * @param newDocumentReference the reference of the new document
+     * @param keepsIdentity true if the new document is an exact java copy of this document, false if it's a duplicate
+     *            with a different reference
+     * @param shareElements true if the new document should share the objects and class of this document instead of
+     *            copying them, only supported when keeping identity
+     * @return the new document
+     */
+    private XWikiDocument cloneInternal(DocumentReference newDocumentReference, boolean keepsIdentity,
+        boolean shareElements)
     {
         XWikiDocument doc = null;
         try {
@@ -3836,15 +3992,23 @@ private XWikiDocument cloneInternal(DocumentReference newDocumentReference, bool
             doc.setSyntax(getSyntax());
             doc.setHidden(isHidden());
 
-            if (this.xClass != null) {
-                doc.setXClass(this.xClass.clone());
-            }
-
-            if (keepsIdentity) {
+            if (shareElements) {
+                // Don't use setXClass since the class must keep this document as owner
+                doc.xClass = this.xClass;
+                doc.setXClassXML(getXClassXML());
+                doc.shareXObjects(this);
+                doc.cloneAttachments(this);
+            } else if (keepsIdentity) {
+                if (this.xClass != null) {
+                    doc.setXClass(this.xClass.clone());
+                }
                 doc.setXClassXML(getXClassXML());
                 doc.cloneXObjects(this);
                 doc.cloneAttachments(this);
             } else {
+                if (this.xClass != null) {
+                    doc.setXClass(this.xClass.clone());
+                }
                 doc.getXClass().setCustomMapping(null);
                 doc.duplicateXObjects(this);
                 doc.copyAttachments(this);
@@ -49,9 +49,20 @@ protected AbstractNotifyOnUpdateList(List<E> list)
     /** Called when the list is updated. The method will be called at least once, but may be called several times. */
     protected abstract void onUpdate();
 
+    /**
+     * Called before the list is updated. The method may be called even if the update finally does not modify the list.
+     *
+     * @since 7.1M1
+     */
+    protected void beforeUpdate()
+    {
+        // Nothing to do by default
+    }
+
     @Override
     public boolean add(E e)
     {
+        beforeUpdate();
         boolean ret = this.list.add(e);
         if (ret) {
             onUpdate();
@@ -62,6 +73,7 @@ public boolean add(E e)
     @Override
     public void add(int index, E element)
     {
+        beforeUpdate();
         this.list.add(index, element);
         onUpdate();
     }
@@ -69,6 +81,7 @@ public void add(int index, E element)
     @Override
     public boolean addAll(Collection<? extends E> c)
     {
+        beforeUpdate();
         boolean ret = this.list.addAll(c);
         if (ret) {
             onUpdate();
@@ -79,6 +92,7 @@ public boolean addAll(Collection<? extends E> c)
     @Override
     public boolean addAll(int index, Collection<? extends E> c)
     {
+        beforeUpdate();
         boolean ret = this.list.addAll(index, c);
         if (ret) {
             onUpdate();
@@ -89,6 +103,7 @@ public boolean addAll(int index, Collection<? extends E> c)
     @Override
     public void clear()
     {
+        beforeUpdate();
         this.list.clear();
         onUpdate();
     }
@@ -162,6 +177,7 @@ public ListIterator<E> listIterator(int index)
     @Override
     public E remove(int index)
     {
+        beforeUpdate();
         E ret = this.list.remove(index);
         onUpdate();
         return ret;
@@ -170,6 +186,7 @@ public E remove(int index)
     @Override
     public boolean remove(Object o)
     {
+        beforeUpdate();
         boolean ret = this.list.remove(o);
         if (ret) {
             onUpdate();
@@ -180,6 +197,7 @@ public boolean remove(Object o)
     @Override
     public boolean removeAll(Collection<?> c)
     {
+        beforeUpdate();
         boolean ret = this.list.removeAll(c);
         if (ret) {
             onUpdate();
@@ -190,6 +208,7 @@ public boolean removeAll(Collection<?> c)
     @Override
     public boolean retainAll(Collection<?> c)
     {
+        beforeUpdate();
         boolean ret = this.list.retainAll(c);
         if (ret) {
             onUpdate();
@@ -200,6 +219,7 @@ public boolean retainAll(Collection<?> c)
     @Override
     public E set(int index, E element)
     {
+        beforeUpdate();
         E ret = this.list.set(index, element);
         onUpdate();
         return ret;
@@ -221,6 +241,12 @@ public void onUpdate()
             {
                 AbstractNotifyOnUpdateList.this.onUpdate();
             }
+
+            @Override
+            protected void beforeUpdate()
+            {
+                AbstractNotifyOnUpdateList.this.beforeUpdate();
+            }
         };
     }
 
@@ -284,6 +310,7 @@ public E next()
         @Override
         public void remove()
         {
+            beforeUpdate();
             this.iterator.remove();
             onUpdate();
         }
@@ -311,6 +338,7 @@ public ListItr(ListIterator<E> iterator)
         @Override
         public void add(E e)
         {
+            beforeUpdate();
             this.iterator.add(e);
             onUpdate();
         }
@@ -342,6 +370,7 @@ public int previousIndex()
         @Override
         public void set(E e)
         {
+            beforeUpdate();
             this.iterator.set(e);
             onUpdate();
         }
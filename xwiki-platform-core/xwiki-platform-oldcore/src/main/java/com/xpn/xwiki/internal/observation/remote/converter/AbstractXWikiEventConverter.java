@@ -19,13 +19,24 @@
  */
 package com.xpn.xwiki.internal.observation.remote.converter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
 
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
@@ -34,6 +45,8 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
 import com.xpn.xwiki.util.XWikiStubContextProvider;
 
 /**
@@ -58,6 +71,14 @@ public abstract class AbstractXWikiEventConverter extends AbstractEventConverter
 
     private static final String ORIGDOC_LANGUAGE = "origdoclanguage";
 
+    private static final String DOC_XML = "docxml";
+
+    /**
+     * The configuration property containing the maximum size of the compressed XML of the document sent with the
+     * events.
+     */
+    private static final String XML_MAXSIZE_PROPERTY = "observation.remote.document.xmlMaxSize";
+
     /**
      * The logger to log.
      */
@@ -76,6 +97,13 @@ public abstract class AbstractXWikiEventConverter extends AbstractEventConverter
     @Inject
     private XWikiStubContextProvider stubContextProvider;
 
+    /**
+     * Used to get the maximum size of the document sent with the events.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private Provider<ConfigurationSource> configurationProvider;
+
     /**
      * @param context the XWiki context to serialize
      * @return the serialized version of the context
@@ -144,6 +172,11 @@ protected Serializable serializeXWikiDocument(XWikiDocument document)
         if (!document.isNew()) {
             remoteDataMap.put(DOC_VERSION, document.getVersion());
             remoteDataMap.put(DOC_LANGUAGE, document.getLanguage());
+
+            byte[] xml = serializeDocumentXML(document);
+            if (xml != null) {
+                remoteDataMap.put(DOC_XML, xml);
+            }
         }
 
         XWikiDocument originalDocument = document.getOriginalDocument();
@@ -156,6 +189,107 @@ protected Serializable serializeXWikiDocument(XWikiDocument document)
         return remoteDataMap;
     }
 
+    /**
+     * Serialize the complete document (not the changes) so that the other members of the cluster don't have to load
+     * it from the database.
+     *
+     * @param document the document to serialize
+     * @return the compressed XML of the document, null if it's disabled or if the document is too big
+     */
+    private byte[] serializeDocumentXML(XWikiDocument document)
+    {
+        int maxSize = this.configurationProvider.get().getProperty(XML_MAXSIZE_PROPERTY, 0);
+        if (maxSize <= 0) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            OutputStream gzipStream = new GZIPOutputStream(stream);
+            try {
+                document.toXML(gzipStream, true, false, false, false, getXWikiStubContext());
+            } finally {
+                gzipStream.close();
+            }
+
+            return stream.size() <= maxSize ? stream.toByteArray() : null;
+        } catch (Exception e) {
+            this.logger.warn("Failed to serialize document [{}]: {}", document.getDocumentReference(),
+                ExceptionUtils.getRootCauseMessage(e));
+
+            return null;
+        }
+    }
+
+    /**
+     * @param documentReference the reference of the document
+     * @param language the language of the document
+     * @param xml the compressed XML of the document
+     * @return the document, null if it could not be unserialized
+     */
+    private XWikiDocument unserializeDocumentXML(DocumentReference documentReference, String language, byte[] xml)
+    {
+        XWikiContext xcontext = getXWikiStubContext();
+
+        // The references in the XML are relative to the document wiki
+        String currentWiki = xcontext.getWikiId();
+        xcontext.setWikiId(documentReference.getWikiReference().getName());
+        try {
+            XWikiDocument document = new XWikiDocument(documentReference);
+            document.fromXML(new GZIPInputStream(new ByteArrayInputStream(xml)), false);
+
+            if (!documentReference.equals(document.getDocumentReference())
+                || !StringUtils.defaultString(language).equals(StringUtils.defaultString(document.getLanguage()))) {
+                return null;
+            }
+
+            // Make the document look like it has just been loaded from the database
+            document.setStore(xcontext.getWiki().getNotCacheStore());
+            document.setNew(false);
+            document.setMostRecent(true);
+            document.setContentDirty(false);
+            document.setMetaDataDirty(false);
+
+            return document;
+        } catch (Exception e) {
+            this.logger.warn("Failed to unserialize document [{}], loading it from the database: {}",
+                documentReference, ExceptionUtils.getRootCauseMessage(e));
+
+            return null;
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+
+    /**
+     * @param documentReference the reference of the document
+     * @param language the language of the document
+     * @param version the version of the document
+     * @return a copy of the document from the local document cache if it's the right version, null otherwise
+     */
+    private XWikiDocument getCachedDocument(DocumentReference documentReference, String language, String version)
+    {
+        XWikiContext xcontext = getXWikiStubContext();
+
+        XWikiStoreInterface store = xcontext.getWiki().getStore();
+        if (store instanceof XWikiCacheStore) {
+            Cache<XWikiDocument> cache = ((XWikiCacheStore) store).getCache();
+            if (cache != null) {
+                XWikiDocument document = new XWikiDocument(documentReference);
+                document.setLanguage(language);
+
+                XWikiDocument cachedDocument = cache.get(document.getKey());
+                if (cachedDocument != null && !cachedDocument.isNew()
+                    && StringUtils.equals(version, cachedDocument.getVersion())) {
+                    // The cached instance is shared: never modify it
+                    return cachedDocument.clone();
+                }
+            }
+        }
+
+        return null;
+    }
+
     protected XWikiDocument getDocument(DocumentReference documentReference, String language, String version)
         throws XWikiException
     {
@@ -190,18 +324,36 @@ protected XWikiDocument unserializeDocument(Serializable remoteData) throws XWik
         if (remoteDataMap.get(DOC_VERSION) == null) {
             doc = new XWikiDocument(docReference);
         } else {
-            doc =
-                getDocument(docReference, (String) remoteDataMap.get(DOC_LANGUAGE),
-                    (String) remoteDataMap.get(DOC_VERSION));
+            String language = (String) remoteDataMap.get(DOC_LANGUAGE);
+            String version = (String) remoteDataMap.get(DOC_VERSION);
+
+            // Try to avoid loading the document from the database: it might be sent with the event or already be in the
+            // local cache
+            doc = null;
+            if (remoteDataMap.get(DOC_XML) != null) {
+                doc = unserializeDocumentXML(docReference, language, (byte[]) remoteDataMap.get(DOC_XML));
+            }
+            if (doc == null) {
+                doc = getCachedDocument(docReference, language, version);
+            }
+            if (doc == null) {
+                doc = getDocument(docReference, language, version);
+            }
         }
 
         XWikiDocument origDoc;
         if (remoteDataMap.get(ORIGDOC_VERSION) == null) {
             origDoc = new XWikiDocument(docReference);
         } else {
-            origDoc =
-                getDocument(docReference, (String) remoteDataMap.get(ORIGDOC_LANGUAGE),
-                    (String) remoteDataMap.get(ORIGDOC_VERSION));
+            String language = (String) remoteDataMap.get(ORIGDOC_LANGUAGE);
+            String version = (String) remoteDataMap.get(ORIGDOC_VERSION);
+
+            // The previous version of the document is generally still in the local cache since the cache is cleaned
+            // by a listener of this event
+            origDoc = getCachedDocument(docReference, language, version);
+            if (origDoc == null) {
+                origDoc = getDocument(docReference, language, version);
+            }
         }
 
         doc.setOriginalDocument(origDoc);
@@ -19,7 +19,12 @@
  */
 package com.xpn.xwiki.internal.skin;
 
+import java.io.File;
 import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.inject.Provider;
 
@@ -36,6 +41,12 @@
  */
 public abstract class AbstractEnvironmentResource extends AbstractResource<InputSource>
 {
+    private static final String FILE_PROTOCOL = "file";
+
+    private static final String JAR_PROTOCOL = "jar";
+
+    private static final List<String> REMOTE_PROTOCOLS = Arrays.asList("http", "https", "ftp");
+
     protected Environment environment;
 
     public AbstractEnvironmentResource(String path, String resourceName, ResourceRepository repository,
@@ -56,4 +67,32 @@ public InputSource getInputSource()
 
         return null;
     }
+
+    @Override
+    public String getVersion() throws Exception
+    {
+        URL url = this.environment.getResource(getPath());
+        if (url == null) {
+            return null;
+        }
+
+        String protocol = url.getProtocol();
+
+        long lastModified;
+        if (FILE_PROTOCOL.equals(protocol)) {
+            lastModified = new File(url.toURI()).lastModified();
+        } else if (JAR_PROTOCOL.equals(protocol)) {
+            // A packaged resource can't change
+            lastModified = 0;
+        } else if (REMOTE_PROTOCOLS.contains(protocol)) {
+            // Don't access the network just to know if the resource changed
+            return null;
+        } else {
+            // Resources provided by the servlet container (e.g. jndi: in Tomcat)
+            URLConnection connection = url.openConnection();
+            lastModified = connection.getLastModified();
+        }
+
+        return String.valueOf(lastModified);
+    }
 }
@@ -71,4 +71,14 @@ public String getPath()
     {
         return this.path;
     }
+
+    /**
+     * @return an identifier of the current version of the resource content, null if it's unknown
+     * @throws Exception when failing to get the version of the resource
+     * @since 7.1M1
+     */
+    public String getVersion() throws Exception
+    {
+        return null;
+    }
 }
@@ -74,6 +74,15 @@ public I getInputSource() throws Exception
 
     protected abstract I getInputSourceInternal(XWikiDocument document) throws Exception;
 
+    @Override
+    public String getVersion() throws Exception
+    {
+        XWikiDocument document = getDocument();
+
+        // The version alone is not enough since the document could have been deleted and created again
+        return document.getVersion() + '/' + (document.getDate() != null ? document.getDate().getTime() : 0);
+    }
+
     @Override
     public String getURL(boolean forceSkinAction) throws Exception
     {
@@ -0,0 +1,368 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.skin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.XWikiEngineContext;
+
+/**
+ * Keep in memory the skin and resource files served from the filesystem, along with an entity tag and, when enabled, a
+ * gzipped copy. The files containing Velocity code are only remembered as dynamic, without their content.
+ * <p>
+ * The cache is bounded by the total size of the content it holds and the least recently used files are evicted first.
+ * The modification date of the files is checked again from time to time so that changes made to the skins or the webapp
+ * are taken into account.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component(roles = SkinResourceCache.class)
+@Singleton
+public class SkinResourceCache implements Initializable
+{
+    /**
+     * The maximum size (in bytes) of the content held by the cache, 0 to disable the cache.
+     */
+    private static final String MAXSIZE_PROPERTY = "xwiki.skin.resourcecache.maxsize";
+
+    /**
+     * Minimum number of seconds between two checks of the modification date of a cached file.
+     */
+    private static final String CHECKINTERVAL_PROPERTY = "xwiki.skin.resourcecache.checkinterval";
+
+    /**
+     * 1 to keep a gzipped copy of the cached files, disabled by default like for the skin extensions since the servlet
+     * container or a front proxy usually compresses the responses.
+     */
+    private static final String GZIP_PROPERTY = "xwiki.skin.resourcecache.gzip";
+
+    private static final long DEFAULT_MAXSIZE = 16 * 1024 * 1024L;
+
+    private static final long DEFAULT_CHECKINTERVAL = 5;
+
+    /**
+     * Files bigger than this fraction of the maximum size are not cached.
+     */
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    /**
+     * The result of the first read of a filesystem file.
+     *
+     * @version $Id$
+     */
+    public static final class Entry
+    {
+        private final boolean dynamic;
+
+        private final byte[] content;
+
+        private final byte[] gzipContent;
+
+        private final String etag;
+
+        private final Date lastModified;
+
+        private final long fileModified;
+
+        private volatile long lastChecked;
+
+        private Entry(boolean dynamic, byte[] content, byte[] gzipContent, Date lastModified, long fileModified)
+        {
+            this.dynamic = dynamic;
+            this.content = content;
+            this.gzipContent = gzipContent;
+            this.etag = content != null ? '"' + DigestUtils.md5Hex(content) + '"' : null;
+            this.lastModified = lastModified;
+            this.fileModified = fileModified;
+            this.lastChecked = System.currentTimeMillis();
+        }
+
+        /**
+         * @return true if the file contains Velocity code and has to be evaluated on each request
+         */
+        public boolean isDynamic()
+        {
+            return this.dynamic;
+        }
+
+        /**
+         * @return the content of the file, null for a dynamic file
+         */
+        public byte[] getContent()
+        {
+            return this.content;
+        }
+
+        /**
+         * @return the gzipped content of the file, null if the file is dynamic or not worth compressing
+         */
+        public byte[] getGzipContent()
+        {
+            return this.gzipContent;
+        }
+
+        /**
+         * @return the entity tag of the content, null for a dynamic file
+         */
+        public String getETag()
+        {
+            return this.etag;
+        }
+
+        /**
+         * @return the entity tag of the gzipped content, null if there is no gzipped content
+         */
+        public String getGzipETag()
+        {
+            return this.gzipContent != null ? this.etag.substring(0, this.etag.length() - 1) + "-gz\"" : null;
+        }
+
+        /**
+         * @return the date of the last modification of the file
+         */
+        public Date getLastModified()
+        {
+            return this.lastModified;
+        }
+
+        private int getSize()
+        {
+            return (this.content != null ? this.content.length : 0)
+                + (this.gzipContent != null ? this.gzipContent.length : 0);
+        }
+    }
+
+    @Inject
+    @Named("xwikicfg")
+    private ConfigurationSource xwikicfg;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The cached files, in access order.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+    /**
+     * The total size of the content held by the cache.
+     */
+    private long size;
+
+    private long maxSize;
+
+    private long checkInterval;
+
+    private boolean gzip;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.maxSize = this.xwikicfg.getProperty(MAXSIZE_PROPERTY, DEFAULT_MAXSIZE);
+        this.checkInterval = this.xwikicfg.getProperty(CHECKINTERVAL_PROPERTY, DEFAULT_CHECKINTERVAL) * 1000L;
+        this.gzip = this.xwikicfg.getProperty(GZIP_PROPERTY, 0) == 1;
+    }
+
+    /**
+     * @param path the path of the file in the webapp
+     * @return the cached file, null if the file is not cached or if it changed since it was cached
+     */
+    public Entry get(String path)
+    {
+        if (this.maxSize <= 0) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(path);
+        }
+
+        if (entry != null) {
+            long now = System.currentTimeMillis();
+            if (now - entry.lastChecked >= this.checkInterval) {
+                if (getFileModified(path) != entry.fileModified) {
+                    remove(path, entry);
+
+                    return null;
+                }
+                entry.lastChecked = now;
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Remember the content of a file which does not contain any Velocity code.
+     *
+     * @param path the path of the file in the webapp
+     * @param content the content of the file
+     * @param compressible true if it's worth keeping a gzipped copy of the content (when enabled)
+     * @param lastModified the date of the last modification of the file
+     * @return the new entry, null if the cache is disabled or the file is too big to be cached
+     */
+    public Entry setStatic(String path, byte[] content, boolean compressible, Date lastModified)
+    {
+        if (!isCacheable(content.length)) {
+            return null;
+        }
+
+        byte[] gzipContent = compressible && this.gzip ? gzip(content) : null;
+
+        Entry entry = new Entry(false, content, gzipContent, lastModified, getFileModified(path));
+
+        put(path, entry);
+
+        return entry;
+    }
+
+    /**
+     * Remember that a file contains Velocity code.
+     *
+     * @param path the path of the file in the webapp
+     */
+    public void setDynamic(String path)
+    {
+        if (this.maxSize <= 0) {
+            return;
+        }
+
+        put(path, new Entry(true, null, null, null, getFileModified(path)));
+    }
+
+    /**
+     * Remove all the cached files.
+     */
+    public void clear()
+    {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.size = 0;
+        }
+    }
+
+    private boolean isCacheable(long entrySize)
+    {
+        return this.maxSize > 0 && entrySize <= this.maxSize / MAX_ENTRY_FRACTION;
+    }
+
+    private void put(String path, Entry entry)
+    {
+        int entrySize = entry.getSize();
+        if (!isCacheable(entrySize)) {
+            return;
+        }
+
+        synchronized (this.entries) {
+            Entry previous = this.entries.put(path, entry);
+            if (previous != null) {
+                this.size -= previous.getSize();
+            }
+            this.size += entrySize;
+
+            // Evict the least recently used files
+            Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+            while (this.size > this.maxSize && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                if (eldest != entry) {
+                    it.remove();
+                    this.size -= eldest.getSize();
+                }
+            }
+        }
+    }
+
+    private void remove(String path, Entry entry)
+    {
+        synchronized (this.entries) {
+            if (this.entries.get(path) == entry) {
+                this.entries.remove(path);
+                this.size -= entry.getSize();
+            }
+        }
+    }
+
+    /**
+     * @param path the path of the file in the webapp
+     * @return the modification date of the file on the filesystem, 0 if it's not a file (for example when the webapp is
+     *         not extracted)
+     */
+    private long getFileModified(String path)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        XWikiEngineContext engineContext = xcontext != null ? xcontext.getEngineContext() : null;
+        if (engineContext != null) {
+            try {
+                String realPath = engineContext.getRealPath(path);
+                if (realPath != null) {
+                    return new File(realPath).lastModified();
+                }
+            } catch (Exception e) {
+                this.logger.debug("Failed to get the real path of [{}]", path, e);
+            }
+        }
+
+        return 0;
+    }
+
+    private byte[] gzip(byte[] content)
+    {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(content.length / 4);
+            GZIPOutputStream gzipStream = new GZIPOutputStream(stream);
+            gzipStream.write(content);
+            gzipStream.close();
+
+            byte[] gzipContent = stream.toByteArray();
+
+            // Not worth it if it's not smaller
+            return gzipContent.length < content.length ? gzipContent : null;
+        } catch (IOException e) {
+            this.logger.warn("Failed to compress skin resource: [{}]", e.getMessage());
+
+            return null;
+        }
+    }
+}
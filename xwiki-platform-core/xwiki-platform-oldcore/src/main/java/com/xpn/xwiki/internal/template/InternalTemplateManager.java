@@ -42,9 +42,15 @@
 import org.apache.commons.io.IOUtils;
 import org.apache.velocity.VelocityContext;
 import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.environment.Environment;
 import org.xwiki.filter.input.InputSource;
@@ -53,6 +59,9 @@
 import org.xwiki.filter.input.StringInputSource;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.properties.BeanManager;
 import org.xwiki.properties.ConverterManager;
 import org.xwiki.properties.PropertyException;
@@ -78,14 +87,21 @@
 import org.xwiki.skin.Skin;
 import org.xwiki.template.Template;
 import org.xwiki.template.TemplateContent;
+import org.xwiki.template.event.TemplateDeletedEvent;
+import org.xwiki.template.event.TemplateEvent;
+import org.xwiki.template.event.TemplateUpdatedEvent;
 import org.xwiki.velocity.VelocityEngine;
 import org.xwiki.velocity.VelocityManager;
 
 import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.internal.skin.AbstractEnvironmentResource;
+import com.xpn.xwiki.internal.skin.AbstractResource;
 import com.xpn.xwiki.internal.skin.InternalSkinManager;
 import com.xpn.xwiki.internal.skin.WikiResource;
+import com.xpn.xwiki.monitor.api.MonitorPlugin;
 import com.xpn.xwiki.user.api.XWikiRightService;
+import com.xpn.xwiki.util.Util;
 
 /**
  * Internal toolkit to experiment on templates.
@@ -95,10 +111,17 @@
  */
 @Component(roles = InternalTemplateManager.class)
 @Singleton
-public class InternalTemplateManager
+public class InternalTemplateManager implements Initializable
 {
     private static final Pattern PROPERTY_LINE = Pattern.compile("^##!(.+)=(.*)$\r?\n?", Pattern.MULTILINE);
 
+    /**
+     * The maximum number of templates to keep in memory, 0 to disable the cache.
+     */
+    private static final String CACHE_CAPACITY_PROPERTY = "xwiki.render.template.cache.capacity";
+
+    private static final int DEFAULT_CACHE_CAPACITY = 500;
+
     /**
      * The reference of the superadmin user.
      */
@@ -155,14 +178,42 @@
     @Inject
     private InternalSkinManager skins;
 
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private ObservationManager observation;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
     @Inject
     private Logger logger;
 
+    /**
+     * The templates already loaded (and possibly parsed) with the version of the resource they were loaded from,
+     * indexed by resource identifier.
+     */
+    private Cache<CachedTemplate> cache;
+
+    private static class CachedTemplate
+    {
+        private final String version;
+
+        private final Template template;
+
+        CachedTemplate(String version, Template template)
+        {
+            this.version = version;
+            this.template = template;
+        }
+    }
+
     private static abstract class AbtractTemplate<T extends TemplateContent, R extends Resource<?>> implements Template
     {
         protected R resource;
 
-        protected T content;
+        protected volatile T content;
 
         public AbtractTemplate(R resource)
         {
@@ -258,6 +309,12 @@ private class DefaultTemplateContent implements RawProperties, TemplateContent
         @PropertyId("raw.syntax")
         public Syntax rawSyntax;
 
+        /**
+         * The parsed content when the template is written in a wiki syntax. Shared by all the executions of the
+         * template so it should be cloned before being transformed.
+         */
+        protected volatile XDOM xdom;
+
         protected Map<String, Object> properties = new HashMap<String, Object>();
 
         public DefaultTemplateContent(String content)
@@ -407,6 +464,29 @@ public void setPrivileged(boolean privileged)
         }
     }
 
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int capacity = this.xwikicfg.getProperty(CACHE_CAPACITY_PROPERTY, DEFAULT_CACHE_CAPACITY);
+        if (capacity > 0) {
+            try {
+                this.cache = this.cacheManager.createNewCache(new LRUCacheConfiguration("templates", capacity));
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to initialize cache", e);
+            }
+
+            this.observation.addListener(new AbstractEventListener("templatecache", new TemplateUpdatedEvent(),
+                new TemplateDeletedEvent())
+            {
+                @Override
+                public void onEvent(Event event, Object source, Object data)
+                {
+                    InternalTemplateManager.this.cache.remove(((TemplateEvent) event).getId());
+                }
+            });
+        }
+    }
+
     private String getResourcePath(String suffixPath, String templateName, boolean testExist)
     {
         String templatePath = suffixPath + templateName;
@@ -510,7 +590,13 @@ private XDOM getXDOM(Template template, DefaultTemplateContent content) throws E
         XDOM xdom;
 
         if (content.sourceSyntax != null) {
-            xdom = this.parser.parse(content.content, content.sourceSyntax);
+            // Parse the template only once, the transformations are applied to a copy
+            XDOM parsedXDOM = content.xdom;
+            if (parsedXDOM == null) {
+                parsedXDOM = this.parser.parse(content.content, content.sourceSyntax);
+                content.xdom = parsedXDOM;
+            }
+            xdom = parsedXDOM.clone();
         } else {
             String result = evaluateContent(template, content);
             xdom = new XDOM(Arrays.asList(new RawBlock(result, content.rawSyntax)));
@@ -708,12 +794,21 @@ private void evaluateContent(Template template, DefaultTemplateContent content,
 
         VelocityEngine velocityEngine = this.velocityManager.getVelocityEngine();
 
+        MonitorPlugin monitor = Util.getMonitorPlugin(this.xcontextProvider.get());
+        if (monitor != null) {
+            monitor.startTimer("velocity", template.getId());
+        }
+
         velocityEngine.startedUsingMacroNamespace(namespace);
         try {
             velocityEngine.evaluate(velocityContext, writer, namespace, content.content);
         } finally {
             velocityEngine.stoppedUsingMacroNamespace(namespace);
 
+            if (monitor != null) {
+                monitor.endTimer("velocity");
+            }
+
             // Get rid of temporary rendering context
             if (renderingContextPushed) {
                 ((MutableRenderingContext) this.renderingContext).pop();
@@ -728,16 +823,26 @@ private Syntax getTargetSyntax()
         return targetSyntax != null ? targetSyntax : Syntax.PLAIN_1_0;
     }
 
-    private EnvironmentTemplate getFileSystemTemplate(String suffixPath, String templateName)
+    private Template getFileSystemTemplate(String suffixPath, String templateName)
     {
         String path = getResourcePath(suffixPath, templateName, true);
 
-        return path != null ? new EnvironmentTemplate(new TemplateEnvironmentResource(path, templateName,
-            this.environment)) : null;
+        return path != null ? createTemplate(new TemplateEnvironmentResource(path, templateName, this.environment))
+            : null;
     }
 
     private Template createTemplate(Resource<?> resource)
     {
+        String version = getVersion(resource);
+
+        // Reuse the template already loaded from the same version of the resource
+        if (version != null) {
+            CachedTemplate cachedTemplate = this.cache.get(resource.getId());
+            if (cachedTemplate != null && version.equals(cachedTemplate.version)) {
+                return cachedTemplate.template;
+            }
+        }
+
         Template template;
 
         if (resource instanceof AbstractEnvironmentResource) {
@@ -746,9 +851,30 @@ private Template createTemplate(Resource<?> resource)
             template = new DefaultTemplate(resource);
         }
 
+        if (version != null) {
+            this.cache.set(resource.getId(), new CachedTemplate(version, template));
+        }
+
         return template;
     }
 
+    /**
+     * @param resource the resource containing the template
+     * @return the current version of the resource, null if the template can't be cached
+     */
+    private String getVersion(Resource<?> resource)
+    {
+        if (this.cache != null && resource.getId() != null && resource instanceof AbstractResource) {
+            try {
+                return ((AbstractResource<?>) resource).getVersion();
+            } catch (Exception e) {
+                this.logger.debug("Failed to get the version of template resource [{}]", resource.getId(), e);
+            }
+        }
+
+        return null;
+    }
+
     public Template getResourceTemplate(String templateName, ResourceRepository repository)
     {
         Resource<?> resource = repository.getLocalResource(templateName);
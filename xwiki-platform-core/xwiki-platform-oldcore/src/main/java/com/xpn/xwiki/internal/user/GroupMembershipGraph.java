@@ -0,0 +1,389 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.user;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.user.api.XWikiRightService;
+import com.xpn.xwiki.user.impl.xwiki.XWikiGroupServiceImpl;
+
+/**
+ * Keep in memory the members of the groups of each wiki, in both directions: the groups a member is directly part of
+ * and the members of each group.
+ * <p>
+ * The groups of a wiki are loaded with a single query the first time they are needed and the graph is then kept up to
+ * date by applying the difference between the previous and the new members of a group each time a group document is
+ * saved or deleted, instead of reloading anything from the database. The graph is updated by
+ * {@link GroupMembershipGraphListener} and, before invalidating the rights of the members of a modified group, by the
+ * security cache invalidator so that the rights are never computed again from the previous members.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component(roles = GroupMembershipGraph.class)
+@Singleton
+public class GroupMembershipGraph
+{
+    private static final String MEMBERS_QUERY = "select doc.fullName, prop.value "
+        + "from XWikiDocument as doc, BaseObject as obj, StringProperty as prop "
+        + "where obj.name = doc.fullName and obj.className='XWiki.XWikiGroups' "
+        + "and obj.id = prop.id.id and prop.id.name='member'";
+
+    private static final String MEMBER_FIELD = "member";
+
+    private static final String USER_SPACE = "XWiki";
+
+    /**
+     * The groups of a wiki.
+     *
+     * @version $Id$
+     */
+    private static final class WikiGroups
+    {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /**
+         * The groups a member is directly part of, indexed by the member as it's stored in the group objects.
+         */
+        private final Map<String, Set<DocumentReference>> groupsByMember =
+            new HashMap<String, Set<DocumentReference>>();
+
+        /**
+         * The members of each group, as they're stored in the group objects.
+         */
+        private final Map<DocumentReference, Set<String>> membersByGroup =
+            new HashMap<DocumentReference, Set<String>>();
+
+        private boolean loaded;
+
+        private void addMember(DocumentReference group, String member)
+        {
+            Set<String> members = this.membersByGroup.get(group);
+            if (members == null) {
+                members = new HashSet<String>();
+                this.membersByGroup.put(group, members);
+            }
+            members.add(member);
+
+            addGroup(member, group);
+        }
+
+        private void addGroup(String member, DocumentReference group)
+        {
+            Set<DocumentReference> groups = this.groupsByMember.get(member);
+            if (groups == null) {
+                groups = new HashSet<DocumentReference>();
+                this.groupsByMember.put(member, groups);
+            }
+            groups.add(group);
+        }
+
+        private void removeGroup(String member, DocumentReference group)
+        {
+            Set<DocumentReference> groups = this.groupsByMember.get(member);
+            if (groups != null) {
+                groups.remove(group);
+                if (groups.isEmpty()) {
+                    this.groupsByMember.remove(member);
+                }
+            }
+        }
+
+        /**
+         * Apply the difference between the current and the new members of a group.
+         */
+        private void setMembers(DocumentReference group, Set<String> newMembers)
+        {
+            Set<String> oldMembers = this.membersByGroup.get(group);
+            if (oldMembers == null) {
+                oldMembers = Collections.emptySet();
+            }
+
+            for (String member : oldMembers) {
+                if (!newMembers.contains(member)) {
+                    removeGroup(member, group);
+                }
+            }
+
+            if (newMembers.isEmpty()) {
+                this.membersByGroup.remove(group);
+            } else {
+                for (String member : newMembers) {
+                    if (!oldMembers.contains(member)) {
+                        addGroup(member, group);
+                    }
+                }
+                this.membersByGroup.put(group, new HashSet<String>(newMembers));
+            }
+        }
+
+        private void getGroups(Collection<String> members, Collection<DocumentReference> result)
+        {
+            for (String member : members) {
+                Set<DocumentReference> groups = this.groupsByMember.get(member);
+                if (groups != null) {
+                    result.addAll(groups);
+                }
+            }
+        }
+    }
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    private final ConcurrentMap<String, WikiGroups> wikis = new ConcurrentHashMap<String, WikiGroups>();
+
+    /**
+     * @param member the user or group
+     * @param wiki the wiki where to look for groups
+     * @return the groups of the passed wiki the member is directly part of
+     * @throws QueryException when failing to load the groups of the wiki
+     */
+    public Collection<DocumentReference> getGroups(DocumentReference member, WikiReference wiki) throws QueryException
+    {
+        WikiGroups wikiGroups = getWikiGroups(wiki.getName());
+
+        Collection<DocumentReference> groups = new LinkedHashSet<DocumentReference>();
+
+        wikiGroups.lock.readLock().lock();
+        try {
+            wikiGroups.getGroups(getMemberNames(member, wiki), groups);
+        } finally {
+            wikiGroups.lock.readLock().unlock();
+        }
+
+        return groups;
+    }
+
+    /**
+     * @param member the user or group
+     * @param wiki the wiki where to look for groups
+     * @return the groups of the passed wiki the member is part of, directly or through other groups
+     * @throws QueryException when failing to load the groups of the wiki
+     */
+    public Collection<DocumentReference> getAllGroups(DocumentReference member, WikiReference wiki)
+        throws QueryException
+    {
+        WikiGroups wikiGroups = getWikiGroups(wiki.getName());
+
+        Set<DocumentReference> groups = new LinkedHashSet<DocumentReference>();
+        Deque<DocumentReference> toVisit = new ArrayDeque<DocumentReference>();
+        toVisit.add(member);
+
+        wikiGroups.lock.readLock().lock();
+        try {
+            Collection<DocumentReference> memberGroups = new HashSet<DocumentReference>();
+            while (!toVisit.isEmpty()) {
+                memberGroups.clear();
+                wikiGroups.getGroups(getMemberNames(toVisit.poll(), wiki), memberGroups);
+                for (DocumentReference group : memberGroups) {
+                    // Groups can be members of each other, make sure to visit each group only once
+                    if (groups.add(group)) {
+                        toVisit.add(group);
+                    }
+                }
+            }
+        } finally {
+            wikiGroups.lock.readLock().unlock();
+        }
+
+        groups.remove(member);
+
+        return groups;
+    }
+
+    /**
+     * Forget everything, the groups will be loaded again from the database the next time they are needed.
+     */
+    public void clear()
+    {
+        this.wikis.clear();
+    }
+
+    /**
+     * Forget the groups of a wiki.
+     *
+     * @param wiki the identifier of the wiki
+     */
+    public void removeWiki(String wiki)
+    {
+        this.wikis.remove(wiki);
+    }
+
+    /**
+     * @param member the user or group
+     * @param wiki the wiki where the groups are
+     * @return the different ways the member can be written in a group of the passed wiki, the same as the ones matched
+     *         by the {@code listGroupsForUser} and {@code listGroupsForUserInOtherWiki} named queries
+     */
+    private Collection<String> getMemberNames(DocumentReference member, WikiReference wiki)
+    {
+        String prefixedName = this.serializer.serialize(member);
+
+        if (member.getWikiReference().equals(wiki)
+            || (member.getLastSpaceReference().getName().equals(USER_SPACE) && member.getName().equals(
+                XWikiRightService.GUEST_USER))) {
+            return Arrays.asList(prefixedName, this.localSerializer.serialize(member), member.getName());
+        }
+
+        return Collections.singletonList(prefixedName);
+    }
+
+    private WikiGroups getWikiGroups(String wiki) throws QueryException
+    {
+        WikiGroups wikiGroups = this.wikis.get(wiki);
+        if (wikiGroups == null) {
+            wikiGroups = new WikiGroups();
+            WikiGroups existing = this.wikis.putIfAbsent(wiki, wikiGroups);
+            if (existing != null) {
+                wikiGroups = existing;
+            }
+        }
+
+        wikiGroups.lock.readLock().lock();
+        try {
+            if (wikiGroups.loaded) {
+                return wikiGroups;
+            }
+        } finally {
+            wikiGroups.lock.readLock().unlock();
+        }
+
+        wikiGroups.lock.writeLock().lock();
+        try {
+            if (!wikiGroups.loaded) {
+                load(wiki, wikiGroups);
+            }
+        } finally {
+            wikiGroups.lock.writeLock().unlock();
+        }
+
+        return wikiGroups;
+    }
+
+    private void load(String wiki, WikiGroups wikiGroups) throws QueryException
+    {
+        Query query = this.queryManager.createQuery(MEMBERS_QUERY, Query.HQL);
+        query.setWiki(wiki);
+
+        WikiReference wikiReference = new WikiReference(wiki);
+        Map<String, DocumentReference> groupReferences = new HashMap<String, DocumentReference>();
+        for (Object[] result : query.<Object[]>execute()) {
+            String groupName = (String) result[0];
+            String member = (String) result[1];
+            if (StringUtils.isNotEmpty(member)) {
+                DocumentReference group = groupReferences.get(groupName);
+                if (group == null) {
+                    group = this.resolver.resolve(groupName, wikiReference);
+                    groupReferences.put(groupName, group);
+                }
+                wikiGroups.addMember(group, member);
+            }
+        }
+
+        wikiGroups.loaded = true;
+    }
+
+    /**
+     * Apply the members of the passed document to the graph, if the document is a group or was a group. It's safe to
+     * call it several times for the same document.
+     *
+     * @param document the document which has just been created, updated or deleted
+     */
+    public void update(XWikiDocument document)
+    {
+        // The group objects are only stored in the default translation
+        if (document.getLocale() != null && !document.getLocale().equals(Locale.ROOT)) {
+            return;
+        }
+
+        DocumentReference group = document.getDocumentReference();
+        WikiGroups wikiGroups = this.wikis.get(group.getWikiReference().getName());
+        if (wikiGroups == null) {
+            // Not loaded yet, the change will be read from the database
+            return;
+        }
+
+        Set<String> newMembers = new HashSet<String>();
+        List<BaseObject> groupObjects = document.getXObjects(XWikiGroupServiceImpl.GROUPCLASS_REFERENCE);
+        if (groupObjects != null) {
+            for (BaseObject groupObject : groupObjects) {
+                if (groupObject != null) {
+                    String member = groupObject.getStringValue(MEMBER_FIELD);
+                    if (StringUtils.isNotEmpty(member)) {
+                        newMembers.add(member);
+                    }
+                }
+            }
+        }
+
+        wikiGroups.lock.writeLock().lock();
+        try {
+            // If the wiki is still being loaded the change will be read from the database
+            if (wikiGroups.loaded && (!newMembers.isEmpty() || wikiGroups.membersByGroup.containsKey(group))) {
+                wikiGroups.setMembers(group, newMembers);
+            }
+        } finally {
+            wikiGroups.lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.web;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Helpers for the conditional requests (If-None-Match and If-Modified-Since) sent by the clients which already have a
+ * copy of a resource.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public final class ConditionalRequestUtils
+{
+    /**
+     * What http header parameter is used by the client to send the entity tags it already has.
+     */
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /**
+     * What http header parameter is used by the client to send the date of the content it already has.
+     */
+    public static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+
+    /**
+     * The prefix of the weak entity tags.
+     */
+    private static final String WEAK_PREFIX = "W/";
+
+    /**
+     * Utility class.
+     */
+    private ConditionalRequestUtils()
+    {
+
+    }
+
+    /**
+     * Check if the client already has the content about to be sent. If-Modified-Since is ignored when If-None-Match is
+     * present, and entity tags are compared with the weak comparison function as If-None-Match requires.
+     *
+     * @param etag the entity tag of the response to send, including the quotes, null if none
+     * @param lastModified the date when the content to send was last modified, 0 or less if unknown
+     * @param request the current request
+     * @return true if the client already has the response content, in which case a 304 status should be sent
+     */
+    public static boolean isNotModified(String etag, long lastModified, HttpServletRequest request)
+    {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER);
+        if (ifNoneMatch != null) {
+            String opaqueETag = getOpaqueTag(etag);
+            for (String clientETag : StringUtils.split(ifNoneMatch, ',')) {
+                String trimmedETag = clientETag.trim();
+                if ("*".equals(trimmedETag) || (opaqueETag != null && opaqueETag.equals(getOpaqueTag(trimmedETag)))) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        if (lastModified > 0) {
+            try {
+                long ifModifiedSince = request.getDateHeader(IF_MODIFIED_SINCE_HEADER);
+                // HTTP dates have a precision of one second
+                return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+            } catch (IllegalArgumentException e) {
+                // Invalid date, ignore it
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param etag an entity tag
+     * @return the entity tag without its weakness indicator, null if the passed entity tag is null
+     */
+    private static String getOpaqueTag(String etag)
+    {
+        return StringUtils.removeStart(etag, WEAK_PREFIX);
+    }
+}
@@ -34,6 +34,11 @@
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(MonitorData.class);
 
+    /**
+     * The maximum number of timers kept in the tree of a request.
+     */
+    private static final int MAX_TIMERS = 10000;
+
     private URL url;
 
     private String wikiPage;
@@ -46,7 +51,14 @@
 
     private Date endTime;
 
-    private Map<String, MonitorTimer> timers = new HashMap<>();
+    /**
+     * The innermost running timer.
+     */
+    private MonitorTimer currentTimer;
+
+    private List<MonitorTimer> rootTimers = new ArrayList<>();
+
+    private int nbTimers;
 
     private Map<String, MonitorTimerSummary> timerSummaries = new HashMap<>();
 
@@ -136,22 +148,28 @@ public long getDuration(String timer)
 
     public void startTimer(String timername, String details)
     {
-
         if (this.startTime == null) {
             return;
         }
 
-        MonitorTimer timer;
-        timer = this.timers.get(timername);
-        if (timer != null) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("MONITOR: error recursive timers for " + timername);
+        MonitorTimer timer = new MonitorTimer(timername, details, this.currentTimer);
+        timer.setStartDate();
+
+        // Protect the memory against requests calling a timer in a loop: the extra timers are still counted in the
+        // summaries but are not kept in the tree
+        if (this.nbTimers < MAX_TIMERS) {
+            if (this.currentTimer == null) {
+                this.rootTimers.add(timer);
+            } else {
+                this.currentTimer.addChild(timer);
             }
-        } else {
-            timer = new MonitorTimer(timername, details);
-            timer.setStartDate();
-            this.timers.put(timername, timer);
+        } else if (this.nbTimers == MAX_TIMERS) {
+            LOGGER.debug("MONITOR: more than {} timers for {}, the next ones are not kept in the tree", MAX_TIMERS,
+                this.wikiPage);
         }
+        ++this.nbTimers;
+
+        this.currentTimer = timer;
     }
 
     public void startTimer(String timername)
@@ -161,8 +179,7 @@ public void startTimer(String timername)
 
     public void setTimerDetails(String timername, String details)
     {
-        MonitorTimer timer;
-        timer = this.timers.get(timername);
+        MonitorTimer timer = findRunningTimer(timername);
         if (timer == null) {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("MONITOR: could not find timer for " + timername);
@@ -173,34 +190,73 @@ public void setTimerDetails(String timername, String details)
     }
 
     public void endTimer(String timername)
+    {
+        stopTimer(timername);
+    }
+
+    /**
+     * End the innermost running timer with the passed name, along with the timers started after it and not ended.
+     *
+     * @param timername the name of the timer
+     * @return the ended timer, null if no running timer has this name
+     * @since 7.1M1
+     */
+    public MonitorTimer stopTimer(String timername)
     {
         if (this.startTime == null) {
-            return;
+            return null;
         }
 
-        MonitorTimer timer;
-        timer = this.timers.get(timername);
+        MonitorTimer timer = findRunningTimer(timername);
         if (timer == null) {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("MONITOR: could not find timer for " + timername);
             }
         } else {
+            // The timers started after this one and not ended are ended too, but are not counted in the summaries
+            for (MonitorTimer nestedTimer = this.currentTimer; nestedTimer != timer; nestedTimer =
+                nestedTimer.getParent()) {
+                nestedTimer.setEndDate();
+            }
+
             timer.setEndDate();
-            if (timer.getDetails() != null) {
+            if (timer.getDetails() != null && this.timerList.size() < MAX_TIMERS) {
                 this.timerList.add(timer);
             }
-            this.timers.remove(timername);
+            this.currentTimer = timer.getParent();
             MonitorTimerSummary tsummary = this.timerSummaries.get(timername);
             if (tsummary == null) {
                 tsummary = new MonitorTimerSummary(timername);
                 this.timerSummaries.put(timername, tsummary);
             }
-            tsummary.addTimer(timer.getDuration());
+            tsummary.addTimerNanos(timer.getDurationNanos());
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("MONITOR " + this.wikiPage + " " + this.action + " " + timer.getName() + ": "
                     + timer.getDuration() + "ms " + timer.getDetails());
             }
         }
+
+        return timer;
+    }
+
+    private MonitorTimer findRunningTimer(String timername)
+    {
+        for (MonitorTimer timer = this.currentTimer; timer != null; timer = timer.getParent()) {
+            if (timer.getName().equals(timername)) {
+                return timer;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the timers started while no other timer was running, with the timers they contain as children
+     * @since 7.1M1
+     */
+    public List<MonitorTimer> getTimerTree()
+    {
+        return this.rootTimers;
     }
 
     public List<MonitorTimer> getTimerList()
@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, used to compute latency percentiles with a bounded memory footprint.
+ * <p>
+ * The durations are recorded in microseconds in buckets whose width grows with the value (each power of two is split
+ * in {@value #SUB_BUCKETS} buckets), so that the relative error of a percentile is at most 12.5% whatever the
+ * duration.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class MonitorHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of buckets for each power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final double MICROSECONDS_IN_MILLISECOND = 1000D;
+
+    private static final double HUNDRED = 100D;
+
+    private final AtomicLongArray counts = new AtomicLongArray(Long.SIZE * SUB_BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param durationNanos the duration to record, in nanoseconds
+     */
+    public void record(long durationNanos)
+    {
+        long value = Math.max(0, TimeUnit.NANOSECONDS.toMicros(durationNanos));
+
+        this.counts.incrementAndGet(getBucket(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+
+        long currentMax = this.max.get();
+        while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long getCount()
+    {
+        return this.count.get();
+    }
+
+    /**
+     * @return the mean of the recorded durations, in milliseconds
+     */
+    public double getMean()
+    {
+        long currentCount = this.count.get();
+
+        return currentCount > 0 ? this.total.get() / MICROSECONDS_IN_MILLISECOND / currentCount : 0;
+    }
+
+    /**
+     * @return the highest recorded duration, in milliseconds
+     */
+    public double getMax()
+    {
+        return this.max.get() / MICROSECONDS_IN_MILLISECOND;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the duration under which the passed percentage of the recorded durations are, in milliseconds
+     */
+    public double getPercentile(double percentile)
+    {
+        long[] snapshot = new long[this.counts.length()];
+        long snapshotCount = 0;
+        for (int i = 0; i < snapshot.length; ++i) {
+            snapshot[i] = this.counts.get(i);
+            snapshotCount += snapshot[i];
+        }
+
+        if (snapshotCount == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(snapshotCount * Math.min(percentile, HUNDRED) / HUNDRED));
+        long cumulated = 0;
+        for (int i = 0; i < snapshot.length; ++i) {
+            cumulated += snapshot[i];
+            if (cumulated >= target) {
+                return Math.min(getBucketUpperBound(i), this.max.get()) / MICROSECONDS_IN_MILLISECOND;
+            }
+        }
+
+        return getMax();
+    }
+
+    private static int getBucket(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return (shift + 1) * SUB_BUCKETS + ((int) (value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long getBucketUpperBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the global statistics of the {@link MonitorPlugin} through JMX.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public interface MonitorMBean
+{
+    /**
+     * @return true if the statistics are being recorded
+     */
+    boolean isActive();
+
+    /**
+     * @param active true to record the statistics, false to stop recording them
+     */
+    void setActive(boolean active);
+
+    /**
+     * @return the number of requests which ended
+     */
+    long getRequests();
+
+    /**
+     * @return the total time spent in the requests which ended, in milliseconds
+     */
+    long getDuration();
+
+    /**
+     * @return the number of requests currently running
+     */
+    int getActiveRequests();
+
+    /**
+     * @return the value of the counters, by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return all the statistics in a plain text format that can be scraped by monitoring tools
+     */
+    String getMetrics();
+}
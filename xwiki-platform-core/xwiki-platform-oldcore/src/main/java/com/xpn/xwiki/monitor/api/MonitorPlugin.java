@@ -19,34 +19,66 @@
  */
 package com.xpn.xwiki.monitor.api;
 
+import java.lang.management.ManagementFactory;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.api.Api;
 import com.xpn.xwiki.plugin.XWikiDefaultPlugin;
+import com.xpn.xwiki.plugin.XWikiPluginInterface;
 
-public class MonitorPlugin extends XWikiDefaultPlugin
+public class MonitorPlugin extends XWikiDefaultPlugin implements MonitorMBean
 {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(MonitorPlugin.class);
 
-    private boolean bActive;
+    private static final String JMX_DOMAIN = "org.xwiki:type=";
+
+    private static final String[] PERCENTILES = {"0.5", "0.9", "0.99"};
+
+    private static final String COUNTER = "counter";
+
+    private static final String GAUGE = "gauge";
+
+    private static final String SUMMARY = "summary";
+
+    private volatile boolean bActive;
+
+    private final AtomicLong duration = new AtomicLong();
 
-    private long duration = 0;
+    private final AtomicLong nbrequests = new AtomicLong();
 
-    private long nbrequests = 0;
+    private MonitorHistogram requestHistogram = new MonitorHistogram();
 
-    private Map<String, MonitorTimerSummary> timerSummaries = new HashMap<>();
+    private ConcurrentMap<String, MonitorTimerSummary> timerSummaries = new ConcurrentHashMap<>();
+
+    private ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
 
     private CircularFifoQueue<MonitorData> lastTimerDataList = new CircularFifoQueue<>();
 
     private CircularFifoQueue<MonitorData> lastUnfinishedTimerDataList = new CircularFifoQueue<>();
 
-    private Map<Thread, MonitorData> activeTimerDataList = new HashMap<>();
+    private Map<Thread, MonitorData> activeTimerDataList = new ConcurrentHashMap<>();
+
+    /**
+     * The names under which the statistics are registered against the JMX server.
+     */
+    private final List<ObjectName> objectNames = new ArrayList<>();
 
     public MonitorPlugin(String name, String className, XWikiContext context)
     {
@@ -60,14 +92,22 @@ public void init(XWikiContext context)
         reset(context);
         long iActive = context.getWiki().ParamAsLong("xwiki.monitor", 0);
         setActive((iActive > 0));
+
+        if (isActive()) {
+            registerMBean(new StandardMBean(this, MonitorMBean.class, false), JMX_DOMAIN + "Monitor");
+        }
     }
 
     public void reset(XWikiContext context)
     {
-        this.timerSummaries = new HashMap<>();
-        this.activeTimerDataList = new HashMap<>();
-        this.duration = 0;
-        this.nbrequests = 0;
+        unregisterTimerMBeans();
+
+        this.timerSummaries = new ConcurrentHashMap<>();
+        this.counters = new ConcurrentHashMap<>();
+        this.activeTimerDataList = new ConcurrentHashMap<>();
+        this.duration.set(0);
+        this.nbrequests.set(0);
+        this.requestHistogram = new MonitorHistogram();
         long size = context.getWiki().ParamAsLong("xwiki.monitor.lastlistsize", 20);
         this.lastTimerDataList = new CircularFifoQueue<>((int) size);
         this.lastUnfinishedTimerDataList = new CircularFifoQueue<>((int) size);
@@ -79,6 +119,12 @@ public String getName()
         return "monitor";
     }
 
+    @Override
+    public Api getPluginApi(XWikiPluginInterface plugin, XWikiContext context)
+    {
+        return new MonitorPluginApi((MonitorPlugin) plugin, context);
+    }
+
     public void startRequest(String page, String action, URL url)
     {
         if (isActive() == false) {
@@ -109,7 +155,10 @@ public void startRequest(String page, String action, URL url)
 
     private void addToLastUnfinishedTimerDataList(MonitorData mdata)
     {
-        this.lastUnfinishedTimerDataList.add(mdata);
+        CircularFifoQueue<MonitorData> list = this.lastUnfinishedTimerDataList;
+        synchronized (list) {
+            list.add(mdata);
+        }
     }
 
     public void endRequest()
@@ -142,14 +191,15 @@ public void endRequest()
 
     private void removeFromActiveTimerDataList(Thread cthread)
     {
-        if (this.activeTimerDataList.containsKey(cthread)) {
-            this.activeTimerDataList.remove(cthread);
-        }
+        this.activeTimerDataList.remove(cthread);
     }
 
     private void addToTimerDataList(MonitorData mdata)
     {
-        this.lastTimerDataList.add(mdata);
+        CircularFifoQueue<MonitorData> list = this.lastTimerDataList;
+        synchronized (list) {
+            list.add(mdata);
+        }
     }
 
     public void setWikiPage(String page)
@@ -171,23 +221,40 @@ public void setWikiPage(String page)
     private void addTimerDuration(MonitorData mdata)
     {
         Map<String, MonitorTimerSummary> map = mdata.getTimerSummaries();
-        Map<String, MonitorTimerSummary> gmap = getTimerSummaries();
         Iterator<MonitorTimerSummary> it = map.values().iterator();
         while (it.hasNext()) {
             MonitorTimerSummary stimer = it.next();
-            MonitorTimerSummary gtimer = gmap.get(stimer.getName());
-            if (gtimer == null) {
-                gtimer = new MonitorTimerSummary(stimer.getName());
-                gmap.put(stimer.getName(), gtimer);
-            }
-            gtimer.add(stimer);
+            getTimerSummary(stimer.getName()).add(stimer);
         }
     }
 
     private void addDuration(long duration)
     {
-        this.duration += duration;
-        this.nbrequests++;
+        this.duration.addAndGet(duration);
+        this.nbrequests.incrementAndGet();
+        this.requestHistogram.record(TimeUnit.MILLISECONDS.toNanos(duration));
+    }
+
+    /**
+     * @param timername the name of the timer
+     * @return the global statistics of the timer, created and registered against the JMX server if needed
+     */
+    private MonitorTimerSummary getTimerSummary(String timername)
+    {
+        ConcurrentMap<String, MonitorTimerSummary> map = this.timerSummaries;
+        MonitorTimerSummary gtimer = map.get(timername);
+        if (gtimer == null) {
+            gtimer = new MonitorTimerSummary(timername);
+            MonitorTimerSummary existingTimer = map.putIfAbsent(timername, gtimer);
+            if (existingTimer != null) {
+                gtimer = existingTimer;
+            } else {
+                registerMBean(new StandardMBean(gtimer, MonitorTimerSummaryMBean.class, false),
+                    JMX_DOMAIN + "MonitorTimer,name=" + ObjectName.quote(timername));
+            }
+        }
+
+        return gtimer;
     }
 
     public CircularFifoQueue<MonitorData> getLastTimerData()
@@ -255,7 +322,10 @@ public void endTimer(String timername)
             Thread cthread = Thread.currentThread();
             MonitorData mdata = this.activeTimerDataList.get(cthread);
             if (mdata != null) {
-                mdata.endTimer(timername);
+                MonitorTimer timer = mdata.stopTimer(timername);
+                if (timer != null) {
+                    getTimerSummary(timername).record(timer.getDurationNanos());
+                }
             }
         } catch (Throwable e) {
             if (LOGGER.isDebugEnabled()) {
@@ -265,24 +335,114 @@ public void endTimer(String timername)
         }
     }
 
+    /**
+     * Record a call measured outside of a request, typically by a background thread (indexing, mail sending, etc.).
+     *
+     * @param timername the name of the timer
+     * @param durationNanos the duration of the call, in nanoseconds
+     * @since 7.1M1
+     */
+    public void recordTimer(String timername, long durationNanos)
+    {
+        if (isActive()) {
+            getTimerSummary(timername).recordCall(durationNanos);
+        }
+    }
+
+    /**
+     * Increment a counter (e.g. a cache hit).
+     *
+     * @param countername the name of the counter
+     * @since 7.1M1
+     */
+    public void incrementCounter(String countername)
+    {
+        addToCounter(countername, 1);
+    }
+
+    /**
+     * Add a value to a counter (e.g. the number of documents waiting to be indexed).
+     *
+     * @param countername the name of the counter
+     * @param delta the value to add, can be negative
+     * @since 7.1M1
+     */
+    public void addToCounter(String countername, long delta)
+    {
+        if (isActive() == false) {
+            return;
+        }
+
+        ConcurrentMap<String, AtomicLong> map = this.counters;
+        AtomicLong counter = map.get(countername);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong existingCounter = map.putIfAbsent(countername, counter);
+            if (existingCounter != null) {
+                counter = existingCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * @param countername the name of the counter
+     * @return the value of the counter
+     * @since 7.1M1
+     */
+    public long getCounter(String countername)
+    {
+        AtomicLong counter = this.counters.get(countername);
+
+        return counter != null ? counter.get() : 0;
+    }
+
+    @Override
+    public Map<String, Long> getCounters()
+    {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : this.counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+
+        return result;
+    }
+
     public Map<Thread, MonitorData> getActiveTimerData()
     {
         return this.activeTimerDataList;
     }
 
+    @Override
+    public int getActiveRequests()
+    {
+        return this.activeTimerDataList.size();
+    }
+
     public Map<String, MonitorTimerSummary> getTimerSummaries()
     {
         return this.timerSummaries;
     }
 
+    @Override
     public long getDuration()
     {
-        return this.duration;
+        return this.duration.get();
     }
 
+    @Override
     public long getRequests()
     {
-        return this.nbrequests;
+        return this.nbrequests.get();
+    }
+
+    /**
+     * @return the distribution of the requests durations
+     * @since 7.1M1
+     */
+    public MonitorHistogram getRequestHistogram()
+    {
+        return this.requestHistogram;
     }
 
     public long getDuration(String timer)
@@ -315,11 +475,143 @@ public long getRequests(String timer)
         }
     }
 
+    /**
+     * Serialize all the statistics in the Prometheus text exposition format.
+     *
+     * @return the statistics, one per line
+     * @since 7.1M1
+     */
+    @Override
+    public String getMetrics()
+    {
+        StringBuilder str = new StringBuilder();
+
+        appendHeader(str, "xwiki_requests_total", COUNTER, "Number of ended requests.");
+        appendMetric(str, "xwiki_requests_total", null, null, getRequests());
+        appendHeader(str, "xwiki_requests_duration_milliseconds_total", COUNTER,
+            "Total duration of the ended requests.");
+        appendMetric(str, "xwiki_requests_duration_milliseconds_total", null, null, getDuration());
+        appendHeader(str, "xwiki_requests_active", GAUGE, "Number of running requests.");
+        appendMetric(str, "xwiki_requests_active", null, null, getActiveRequests());
+        appendHeader(str, "xwiki_requests_duration_milliseconds", SUMMARY, "Duration percentiles of the requests.");
+        appendPercentiles(str, "xwiki_requests_duration_milliseconds", null, this.requestHistogram);
+        appendHeader(str, "xwiki_requests_duration_milliseconds_max", GAUGE, "Longest request duration.");
+        appendMetric(str, "xwiki_requests_duration_milliseconds_max", null, null, this.requestHistogram.getMax());
+
+        Map<String, MonitorTimerSummary> summaries = new TreeMap<>(getTimerSummaries());
+        appendHeader(str, "xwiki_timer_calls_total", COUNTER, "Number of ended timers.");
+        for (MonitorTimerSummary summary : summaries.values()) {
+            appendMetric(str, "xwiki_timer_calls_total", getTimerLabel(summary), null, summary.getNbCalls());
+        }
+        appendHeader(str, "xwiki_timer_duration_milliseconds_total", COUNTER, "Total duration of the ended timers.");
+        for (MonitorTimerSummary summary : summaries.values()) {
+            appendMetric(str, "xwiki_timer_duration_milliseconds_total", getTimerLabel(summary), null,
+                summary.getDuration());
+        }
+        appendHeader(str, "xwiki_timer_duration_milliseconds", SUMMARY, "Duration percentiles of the timers.");
+        for (MonitorTimerSummary summary : summaries.values()) {
+            appendPercentiles(str, "xwiki_timer_duration_milliseconds", getTimerLabel(summary),
+                summary.getHistogram());
+        }
+        appendHeader(str, "xwiki_timer_duration_milliseconds_max", GAUGE, "Longest timer duration.");
+        for (MonitorTimerSummary summary : summaries.values()) {
+            appendMetric(str, "xwiki_timer_duration_milliseconds_max", getTimerLabel(summary), null,
+                summary.getHistogram().getMax());
+        }
+
+        appendHeader(str, "xwiki_counter_total", COUNTER, "Value of the counters.");
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            appendMetric(str, "xwiki_counter_total", "counter=\"" + escape(counter.getKey()) + '"', null,
+                counter.getValue());
+        }
+
+        return str.toString();
+    }
+
+    private String getTimerLabel(MonitorTimerSummary summary)
+    {
+        return "timer=\"" + escape(summary.getName()) + '"';
+    }
+
+    private void appendHeader(StringBuilder str, String metric, String type, String help)
+    {
+        str.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        str.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private void appendPercentiles(StringBuilder str, String metric, String labels, MonitorHistogram histogram)
+    {
+        for (String percentile : PERCENTILES) {
+            appendMetric(str, metric, labels, "quantile=\"" + percentile + '"',
+                histogram.getPercentile(Double.parseDouble(percentile) * 100));
+        }
+    }
+
+    private void appendMetric(StringBuilder str, String metric, String labels, String extraLabel, Number value)
+    {
+        str.append(metric);
+        if (labels != null || extraLabel != null) {
+            str.append('{');
+            if (labels != null) {
+                str.append(labels);
+                if (extraLabel != null) {
+                    str.append(',');
+                }
+            }
+            if (extraLabel != null) {
+                str.append(extraLabel);
+            }
+            str.append('}');
+        }
+        str.append(' ').append(value).append('\n');
+    }
+
+    private String escape(String label)
+    {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private void registerMBean(Object mbean, String name)
+    {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (!mbs.isRegistered(objectName)) {
+                mbs.registerMBean(mbean, objectName);
+                synchronized (this.objectNames) {
+                    this.objectNames.add(objectName);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to register the monitor statistics [{}] against the JMX Server", name, e);
+        }
+    }
+
+    private void unregisterTimerMBeans()
+    {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        synchronized (this.objectNames) {
+            for (Iterator<ObjectName> it = this.objectNames.iterator(); it.hasNext();) {
+                ObjectName objectName = it.next();
+                if (objectName.getKeyProperty("name") != null) {
+                    try {
+                        mbs.unregisterMBean(objectName);
+                    } catch (Exception e) {
+                        LOGGER.debug("Failed to unregister the monitor statistics [{}]", objectName, e);
+                    }
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
     public boolean isActive()
     {
         return this.bActive;
     }
 
+    @Override
     public void setActive(boolean bActive)
     {
         this.bActive = bActive;
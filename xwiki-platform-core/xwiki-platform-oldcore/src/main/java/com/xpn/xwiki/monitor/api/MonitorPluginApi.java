@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.plugin.PluginApi;
+
+/**
+ * Script access to the statistics recorded by the {@link MonitorPlugin}, restricted to the administrators.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class MonitorPluginApi extends PluginApi<MonitorPlugin>
+{
+    /**
+     * @param plugin the wrapped plugin
+     * @param context the XWiki context
+     */
+    public MonitorPluginApi(MonitorPlugin plugin, XWikiContext context)
+    {
+        super(plugin, context);
+    }
+
+    /**
+     * @return true if the statistics are being recorded
+     */
+    public boolean isActive()
+    {
+        return getProtectedPlugin().isActive();
+    }
+
+    /**
+     * @return the number of requests which ended, or 0 if the current user is not an administrator
+     */
+    public long getRequests()
+    {
+        return hasAdminRights() ? getProtectedPlugin().getRequests() : 0;
+    }
+
+    /**
+     * @return the total time spent in the requests which ended in milliseconds, or 0 if the current user is not an
+     *         administrator
+     */
+    public long getDuration()
+    {
+        return hasAdminRights() ? getProtectedPlugin().getDuration() : 0;
+    }
+
+    /**
+     * @return the global statistics of each timer, or an empty map if the current user is not an administrator
+     */
+    public Map<String, MonitorTimerSummary> getTimerSummaries()
+    {
+        if (hasAdminRights()) {
+            return Collections.unmodifiableMap(getProtectedPlugin().getTimerSummaries());
+        }
+
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return the value of the counters, or an empty map if the current user is not an administrator
+     */
+    public Map<String, Long> getCounters()
+    {
+        return hasAdminRights() ? getProtectedPlugin().getCounters() : Collections.<String, Long>emptyMap();
+    }
+
+    /**
+     * @return all the statistics in the Prometheus text exposition format, or null if the current user is not an
+     *         administrator
+     */
+    public String getMetrics()
+    {
+        return hasAdminRights() ? getProtectedPlugin().getMetrics() : null;
+    }
+
+    /**
+     * Forget all the recorded statistics. Requires programming rights.
+     */
+    public void reset()
+    {
+        if (hasProgrammingRights()) {
+            getProtectedPlugin().reset(getXWikiContext());
+        }
+    }
+}
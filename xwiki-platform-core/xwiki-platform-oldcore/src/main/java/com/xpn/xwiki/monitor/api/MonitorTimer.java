@@ -19,7 +19,11 @@
  */
 package com.xpn.xwiki.monitor.api;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class MonitorTimer
 {
@@ -31,25 +35,92 @@
 
     private Date endDate;
 
+    private long startNanos;
+
+    private long endNanos;
+
+    private MonitorTimer parent;
+
+    private List<MonitorTimer> children;
+
     public MonitorTimer(String name, String details)
     {
         this.setName(name);
         this.setDetails(details);
     }
 
+    /**
+     * @param name the name of the timer
+     * @param details the details of the timer
+     * @param parent the timer which was running when this timer started, null if none
+     * @since 7.1M1
+     */
+    public MonitorTimer(String name, String details, MonitorTimer parent)
+    {
+        this(name, details);
+
+        this.parent = parent;
+    }
+
     public void setStartDate()
     {
         this.startDate = new Date();
+        this.startNanos = System.nanoTime();
     }
 
     public void setEndDate()
     {
         this.endDate = new Date();
+        this.endNanos = System.nanoTime();
     }
 
     public long getDuration()
     {
-        return this.endDate.getTime() - this.startDate.getTime();
+        return TimeUnit.NANOSECONDS.toMillis(getDurationNanos());
+    }
+
+    /**
+     * @return the duration of the timer in nanoseconds, or 0 if it's still running
+     * @since 7.1M1
+     */
+    public long getDurationNanos()
+    {
+        return isRunning() ? 0 : this.endNanos - this.startNanos;
+    }
+
+    /**
+     * @return true if the timer has been started but not ended yet
+     * @since 7.1M1
+     */
+    public boolean isRunning()
+    {
+        return this.endDate == null;
+    }
+
+    /**
+     * @return the timer which was running when this timer started, null if none
+     * @since 7.1M1
+     */
+    public MonitorTimer getParent()
+    {
+        return this.parent;
+    }
+
+    /**
+     * @return the timers started while this timer was running, in start order
+     * @since 7.1M1
+     */
+    public synchronized List<MonitorTimer> getChildren()
+    {
+        return this.children != null ? new ArrayList<>(this.children) : Collections.<MonitorTimer>emptyList();
+    }
+
+    synchronized void addChild(MonitorTimer child)
+    {
+        if (this.children == null) {
+            this.children = new ArrayList<>();
+        }
+        this.children.add(child);
     }
 
     public String getName()
@@ -79,14 +150,14 @@ public String toString()
         str.append(" Name: ");
         str.append(this.name);
         str.append(" Details: ");
+        str.append(this.details);
         str.append(" Start Date: ");
         str.append(this.startDate);
         str.append(" End Date: ");
         str.append(this.endDate);
         str.append(" Duration: ");
-        try {
-            str.append(this.endDate.getTime() - this.startDate.getTime());
-        } catch (Exception e) {
+        if (!isRunning()) {
+            str.append(getDuration());
         }
         return str.toString();
     }
@@ -19,21 +19,37 @@
  */
 package com.xpn.xwiki.monitor.api;
 
-public class MonitorTimerSummary
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MonitorTimerSummary implements MonitorTimerSummaryMBean
 {
+    private static final double PERCENTILE_50 = 50D;
+
+    private static final double PERCENTILE_90 = 90D;
+
+    private static final double PERCENTILE_99 = 99D;
+
     private String name;
 
-    private long duration = 0;
+    private final AtomicLong durationNanos = new AtomicLong();
+
+    private final AtomicLong nbcalls = new AtomicLong();
 
-    private long nbcalls = 0;
+    private final AtomicLong nbrequests = new AtomicLong();
 
-    private long nbrequests = 0;
+    /**
+     * The distribution of the calls durations, created the first time a call is recorded with
+     * {@link #record(long)}.
+     */
+    private volatile MonitorHistogram histogram;
 
     public MonitorTimerSummary(String name)
     {
         this.name = name;
     }
 
+    @Override
     public String getName()
     {
         return this.name;
@@ -41,31 +57,122 @@ public String getName()
 
     public void addTimer(long duration)
     {
-        this.duration += duration;
-        this.nbcalls++;
-        this.nbrequests = 1;
+        addTimerNanos(TimeUnit.MILLISECONDS.toNanos(duration));
+    }
+
+    /**
+     * Add a call to the timer of a request.
+     *
+     * @param duration the duration of the call in nanoseconds
+     * @since 7.1M1
+     */
+    public void addTimerNanos(long duration)
+    {
+        this.durationNanos.addAndGet(duration);
+        this.nbcalls.incrementAndGet();
+        this.nbrequests.set(1);
+    }
+
+    /**
+     * Record the duration of a single call in the distribution of the calls durations, without updating the total
+     * duration and number of calls (which are usually updated per request with {@link #add(MonitorTimerSummary)}).
+     *
+     * @param duration the duration of the call in nanoseconds
+     * @since 7.1M1
+     */
+    public void record(long duration)
+    {
+        getHistogram().record(duration);
+    }
+
+    /**
+     * Add a call made outside of any request (e.g. by a background thread).
+     *
+     * @param duration the duration of the call in nanoseconds
+     * @since 7.1M1
+     */
+    public void recordCall(long duration)
+    {
+        this.durationNanos.addAndGet(duration);
+        this.nbcalls.incrementAndGet();
+        record(duration);
     }
 
+    /**
+     * @return the distribution of the calls durations
+     * @since 7.1M1
+     */
+    public MonitorHistogram getHistogram()
+    {
+        MonitorHistogram result = this.histogram;
+        if (result == null) {
+            synchronized (this) {
+                result = this.histogram;
+                if (result == null) {
+                    result = new MonitorHistogram();
+                    this.histogram = result;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
     public long getDuration()
     {
-        return this.duration;
+        return TimeUnit.NANOSECONDS.toMillis(this.durationNanos.get());
     }
 
+    @Override
     public long getNbCalls()
     {
-        return this.nbcalls;
+        return this.nbcalls.get();
     }
 
     public void add(MonitorTimerSummary stimer)
     {
-        this.duration += stimer.getDuration();
-        this.nbcalls += stimer.getNbCalls();
-        this.nbrequests++;
+        this.durationNanos.addAndGet(stimer.durationNanos.get());
+        this.nbcalls.addAndGet(stimer.getNbCalls());
+        this.nbrequests.incrementAndGet();
     }
 
+    @Override
     public long getRequests()
     {
-        return this.nbrequests;
+        return this.nbrequests.get();
+    }
+
+    @Override
+    public double getMean()
+    {
+        long calls = getNbCalls();
+
+        return calls > 0 ? this.durationNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1) / calls : 0;
+    }
+
+    @Override
+    public double getP50()
+    {
+        return getHistogram().getPercentile(PERCENTILE_50);
+    }
+
+    @Override
+    public double getP90()
+    {
+        return getHistogram().getPercentile(PERCENTILE_90);
+    }
+
+    @Override
+    public double getP99()
+    {
+        return getHistogram().getPercentile(PERCENTILE_99);
+    }
+
+    @Override
+    public double getMax()
+    {
+        return getHistogram().getMax();
     }
 
     @Override
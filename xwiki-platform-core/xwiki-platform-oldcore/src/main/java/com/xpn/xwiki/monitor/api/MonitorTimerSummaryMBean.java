@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+/**
+ * Management interface exposing the statistics of a monitor timer through JMX.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public interface MonitorTimerSummaryMBean
+{
+    /**
+     * @return the name of the timer
+     */
+    String getName();
+
+    /**
+     * @return the total time spent in the timer, in milliseconds
+     */
+    long getDuration();
+
+    /**
+     * @return the number of times the timer was called
+     */
+    long getNbCalls();
+
+    /**
+     * @return the number of requests which called the timer
+     */
+    long getRequests();
+
+    /**
+     * @return the mean duration of a call, in milliseconds
+     */
+    double getMean();
+
+    /**
+     * @return the median duration of a call, in milliseconds
+     */
+    double getP50();
+
+    /**
+     * @return the duration under which 90% of the calls are, in milliseconds
+     */
+    double getP90();
+
+    /**
+     * @return the duration under which 99% of the calls are, in milliseconds
+     */
+    double getP99();
+
+    /**
+     * @return the longest call, in milliseconds
+     */
+    double getMax();
+}
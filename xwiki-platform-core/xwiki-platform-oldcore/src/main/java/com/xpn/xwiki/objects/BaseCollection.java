@@ -32,6 +32,7 @@
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
@@ -149,6 +150,9 @@ public int getNumber()
 
     public void setNumber(int number)
     {
+        if (number != this.number) {
+            beforeChange();
+        }
         this.number = number;
     }
 
@@ -228,6 +232,9 @@ public void setXClassReference(EntityReference xClassReference)
             }
         }
 
+        if (!Objects.equals(ref, this.xClassReference)) {
+            beforeChange();
+        }
         this.xClassReference = ref;
         this.xClassReferenceCache = null;
     }
@@ -513,6 +520,7 @@ private Map<String, Object> getFields()
 
     public void setFields(Map fields)
     {
+        beforeChange();
         this.fields = fields;
     }
 
@@ -523,6 +531,7 @@ public PropertyInterface getField(String name)
 
     public void addField(String name, PropertyInterface element)
     {
+        beforeChange();
         this.fields.put(name, element);
 
         if (element instanceof BaseElement) {
@@ -534,6 +543,7 @@ public void removeField(String name)
     {
         Object field = safeget(name);
         if (field != null) {
+            beforeChange();
             this.fields.remove(name);
             this.fieldsToRemove.add(field);
         }
@@ -633,7 +643,8 @@ public BaseCollection clone()
             prop.setObject(collection);
             cfields.put(entry.getKey(), prop);
         }
-        collection.setFields(cfields);
+        // Don't use setFields which would notify the owner document of a modification
+        collection.fields = cfields;
 
         return collection;
     }
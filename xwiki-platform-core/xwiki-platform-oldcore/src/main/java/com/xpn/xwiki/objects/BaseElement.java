@@ -20,6 +20,7 @@
 package com.xpn.xwiki.objects;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 import org.apache.commons.lang3.StringUtils;
 import org.xwiki.localization.ContextualLocalizationManager;
@@ -133,6 +134,10 @@ public String getName()
     @Override
     public void setDocumentReference(DocumentReference reference)
     {
+        if (!Objects.equals(reference, this.documentReference)) {
+            beforeChange();
+        }
+
         // If the name is already set then reset it since we're now using a reference
         this.documentReference = reference;
         this.name = null;
@@ -367,4 +372,18 @@ public XWikiDocument getOwnerDocument()
     {
         return this.ownerDocument;
     }
+
+    /**
+     * Called before this element is modified so that the owner document get a chance to preserve the current state of
+     * the element in its original document.
+     *
+     * @see XWikiDocument#materializeOriginalDocument(ElementInterface)
+     * @since 7.1M1
+     */
+    protected void beforeChange()
+    {
+        if (this.ownerDocument != null) {
+            this.ownerDocument.materializeOriginalDocument(this);
+        }
+    }
 }
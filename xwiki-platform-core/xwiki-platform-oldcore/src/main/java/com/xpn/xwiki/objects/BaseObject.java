@@ -439,6 +439,9 @@ public String getGuid()
 
     public void setGuid(String guid)
     {
+        if (!StringUtils.equals(guid, this.guid)) {
+            beforeChange();
+        }
         this.guid = guid;
     }
 
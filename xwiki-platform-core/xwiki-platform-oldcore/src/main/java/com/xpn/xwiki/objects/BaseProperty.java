@@ -310,13 +310,19 @@ public boolean isValueDirty()
 
     /**
      * Set the dirty flag if the new value isn't equal to the old value.
+     * <p>
+     * The owner document is notified of the modification even if the value is already dirty since this property may
+     * still be shared with the original document (see {@link XWikiDocument#resetOriginalDocument()}).
      *
      * @param newValue The new value.
      */
     protected void setValueDirty(Object newValue)
     {
-        if (!this.isValueDirty && !Objects.equals(newValue, getValue())) {
-            setValueDirty(true);
+        if (!Objects.equals(newValue, getValue())) {
+            beforeChange();
+            if (!this.isValueDirty) {
+                setValueDirty(true);
+            }
         }
     }
 
@@ -222,6 +222,7 @@ public void setList(List<String> list)
         }
 
         if (list == null) {
+            beforeChange();
             setValueDirty(true);
             this.actualList = new ArrayList();
             this.list = new NotifyList(this.actualList, this);
@@ -314,6 +315,14 @@ public void onUpdate()
             setDirty();
         }
 
+        @Override
+        protected void beforeUpdate()
+        {
+            if (this.owner != null) {
+                this.owner.beforeChange();
+            }
+        }
+
         /**
          * @param owner The owner list property.
          */
@@ -24,6 +24,7 @@
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.commons.dbcp2.BasicDataSource;
@@ -75,6 +76,11 @@
  *   hibernate.dbcp.validationQuery select 1 from dual
  * </pre>
  * <p>
+ * When {@code xwiki.connection.schema_affinity} is {@code true} the released connections are kept by schema (see
+ * {@link SchemaBoundConnections}) so that a transaction on a wiki preferably reuses a connection already switched to
+ * that wiki's schema. At most {@code hibernate.dbcp.maxIdle} connections are kept that way.
+ * </p>
+ * <p>
  * More information about configuring/using DBCP can be found on the <a
  * href="http://jakarta.apache.org/commons/dbcp/">DBCP website</a>. There you will also find the DBCP wiki, mailing
  * lists, issue tracking and other support facilities
@@ -106,6 +112,32 @@ public class DBCPConnectionProvider implements ConnectionProvider
     // Property doesn't exists in Hibernate2
     private static final String AUTOCOMMIT = "hibernate.connection.autocommit";
 
+    private static final String SCHEMA_AFFINITY = "xwiki.connection.schema_affinity";
+
+    private static final String HIBERNATE_PREFIX = "hibernate.";
+
+    /**
+     * The maximum time a connection is kept bound to a schema without being used, after which it goes back to the pool
+     * so that the pool validation and eviction rules apply to it.
+     */
+    private static final long SCHEMA_AFFINITY_IDLE_TIME = 60000;
+
+    /**
+     * The default maximum number of connections kept bound to a schema when the pool has no maximum number of idle
+     * connections.
+     */
+    private static final int SCHEMA_AFFINITY_DEFAULT_MAX_IDLE = 8;
+
+    /**
+     * The idle connections by schema, null when schema affinity is disabled.
+     */
+    private SchemaBoundConnections schemaBoundConnections;
+
+    /**
+     * The schema the connection requested by the current thread will be switched to.
+     */
+    private final ThreadLocal<String> requestedSchema = new ThreadLocal<>();
+
     @Override
     public void configure(Properties props) throws HibernateException
     {
@@ -215,6 +247,16 @@ public void configure(Properties props) throws HibernateException
             Connection conn = this.ds.getConnection();
             conn.close();
 
+            String schemaAffinity = props.getProperty(SCHEMA_AFFINITY, props.getProperty(HIBERNATE_PREFIX
+                + SCHEMA_AFFINITY));
+            if (Boolean.parseBoolean(schemaAffinity)) {
+                int maxIdle = this.ds.getMaxIdle();
+                if (maxIdle < 0) {
+                    maxIdle = this.ds.getMaxTotal() > 0 ? this.ds.getMaxTotal() : SCHEMA_AFFINITY_DEFAULT_MAX_IDLE;
+                }
+                this.schemaBoundConnections = new SchemaBoundConnections(maxIdle, SCHEMA_AFFINITY_IDLE_TIME);
+            }
+
             // Log pool statistics before continuing.
             logStatistics();
         } catch (Exception e) {
@@ -245,29 +287,112 @@ public Connection getConnection() throws SQLException
 
         Connection conn = null;
         try {
-            conn = this.ds.getConnection();
+            if (this.schemaBoundConnections != null) {
+                conn = getSchemaBoundConnection();
+            }
+            if (conn == null) {
+                conn = this.ds.getConnection();
+            }
         } finally {
             logStatistics();
         }
         return conn;
     }
 
+    private Connection getSchemaBoundConnection() throws SQLException
+    {
+        closeConnections(this.schemaBoundConnections.evictExpired());
+
+        String schema = this.requestedSchema.get();
+
+        Connection conn = this.schemaBoundConnections.take(schema, false);
+
+        // Rather switch the schema of an idle connection than wait for the pool to have a free connection
+        if (conn == null && this.ds.getNumIdle() == 0 && this.ds.getMaxTotal() > 0
+            && this.ds.getNumActive() >= this.ds.getMaxTotal()) {
+            conn = this.schemaBoundConnections.take(schema, true);
+        }
+
+        return conn;
+    }
+
     @Override
     public void closeConnection(Connection conn) throws SQLException
     {
         try {
-            conn.close();
+            if (this.schemaBoundConnections != null) {
+                closeConnections(this.schemaBoundConnections.release(conn));
+            } else {
+                conn.close();
+            }
         } finally {
             logStatistics();
         }
     }
 
+    private void closeConnections(List<Connection> connections) throws SQLException
+    {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return true if the connections remember the schema they are bound to
+     * @since 7.1M1
+     */
+    public boolean isSchemaAffinityEnabled()
+    {
+        return this.schemaBoundConnections != null;
+    }
+
+    /**
+     * Indicate the schema the next connection requested by the current thread will be switched to, so that a
+     * connection already bound to it is preferred.
+     *
+     * @param schema the schema, null to clear it
+     * @since 7.1M1
+     */
+    public void setRequestedSchema(String schema)
+    {
+        if (schema != null) {
+            this.requestedSchema.set(schema);
+        } else {
+            this.requestedSchema.remove();
+        }
+    }
+
+    /**
+     * @param conn a connection handed out by this provider
+     * @return the schema the connection is bound to, null if unknown or if schema affinity is disabled
+     * @since 7.1M1
+     */
+    public String getSchema(Connection conn)
+    {
+        return this.schemaBoundConnections != null ? this.schemaBoundConnections.getSchema(conn) : null;
+    }
+
+    /**
+     * @param conn a connection handed out by this provider
+     * @param schema the schema the connection has been switched to, null if it's not known anymore
+     * @since 7.1M1
+     */
+    public void setSchema(Connection conn, String schema)
+    {
+        if (this.schemaBoundConnections != null) {
+            this.schemaBoundConnections.setSchema(conn, schema);
+        }
+    }
+
     @Override
     public void close() throws HibernateException
     {
         SHUTDOWN_LOGGER.debug("Stopping Database Connection Pool...");
         logStatistics();
         try {
+            if (this.schemaBoundConnections != null) {
+                closeConnections(this.schemaBoundConnections.clear());
+            }
             if (this.ds != null) {
                 this.ds.close();
                 this.ds = null;
@@ -300,8 +425,9 @@ public boolean supportsAggressiveRelease()
     protected void logStatistics()
     {
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("active: [{}] (max: [{}]), idle: [{}] (max: [{}])", this.ds.getNumActive(),
-                this.ds.getMaxTotal(), this.ds.getNumIdle(), this.ds.getMaxIdle());
+            LOGGER.debug("active: [{}] (max: [{}]), idle: [{}] (max: [{}]), bound to a schema: [{}]",
+                this.ds.getNumActive(), this.ds.getMaxTotal(), this.ds.getNumIdle(), this.ds.getMaxIdle(),
+                this.schemaBoundConnections != null ? this.schemaBoundConnections.getIdleCount() : 0);
         }
     }
 }
@@ -0,0 +1,218 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.sql.Connection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remember the database schema each pooled connection is currently bound to and keep a few idle connections per schema
+ * so that a transaction on a given wiki can reuse a connection already switched to that wiki's schema.
+ * <p>
+ * The idle connections kept here are still borrowed from the underlying pool, so the global pool limits apply to them.
+ * A connection bound to another schema is handed out when the pool is exhausted, in which case the caller has to
+ * switch its schema.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class SchemaBoundConnections
+{
+    /**
+     * An idle connection.
+     *
+     * @version $Id$
+     */
+    private static final class IdleConnection
+    {
+        private final Connection connection;
+
+        private final String schema;
+
+        private final long releaseTime;
+
+        IdleConnection(Connection connection, String schema)
+        {
+            this.connection = connection;
+            this.schema = schema;
+            this.releaseTime = System.nanoTime();
+        }
+    }
+
+    private final int maxIdle;
+
+    private final long maxIdleTime;
+
+    /**
+     * The schema of the connections currently handed out or idle.
+     */
+    private final Map<Connection, String> schemas = new IdentityHashMap<>();
+
+    /**
+     * The idle connections, from the least to the most recently released.
+     */
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+
+    /**
+     * @param maxIdle the maximum number of idle connections to keep, whatever their schema
+     * @param maxIdleTime the maximum time a connection is kept idle (after which it should go back to the pool to be
+     *            validated or evicted by it), in milliseconds
+     */
+    public SchemaBoundConnections(int maxIdle, long maxIdleTime)
+    {
+        this.maxIdle = maxIdle;
+        this.maxIdleTime = TimeUnit.MILLISECONDS.toNanos(maxIdleTime);
+    }
+
+    /**
+     * @param connection a connection handed out by the pool
+     * @return the schema the connection is bound to, null if unknown
+     */
+    public synchronized String getSchema(Connection connection)
+    {
+        return this.schemas.get(connection);
+    }
+
+    /**
+     * @param connection a connection handed out by the pool
+     * @param schema the schema the connection has been switched to, null if it's not known anymore (e.g. the switch
+     *            was part of a rolled back transaction)
+     */
+    public synchronized void setSchema(Connection connection, String schema)
+    {
+        if (schema != null) {
+            this.schemas.put(connection, schema);
+        } else {
+            this.schemas.remove(connection);
+        }
+    }
+
+    /**
+     * Take an idle connection.
+     *
+     * @param schema the schema the connection should be bound to, null for any
+     * @param anySchema true to return a connection bound to another schema when none is bound to the requested one
+     * @return an idle connection, null if there is none matching
+     */
+    public synchronized Connection take(String schema, boolean anySchema)
+    {
+        // Most recently released first since they are the least likely to have been closed by the server
+        for (Iterator<IdleConnection> it = this.idle.descendingIterator(); it.hasNext();) {
+            IdleConnection idleConnection = it.next();
+            if (schema == null || schema.equals(idleConnection.schema)) {
+                it.remove();
+
+                return idleConnection.connection;
+            }
+        }
+
+        if (anySchema && !this.idle.isEmpty()) {
+            // Take the least recently used schema
+            return this.idle.pollFirst().connection;
+        }
+
+        return null;
+    }
+
+    /**
+     * Keep a connection which is not needed anymore for a later transaction on the same schema.
+     *
+     * @param connection the connection released by its user
+     * @return the connections which should be given back to the pool: the passed one if its schema is unknown, or the
+     *         idle connections which had to make room for it
+     */
+    public synchronized List<Connection> release(Connection connection)
+    {
+        String schema = this.schemas.get(connection);
+        if (schema == null || this.maxIdle <= 0) {
+            this.schemas.remove(connection);
+
+            return Collections.singletonList(connection);
+        }
+
+        List<Connection> connectionsToClose = evict(this.maxIdle - 1);
+        this.idle.addLast(new IdleConnection(connection, schema));
+
+        return connectionsToClose;
+    }
+
+    /**
+     * @return the idle connections kept for too long, which should be given back to the pool
+     */
+    public synchronized List<Connection> evictExpired()
+    {
+        List<Connection> connectionsToClose = Collections.emptyList();
+
+        long now = System.nanoTime();
+        while (!this.idle.isEmpty() && now - this.idle.peekFirst().releaseTime > this.maxIdleTime) {
+            if (connectionsToClose.isEmpty()) {
+                connectionsToClose = new ArrayList<>();
+            }
+            connectionsToClose.add(forget(this.idle.pollFirst()));
+        }
+
+        return connectionsToClose;
+    }
+
+    /**
+     * @return all the idle connections, which should be given back to the pool
+     */
+    public synchronized List<Connection> clear()
+    {
+        return evict(0);
+    }
+
+    /**
+     * @return the number of idle connections
+     */
+    public synchronized int getIdleCount()
+    {
+        return this.idle.size();
+    }
+
+    private List<Connection> evict(int size)
+    {
+        List<Connection> connectionsToClose = Collections.emptyList();
+
+        while (this.idle.size() > size) {
+            if (connectionsToClose.isEmpty()) {
+                connectionsToClose = new ArrayList<>();
+            }
+            connectionsToClose.add(forget(this.idle.pollFirst()));
+        }
+
+        return connectionsToClose;
+    }
+
+    private Connection forget(IdleConnection idleConnection)
+    {
+        this.schemas.remove(idleConnection.connection);
+
+        return idleConnection.connection;
+    }
+}
@@ -20,8 +20,20 @@
 package com.xpn.xwiki.store;
 
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
@@ -32,6 +44,8 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.ObservationManager;
@@ -41,10 +55,15 @@
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.XWikiLink;
 import com.xpn.xwiki.doc.XWikiLock;
+import com.xpn.xwiki.monitor.api.MonitorPlugin;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.util.Util;
 import com.xpn.xwiki.web.Utils;
 
 /**
@@ -57,6 +76,21 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiCacheStore.class);
 
+    /**
+     * The approximate weight of a document without any content, object or attachment.
+     */
+    private static final int DOCUMENT_WEIGHT = 2000;
+
+    /**
+     * The approximate weight of an object or an attachment without its properties or content.
+     */
+    private static final int ELEMENT_WEIGHT = 200;
+
+    /**
+     * The approximate weight of a property without its value.
+     */
+    private static final int PROPERTY_WEIGHT = 100;
+
     private XWikiStoreInterface store;
 
     private Cache<XWikiDocument> cache;
@@ -67,6 +101,43 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
 
     private int pageExistCacheCapacity = 10000;
 
+    /**
+     * The maximum total weight (approximate size in characters) of the documents in the cache, 0 to only bound the
+     * cache by number of documents.
+     */
+    private long cacheMaxWeight;
+
+    /**
+     * The weight of each document in the cache in least recently used order. Only used when {@link #cacheMaxWeight}
+     * is set.
+     */
+    private final LinkedHashMap<String, Integer> cacheWeights = new LinkedHashMap<String, Integer>(16, 0.75f, true);
+
+    /**
+     * The total weight of the documents in the cache.
+     */
+    private long cacheWeight;
+
+    /**
+     * The documents currently being loaded from the store, so that concurrent requests for the same document wait for
+     * the same load instead of hitting the database each.
+     */
+    private final ConcurrentMap<String, LoadingTask> loadingDocuments = new ConcurrentHashMap<String, LoadingTask>();
+
+    /**
+     * The maximum time in milliseconds to wait for a document being loaded by another thread before loading it again.
+     * Two threads each loading a document that needs the document loaded by the other would otherwise wait forever.
+     */
+    private long loadWaitTimeout = 10000;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    private final AtomicLong loadCount = new AtomicLong();
+
+    private final AtomicLong loadTime = new AtomicLong();
+
     /**
      * Used to know if a received event is a local or remote one.
      */
@@ -118,6 +189,20 @@ public synchronized void initCache(XWikiContext context) throws XWikiException
                 }
             } catch (Exception e) {
             }
+            try {
+                String weight = context.getWiki().Param("xwiki.store.cache.maxweight");
+                if (weight != null) {
+                    this.cacheMaxWeight = Long.parseLong(weight);
+                }
+            } catch (Exception e) {
+            }
+            try {
+                String timeout = context.getWiki().Param("xwiki.store.cache.loadwaittimeout");
+                if (timeout != null) {
+                    this.loadWaitTimeout = Long.parseLong(timeout);
+                }
+            } catch (Exception e) {
+            }
             initCache(this.cacheCapacity, this.pageExistCacheCapacity, context);
         }
     }
@@ -132,6 +217,30 @@ public void initCache(int capacity, int pageExistCacheCapacity, XWikiContext con
                 cacheManager.createNewCache(new LRUCacheConfiguration("xwiki.store.pagecache", capacity));
             setCache(pageCache);
 
+            if (this.cacheMaxWeight > 0) {
+                // Keep the weights in sync with the entries evicted by the cache itself
+                pageCache.addCacheEntryListener(new CacheEntryListener<XWikiDocument>()
+                {
+                    @Override
+                    public void cacheEntryAdded(CacheEntryEvent<XWikiDocument> event)
+                    {
+                        // Weights are registered when the document is put in the cache
+                    }
+
+                    @Override
+                    public void cacheEntryRemoved(CacheEntryEvent<XWikiDocument> event)
+                    {
+                        removeWeight(event.getEntry().getKey());
+                    }
+
+                    @Override
+                    public void cacheEntryModified(CacheEntryEvent<XWikiDocument> event)
+                    {
+                        // Weights are registered when the document is put in the cache
+                    }
+                });
+            }
+
             Cache<Boolean> pageExistcache =
                 cacheManager.createNewCache(new LRUCacheConfiguration("xwiki.store.pageexistcache",
                     pageExistCacheCapacity));
@@ -172,6 +281,7 @@ public void saveXWikiDoc(XWikiDocument doc, XWikiContext context, boolean bTrans
         // We need to flush so that caches
         // on the cluster are informed about the change
         getCache().remove(key);
+        removeWeight(key);
         getPageExistCache().remove(key);
 
         /*
@@ -194,6 +304,11 @@ public void flushCache()
             this.pageExistCache.dispose();
             this.pageExistCache = null;
         }
+
+        synchronized (this.cacheWeights) {
+            this.cacheWeights.clear();
+            this.cacheWeight = 0;
+        }
     }
 
     @Override
@@ -211,6 +326,7 @@ public void onEvent(Event event, Object source, Object data)
                 if (getCache() != null) {
                     getCache().remove(key);
                 }
+                removeWeight(key);
                 if (getPageExistCache() != null) {
                     getPageExistCache().remove(key);
                 }
@@ -279,9 +395,15 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
         if (cachedoc != null) {
             doc = cachedoc;
             doc.setFromCache(true);
+            this.cacheHits.incrementAndGet();
+            incrementMonitorCounter("cache.document.hit", context);
+            touchWeight(key);
 
             LOGGER.debug("Cache: got doc {} from cache", key);
         } else {
+            this.cacheMisses.incrementAndGet();
+            incrementMonitorCounter("cache.document.miss", context);
+
             Boolean result = getPageExistCache().get(key);
 
             if (result == Boolean.FALSE) {
@@ -294,29 +416,286 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                 // Allow writing more generic code.
                 doc.setOriginalDocument(new XWikiDocument(doc.getDocumentReference(), doc.getLocale()));
             } else {
-                LOGGER.debug("Cache: Trying to get doc {} from persistent storage", key);
+                doc = loadXWikiDocFromStore(doc, key, context);
+            }
+        }
 
-                doc = this.store.loadXWikiDoc(doc, context);
-                doc.setStore(this.store);
+        LOGGER.debug("Cache: end for doc {} in cache", key);
+
+        return doc;
+    }
+
+    private void incrementMonitorCounter(String counter, XWikiContext context)
+    {
+        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        if (monitor != null) {
+            monitor.incrementCounter(counter);
+        }
+    }
+
+    /**
+     * Load the document from the underlying store, making sure that concurrent requests for the same document share a
+     * single load.
+     *
+     * @param doc the document to load
+     * @param key the cache key of the document
+     * @param context the XWiki context
+     * @return the loaded document
+     * @throws XWikiException when failing to load the document
+     */
+    private XWikiDocument loadXWikiDocFromStore(final XWikiDocument doc, final String key, final XWikiContext context)
+        throws XWikiException
+    {
+        LoadingTask task = new LoadingTask(new Callable<XWikiDocument>()
+        {
+            @Override
+            public XWikiDocument call() throws Exception
+            {
+                return loadAndCacheXWikiDoc(doc, key, context);
+            }
+        });
+
+        LoadingTask currentTask = this.loadingDocuments.putIfAbsent(key, task);
+        if (currentTask == null) {
+            try {
+                task.run();
+            } finally {
+                this.loadingDocuments.remove(key, task);
+            }
+
+            return getLoadedDocument(task, key);
+        }
+
+        if (currentTask.isOwnedByCurrentThread()) {
+            // The document is requested while loading it (e.g. by a listener triggered during the load): waiting for
+            // the current load would never end
+            LOGGER.debug("Cache: doc {} is requested while being loaded by the same thread, loading it again", key);
+
+            return loadAndCacheXWikiDoc(doc, key, context);
+        }
+
+        LOGGER.debug("Cache: doc {} is already being loaded, waiting for it", key);
+
+        XWikiDocument loadedDocument;
+        try {
+            loadedDocument = getLoadedDocument(currentTask, key);
+        } catch (XWikiException e) {
+            // The failure might be specific to the other request, try on our own
+            return loadAndCacheXWikiDoc(doc, key, context);
+        }
+
+        if (loadedDocument == null) {
+            // The other load might itself be waiting for a document this thread is loading
+            LOGGER.warn("Cache: Timed out after {} ms waiting for doc {} to be loaded by another thread, loading it"
+                + " again", this.loadWaitTimeout, key);
+
+            return loadAndCacheXWikiDoc(doc, key, context);
+        }
+
+        if (loadedDocument.isNew()) {
+            // Don't share a new document between requests since it's generally going to be modified
+            doc.setStore(this.store);
+            doc.setNew(true);
+            doc.setOriginalDocument(new XWikiDocument(doc.getDocumentReference(), doc.getLocale()));
+
+            return doc;
+        }
+
+        return loadedDocument;
+    }
+
+    /**
+     * @param task the load of the document
+     * @param key the cache key of the document
+     * @return the loaded document or {@code null} if the load did not finish in time
+     * @throws XWikiException when the load failed
+     */
+    private XWikiDocument getLoadedDocument(FutureTask<XWikiDocument> task, String key) throws XWikiException
+    {
+        try {
+            return task.get(this.loadWaitTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC, "Interrupted while loading document [{0}]",
+                e, new Object[] { key });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XWikiException) {
+                throw (XWikiException) e.getCause();
+            }
+
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC, "Exception while loading document [{0}]",
+                e.getCause(), new Object[] { key });
+        }
+    }
+
+    private XWikiDocument loadAndCacheXWikiDoc(XWikiDocument doc, String key, XWikiContext context)
+        throws XWikiException
+    {
+        LOGGER.debug("Cache: Trying to get doc {} from persistent storage", key);
+
+        long startTime = System.nanoTime();
+        XWikiDocument loadedDocument = this.store.loadXWikiDoc(doc, context);
+        this.loadTime.addAndGet(System.nanoTime() - startTime);
+        this.loadCount.incrementAndGet();
+        loadedDocument.setStore(this.store);
+
+        LOGGER.debug("Cache: Got doc {} from storage", key);
+
+        if (loadedDocument.isNew()) {
+            getPageExistCache().set(key, Boolean.FALSE);
+        } else {
+            getCache().set(key, loadedDocument);
+            addWeight(key, loadedDocument);
+
+            // Also update exist cache
+            getPageExistCache().set(key, Boolean.TRUE);
+        }
+
+        LOGGER.debug("Cache: put doc {} in cache", key);
+
+        return loadedDocument;
+    }
 
-                LOGGER.debug("Cache: Got doc {} from storage", key);
+    private void addWeight(String key, XWikiDocument doc)
+    {
+        if (this.cacheMaxWeight > 0) {
+            int weight = getWeight(doc);
 
-                if (doc.isNew()) {
-                    getPageExistCache().set(key, Boolean.FALSE);
-                } else {
-                    getCache().set(key, doc);
+            synchronized (this.cacheWeights) {
+                Integer previousWeight = this.cacheWeights.put(key, weight);
+                if (previousWeight != null) {
+                    this.cacheWeight -= previousWeight;
+                }
+                this.cacheWeight += weight;
+
+                // Evict the least recently used documents until the cache fits in the allowed weight (but always keep
+                // the document we just added)
+                for (Iterator<Map.Entry<String, Integer>> it = this.cacheWeights.entrySet().iterator(); it.hasNext()
+                    && this.cacheWeight > this.cacheMaxWeight;) {
+                    Map.Entry<String, Integer> entry = it.next();
+                    if (!entry.getKey().equals(key)) {
+                        it.remove();
+                        this.cacheWeight -= entry.getValue();
+                        getCache().remove(entry.getKey());
+                    }
+                }
+            }
+        }
+    }
 
-                    // Also update exist cache
-                    getPageExistCache().set(key, Boolean.TRUE);
+    private void removeWeight(String key)
+    {
+        if (this.cacheMaxWeight > 0) {
+            synchronized (this.cacheWeights) {
+                Integer weight = this.cacheWeights.remove(key);
+                if (weight != null) {
+                    this.cacheWeight -= weight;
                 }
+            }
+        }
+    }
 
-                LOGGER.debug("Cache: put doc {} in cache", key);
+    private void touchWeight(String key)
+    {
+        if (this.cacheMaxWeight > 0) {
+            synchronized (this.cacheWeights) {
+                // Update the access order
+                this.cacheWeights.get(key);
             }
         }
+    }
 
-        LOGGER.debug("Cache: end for doc {} in cache", key);
+    /**
+     * @param doc the document
+     * @return an approximation of the memory retained by the document, in characters
+     */
+    private int getWeight(XWikiDocument doc)
+    {
+        long weight = DOCUMENT_WEIGHT;
+
+        weight += StringUtils.length(doc.getContent());
+
+        for (List<BaseObject> objects : doc.getXObjects().values()) {
+            for (BaseObject object : objects) {
+                if (object != null) {
+                    weight += ELEMENT_WEIGHT;
+                    for (Object field : object.getFieldList()) {
+                        weight += PROPERTY_WEIGHT;
+                        Object value = ((BaseProperty) field).getValue();
+                        if (value != null) {
+                            weight += value.toString().length();
+                        }
+                    }
+                }
+            }
+        }
 
-        return doc;
+        BaseClass xclass = doc.getXClass();
+        if (xclass != null) {
+            weight += (long) xclass.getFieldList().size() * PROPERTY_WEIGHT;
+        }
+
+        for (XWikiAttachment attachment : doc.getAttachmentList()) {
+            weight += ELEMENT_WEIGHT;
+            if (attachment.getAttachment_content() != null) {
+                weight += attachment.getFilesize();
+            }
+        }
+
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the number of documents found in the cache
+     * @since 7.1M1
+     */
+    public long getCacheHits()
+    {
+        return this.cacheHits.get();
+    }
+
+    /**
+     * @return the number of documents not found in the cache
+     * @since 7.1M1
+     */
+    public long getCacheMisses()
+    {
+        return this.cacheMisses.get();
+    }
+
+    /**
+     * @return the number of documents loaded from the underlying store
+     * @since 7.1M1
+     */
+    public long getLoadCount()
+    {
+        return this.loadCount.get();
+    }
+
+    /**
+     * @return the total time spent loading documents from the underlying store, in nanoseconds
+     * @since 7.1M1
+     */
+    public long getLoadTime()
+    {
+        return this.loadTime.get();
+    }
+
+    /**
+     * @return the approximate total weight of the documents in the cache, or 0 when the cache is not bounded by
+     *         weight
+     * @since 7.1M1
+     */
+    public long getCacheWeight()
+    {
+        synchronized (this.cacheWeights) {
+            return this.cacheWeight;
+        }
     }
 
     @Override
@@ -330,6 +709,7 @@ public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWiki
         initCache(context);
 
         getCache().remove(key);
+        removeWeight(key);
         getPageExistCache().remove(key);
         getPageExistCache().set(key, Boolean.FALSE);
     }
@@ -703,4 +1083,25 @@ public QueryManager getQueryManager()
     {
         return getStore().getQueryManager();
     }
+
+    /**
+     * The load of a document, remembering the thread running it.
+     */
+    private static final class LoadingTask extends FutureTask<XWikiDocument>
+    {
+        private final Thread owner = Thread.currentThread();
+
+        LoadingTask(Callable<XWikiDocument> callable)
+        {
+            super(callable);
+        }
+
+        /**
+         * @return true if the current thread is the one loading the document
+         */
+        boolean isOwnedByCurrentThread()
+        {
+            return this.owner == Thread.currentThread();
+        }
+    }
 }
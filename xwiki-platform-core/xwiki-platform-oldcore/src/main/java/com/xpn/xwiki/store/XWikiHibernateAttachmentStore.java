@@ -19,12 +19,15 @@
  */
 package com.xpn.xwiki.store;
 
+import java.io.InputStream;
+import java.sql.Blob;
 import java.util.Iterator;
 import java.util.List;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.io.IOUtils;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.slf4j.Logger;
@@ -123,10 +126,23 @@ public void saveAttachmentContent(XWikiAttachment attachment, boolean parentUpda
                 Query query =
                     session.createQuery("select attach.id from XWikiAttachmentContent as attach where attach.id = :id");
                 query.setLong("id", content.getId());
-                if (query.uniqueResult() == null) {
-                    session.save(content);
-                } else {
-                    session.update(content);
+
+                // Stream the content to the database instead of loading it in memory
+                InputStream stream = content.getContentInputStream();
+                try {
+                    content.setContentBlob(session.getLobHelper().createBlob(stream, content.getSize()));
+                    if (query.uniqueResult() == null) {
+                        session.save(content);
+                    } else {
+                        session.update(content);
+                    }
+
+                    // Send the content while the stream is open and don't keep it in the session
+                    session.flush();
+                    session.evict(content);
+                } finally {
+                    content.setContentBlob(null);
+                    IOUtils.closeQuietly(stream);
                 }
 
                 if (attachment.getAttachment_archive() == null) {
@@ -223,7 +239,21 @@ public void loadAttachmentContent(XWikiAttachment attachment, XWikiContext conte
             XWikiAttachmentContent content = new XWikiAttachmentContent(attachment);
             session.load(content, new Long(content.getId()));
 
-            // Hibernate calls setContent which causes isContentDirty to be true. This is not what we want.
+            // Copy the content from the database stream while the transaction is still open and don't keep the
+            // database representation in the session
+            Blob blob = content.getContentBlob();
+            session.evict(content);
+            content.setContentBlob(null);
+            if (blob != null) {
+                InputStream stream = blob.getBinaryStream();
+                try {
+                    content.setContent(stream);
+                } finally {
+                    stream.close();
+                }
+            }
+
+            // Setting the content causes isContentDirty to be true. This is not what we want.
             content.setContentDirty(false);
 
             attachment.setAttachment_content(content);
@@ -102,6 +102,11 @@ public class XWikiHibernateBaseStore implements Initializable
 
     private DatabaseProduct databaseProduct = DatabaseProduct.UNKNOWN;
 
+    /**
+     * The dialect used to escape the schema names, resolved the first time it's needed.
+     */
+    private volatile Dialect dialect;
+
     /**
      * THis allows to initialize our storage engine. The hibernate config file path is taken from xwiki.cfg or directly
      * in the WEB-INF directory.
@@ -216,6 +221,7 @@ public DatabaseProduct getDatabaseProductName()
             if (metaData != null) {
                 try {
                     product = DatabaseProduct.toProduct(metaData.getDatabaseProductName());
+                    this.databaseProduct = product;
                 } catch (SQLException ignored) {
                     // do not care, return UNKNOWN
                 }
@@ -711,23 +717,18 @@ public void setDatabase(Session session, XWikiContext context) throws XWikiExcep
 
             if (context.getWikiId() != null) {
                 String schemaName = getSchemaFromWikiName(context);
-                String escapedSchemaName = escapeSchema(schemaName, context);
-
-                DatabaseProduct databaseProduct = getDatabaseProductName();
-                if (DatabaseProduct.ORACLE == databaseProduct) {
-                    executeSQL("alter session set current_schema = " + escapedSchemaName, session);
-                } else if (DatabaseProduct.DERBY == databaseProduct || DatabaseProduct.HSQLDB == databaseProduct
-                    || DatabaseProduct.DB2 == databaseProduct || DatabaseProduct.H2 == databaseProduct) {
-                    executeSQL("SET SCHEMA " + escapedSchemaName, session);
-                } else if (DatabaseProduct.POSTGRESQL == databaseProduct && isInSchemaMode()) {
-                    executeSQL("SET search_path TO " + escapedSchemaName, session);
-                } else {
-                    String catalog = session.connection().getCatalog();
-                    catalog = (catalog == null) ? null : catalog.replace('_', '-');
-                    if (!schemaName.equals(catalog)) {
-                        session.connection().setCatalog(schemaName);
+
+                // Skip the switch when the connection is known to be already bound to the right schema
+                DBCPConnectionProvider affinityProvider = getSchemaAffinityProvider(session);
+                Connection connection = affinityProvider != null ? getRealConnection(session) : null;
+                if (connection == null || !schemaName.equals(affinityProvider.getSchema(connection))) {
+                    switchSchema(schemaName, session, context);
+
+                    if (connection != null) {
+                        affinityProvider.setSchema(connection, schemaName);
                     }
                 }
+
                 setCurrentDatabase(context, context.getWikiId());
             }
 
@@ -741,6 +742,49 @@ public void setDatabase(Session session, XWikiContext context) throws XWikiExcep
         }
     }
 
+    private void switchSchema(String schemaName, Session session, XWikiContext context) throws SQLException
+    {
+        String escapedSchemaName = escapeSchema(schemaName, context);
+
+        DatabaseProduct databaseProduct = getDatabaseProductName();
+        if (DatabaseProduct.ORACLE == databaseProduct) {
+            executeSQL("alter session set current_schema = " + escapedSchemaName, session);
+        } else if (DatabaseProduct.DERBY == databaseProduct || DatabaseProduct.HSQLDB == databaseProduct
+            || DatabaseProduct.DB2 == databaseProduct || DatabaseProduct.H2 == databaseProduct) {
+            executeSQL("SET SCHEMA " + escapedSchemaName, session);
+        } else if (DatabaseProduct.POSTGRESQL == databaseProduct && isInSchemaMode()) {
+            executeSQL("SET search_path TO " + escapedSchemaName, session);
+        } else {
+            String catalog = session.connection().getCatalog();
+            catalog = (catalog == null) ? null : catalog.replace('_', '-');
+            if (!schemaName.equals(catalog)) {
+                session.connection().setCatalog(schemaName);
+            }
+        }
+    }
+
+    /**
+     * @param session the Hibernate session
+     * @return the connection provider of the session if it remembers the schema of its connections, null otherwise
+     */
+    private DBCPConnectionProvider getSchemaAffinityProvider(Session session)
+    {
+        SessionFactory sessionFactory = session.getSessionFactory();
+        if (!(sessionFactory instanceof SessionFactoryImplementor)) {
+            return null;
+        }
+
+        // Note that we need to do the cast because this is how Hibernate suggests to get the Connection Provider.
+        // See http://bit.ly/QAJXlr
+        ConnectionProvider connectionProvider = ((SessionFactoryImplementor) sessionFactory).getConnectionProvider();
+        if (connectionProvider instanceof DBCPConnectionProvider
+            && ((DBCPConnectionProvider) connectionProvider).isSchemaAffinityEnabled()) {
+            return (DBCPConnectionProvider) connectionProvider;
+        }
+
+        return null;
+    }
+
     /**
      * Execute an SQL statement using Hibernate.
      *
@@ -780,7 +824,11 @@ public void execute(Connection connection) throws SQLException
     protected String escapeSchema(String schema, XWikiContext context)
     {
         String escapedSchema;
-        Dialect dialect = Dialect.getDialect(getConfiguration().getProperties());
+        Dialect dialect = this.dialect;
+        if (dialect == null) {
+            dialect = Dialect.getDialect(getConfiguration().getProperties());
+            this.dialect = dialect;
+        }
 
         // - Oracle converts user names in uppercase when no quotes is used.
         // For example: "create user xwiki identified by xwiki;" creates a user named XWIKI (uppercase)
@@ -900,7 +948,19 @@ public boolean beginTransaction(SessionFactory sfactory, XWikiContext context)
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Trying to open transaction");
         }
-        transaction = session.beginTransaction();
+        // Beginning the transaction is what gets the connection: make sure one already bound to the wiki's schema is
+        // preferred
+        DBCPConnectionProvider affinityProvider = getSchemaAffinityProvider(session);
+        if (affinityProvider != null && context.getWikiId() != null) {
+            affinityProvider.setRequestedSchema(getSchemaFromWikiName(context));
+            try {
+                transaction = session.beginTransaction();
+            } finally {
+                affinityProvider.setRequestedSchema(null);
+            }
+        } else {
+            transaction = session.beginTransaction();
+        }
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Opened transaction " + transaction);
         }
@@ -1004,6 +1064,11 @@ public void endTransaction(XWikiContext context, boolean commit)
             setTransaction(null, context);
 
             if (transaction != null) {
+                // A schema switch done in the rolled back transaction might be rolled back too (e.g. with PostgreSQL)
+                if (!commit) {
+                    forgetSchema(session);
+                }
+
                 // We need to clean up our connection map first because the connection will
                 // be aggressively closed by hibernate 3.1 and more
                 preCloseSession(session);
@@ -1052,6 +1117,18 @@ private String getExceptionMessage(Throwable t)
         return sb.toString();
     }
 
+    private void forgetSchema(Session session)
+    {
+        DBCPConnectionProvider affinityProvider = getSchemaAffinityProvider(session);
+        if (affinityProvider != null) {
+            try {
+                affinityProvider.setSchema(getRealConnection(session), null);
+            } catch (Exception e) {
+                LOGGER.debug("Failed to forget the schema of the connection of session [{}]", session, e);
+            }
+        }
+    }
+
     /**
      * Closes the hibernate session
      *
@@ -31,12 +31,14 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -62,10 +64,8 @@
 import org.xwiki.bridge.event.ActionExecutingEvent;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.InitializationException;
-import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
@@ -176,6 +176,11 @@ public class XWikiHibernateStore extends XWikiHibernateBaseStore implements XWik
 
     private Map<String, String[]> validTypesMap = new HashMap<String, String[]>();
 
+    /**
+     * Cache of the property classes indexed by name to avoid calling {@link Class#forName(String)} for each property.
+     */
+    private final Map<String, Class<?>> propertyClasses = new ConcurrentHashMap<String, Class<?>>();
+
     /**
      * This allows to initialize our storage engine. The hibernate config file path is taken from xwiki.cfg or directly
      * in the WEB-INF directory.
@@ -878,12 +883,10 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                 @SuppressWarnings("unchecked")
                 Iterator<BaseObject> it = query.list().iterator();
 
-                EntityReference localGroupEntityReference = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
-                    new EntityReference("XWiki", EntityType.SPACE));
-                DocumentReference groupsDocumentReference = new DocumentReference(context.getWikiId(),
-                    localGroupEntityReference.getParent().getName(), localGroupEntityReference.getName());
+                // Objects whose properties are loaded all at once (see #loadXWikiProperties)
+                Map<Long, BaseCollection> objects = new HashMap<Long, BaseCollection>();
 
-                boolean hasGroups = false;
+                boolean hasCustomMappings = context.getWiki().hasCustomMappings();
                 while (it.hasNext()) {
                     BaseObject object = it.next();
                     DocumentReference classReference = object.getXClassReference();
@@ -913,45 +916,26 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                         object = newobject;
                     }
 
-                    if (classReference.equals(groupsDocumentReference)) {
-                        // Groups objects are handled differently.
-                        hasGroups = true;
-                    } else {
+                    if (hasCustomMappings && hasCustomMapping(object, doc, context)) {
+                        // Custom mapped objects are stored in their own table
                         loadXWikiCollectionInternal(object, doc, context, false, true);
+                    } else {
+                        objects.put(object.getId(), object);
                     }
                     doc.setXObject(object.getNumber(), object);
                 }
 
-                // AFAICT this was added as an emergency patch because loading of objects has proven
-                // too slow and the objects which cause the most overhead are the XWikiGroups objects
-                // as each group object (each group member) would otherwise cost 2 database queries.
-                // This will do every group member in a single query.
-                if (hasGroups) {
-                    Query query2 = session.createQuery("select bobject.number, prop.value from StringProperty as prop,"
-                        + "BaseObject as bobject where bobject.name = :name and bobject.className='XWiki.XWikiGroups' "
-                        + "and bobject.id=prop.id.id and prop.id.name='member' order by bobject.number");
-                    query2.setText("name", doc.getFullName());
-                    @SuppressWarnings("unchecked")
-                    Iterator<Object[]> it2 = query2.list().iterator();
-                    while (it2.hasNext()) {
-                        Object[] result = it2.next();
-                        Integer number = (Integer) result[0];
-                        String member = (String) result[1];
-                        BaseObject obj = BaseClass.newCustomClassInstance(groupsDocumentReference, context);
-                        obj.setDocumentReference(doc.getDocumentReference());
-                        obj.setXClassReference(localGroupEntityReference);
-                        obj.setNumber(number.intValue());
-                        obj.setStringValue("member", member);
-                        doc.setXObject(obj.getNumber(), obj);
-                    }
+                if (!objects.isEmpty()) {
+                    loadXWikiProperties(objects, doc, session, context);
                 }
             }
 
             doc.setContentDirty(false);
             doc.setMetaDataDirty(false);
 
-            // We need to ensure that the loaded document becomes the original document
-            doc.setOriginalDocument(doc.clone());
+            // We need to ensure that the loaded document becomes the original document (the objects are only copied
+            // when they are about to be modified)
+            doc.resetOriginalDocument();
 
             if (bTransaction) {
                 endTransaction(context, false, false);
@@ -1274,53 +1258,7 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
                         continue;
                     }
                     String classType = (String) result[1];
-                    BaseProperty property = null;
-
-                    try {
-                        property = (BaseProperty) Class.forName(classType).newInstance();
-                        property.setObject(object);
-                        property.setName(name);
-                        loadXWikiProperty(property, context, false);
-                    } catch (Exception e) {
-                        // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
-                        try {
-                            if (property instanceof StringProperty) {
-                                LargeStringProperty property2 = new LargeStringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof TextAreaClass) {
-                                        property = property2;
-                                    }
-                                }
-
-                            } else if (property instanceof LargeStringProperty) {
-                                StringProperty property2 = new StringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof StringClass) {
-                                        property = property2;
-                                    }
-                                }
-                            } else {
-                                throw e;
-                            }
-                        } catch (Throwable e2) {
-                            Object[] args =
-                                { object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name };
-                            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
-                                "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'",
-                                e, args);
-                        }
-                    }
+                    BaseProperty property = loadXWikiProperty(object, name, classType, bclass, context);
 
                     object.addField(name, property);
                 }
@@ -1346,6 +1284,224 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
 
     }
 
+    /**
+     * Load a single property of an object, falling back on the other string table when the stored property type does
+     * not match the table the value has been saved in.
+     *
+     * @param object the object the property belongs to
+     * @param name the name of the property
+     * @param classType the stored type of the property
+     * @param bclass the class of the object, if known
+     * @param context the XWiki context
+     * @return the loaded property
+     * @throws XWikiException when failing to load the property
+     */
+    private BaseProperty loadXWikiProperty(BaseCollection object, String name, String classType, BaseClass bclass,
+        XWikiContext context) throws XWikiException
+    {
+        BaseProperty property = null;
+
+        try {
+            property = (BaseProperty) getPropertyClass(classType).newInstance();
+            property.setObject(object);
+            property.setName(name);
+            loadXWikiProperty(property, context, false);
+        } catch (Exception e) {
+            // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
+            try {
+                if (property instanceof StringProperty) {
+                    LargeStringProperty property2 = new LargeStringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof TextAreaClass) {
+                            property = property2;
+                        }
+                    }
+
+                } else if (property instanceof LargeStringProperty) {
+                    StringProperty property2 = new StringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof StringClass) {
+                            property = property2;
+                        }
+                    }
+                } else {
+                    throw e;
+                }
+            } catch (Throwable e2) {
+                Object[] args = { object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name };
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
+                    "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'", e, args);
+            }
+        }
+
+        return property;
+    }
+
+    /**
+     * Load the properties of all the passed objects of a document using a constant number of queries: one to list the
+     * properties and one per property type actually used by the document. Properties which cannot be found that way
+     * (for example because the value is not stored in the table matching its type) are loaded one by one.
+     *
+     * @param objects the objects of the document indexed by identifier
+     * @param doc the document
+     * @param session the current Hibernate session
+     * @param context the XWiki context
+     * @throws XWikiException when failing to load the properties
+     */
+    private void loadXWikiProperties(Map<Long, BaseCollection> objects, XWikiDocument doc, Session session,
+        XWikiContext context) throws XWikiException
+    {
+        // Object id -> (property name -> property type), in the order returned by the database
+        Map<Long, Map<String, String>> declaredProperties = new HashMap<Long, Map<String, String>>();
+        Set<String> classTypes = new HashSet<String>();
+
+        Query query = session.createQuery("select prop.id.id, prop.name, prop.classType from BaseProperty as prop, "
+            + "BaseObject as bobject where bobject.name = :name and bobject.id = prop.id.id");
+        query.setText("name", doc.getFullName());
+        for (Object[] result : (List<Object[]>) query.list()) {
+            Long objectId = (Long) result[0];
+            if (objects.containsKey(objectId)) {
+                Map<String, String> properties = declaredProperties.get(objectId);
+                if (properties == null) {
+                    properties = new LinkedHashMap<String, String>();
+                    declaredProperties.put(objectId, properties);
+                }
+                String classType = (String) result[2];
+                properties.put((String) result[1], classType);
+                classTypes.add(classType);
+            }
+        }
+
+        // Load the values, one query per property type
+        Map<Long, Map<String, BaseProperty>> loadedProperties = new HashMap<Long, Map<String, BaseProperty>>();
+        for (String classType : classTypes) {
+            if (!isMappedPropertyClass(classType, session)) {
+                continue;
+            }
+
+            StringBuilder hql = new StringBuilder("select ");
+            if (classType.equals(DBStringListProperty.class.getName())) {
+                // Avoid one query per list to load its items
+                hql.append("distinct prop from ").append(classType).append(" as prop left join fetch prop.list, ");
+            } else {
+                hql.append("prop from ").append(classType).append(" as prop, ");
+            }
+            hql.append("BaseObject as bobject where bobject.name = :name and bobject.id = prop.id.id"
+                + " and prop.classType = :classType");
+
+            Query valuesQuery = session.createQuery(hql.toString());
+            valuesQuery.setText("name", doc.getFullName());
+            valuesQuery.setText("classType", classType);
+            for (BaseProperty property : (List<BaseProperty>) valuesQuery.list()) {
+                Long objectId = property.getId();
+                Map<String, BaseProperty> properties = loadedProperties.get(objectId);
+                if (properties == null) {
+                    properties = new HashMap<String, BaseProperty>();
+                    loadedProperties.put(objectId, properties);
+                }
+                properties.put(property.getName(), property);
+            }
+        }
+
+        for (Map.Entry<Long, Map<String, String>> entry : declaredProperties.entrySet()) {
+            BaseCollection object = objects.get(entry.getKey());
+            Map<String, BaseProperty> properties = loadedProperties.get(entry.getKey());
+            for (Map.Entry<String, String> declaredProperty : entry.getValue().entrySet()) {
+                String name = declaredProperty.getKey();
+
+                BaseProperty property = properties != null ? properties.get(name) : null;
+                if (property != null && property.getClassType().equals(declaredProperty.getValue())) {
+                    property.setObject(object);
+                    // In Oracle, empty string are converted to NULL. Since an undefined property is not found at all,
+                    // it is safe to assume that a retrieved NULL value should actually be an empty string.
+                    if (property instanceof BaseStringProperty) {
+                        BaseStringProperty stringProperty = (BaseStringProperty) property;
+                        if (stringProperty.getValue() == null) {
+                            stringProperty.setValue("");
+                        }
+                    }
+                    if (property instanceof ListProperty) {
+                        ((ListProperty) property).getList();
+                    }
+                    property.setValueDirty(false);
+                } else {
+                    BaseClass bclass;
+                    if (object.getXClassReference().equals(doc.getDocumentReference())) {
+                        bclass = doc.getXClass();
+                    } else {
+                        bclass = object.getXClass(context);
+                    }
+                    property = loadXWikiProperty(object, name, declaredProperty.getValue(), bclass, context);
+                }
+
+                object.addField(name, property);
+            }
+        }
+    }
+
+    /**
+     * @param object the object
+     * @param doc the document the object is loaded in
+     * @param context the XWiki context
+     * @return true if the class of the object has a custom mapping
+     */
+    private boolean hasCustomMapping(BaseCollection object, XWikiDocument doc, XWikiContext context)
+    {
+        BaseClass bclass;
+        if (object.getXClassReference().equals(doc.getDocumentReference())) {
+            // We need to get it from the document otherwise we will go in an endless loop
+            bclass = doc.getXClass();
+        } else {
+            bclass = object.getXClass(context);
+        }
+
+        return bclass != null && bclass.hasCustomMapping();
+    }
+
+    /**
+     * @param classType the name of a property class
+     * @return the property class, resolved only once per class name
+     * @throws ClassNotFoundException when the class cannot be found
+     */
+    private Class<?> getPropertyClass(String classType) throws ClassNotFoundException
+    {
+        Class<?> propertyClass = this.propertyClasses.get(classType);
+        if (propertyClass == null) {
+            propertyClass = Class.forName(classType);
+            this.propertyClasses.put(classType, propertyClass);
+        }
+
+        return propertyClass;
+    }
+
+    /**
+     * @param classType the name of a property class
+     * @param session the current Hibernate session
+     * @return true if the passed type is a property class known by Hibernate and thus safe to use in a query
+     */
+    private boolean isMappedPropertyClass(String classType, Session session)
+    {
+        try {
+            Class<?> propertyClass = getPropertyClass(classType);
+
+            return BaseProperty.class.isAssignableFrom(propertyClass)
+                && session.getSessionFactory().getClassMetadata(propertyClass) != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     /**
      * @deprecated This is internal to XWikiHibernateStore and may be removed in the future.
      */
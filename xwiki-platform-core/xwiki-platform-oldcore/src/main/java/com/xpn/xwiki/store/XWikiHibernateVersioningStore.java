@@ -19,6 +19,8 @@
  */
 package com.xpn.xwiki.store;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -34,8 +36,21 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.suigeneris.jrcs.rcs.Version;
+import org.suigeneris.jrcs.util.ToString;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
@@ -45,6 +60,7 @@
 import com.xpn.xwiki.doc.rcs.XWikiRCSNodeContent;
 import com.xpn.xwiki.doc.rcs.XWikiRCSNodeId;
 import com.xpn.xwiki.doc.rcs.XWikiRCSNodeInfo;
+import com.xpn.xwiki.web.Utils;
 
 /**
  * Realization of {@link XWikiVersioningStoreInterface} for Hibernate-based storage.
@@ -59,10 +75,40 @@ public class XWikiHibernateVersioningStore extends XWikiHibernateBaseStore imple
     /** Logger. */
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiHibernateVersioningStore.class);
 
+    /** Default number of rebuilt document versions to keep in cache. */
+    private static final int DEFAULT_VERSION_CACHE_CAPACITY = 100;
+
     /** Needed for computing the archive cache key. */
     @Inject
     private EntityReferenceSerializer<String> referenceSerializer;
 
+    /** Used to create the version cache. */
+    @Inject
+    private CacheManager cacheManager;
+
+    /** Used to invalidate the version cache when a document is modified on another cluster member. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** Used to know if a received event is a local or remote one. */
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    /** Cache of the document versions rebuilt from the database, created on first use. */
+    private Cache<XWikiDocument> versionCache;
+
+    /**
+     * The current generation of the cached versions of each document. It's part of the version cache key so that
+     * removing the generation of a document makes all its cached versions unreachable.
+     */
+    private Cache<Long> versionCacheGenerations;
+
+    /** The last generation given to a document in {@link #versionCacheGenerations}. */
+    private long lastVersionCacheGeneration;
+
+    /** True if the version cache has been disabled or could not be created. */
+    private boolean versionCacheDisabled;
+
     /**
      * This allows to initialize our storage engine. The hibernate config file path is taken from xwiki.cfg or directly
      * in the WEB-INF directory.
@@ -107,6 +153,50 @@ public XWikiHibernateVersioningStore()
     {
     }
 
+    @Override
+    public void initialize() throws InitializationException
+    {
+        super.initialize();
+
+        registerVersionCacheListener();
+    }
+
+    /**
+     * Invalidate the cached versions of the documents modified on other cluster members since the local modifications
+     * are already taken into account when the archive is saved or deleted.
+     */
+    private void registerVersionCacheListener()
+    {
+        this.observationManager.addListener(new EventListener()
+        {
+            @Override
+            public String getName()
+            {
+                return "versionCacheInvalidationListener";
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+                    new DocumentDeletedEvent(), new WikiDeletedEvent());
+            }
+
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                if (remoteObservationManagerContext.isRemoteState()) {
+                    if (event instanceof WikiDeletedEvent) {
+                        clearVersionCache();
+                    } else {
+                        XWikiDocument doc = (XWikiDocument) source;
+                        invalidateVersionCache(doc.getDatabase(), doc.getId());
+                    }
+                }
+            }
+        });
+    }
+
     @Override
     public Version[] getXWikiDocVersions(XWikiDocument doc, XWikiContext context) throws XWikiException
     {
@@ -192,16 +282,31 @@ public Object doInHibernate(Session session) throws HibernateException
                 return null;
             }
         });
+
+        // Versions may have been removed or rewritten
+        invalidateVersionCache(context.getWikiId(), archivedoc.getId());
     }
 
     @Override
     public XWikiDocument loadXWikiDoc(XWikiDocument basedoc, String sversion, XWikiContext context)
         throws XWikiException
     {
-        XWikiDocumentArchive archive = getXWikiDocumentArchive(basedoc, context);
         Version version = new Version(sversion);
 
-        XWikiDocument doc = archive.loadDocument(version, context);
+        XWikiDocument doc;
+        XWikiDocumentArchive archive = basedoc.getDocumentArchive();
+        if (archive != null) {
+            // The archive is already in memory, no need to go back to the database
+            doc = archive.loadDocument(version, context);
+        } else {
+            doc = loadXWikiDocVersion(basedoc, version, context);
+            if (doc == null) {
+                // Either the version does not exist or the history is not in the expected state: make sure using the
+                // whole archive
+                doc = getXWikiDocumentArchive(basedoc, context).loadDocument(version, context);
+            }
+        }
+
         if (doc == null) {
             Object[] args = { basedoc.getFullName(), version.toString() };
             throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
@@ -218,6 +323,244 @@ public XWikiDocument loadXWikiDoc(XWikiDocument basedoc, String sversion, XWikiC
         return doc;
     }
 
+    /**
+     * Rebuild a single version of a document without loading its whole archive: only the nodes going from the nearest
+     * full version to the requested version are read from the database. Rebuilt versions are kept in a small LRU cache
+     * which is invalidated each time the archive of the document is saved or deleted.
+     *
+     * @param basedoc the document for which to load a version
+     * @param version the version to load
+     * @param context the XWiki context
+     * @return the document in the requested version, null if the version does not exist
+     * @throws XWikiException if any error
+     * @since 7.1M1
+     */
+    protected XWikiDocument loadXWikiDocVersion(final XWikiDocument basedoc, final Version version,
+        XWikiContext context) throws XWikiException
+    {
+        Cache<XWikiDocument> versionCache = getVersionCache(context);
+        String key = versionCache != null ? getVersionCacheKey(basedoc, version, context) : null;
+        if (key != null) {
+            XWikiDocument cachedDoc = versionCache.get(key);
+            if (cachedDoc != null) {
+                return cachedDoc.clone();
+            }
+        }
+
+        String db = context.getWikiId();
+        XWikiDocument doc;
+        try {
+            if (basedoc.getDatabase() != null) {
+                context.setWikiId(basedoc.getDatabase());
+            }
+            doc = executeRead(context, true, new HibernateCallback<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument doInHibernate(Session session) throws HibernateException, XWikiException
+                {
+                    return loadXWikiDocVersion(basedoc.getId(), version, session);
+                }
+            });
+        } finally {
+            context.setWikiId(db);
+        }
+
+        // The most recent flag changes when a new version is saved so the latest version is not cached
+        if (doc != null && !doc.isMostRecent() && key != null) {
+            versionCache.set(key, doc.clone());
+        }
+
+        return doc;
+    }
+
+    /**
+     * @param docId the identifier of the document
+     * @param version the version to load
+     * @param session the Hibernate session
+     * @return the document in the requested version, null if the version does not exist
+     * @throws XWikiException if any error
+     */
+    private XWikiDocument loadXWikiDocVersion(long docId, Version version, Session session) throws XWikiException
+    {
+        int v1 = version.at(0);
+        int v2 = version.at(1);
+
+        XWikiRCSNodeInfo nodeInfo = (XWikiRCSNodeInfo) session
+            .createQuery("from " + XWikiRCSNodeInfo.class.getName() + " as info where info.id.docId = :docId"
+                + " and info.id.version1 = :v1 and info.id.version2 = :v2 and info.diff is not null")
+            .setLong("docId", docId).setInteger("v1", v1).setInteger("v2", v2).uniqueResult();
+        if (nodeInfo == null) {
+            return null;
+        }
+
+        // Nearest full version which is more recent than (or equal to) the requested version
+        Object[] fullVersion = (Object[]) session
+            .createQuery("select content.id.version1, content.id.version2 from "
+                + XWikiRCSNodeContent.class.getName() + " as content where content.id.docId = :docId"
+                + " and content.patch.diff = false and (content.id.version1 > :v1"
+                + " or (content.id.version1 = :v1 and content.id.version2 >= :v2))"
+                + " order by content.id.version1 asc, content.id.version2 asc")
+            .setLong("docId", docId).setInteger("v1", v1).setInteger("v2", v2).setMaxResults(1).uniqueResult();
+        if (fullVersion == null) {
+            // The history is not in the expected state, let the archive deal with it
+            return null;
+        }
+        int fullV1 = (Integer) fullVersion[0];
+        int fullV2 = (Integer) fullVersion[1];
+
+        @SuppressWarnings("unchecked")
+        List<XWikiRCSNodeContent> contents = session
+            .createQuery("from " + XWikiRCSNodeContent.class.getName() + " as content"
+                + " where content.id.docId = :docId and content.patch.diff is not null"
+                + " and (content.id.version1 > :v1 or (content.id.version1 = :v1 and content.id.version2 >= :v2))"
+                + " and (content.id.version1 < :fullV1"
+                + " or (content.id.version1 = :fullV1 and content.id.version2 <= :fullV2))"
+                + " order by content.id.version1 desc, content.id.version2 desc")
+            .setLong("docId", docId).setInteger("v1", v1).setInteger("v2", v2).setInteger("fullV1", fullV1)
+            .setInteger("fullV2", fullV2).list();
+
+        try {
+            List<String> origText = new ArrayList<String>();
+            for (XWikiRCSNodeContent nodeContent : contents) {
+                nodeContent.getPatch().patch(origText);
+            }
+
+            XWikiDocument doc = new XWikiDocument();
+            doc.fromXML(ToString.arrayToString(origText.toArray()));
+
+            doc.setRCSVersion(version);
+            doc.setComment(nodeInfo.getComment());
+            doc.setAuthor(nodeInfo.getAuthor());
+            doc.setMinorEdit(nodeInfo.isMinorEdit());
+            doc.setMostRecent(fullV1 == v1 && fullV2 == v2 && isLatestVersion(docId, version, session));
+            return doc;
+        } catch (Exception e) {
+            Object[] args = { version.toString(), Long.valueOf(docId) };
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_RCS_READING_REVISIONS,
+                "Exception while reading version [{0}] for document id [{1,number}]", e, args);
+        }
+    }
+
+    /**
+     * @param docId the identifier of the document
+     * @param version the version to check
+     * @param session the Hibernate session
+     * @return true if there is no version more recent than the passed one in the history of the document
+     */
+    private boolean isLatestVersion(long docId, Version version, Session session)
+    {
+        Object[] latestVersion = (Object[]) session
+            .createQuery("select info.id.version1, info.id.version2 from " + XWikiRCSNodeInfo.class.getName()
+                + " as info where info.id.docId = :docId and info.diff is not null"
+                + " order by info.id.version1 desc, info.id.version2 desc")
+            .setLong("docId", docId).setMaxResults(1).uniqueResult();
+
+        return latestVersion == null
+            || (version.at(0) == (Integer) latestVersion[0] && version.at(1) == (Integer) latestVersion[1]);
+    }
+
+    /**
+     * @param basedoc the document for which to load a version
+     * @param version the version to load
+     * @param context the XWiki context
+     * @return the key of the version in the version cache, null if the version should not be cached
+     */
+    private String getVersionCacheKey(XWikiDocument basedoc, Version version, XWikiContext context)
+    {
+        // The creation date makes sure a deleted and recreated document does not get the versions of the old one
+        if (basedoc.isNew() || basedoc.getCreationDate() == null) {
+            return null;
+        }
+
+        String wiki = basedoc.getDatabase() != null ? basedoc.getDatabase() : context.getWikiId();
+        String documentKey = getDocumentVersionsKey(wiki, basedoc.getId());
+
+        return documentKey + ':' + basedoc.getCreationDate().getTime() + ':' + getVersionCacheGeneration(documentKey)
+            + ':' + version;
+    }
+
+    /**
+     * @param wiki the wiki of the document
+     * @param docId the identifier of the document
+     * @return the key of the generation of the document in {@link #versionCacheGenerations}
+     */
+    private String getDocumentVersionsKey(String wiki, long docId)
+    {
+        return wiki + ':' + docId;
+    }
+
+    /**
+     * @param documentKey the key of the document in {@link #versionCacheGenerations}
+     * @return the current generation of the cached versions of the document
+     */
+    private synchronized long getVersionCacheGeneration(String documentKey)
+    {
+        Long generation = this.versionCacheGenerations.get(documentKey);
+        if (generation == null) {
+            // A new generation never matches the versions cached before the document was invalidated (or before its
+            // generation was evicted)
+            generation = ++this.lastVersionCacheGeneration;
+            this.versionCacheGenerations.set(documentKey, generation);
+        }
+
+        return generation;
+    }
+
+    /**
+     * Make all the cached versions of a document unreachable.
+     *
+     * @param wiki the wiki of the document
+     * @param docId the identifier of the document
+     */
+    private synchronized void invalidateVersionCache(String wiki, long docId)
+    {
+        if (this.versionCacheGenerations != null) {
+            this.versionCacheGenerations.remove(getDocumentVersionsKey(wiki, docId));
+        }
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return the cache of rebuilt versions, null if it could not be created
+     */
+    private synchronized Cache<XWikiDocument> getVersionCache(XWikiContext context)
+    {
+        if (this.versionCache == null && !this.versionCacheDisabled) {
+            int capacity = DEFAULT_VERSION_CACHE_CAPACITY;
+            if (context.getWiki() != null) {
+                try {
+                    String param = context.getWiki().Param("xwiki.store.versioncache.capacity");
+                    if (param != null) {
+                        capacity = Integer.parseInt(param);
+                    }
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Invalid value for xwiki.store.versioncache.capacity, using [{}]", capacity);
+                }
+            }
+
+            if (capacity > 0) {
+                try {
+                    // Not injected when the store is created through the deprecated constructors
+                    CacheManager manager =
+                        this.cacheManager != null ? this.cacheManager : Utils.getComponent(CacheManager.class);
+                    // Each cached version needs the generation of its document so the same capacity is enough
+                    this.versionCacheGenerations = manager
+                        .createNewCache(new LRUCacheConfiguration("xwiki.store.versioncache.generations", capacity));
+                    this.versionCache =
+                        manager.createNewCache(new LRUCacheConfiguration("xwiki.store.versioncache", capacity));
+                } catch (Exception e) {
+                    LOGGER.warn("Failed to create the document version cache, versions won't be cached", e);
+                    this.versionCacheDisabled = true;
+                }
+            } else {
+                this.versionCacheDisabled = true;
+            }
+        }
+
+        return this.versionCache;
+    }
+
     @Override
     public void resetRCSArchive(final XWikiDocument doc, boolean bTransaction, final XWikiContext context)
         throws XWikiException
@@ -314,5 +657,19 @@ public Object doInHibernate(Session session) throws HibernateException, XWikiExc
                 return null;
             }
         });
+
+        // The versions of the document are not accessible anymore
+        invalidateVersionCache(doc.getDatabase() != null ? doc.getDatabase() : context.getWikiId(), doc.getId());
+    }
+
+    /**
+     * Remove all the rebuilt versions from the cache.
+     */
+    private synchronized void clearVersionCache()
+    {
+        if (this.versionCache != null) {
+            this.versionCacheGenerations.removeAll();
+            this.versionCache.removeAll();
+        }
     }
 }
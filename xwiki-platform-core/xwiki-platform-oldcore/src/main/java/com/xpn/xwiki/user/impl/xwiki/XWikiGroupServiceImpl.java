@@ -21,6 +21,8 @@
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -55,6 +57,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.user.GroupMembershipGraph;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.store.XWikiStoreInterface;
 import com.xpn.xwiki.user.api.XWikiGroupService;
@@ -149,6 +152,8 @@ public class XWikiGroupServiceImpl implements XWikiGroupService, EventListener
     private EntityReferenceSerializer<String> localWikiEntityReferenceSerializer = Utils.getComponent(
         EntityReferenceSerializer.TYPE_STRING, "local");
 
+    private GroupMembershipGraph membershipGraph;
+
     @Override
     public synchronized void init(XWiki xwiki, XWikiContext context) throws XWikiException
     {
@@ -194,6 +199,10 @@ public void flushCache()
         if (this.memberGroupsCache != null) {
             this.memberGroupsCache.removeAll();
         }
+
+        if (this.membershipGraph != null) {
+            this.membershipGraph.clear();
+        }
     }
 
     /**
@@ -211,6 +220,29 @@ protected boolean isAllGroupImplicit(XWikiContext context)
         return (implicit == 1);
     }
 
+    /**
+     * Check whether the groups of the members are kept in memory and updated when the groups are modified instead of
+     * being queried and cached. Configured by the {@code xwiki.authentication.group.graph} parameter in
+     * {@code xwiki.cfg}.
+     *
+     * @param context the current XWiki context
+     * @return {@code true} if the groups of the members are taken from the in-memory membership graph
+     * @since 7.1M1
+     */
+    public boolean isMembershipGraphEnabled(XWikiContext context)
+    {
+        return context.getWiki().ParamAsLong("xwiki.authentication.group.graph", 1) == 1;
+    }
+
+    private GroupMembershipGraph getMembershipGraph()
+    {
+        if (this.membershipGraph == null) {
+            this.membershipGraph = Utils.getComponent(GroupMembershipGraph.class);
+        }
+
+        return this.membershipGraph;
+    }
+
     @Override
     public Collection<String> listGroupsForUser(String member, XWikiContext context) throws XWikiException
     {
@@ -221,6 +253,11 @@ public Collection<String> listGroupsForUser(String member, XWikiContext context)
     public void addUserToGroup(String username, String database, String group, XWikiContext context)
         throws XWikiException
     {
+        if (isMembershipGraphEnabled(context)) {
+            // The group document has already been saved and the membership graph updated
+            return;
+        }
+
         String shortname = Util.getName(username);
         String key = database + "/" + database + ":" + shortname;
 
@@ -409,6 +446,13 @@ public void onEvent(Event event, Object source, Object data)
         XWikiDocument document = (XWikiDocument) source;
         XWikiDocument oldDocument = document.getOriginalDocument();
 
+        // The membership graph is kept up to date by its listener and by the security cache invalidator, the cache is
+        // not used in that case
+        XWikiContext context = (XWikiContext) data;
+        if (context != null && isMembershipGraphEnabled(context)) {
+            return;
+        }
+
         // if there is any chance some group changed, flush the group cache
         if (document.getXObject(GROUPCLASS_REFERENCE) != null || oldDocument.getXObject(GROUPCLASS_REFERENCE) != null) {
             flushCache();
@@ -723,6 +767,10 @@ public Collection<String> getAllGroupsNamesForMember(String member, int nb, int
     public Collection<DocumentReference> getAllGroupsReferencesForMember(DocumentReference memberReference, int limit,
         int offset, XWikiContext context) throws XWikiException
     {
+        if (isMembershipGraphEnabled(context)) {
+            return getAllGroupsReferencesForMemberFromGraph(memberReference, limit, offset, context);
+        }
+
         Collection<DocumentReference> groupReferences = null;
 
         String prefixedFullName = this.entityReferenceSerializer.serialize(memberReference);
@@ -777,18 +825,7 @@ public Collection<DocumentReference> getAllGroupsReferencesForMember(DocumentRef
                     groupReferences.add(this.currentMixedDocumentReferenceResolver.resolve(groupName));
                 }
 
-                // If the 'XWiki.XWikiAllGroup' is implicit, all users/groups except XWikiGuest and XWikiAllGroup
-                // itself are part of it.
-                if (isAllGroupImplicit(context)
-                    && memberReference.getWikiReference().getName().equals(context.getWikiId())
-                    && !memberReference.getName().equals(XWikiRightService.GUEST_USER)) {
-                    DocumentReference currentXWikiAllGroup =
-                        new DocumentReference(context.getWikiId(), "XWiki", XWikiRightService.ALLGROUP_GROUP);
-
-                    if (!currentXWikiAllGroup.equals(memberReference)) {
-                        groupReferences.add(currentXWikiAllGroup);
-                    }
-                }
+                addImplicitAllGroup(memberReference, groupReferences, context);
 
                 if (supportCache) {
                     this.memberGroupsCache.set(key, groupReferences);
@@ -799,6 +836,56 @@ public Collection<DocumentReference> getAllGroupsReferencesForMember(DocumentRef
         return groupReferences;
     }
 
+    private Collection<DocumentReference> getAllGroupsReferencesForMemberFromGraph(DocumentReference memberReference,
+        int limit, int offset, XWikiContext context) throws XWikiException
+    {
+        Collection<DocumentReference> groupReferences;
+        try {
+            groupReferences =
+                getMembershipGraph().getGroups(memberReference, new WikiReference(context.getWikiId()));
+        } catch (QueryException ex) {
+            throw new XWikiException(0, 0, ex.getMessage(), ex);
+        }
+
+        if (limit > 0 || offset > 0) {
+            // Sort the groups so that the pages are stable
+            List<DocumentReference> sortedReferences = new ArrayList<DocumentReference>(groupReferences);
+            Collections.sort(sortedReferences, new Comparator<DocumentReference>()
+            {
+                @Override
+                public int compare(DocumentReference reference1, DocumentReference reference2)
+                {
+                    return entityReferenceSerializer.serialize(reference1).compareTo(
+                        entityReferenceSerializer.serialize(reference2));
+                }
+            });
+
+            int fromIndex = Math.min(Math.max(offset, 0), sortedReferences.size());
+            int toIndex = limit > 0 ? Math.min(fromIndex + limit, sortedReferences.size()) : sortedReferences.size();
+            groupReferences = new HashSet<DocumentReference>(sortedReferences.subList(fromIndex, toIndex));
+        }
+
+        addImplicitAllGroup(memberReference, groupReferences, context);
+
+        return groupReferences;
+    }
+
+    private void addImplicitAllGroup(DocumentReference memberReference, Collection<DocumentReference> groupReferences,
+        XWikiContext context)
+    {
+        // If the 'XWiki.XWikiAllGroup' is implicit, all users/groups except XWikiGuest and XWikiAllGroup
+        // itself are part of it.
+        if (isAllGroupImplicit(context) && memberReference.getWikiReference().getName().equals(context.getWikiId())
+            && !memberReference.getName().equals(XWikiRightService.GUEST_USER)) {
+            DocumentReference currentXWikiAllGroup =
+                new DocumentReference(context.getWikiId(), "XWiki", XWikiRightService.ALLGROUP_GROUP);
+
+            if (!currentXWikiAllGroup.equals(memberReference)) {
+                groupReferences.add(currentXWikiAllGroup);
+            }
+        }
+    }
+
     @Override
     public Collection<String> getAllMembersNamesForGroup(String group, int nb, int start, XWikiContext context)
         throws XWikiException
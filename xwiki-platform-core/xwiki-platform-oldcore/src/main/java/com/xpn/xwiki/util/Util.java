@@ -67,6 +67,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.monitor.api.MonitorPlugin;
+import com.xpn.xwiki.plugin.XWikiPluginManager;
 import com.xpn.xwiki.render.WikiSubstitution;
 import com.xpn.xwiki.web.Utils;
 import com.xpn.xwiki.web.XWikiRequest;
@@ -603,7 +604,12 @@ public static MonitorPlugin getMonitorPlugin(XWikiContext context)
                 return null;
             }
 
-            return (MonitorPlugin) context.getWiki().getPlugin("monitor", context);
+            // Called several times per request: look the plugin up directly instead of going through
+            // XWiki#getPlugin() which iterates over all the plugins
+            XWikiPluginManager pluginManager = context.getWiki().getPluginManager();
+            MonitorPlugin monitor = pluginManager != null ? (MonitorPlugin) pluginManager.getPlugin("monitor") : null;
+
+            return monitor != null && monitor.isActive() ? monitor : null;
         } catch (Exception e) {
             return null;
         }
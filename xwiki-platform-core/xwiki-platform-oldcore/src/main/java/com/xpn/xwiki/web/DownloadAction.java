@@ -208,9 +208,9 @@ private static void writeByteRange(final XWikiAttachment attachment, Long start,
         throws XWikiException, IOException
     {
         if (start >= 0 && start < attachment.getContentSize(context)) {
-            InputStream data = attachment.getContentInputStream(context);
-            data = new BoundedInputStream(data, end + 1);
-            data.skip(start);
+            // Seek to the first requested byte instead of reading and dropping all the bytes before it
+            InputStream data =
+                new BoundedInputStream(attachment.getContentInputStream(start, context), end - start + 1);
             setCommonHeaders(attachment, request, response, context);
             response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
             if ((end - start + 1L) < Integer.MAX_VALUE) {
@@ -218,7 +218,11 @@ private static void writeByteRange(final XWikiAttachment attachment, Long start,
             }
             response.setHeader("Content-Range", "bytes " + start + "-" + end + SEPARATOR
                 + attachment.getContentSize(context));
-            IOUtils.copyLarge(data, response.getOutputStream());
+            try {
+                IOUtils.copyLarge(data, response.getOutputStream());
+            } finally {
+                IOUtils.closeQuietly(data);
+            }
         } else {
             response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
         }
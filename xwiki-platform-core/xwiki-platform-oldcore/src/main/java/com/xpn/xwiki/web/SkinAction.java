@@ -24,6 +24,8 @@
 import java.util.Arrays;
 import java.util.Date;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -34,6 +36,8 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.skin.SkinResourceCache;
+import com.xpn.xwiki.internal.web.ConditionalRequestUtils;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.util.Util;
 
@@ -68,6 +72,12 @@ public class SkinAction extends XWikiAction
     /** The encoding to use when reading text resources from the filesystem and when sending css/javascript responses. */
     private static final String ENCODING = "UTF-8";
 
+    /** The header used by the client to send the encodings it accepts. */
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
+    /** The gzip content encoding. */
+    private static final String GZIP_ENCODING = "gzip";
+
     @Override
     public String render(XWikiContext context) throws XWikiException
     {
@@ -235,28 +245,54 @@ private boolean renderFileFromFilesystem(String path, XWikiContext context) thro
     {
         LOGGER.debug("Rendering filesystem file from path [{}]", path);
         XWikiResponse response = context.getResponse();
+        String filename = path.substring(path.lastIndexOf("/") + 1, path.length());
+        String mimetype = context.getEngineContext().getMimeType(filename.toLowerCase());
+        boolean text = isCssMimeType(mimetype) || isJavascriptMimeType(mimetype) || isLessCssFile(filename);
+
+        // Static files are served directly from memory
+        SkinResourceCache resourceCache = Utils.getComponent(SkinResourceCache.class);
+        SkinResourceCache.Entry cachedResource = resourceCache.get(path);
+        if (cachedResource != null && !cachedResource.isDynamic()) {
+            if (text) {
+                response.setCharacterEncoding(ENCODING);
+            }
+            sendCachedResource(cachedResource, mimetype, context);
+            return true;
+        }
+
         try {
             byte[] data;
             data = context.getWiki().getResourceContentAsBytes(path);
             if (data != null && data.length > 0) {
-                String filename = path.substring(path.lastIndexOf("/") + 1, path.length());
-                String mimetype = context.getEngineContext().getMimeType(filename.toLowerCase());
                 Date modified = null;
-                if (isCssMimeType(mimetype) || isJavascriptMimeType(mimetype) || isLessCssFile(filename)) {
+                boolean dynamic = cachedResource != null;
+                if (text) {
                     // Always force UTF-8, as this is the assumed encoding for text files.
                     String rawContent = new String(data, ENCODING);
                     byte[] newdata = context.getWiki().parseContent(rawContent, context).getBytes(ENCODING);
                     // If the content contained velocity code, then it should not be cached
-                    if (Arrays.equals(newdata, data)) {
-                        modified = context.getWiki().getResourceLastModificationDate(path);
-                    } else {
+                    if (!dynamic && !Arrays.equals(newdata, data)) {
+                        dynamic = true;
+                        resourceCache.setDynamic(path);
+                    }
+                    if (dynamic) {
                         modified = new Date();
                         data = newdata;
+                    } else {
+                        modified = context.getWiki().getResourceLastModificationDate(path);
                     }
                     response.setCharacterEncoding(ENCODING);
                 } else {
                     modified = context.getWiki().getResourceLastModificationDate(path);
                 }
+                if (!dynamic) {
+                    SkinResourceCache.Entry staticResource =
+                        resourceCache.setStatic(path, data, isCompressible(mimetype, text), modified);
+                    if (staticResource != null) {
+                        sendCachedResource(staticResource, mimetype, context);
+                        return true;
+                    }
+                }
                 setupHeaders(response, mimetype, modified, data.length);
                 try {
                     response.getOutputStream().write(data);
@@ -272,6 +308,61 @@ private boolean renderFileFromFilesystem(String path, XWikiContext context) thro
         return false;
     }
 
+    /**
+     * Sends a static filesystem file kept in memory, taking into account the conditional request headers and the
+     * encodings accepted by the client.
+     *
+     * @param cachedResource the cached file
+     * @param mimetype the mime type of the file
+     * @param context the current {@link XWikiContext request context}
+     * @throws XWikiException if the response cannot be sent
+     */
+    private void sendCachedResource(SkinResourceCache.Entry cachedResource, String mimetype, XWikiContext context)
+        throws XWikiException
+    {
+        XWikiRequest request = context.getRequest();
+        XWikiResponse response = context.getResponse();
+
+        byte[] data = cachedResource.getContent();
+        String etag = cachedResource.getETag();
+        if (cachedResource.getGzipContent() != null) {
+            response.setHeader("Vary", ACCEPT_ENCODING_HEADER);
+            if (StringUtils.contains(request.getHeader(ACCEPT_ENCODING_HEADER), GZIP_ENCODING)) {
+                response.setHeader("Content-Encoding", GZIP_ENCODING);
+                data = cachedResource.getGzipContent();
+                // The gzipped content is not byte for byte the same as the identity one
+                etag = cachedResource.getGzipETag();
+            }
+        }
+
+        setupHeaders(response, mimetype, cachedResource.getLastModified(), data.length);
+        response.setHeader("ETag", etag);
+
+        if (ConditionalRequestUtils.isNotModified(etag, cachedResource.getLastModified().getTime(), request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            response.setContentLength(0);
+            return;
+        }
+
+        try {
+            response.getOutputStream().write(data);
+        } catch (IOException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_APP,
+                XWikiException.ERROR_XWIKI_APP_SEND_RESPONSE_EXCEPTION, "Exception while sending response", e);
+        }
+    }
+
+    /**
+     * @param mimetype the mime type of the file
+     * @param text <tt>true</tt> if the file is a text file that would be parsed
+     * @return <tt>true</tt> if it's worth keeping a gzipped copy of the file
+     */
+    private boolean isCompressible(String mimetype, boolean text)
+    {
+        return text || StringUtils.startsWithIgnoreCase(mimetype, "text/")
+            || StringUtils.endsWithIgnoreCase(mimetype, "+xml") || StringUtils.endsWithIgnoreCase(mimetype, "/json");
+    }
+
     /**
      * Tries to serve the content of an XWikiSkins object field as a skin file.
      *
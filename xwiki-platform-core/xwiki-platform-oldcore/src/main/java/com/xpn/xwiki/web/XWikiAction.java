@@ -70,6 +70,7 @@
 import com.xpn.xwiki.monitor.api.MonitorPlugin;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.plugin.fileupload.FileUploadPlugin;
+import com.xpn.xwiki.util.Util;
 
 /**
  * <p>
@@ -273,10 +274,6 @@ public ActionForward execute(XWikiContext context) throws Exception
 
             // Any error before this will be treated using a redirection to an error page
 
-            if (monitor != null) {
-                monitor.startTimer("request");
-            }
-
             VelocityManager velocityManager = Utils.getComponent(VelocityManager.class);
             VelocityContext vcontext = velocityManager.getVelocityContext();
 
@@ -288,9 +285,10 @@ public ActionForward execute(XWikiContext context) throws Exception
                 }
 
                 // Start monitoring timer
-                monitor = (MonitorPlugin) xwiki.getPlugin("monitor", context);
+                monitor = Util.getMonitorPlugin(context);
                 if (monitor != null) {
                     monitor.startRequest("", context.getAction(), context.getURL());
+                    monitor.startTimer("request");
                     monitor.startTimer("multipart");
                 }
 
@@ -322,6 +322,36 @@ public void testSaveDocumentSendsObservationEvents() throws Exception
         this.xwiki.saveDocument(document, getContext());
     }
 
+    public void testSaveDocumentWithoutSavedNotification() throws Exception
+    {
+        Mock mockListener = mock(EventListener.class);
+        mockListener.stubs().method("getName").will(returnValue("testlistener"));
+        DocumentReference ref = new DocumentReference("xwikitest", "Some", "Document");
+        mockListener.expects(once()).method("getEvents")
+            .will(returnValue(Arrays.asList(new DocumentCreatedEvent(ref), new DocumentCreatingEvent(ref))));
+
+        ObservationManager om = getComponentManager().getInstance(ObservationManager.class);
+        om.addListener((EventListener) mockListener.proxy());
+
+        XWikiDocument document = new XWikiDocument(new DocumentReference("xwikitest", "Some", "Document"));
+        document.setContent("the content");
+
+        // Only the listeners of the document about to be saved are notified by the save
+        mockListener.expects(once()).method("onEvent").with(isA(DocumentCreatingEvent.class), same(document),
+            isA(XWikiContext.class));
+
+        XWikiDocument originalDocument =
+            this.xwiki.saveDocumentWithoutSavedNotification(document, "comment", false, getContext());
+
+        assertTrue(originalDocument.isNew());
+        mockListener.verify();
+
+        mockListener.expects(once()).method("onEvent").with(isA(DocumentCreatedEvent.class), same(document),
+            isA(XWikiContext.class));
+
+        this.xwiki.notifyDocumentSaved(document, originalDocument, getContext());
+    }
+
     /**
      * We only verify here that the deleteDocument API calls the Observation component.
      */
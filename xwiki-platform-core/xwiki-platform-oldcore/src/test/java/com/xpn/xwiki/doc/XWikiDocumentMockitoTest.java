@@ -21,6 +21,7 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
@@ -58,7 +59,9 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.api.Document;
 import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
 import com.xpn.xwiki.objects.classes.TextAreaClass;
 import com.xpn.xwiki.test.MockitoOldcoreRule;
 import com.xpn.xwiki.web.EditForm;
@@ -342,4 +345,64 @@ public void readObjectsFromFormUpdateOrCreate() throws Exception
         assertEquals("bloublou", this.document.getXObject(baseClass.getDocumentReference(), 42).getStringValue("string"));
         assertEquals(7, this.document.getXObject(baseClass.getDocumentReference(), 42).getIntValue("int"));
     }
+
+    @Test
+    public void resetOriginalDocument() throws Exception
+    {
+        DocumentReference classReference = this.document.getDocumentReference();
+        BaseObject object = this.document.newXObject(classReference, this.oldcore.getXWikiContext());
+        object.setStringValue("string", "value");
+
+        this.document.resetOriginalDocument();
+
+        XWikiDocument originalDocument = this.document.getOriginalDocument();
+
+        // The object is shared as long as it's not modified
+        assertSame(object, originalDocument.getXObject(classReference, 0));
+
+        // Adding an object to the document does not impact the original document
+        this.document.newXObject(classReference, this.oldcore.getXWikiContext());
+        assertEquals(2, this.document.getXObjectSize(classReference));
+        assertEquals(1, originalDocument.getXObjectSize(classReference));
+        assertSame(object, originalDocument.getXObject(classReference, 0));
+
+        // Modifying the object gives the original document its own copy
+        ((BaseProperty) object.getField("string")).setValue("modified");
+
+        BaseObject originalObject = originalDocument.getXObject(classReference, 0);
+        assertNotSame(object, originalObject);
+        assertEquals("value", originalObject.getStringValue("string"));
+        assertEquals("modified", object.getStringValue("string"));
+    }
+
+    @Test
+    public void resetOriginalDocumentWithModifiedElements() throws Exception
+    {
+        BaseClass baseClass = this.document.getXClass();
+        baseClass.addTextField("string", "String", 30);
+        DocumentReference classReference = this.document.getDocumentReference();
+        BaseObject object = this.document.newXObject(classReference, this.oldcore.getXWikiContext());
+        object.setStringValue("string", "value");
+
+        this.document.resetOriginalDocument();
+
+        XWikiDocument originalDocument = this.document.getOriginalDocument();
+
+        // Modifying a property which has never been saved (and is thus still dirty) is not visible in the original
+        // document
+        object.setStringValue("string", "modified");
+        BaseObject originalObject = originalDocument.getXObject(classReference, 0);
+        assertNotSame(object, originalObject);
+        assertEquals("value", originalObject.getStringValue("string"));
+
+        // Same for the object identity
+        String guid = object.getGuid();
+        object.setGuid("newguid");
+        assertEquals(guid, originalObject.getGuid());
+
+        // And for the class meta properties
+        ((PropertyClass) baseClass.get("string")).setPrettyName("Modified");
+        assertNotSame(baseClass, originalDocument.getXClass());
+        assertEquals("String", ((PropertyClass) originalDocument.getXClass().get("string")).getPrettyName());
+    }
 }
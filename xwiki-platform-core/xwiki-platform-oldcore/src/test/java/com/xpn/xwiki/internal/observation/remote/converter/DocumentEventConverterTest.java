@@ -25,35 +25,87 @@
 import java.io.ObjectOutputStream;
 
 import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.configuration.internal.MemoryConfigurationSource;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.remote.LocalEventData;
 import org.xwiki.observation.remote.RemoteEventData;
 import org.xwiki.observation.remote.converter.EventConverterManager;
+import org.xwiki.test.annotation.AfterComponent;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.internal.MockConfigurationSource;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.test.MockitoOldcoreRule;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Validate {@link DocumentEventConverter};
  * 
  * @version $Id$
  */
-public class DocumentEventConverterTest extends AbstractBridgedComponentTestCase
+@AllComponents
+public class DocumentEventConverterTest
 {
-    @Test
-    public void testConvertWithOriginalDocNull() throws Exception
+    private static final DocumentReference REFERENCE = new DocumentReference("wiki", "space", "page");
+
+    @Rule
+    public MockitoOldcoreRule oldcore = new MockitoOldcoreRule();
+
+    private MemoryConfigurationSource xwikiProperties = new MemoryConfigurationSource();
+
+    private XWikiStoreInterface notCacheStore = mock(XWikiStoreInterface.class, "notCacheStore");
+
+    private Cache<XWikiDocument> documentCache;
+
+    @AfterComponent
+    public void afterComponent() throws Exception
     {
-        EventConverterManager eventConverterManager = getComponentManager().getInstance(EventConverterManager.class);
+        this.oldcore.getMocker().registerComponent(MockConfigurationSource.getDescriptor("xwikiproperties"),
+            this.xwikiProperties);
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void before() throws Exception
+    {
+        this.documentCache = mock(Cache.class);
+        XWikiCacheStore cacheStore = mock(XWikiCacheStore.class);
+        when(cacheStore.getCache()).thenReturn(this.documentCache);
+
+        when(this.oldcore.getMockXWiki().getStore()).thenReturn(cacheStore);
+        when(this.oldcore.getMockXWiki().getNotCacheStore()).thenReturn(this.notCacheStore);
+        when(this.oldcore.getMockXWiki().getEncoding()).thenReturn("UTF-8");
+    }
+
+    /**
+     * Convert the local event to a remote event, serialize it and convert it back to a local event.
+     */
+    private LocalEventData convert(XWikiDocument document) throws Exception
+    {
+        EventConverterManager eventConverterManager =
+            this.oldcore.getMocker().getInstance(EventConverterManager.class);
 
         // local -> remote
 
         LocalEventData localEvent = new LocalEventData();
-        localEvent.setEvent(new DocumentUpdatedEvent(new DocumentReference("wiki","space","page")));
-        localEvent.setSource(new XWikiDocument(new DocumentReference("wiki", "space", "page")));
-        localEvent.setData(getContext());
+        localEvent.setEvent(new DocumentUpdatedEvent(document.getDocumentReference()));
+        localEvent.setSource(document);
+        localEvent.setData(this.oldcore.getXWikiContext());
 
         RemoteEventData remoteEvent = eventConverterManager.createRemoteEventData(localEvent);
 
@@ -74,9 +126,138 @@ public void testConvertWithOriginalDocNull() throws Exception
 
         Assert.assertTrue(localEvent2.getSource() instanceof XWikiDocument);
         Assert.assertTrue(localEvent2.getData() instanceof XWikiContext);
-        Assert.assertEquals("wiki", ((XWikiDocument) localEvent2.getSource()).getWikiName());
-        Assert.assertEquals("space", ((XWikiDocument) localEvent2.getSource()).getSpaceName());
-        Assert.assertEquals("page", ((XWikiDocument) localEvent2.getSource()).getPageName());
-        Assert.assertTrue(((XWikiDocument) localEvent2.getSource()).getOriginalDocument().isNew());
+
+        return localEvent2;
+    }
+
+    /**
+     * @return a saved document in version 2.1 with its previous version 1.1 as original document
+     */
+    private XWikiDocument createUpdatedDocument()
+    {
+        XWikiDocument originalDocument = new XWikiDocument(REFERENCE);
+        originalDocument.setContent("old content");
+        originalDocument.setVersion("1.1");
+        originalDocument.setNew(false);
+
+        XWikiDocument document = new XWikiDocument(REFERENCE);
+        document.setContent("content");
+        document.setVersion("2.1");
+        document.setNew(false);
+        document.setOriginalDocument(originalDocument);
+
+        return document;
+    }
+
+    /**
+     * @return a document in version 1.1 stored in the document cache
+     */
+    private XWikiDocument cacheOriginalDocument()
+    {
+        XWikiDocument cachedDocument = new XWikiDocument(REFERENCE);
+        cachedDocument.setContent("old content");
+        cachedDocument.setVersion("1.1");
+        cachedDocument.setNew(false);
+        when(this.documentCache.get(anyString())).thenReturn(cachedDocument);
+
+        return cachedDocument;
+    }
+
+    @Test
+    public void testConvertWithOriginalDocNull() throws Exception
+    {
+        LocalEventData localEvent = convert(new XWikiDocument(REFERENCE));
+
+        Assert.assertEquals("wiki", ((XWikiDocument) localEvent.getSource()).getWikiName());
+        Assert.assertEquals("space", ((XWikiDocument) localEvent.getSource()).getSpaceName());
+        Assert.assertEquals("page", ((XWikiDocument) localEvent.getSource()).getPageName());
+        Assert.assertTrue(((XWikiDocument) localEvent.getSource()).getOriginalDocument().isNew());
+    }
+
+    @Test
+    public void testConvertWithOriginalDocInCache() throws Exception
+    {
+        XWikiDocument cachedDocument = cacheOriginalDocument();
+
+        XWikiDocument loadedDocument = new XWikiDocument(REFERENCE);
+        loadedDocument.setVersion("2.1");
+        loadedDocument.setNew(false);
+        when(this.notCacheStore.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenReturn(
+            loadedDocument);
+
+        LocalEventData localEvent = convert(createUpdatedDocument());
+
+        XWikiDocument document = (XWikiDocument) localEvent.getSource();
+        Assert.assertSame(loadedDocument, document);
+
+        // The original document comes from the cache but it's a copy: the cached instance is never modified
+        XWikiDocument originalDocument = document.getOriginalDocument();
+        Assert.assertNotSame(cachedDocument, originalDocument);
+        Assert.assertEquals("1.1", originalDocument.getVersion());
+        Assert.assertEquals("old content", originalDocument.getContent());
+        Assert.assertNull(cachedDocument.getOriginalDocument());
+
+        // Only the new version is loaded from the database
+        verify(this.notCacheStore, times(1)).loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+    }
+
+    @Test
+    public void testConvertWithDocumentInCache() throws Exception
+    {
+        XWikiDocument cachedDocument = cacheOriginalDocument();
+        cachedDocument.setVersion("2.1");
+
+        XWikiDocument loadedDocument = new XWikiDocument(REFERENCE);
+        loadedDocument.setVersion("1.1");
+        loadedDocument.setNew(false);
+        when(this.notCacheStore.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenReturn(
+            loadedDocument);
+
+        LocalEventData localEvent = convert(createUpdatedDocument());
+
+        // The original document is set on a copy of the cached document
+        XWikiDocument document = (XWikiDocument) localEvent.getSource();
+        Assert.assertNotSame(cachedDocument, document);
+        Assert.assertEquals("2.1", document.getVersion());
+        Assert.assertSame(loadedDocument, document.getOriginalDocument());
+        Assert.assertNull(cachedDocument.getOriginalDocument());
+    }
+
+    @Test
+    public void testConvertWithDocumentXML() throws Exception
+    {
+        this.xwikiProperties.setProperty("observation.remote.document.xmlMaxSize", 65536);
+
+        cacheOriginalDocument();
+
+        LocalEventData localEvent = convert(createUpdatedDocument());
+
+        // The new version is rebuilt from the XML sent with the event and the original one comes from the cache
+        XWikiDocument document = (XWikiDocument) localEvent.getSource();
+        Assert.assertEquals(REFERENCE, document.getDocumentReference());
+        Assert.assertEquals("2.1", document.getVersion());
+        Assert.assertEquals("content", document.getContent());
+        Assert.assertFalse(document.isNew());
+        Assert.assertEquals("1.1", document.getOriginalDocument().getVersion());
+
+        verify(this.notCacheStore, never()).loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+    }
+
+    @Test
+    public void testConvertWithDocumentXMLTooBig() throws Exception
+    {
+        this.xwikiProperties.setProperty("observation.remote.document.xmlMaxSize", 1);
+
+        cacheOriginalDocument();
+
+        XWikiDocument loadedDocument = new XWikiDocument(REFERENCE);
+        loadedDocument.setVersion("2.1");
+        loadedDocument.setNew(false);
+        when(this.notCacheStore.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenReturn(
+            loadedDocument);
+
+        LocalEventData localEvent = convert(createUpdatedDocument());
+
+        Assert.assertSame(loadedDocument, localEvent.getSource());
     }
 }
@@ -20,11 +20,15 @@
 package com.xpn.xwiki.internal.template;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.context.Context;
 import org.junit.Before;
@@ -50,6 +54,8 @@
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -100,6 +106,24 @@ private void setTemplateContent(String content) throws UnsupportedEncodingExcept
         when(this.environmentMock.getResource("/templates/template")).thenReturn(new URL("http://url"));
     }
 
+    private File setTemplateFile(final String content) throws IOException
+    {
+        File file = new File("target/templates/" + this.getClass().getSimpleName(), "template");
+        FileUtils.write(file, content, "UTF8");
+
+        when(this.environmentMock.getResourceAsStream("/templates/template")).then(new Answer<InputStream>()
+        {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable
+            {
+                return new ByteArrayInputStream(content.getBytes("UTF8"));
+            }
+        });
+        when(this.environmentMock.getResource("/templates/template")).thenReturn(file.toURI().toURL());
+
+        return file;
+    }
+
     // Tests
 
     @Test
@@ -132,4 +156,29 @@ public void testRenderWiki() throws Exception
 
         assertEquals("<p>first line<br/>second line</p>", mocker.getComponentUnderTest().render("template"));
     }
+
+    @Test
+    public void testRenderWikiTwice() throws Exception
+    {
+        setTemplateFile("##!source.syntax=xwiki/2.1\nfirst line\\\\second line");
+
+        assertEquals("<p>first line<br/>second line</p>", mocker.getComponentUnderTest().render("template"));
+        assertEquals("<p>first line<br/>second line</p>", mocker.getComponentUnderTest().render("template"));
+
+        // The template is loaded only once
+        verify(this.environmentMock, times(1)).getResourceAsStream("/templates/template");
+    }
+
+    @Test
+    public void testRenderModifiedTemplate() throws Exception
+    {
+        File file = setTemplateFile("##!source.syntax=xwiki/2.1\nfirst content");
+
+        assertEquals("<p>first content</p>", mocker.getComponentUnderTest().render("template"));
+
+        setTemplateFile("##!source.syntax=xwiki/2.1\nsecond content");
+        file.setLastModified(file.lastModified() - 10000);
+
+        assertEquals("<p>second content</p>", mocker.getComponentUnderTest().render("template"));
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.user;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link GroupMembershipGraphListener}.
+ *
+ * @version $Id$
+ */
+public class GroupMembershipGraphListenerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<EventListener> mocker = new MockitoComponentMockingRule<EventListener>(
+        GroupMembershipGraphListener.class);
+
+    @Test
+    public void onDocumentEvent() throws Exception
+    {
+        XWikiDocument updatedDocument = mock(XWikiDocument.class, "updated");
+        XWikiDocument deletedDocument = mock(XWikiDocument.class, "deleted");
+
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(), updatedDocument, null);
+        this.mocker.getComponentUnderTest().onEvent(new DocumentDeletedEvent(), deletedDocument, null);
+
+        GroupMembershipGraph graph = this.mocker.getInstance(GroupMembershipGraph.class);
+        verify(graph).update(updatedDocument);
+        verify(graph).update(deletedDocument);
+    }
+
+    @Test
+    public void onWikiDeleted() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new WikiDeletedEvent("wiki"), null, null);
+
+        verify(this.mocker.getInstance(GroupMembershipGraph.class)).removeWiki("wiki");
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.user;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.user.impl.xwiki.XWikiGroupServiceImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link GroupMembershipGraph}.
+ *
+ * @version $Id$
+ */
+public class GroupMembershipGraphTest
+{
+    @Rule
+    public MockitoComponentMockingRule<GroupMembershipGraph> mocker =
+        new MockitoComponentMockingRule<GroupMembershipGraph>(GroupMembershipGraph.class);
+
+    private WikiReference wiki = new WikiReference("wiki");
+
+    private DocumentReference user = new DocumentReference("wiki", "XWiki", "user");
+
+    private DocumentReference group1 = new DocumentReference("wiki", "XWiki", "group1");
+
+    private DocumentReference group2 = new DocumentReference("wiki", "XWiki", "group2");
+
+    private Query query;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        EntityReferenceSerializer<String> serializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        EntityReferenceSerializer<String> localSerializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "currentmixed");
+        for (DocumentReference reference : Arrays.asList(this.user, this.group1, this.group2)) {
+            String localName = "XWiki." + reference.getName();
+            when(serializer.serialize(reference)).thenReturn("wiki:" + localName);
+            when(localSerializer.serialize(reference)).thenReturn(localName);
+            when(resolver.resolve(localName, this.wiki)).thenReturn(reference);
+        }
+
+        this.query = mock(Query.class);
+        QueryManager queryManager = this.mocker.getInstance(QueryManager.class);
+        when(queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.query);
+        List<Object> results =
+            Arrays.<Object>asList(new Object[] {"XWiki.group1", "XWiki.user"}, new Object[] {"XWiki.group2",
+                "wiki:XWiki.group1"}, new Object[] {"XWiki.group2", ""});
+        when(this.query.execute()).thenReturn(results);
+    }
+
+    private XWikiDocument createGroupDocument(DocumentReference reference, String... members)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(reference);
+        when(document.getLocale()).thenReturn(Locale.ROOT);
+
+        List<BaseObject> objects = new ArrayList<BaseObject>();
+        for (String member : members) {
+            BaseObject object = mock(BaseObject.class);
+            when(object.getStringValue("member")).thenReturn(member);
+            objects.add(object);
+        }
+        when(document.getXObjects(XWikiGroupServiceImpl.GROUPCLASS_REFERENCE)).thenReturn(objects);
+
+        return document;
+    }
+
+    @Test
+    public void getGroups() throws Exception
+    {
+        GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+
+        assertEquals(Collections.singleton(this.group1), new HashSet<DocumentReference>(graph.getGroups(this.user,
+            this.wiki)));
+        assertEquals(new HashSet<DocumentReference>(Arrays.asList(this.group1, this.group2)),
+            new HashSet<DocumentReference>(graph.getAllGroups(this.user, this.wiki)));
+        assertEquals(Collections.singleton(this.group2), new HashSet<DocumentReference>(graph.getAllGroups(
+            this.group1, this.wiki)));
+
+        verify(this.query).setWiki("wiki");
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    public void updateGroup() throws Exception
+    {
+        GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+        graph.getGroups(this.user, this.wiki);
+
+        // Move the user from group1 to group2
+        graph.update(createGroupDocument(this.group1));
+        graph.update(createGroupDocument(this.group2, "wiki:XWiki.group1", "XWiki.user"));
+
+        assertEquals(Collections.singleton(this.group2), new HashSet<DocumentReference>(graph.getGroups(this.user,
+            this.wiki)));
+        assertEquals(Collections.singleton(this.group2), new HashSet<DocumentReference>(graph.getAllGroups(
+            this.user, this.wiki)));
+        assertEquals(Collections.singleton(this.group2), new HashSet<DocumentReference>(graph.getGroups(
+            this.group1, this.wiki)));
+
+        // The changes are not read from the database
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    public void removeMember() throws Exception
+    {
+        GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+        graph.getGroups(this.user, this.wiki);
+
+        // The user is removed from group1, which stays a member of group2
+        graph.update(createGroupDocument(this.group1, ""));
+
+        assertTrue(graph.getGroups(this.user, this.wiki).isEmpty());
+        assertTrue(graph.getAllGroups(this.user, this.wiki).isEmpty());
+        assertEquals(Collections.singleton(this.group2), new HashSet<DocumentReference>(graph.getGroups(
+            this.group1, this.wiki)));
+
+        // Applying the same modification again doesn't change anything
+        graph.update(createGroupDocument(this.group1, ""));
+        assertTrue(graph.getAllGroups(this.user, this.wiki).isEmpty());
+
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    public void deleteGroup() throws Exception
+    {
+        GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+        graph.getGroups(this.user, this.wiki);
+
+        // A deleted document has no object
+        XWikiDocument deletedGroup = createGroupDocument(this.group2);
+        when(deletedGroup.getXObjects(XWikiGroupServiceImpl.GROUPCLASS_REFERENCE)).thenReturn(null);
+        graph.update(deletedGroup);
+
+        assertEquals(Collections.singleton(this.group1), new HashSet<DocumentReference>(graph.getAllGroups(
+            this.user, this.wiki)));
+        assertTrue(graph.getGroups(this.group1, this.wiki).isEmpty());
+    }
+
+    @Test
+    public void updateTranslation() throws Exception
+    {
+        GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+        graph.getGroups(this.user, this.wiki);
+
+        // The group objects are only in the default translation
+        XWikiDocument translation = createGroupDocument(this.group1);
+        when(translation.getLocale()).thenReturn(Locale.FRENCH);
+        graph.update(translation);
+
+        assertEquals(Collections.singleton(this.group1), new HashSet<DocumentReference>(graph.getGroups(this.user,
+            this.wiki)));
+    }
+
+    @Test
+    public void removeWiki() throws Exception
+    {
+        GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+        graph.getGroups(this.user, this.wiki);
+
+        graph.removeWiki("wiki");
+        graph.getGroups(this.user, this.wiki);
+
+        // The groups are loaded again
+        verify(this.query, times(2)).execute();
+    }
+}
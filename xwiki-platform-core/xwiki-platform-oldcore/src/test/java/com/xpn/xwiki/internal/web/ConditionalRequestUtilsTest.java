@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.web;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ConditionalRequestUtils}.
+ *
+ * @version $Id$
+ */
+public class ConditionalRequestUtilsTest
+{
+    private static final String ETAG = "\"abc\"";
+
+    private HttpServletRequest request = mock(HttpServletRequest.class);
+
+    @Before
+    public void setUp()
+    {
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+    }
+
+    @Test
+    public void noConditionalHeader()
+    {
+        assertFalse(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+    }
+
+    @Test
+    public void etagMatches()
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn(ETAG);
+
+        assertTrue(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+    }
+
+    @Test
+    public void etagDoesNotMatch()
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\"");
+
+        assertFalse(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+    }
+
+    @Test
+    public void oneOfTheETagsMatches()
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\",  \"abc\" , \"last\"");
+
+        assertTrue(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+    }
+
+    @Test
+    public void noneOfTheETagsMatches()
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\", \"abcd\", \"ab\"");
+
+        assertFalse(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+    }
+
+    @Test
+    public void weakETagMatches()
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("W/\"abc\"");
+
+        assertTrue(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+        assertTrue(ConditionalRequestUtils.isNotModified("W/\"abc\"", 10000, this.request));
+    }
+
+    @Test
+    public void wildcardMatchesAnyETag()
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("*");
+
+        assertTrue(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+        assertTrue(ConditionalRequestUtils.isNotModified(null, 0, this.request));
+    }
+
+    @Test
+    public void etagRequiredToMatch()
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn(ETAG);
+
+        assertFalse(ConditionalRequestUtils.isNotModified(null, 10000, this.request));
+    }
+
+    @Test
+    public void ifModifiedSinceIsIgnoredWhenIfNoneMatchIsPresent()
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\"");
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(20000L);
+
+        assertFalse(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+    }
+
+    @Test
+    public void notModifiedSince()
+    {
+        // HTTP dates have a precision of one second
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(10000L);
+
+        assertTrue(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+        assertTrue(ConditionalRequestUtils.isNotModified(ETAG, 10999, this.request));
+        assertFalse(ConditionalRequestUtils.isNotModified(ETAG, 11000, this.request));
+    }
+
+    @Test
+    public void ifModifiedSinceIsIgnoredWhenLastModifiedDateIsUnknown()
+    {
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(10000L);
+
+        assertFalse(ConditionalRequestUtils.isNotModified(ETAG, 0, this.request));
+    }
+
+    @Test
+    public void invalidIfModifiedSince()
+    {
+        when(this.request.getDateHeader("If-Modified-Since")).thenThrow(new IllegalArgumentException());
+
+        assertFalse(ConditionalRequestUtils.isNotModified(ETAG, 10000, this.request));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the timer tree of {@link MonitorData}.
+ *
+ * @version $Id$
+ */
+public class MonitorDataTest
+{
+    private MonitorData data;
+
+    @Before
+    public void setUp()
+    {
+        this.data = new MonitorData("Main.WebHome", "view", null, "thread");
+    }
+
+    private void assertTimer(String expectedName, int expectedChildren, MonitorTimer timer)
+    {
+        Assert.assertEquals(expectedName, timer.getName());
+        Assert.assertEquals(expectedChildren, timer.getChildren().size());
+        Assert.assertFalse(timer.isRunning());
+    }
+
+    @Test
+    public void timerTree()
+    {
+        this.data.startTimer("action");
+        this.data.startTimer("database");
+        this.data.endTimer("database");
+        this.data.startTimer("rendering");
+        this.data.startTimer("database");
+        this.data.endTimer("database");
+        this.data.endTimer("rendering");
+        this.data.endTimer("action");
+        this.data.startTimer("database");
+        this.data.endTimer("database");
+
+        List<MonitorTimer> roots = this.data.getTimerTree();
+        Assert.assertEquals(2, roots.size());
+
+        MonitorTimer action = roots.get(0);
+        assertTimer("action", 2, action);
+        Assert.assertNull(action.getParent());
+        assertTimer("database", 0, action.getChildren().get(0));
+        Assert.assertSame(action, action.getChildren().get(0).getParent());
+
+        MonitorTimer rendering = action.getChildren().get(1);
+        assertTimer("rendering", 1, rendering);
+        assertTimer("database", 0, rendering.getChildren().get(0));
+        Assert.assertSame(rendering, rendering.getChildren().get(0).getParent());
+
+        assertTimer("database", 0, roots.get(1));
+
+        // The summaries count the calls whatever their position in the tree
+        Assert.assertEquals(3, this.data.getNbCalls("database"));
+        Assert.assertEquals(1, this.data.getNbCalls("rendering"));
+        Assert.assertEquals(1, this.data.getNbCalls("action"));
+    }
+
+    @Test
+    public void stopTimerEndsTheInnermostTimerWithTheName()
+    {
+        this.data.startTimer("include");
+        this.data.startTimer("include");
+
+        MonitorTimer inner = this.data.stopTimer("include");
+
+        Assert.assertFalse(inner.isRunning());
+        MonitorTimer outer = this.data.getTimerTree().get(0);
+        Assert.assertTrue(outer.isRunning());
+        Assert.assertSame(outer, inner.getParent());
+
+        Assert.assertSame(outer, this.data.stopTimer("include"));
+        Assert.assertFalse(outer.isRunning());
+        Assert.assertEquals(2, this.data.getNbCalls("include"));
+    }
+
+    @Test
+    public void stopTimerEndsTheNestedTimersNotEnded()
+    {
+        this.data.startTimer("action");
+        this.data.startTimer("rendering");
+        this.data.startTimer("macro");
+
+        MonitorTimer action = this.data.stopTimer("action");
+
+        MonitorTimer rendering = action.getChildren().get(0);
+        Assert.assertFalse(rendering.isRunning());
+        Assert.assertFalse(rendering.getChildren().get(0).isRunning());
+        // Only the timers which have been explicitly ended are counted
+        Assert.assertEquals(1, this.data.getNbCalls("action"));
+        Assert.assertEquals(0, this.data.getNbCalls("rendering"));
+
+        // The nested timers are not running anymore
+        Assert.assertNull(this.data.stopTimer("macro"));
+
+        // The next timer is a root
+        this.data.startTimer("database");
+        Assert.assertEquals(2, this.data.getTimerTree().size());
+    }
+
+    @Test
+    public void stopUnknownTimer()
+    {
+        this.data.startTimer("action");
+
+        Assert.assertNull(this.data.stopTimer("unknown"));
+        Assert.assertTrue(this.data.getTimerTree().get(0).isRunning());
+        Assert.assertEquals(0, this.data.getNbCalls("unknown"));
+    }
+
+    @Test
+    public void setTimerDetails()
+    {
+        this.data.startTimer("database", "select 1");
+        this.data.startTimer("cache");
+
+        this.data.setTimerDetails("database", "select 2");
+        this.data.endTimer("cache");
+        this.data.endTimer("database");
+
+        MonitorTimer database = this.data.getTimerTree().get(0);
+        Assert.assertEquals("select 2", database.getDetails());
+        Assert.assertEquals(2, this.data.getTimerList().size());
+    }
+
+    @Test
+    public void treeSizeIsBounded()
+    {
+        this.data.startTimer("action");
+        for (int i = 0; i < 10000; ++i) {
+            this.data.startTimer("loop");
+            this.data.endTimer("loop");
+        }
+        this.data.endTimer("action");
+
+        // The extra timers are still counted
+        Assert.assertEquals(10000, this.data.getNbCalls("loop"));
+        Assert.assertEquals(9999, this.data.getTimerTree().get(0).getChildren().size());
+        Assert.assertEquals(1, this.data.getNbCalls("action"));
+    }
+}
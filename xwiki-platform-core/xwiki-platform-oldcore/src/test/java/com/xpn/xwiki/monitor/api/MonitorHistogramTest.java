@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link MonitorHistogram}.
+ *
+ * @version $Id$
+ */
+public class MonitorHistogramTest
+{
+    private static final double DELTA = 0.0000001;
+
+    /**
+     * The maximum relative error of a percentile.
+     */
+    private static final double MAX_ERROR = 0.125;
+
+    private void recordMicros(MonitorHistogram histogram, long micros)
+    {
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+
+    private void recordMillis(MonitorHistogram histogram, long millis)
+    {
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void empty()
+    {
+        MonitorHistogram histogram = new MonitorHistogram();
+
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMean(), DELTA);
+        Assert.assertEquals(0, histogram.getMax(), DELTA);
+        Assert.assertEquals(0, histogram.getPercentile(50), DELTA);
+    }
+
+    @Test
+    public void countMeanAndMax()
+    {
+        MonitorHistogram histogram = new MonitorHistogram();
+
+        recordMillis(histogram, 1);
+        recordMillis(histogram, 3);
+        recordMicros(histogram, 8500);
+
+        Assert.assertEquals(3, histogram.getCount());
+        Assert.assertEquals(12.5 / 3, histogram.getMean(), DELTA);
+        Assert.assertEquals(8.5, histogram.getMax(), DELTA);
+    }
+
+    @Test
+    public void negativeDurationIsRecordedAsZero()
+    {
+        MonitorHistogram histogram = new MonitorHistogram();
+
+        histogram.record(-1000);
+
+        Assert.assertEquals(1, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax(), DELTA);
+        Assert.assertEquals(0, histogram.getPercentile(100), DELTA);
+    }
+
+    @Test
+    public void smallDurationsAreExact()
+    {
+        // Each duration below 8 microseconds has its own bucket
+        for (long micros = 0; micros < 8; ++micros) {
+            MonitorHistogram histogram = new MonitorHistogram();
+            recordMicros(histogram, micros);
+            recordMicros(histogram, 1000000);
+
+            Assert.assertEquals(micros / 1000D, histogram.getPercentile(50), DELTA);
+        }
+    }
+
+    @Test
+    public void bucketBounds()
+    {
+        // Check the values around the bucket bounds of each power of two
+        for (int power = 3; power < 40; ++power) {
+            long powerOfTwo = 1L << power;
+            long step = powerOfTwo / 8;
+            for (long lowerBound = powerOfTwo; lowerBound < powerOfTwo * 2; lowerBound += step) {
+                assertPercentileBounds(lowerBound - 1);
+                assertPercentileBounds(lowerBound);
+                assertPercentileBounds(lowerBound + step / 2);
+            }
+        }
+    }
+
+    /**
+     * The percentile is the upper bound of the bucket containing the value: it is never lower than the value, and at
+     * most 12.5% higher.
+     */
+    private void assertPercentileBounds(long micros)
+    {
+        MonitorHistogram histogram = new MonitorHistogram();
+        recordMicros(histogram, micros);
+        recordMicros(histogram, Long.MAX_VALUE / 1000);
+
+        double percentile = histogram.getPercentile(50);
+        double expected = micros / 1000D;
+
+        Assert.assertTrue("Percentile " + percentile + " lower than " + expected, percentile >= expected);
+        Assert.assertTrue("Percentile " + percentile + " too far from " + expected,
+            percentile <= expected * (1 + MAX_ERROR));
+    }
+
+    @Test
+    public void percentileIsNeverHigherThanMax()
+    {
+        MonitorHistogram histogram = new MonitorHistogram();
+
+        recordMicros(histogram, 1000);
+        recordMicros(histogram, 1001);
+
+        // 1000 and 1001 are in the bucket [960, 1023]
+        Assert.assertEquals(1.001, histogram.getPercentile(50), DELTA);
+        Assert.assertEquals(1.001, histogram.getPercentile(100), DELTA);
+
+        recordMicros(histogram, 2000);
+
+        Assert.assertEquals(1.023, histogram.getPercentile(50), DELTA);
+    }
+
+    @Test
+    public void percentiles()
+    {
+        MonitorHistogram histogram = new MonitorHistogram();
+
+        // Record in reverse order to make sure the order doesn't matter
+        for (int millis = 100; millis > 0; --millis) {
+            recordMillis(histogram, millis);
+        }
+
+        assertPercentile(50, histogram.getPercentile(50));
+        assertPercentile(90, histogram.getPercentile(90));
+        assertPercentile(99, histogram.getPercentile(99));
+        Assert.assertEquals(100, histogram.getPercentile(100), DELTA);
+        // Out of range percentiles
+        Assert.assertEquals(100, histogram.getPercentile(200), DELTA);
+        assertPercentile(1, histogram.getPercentile(0));
+    }
+
+    private void assertPercentile(double expected, double actual)
+    {
+        Assert.assertTrue("Percentile " + actual + " lower than " + expected, actual >= expected);
+        Assert.assertTrue("Percentile " + actual + " too far from " + expected,
+            actual <= expected * (1 + MAX_ERROR));
+    }
+
+    @Test
+    public void concurrentRecords() throws Exception
+    {
+        final MonitorHistogram histogram = new MonitorHistogram();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            final long micros = (i + 1) * 1000;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < 10000; ++j) {
+                        recordMicros(histogram, micros);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(40000, histogram.getCount());
+        Assert.assertEquals(2.5, histogram.getMean(), DELTA);
+        Assert.assertEquals(4, histogram.getMax(), DELTA);
+        Assert.assertEquals(4, histogram.getPercentile(100), DELTA);
+    }
+}
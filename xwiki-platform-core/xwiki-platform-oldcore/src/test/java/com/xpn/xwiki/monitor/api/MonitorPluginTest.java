@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the statistics export of {@link MonitorPlugin}.
+ *
+ * @version $Id$
+ */
+public class MonitorPluginTest
+{
+    private XWikiContext context = mock(XWikiContext.class);
+
+    private MonitorPlugin plugin;
+
+    @Before
+    public void setUp()
+    {
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        when(xwiki.ParamAsLong("xwiki.monitor.lastlistsize", 20)).thenReturn(20L);
+
+        this.plugin = new MonitorPlugin("monitor", MonitorPlugin.class.getName(), this.context);
+        this.plugin.reset(this.context);
+        this.plugin.setActive(true);
+
+        this.plugin.startRequest("Main.WebHome", "view", null);
+        this.plugin.startTimer("database");
+        this.plugin.endTimer("database");
+        this.plugin.startTimer("rendering");
+        this.plugin.endTimer("rendering");
+        this.plugin.endRequest();
+        this.plugin.incrementCounter("cache.hits");
+    }
+
+    @After
+    public void tearDown()
+    {
+        // Unregister the timers statistics from the JMX server
+        this.plugin.reset(this.context);
+    }
+
+    @Test
+    public void getMetricsValues()
+    {
+        List<String> lines = Arrays.asList(StringUtils.split(this.plugin.getMetrics(), '\n'));
+
+        Assert.assertTrue(lines.contains("xwiki_requests_total 1"));
+        Assert.assertTrue(lines.contains("xwiki_requests_active 0"));
+        Assert.assertTrue(lines.contains("xwiki_timer_calls_total{timer=\"database\"} 1"));
+        Assert.assertTrue(lines.contains("xwiki_timer_calls_total{timer=\"rendering\"} 1"));
+        Assert.assertTrue(lines.contains("xwiki_counter_total{counter=\"cache.hits\"} 1"));
+        Assert.assertTrue(lines.contains("# TYPE xwiki_timer_duration_milliseconds_max gauge"));
+        Assert.assertTrue(lines.contains("# TYPE xwiki_requests_duration_milliseconds_max gauge"));
+    }
+
+    /**
+     * Each metric family must be declared once, with its help and type, before all its samples.
+     */
+    @Test
+    public void getMetricsFormat()
+    {
+        Map<String, String> types = new HashMap<String, String>();
+        String currentFamily = null;
+        String currentHelp = null;
+        for (String line : StringUtils.split(this.plugin.getMetrics(), '\n')) {
+            if (line.startsWith("# HELP ")) {
+                currentHelp = line.split(" ")[2];
+            } else if (line.startsWith("# TYPE ")) {
+                String[] parts = line.split(" ");
+                currentFamily = parts[2];
+                Assert.assertEquals("No help for " + currentFamily, currentFamily, currentHelp);
+                Assert.assertNull(currentFamily + " is declared twice", types.put(currentFamily, parts[3]));
+            } else {
+                String metric = StringUtils.substringBefore(StringUtils.substringBefore(line, " "), "{");
+                Assert.assertEquals("Sample [" + line + "] outside of its family", currentFamily, metric);
+                if ("summary".equals(types.get(currentFamily))) {
+                    Assert.assertTrue("Summary sample without quantile: " + line, line.contains("quantile=\""));
+                }
+            }
+        }
+
+        Assert.assertEquals("summary", types.get("xwiki_timer_duration_milliseconds"));
+        Assert.assertEquals("gauge", types.get("xwiki_timer_duration_milliseconds_max"));
+        Assert.assertEquals("counter", types.get("xwiki_timer_calls_total"));
+    }
+}
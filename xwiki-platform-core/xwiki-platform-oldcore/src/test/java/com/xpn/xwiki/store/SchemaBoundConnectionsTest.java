@@ -0,0 +1,105 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for {@link SchemaBoundConnections}.
+ *
+ * @version $Id$
+ */
+public class SchemaBoundConnectionsTest
+{
+    private final SchemaBoundConnections connections = new SchemaBoundConnections(2, 60000);
+
+    private Connection bind(String schema)
+    {
+        Connection connection = mock(Connection.class);
+        this.connections.setSchema(connection, schema);
+
+        return connection;
+    }
+
+    @Test
+    public void takeConnectionBoundToRequestedSchema()
+    {
+        Connection wiki1 = bind("wiki1");
+        Connection wiki2 = bind("wiki2");
+
+        Assert.assertEquals(Collections.emptyList(), this.connections.release(wiki1));
+        Assert.assertEquals(Collections.emptyList(), this.connections.release(wiki2));
+        Assert.assertEquals(2, this.connections.getIdleCount());
+
+        Assert.assertSame(wiki1, this.connections.take("wiki1", false));
+        Assert.assertEquals("wiki1", this.connections.getSchema(wiki1));
+        Assert.assertNull(this.connections.take("wiki1", false));
+        Assert.assertNull(this.connections.take("wiki3", false));
+        Assert.assertSame(wiki2, this.connections.take("wiki3", true));
+        Assert.assertEquals(0, this.connections.getIdleCount());
+    }
+
+    @Test
+    public void releaseConnectionWithUnknownSchema()
+    {
+        Connection connection = bind("wiki");
+        this.connections.setSchema(connection, null);
+
+        Assert.assertEquals(Arrays.asList(connection), this.connections.release(connection));
+        Assert.assertEquals(0, this.connections.getIdleCount());
+    }
+
+    @Test
+    public void releaseEvictsLeastRecentlyReleasedConnection()
+    {
+        Connection wiki1 = bind("wiki1");
+        Connection wiki2 = bind("wiki2");
+        Connection wiki3 = bind("wiki3");
+
+        this.connections.release(wiki1);
+        this.connections.release(wiki2);
+
+        Assert.assertEquals(Arrays.asList(wiki1), this.connections.release(wiki3));
+        Assert.assertNull(this.connections.getSchema(wiki1));
+        Assert.assertEquals(Arrays.asList(wiki2, wiki3), this.connections.clear());
+        Assert.assertEquals(0, this.connections.getIdleCount());
+    }
+
+    @Test
+    public void evictExpired() throws Exception
+    {
+        SchemaBoundConnections expiringConnections = new SchemaBoundConnections(2, 0);
+        Connection connection = mock(Connection.class);
+        expiringConnections.setSchema(connection, "wiki");
+        expiringConnections.release(connection);
+
+        Thread.sleep(1);
+
+        Assert.assertEquals(Arrays.asList(connection), expiringConnections.evictExpired());
+        Assert.assertNull(expiringConnections.take("wiki", true));
+    }
+}
@@ -19,9 +19,20 @@
  */
 package com.xpn.xwiki.store;
 
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.model.internal.reference.UidStringEntityReferenceSerializer;
@@ -30,15 +41,19 @@
 import org.xwiki.observation.remote.RemoteObservationManagerContext;
 import org.xwiki.test.annotation.ComponentList;
 
+import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.test.MockitoOldcoreRule;
 
 import static com.xpn.xwiki.test.mockito.OldcoreMatchers.isCacheConfiguration;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -112,4 +127,196 @@ public void testLoadXWikiDoc() throws Exception
         verifyNoMoreInteractions(this.cache);
         verifyNoMoreInteractions(this.existCache);
     }
+
+    /**
+     * Make the mocked document cache behave like a real cache.
+     */
+    private void mockCacheContent()
+    {
+        final Map<String, XWikiDocument> cacheContent = new ConcurrentHashMap<String, XWikiDocument>();
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                cacheContent.put((String) invocation.getArguments()[0], (XWikiDocument) invocation.getArguments()[1]);
+
+                return null;
+            }
+        }).when(this.cache).set(anyString(), any(XWikiDocument.class));
+        when(this.cache.get(anyString())).thenAnswer(new Answer<XWikiDocument>()
+        {
+            @Override
+            public XWikiDocument answer(InvocationOnMock invocation) throws Throwable
+            {
+                return cacheContent.get(invocation.getArguments()[0]);
+            }
+        });
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentLoadsShareASingleLoad() throws Exception
+    {
+        mockCacheContent();
+
+        final DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        final XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        XWikiStoreInterface mockStore = mock(XWikiStoreInterface.class);
+        when(mockStore.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenAnswer(
+            new Answer<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument answer(InvocationOnMock invocation) throws Throwable
+                {
+                    loading.countDown();
+                    release.await();
+
+                    XWikiDocument document = (XWikiDocument) invocation.getArguments()[0];
+                    document.setNew(false);
+
+                    return document;
+                }
+            });
+
+        final XWikiCacheStore store = new XWikiCacheStore(mockStore, xcontext);
+
+        Callable<XWikiDocument> load = new Callable<XWikiDocument>()
+        {
+            @Override
+            public XWikiDocument call() throws Exception
+            {
+                return store.loadXWikiDoc(new XWikiDocument(reference), xcontext);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<XWikiDocument> first = executor.submit(load);
+            loading.await();
+            Future<XWikiDocument> second = executor.submit(load);
+
+            // Give the second request some time to wait for the first load
+            Thread.sleep(100);
+            release.countDown();
+
+            // Whether the second request waited for the first load or found the document in the cache, it gets the
+            // same document and the store is only asked once
+            assertSame(first.get(), second.get());
+            assertFalse(first.get().isNew());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(mockStore).loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+    }
+
+    @Test(timeout = 10000)
+    public void reentrantLoad() throws Exception
+    {
+        final DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        final XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        final XWikiStoreInterface mockStore = mock(XWikiStoreInterface.class);
+        final XWikiCacheStore[] store = new XWikiCacheStore[1];
+        final AtomicInteger loads = new AtomicInteger();
+        when(mockStore.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenAnswer(
+            new Answer<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument answer(InvocationOnMock invocation) throws Throwable
+                {
+                    if (loads.incrementAndGet() == 1) {
+                        // Something needs the document while it's being loaded
+                        XWikiDocument nestedDocument = store[0].loadXWikiDoc(new XWikiDocument(reference), xcontext);
+                        assertFalse(nestedDocument.isNew());
+                    }
+
+                    XWikiDocument document = (XWikiDocument) invocation.getArguments()[0];
+                    document.setNew(false);
+
+                    return document;
+                }
+            });
+
+        store[0] = new XWikiCacheStore(mockStore, xcontext);
+
+        XWikiDocument document = store[0].loadXWikiDoc(new XWikiDocument(reference), xcontext);
+
+        assertFalse(document.isNew());
+        verify(mockStore, times(2)).loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+    }
+
+    @Test(timeout = 10000)
+    public void crossThreadLoadCycle() throws Exception
+    {
+        when(this.oldcore.getMockXWiki().Param("xwiki.store.cache.loadwaittimeout")).thenReturn("100");
+
+        final DocumentReference referenceX = new DocumentReference("wiki", "space", "X");
+        final DocumentReference referenceY = new DocumentReference("wiki", "space", "Y");
+        final XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        final XWikiStoreInterface mockStore = mock(XWikiStoreInterface.class);
+        final XWikiCacheStore[] store = new XWikiCacheStore[1];
+        final CountDownLatch loading = new CountDownLatch(2);
+        final Map<String, AtomicInteger> loads = new ConcurrentHashMap<String, AtomicInteger>();
+        loads.put("X", new AtomicInteger());
+        loads.put("Y", new AtomicInteger());
+        when(mockStore.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenAnswer(
+            new Answer<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument answer(InvocationOnMock invocation) throws Throwable
+                {
+                    XWikiDocument document = (XWikiDocument) invocation.getArguments()[0];
+                    String name = document.getDocumentReference().getName();
+
+                    if (loads.get(name).incrementAndGet() == 1) {
+                        // X needs Y and Y needs X, each being loaded by a different thread
+                        loading.countDown();
+                        loading.await();
+                        DocumentReference otherReference = name.equals("X") ? referenceY : referenceX;
+                        XWikiDocument otherDocument =
+                            store[0].loadXWikiDoc(new XWikiDocument(otherReference), xcontext);
+                        assertFalse(otherDocument.isNew());
+                    }
+
+                    document.setNew(false);
+
+                    return document;
+                }
+            });
+
+        store[0] = new XWikiCacheStore(mockStore, xcontext);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<XWikiDocument> documentX = executor.submit(new Callable<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument call() throws Exception
+                {
+                    return store[0].loadXWikiDoc(new XWikiDocument(referenceX), xcontext);
+                }
+            });
+            Future<XWikiDocument> documentY = executor.submit(new Callable<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument call() throws Exception
+                {
+                    return store[0].loadXWikiDoc(new XWikiDocument(referenceY), xcontext);
+                }
+            });
+
+            // The threads stop waiting for each other and load the missing document themselves
+            assertFalse(documentX.get().isNew());
+            assertFalse(documentY.get().isNew());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(mockStore, atLeast(3)).loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+    }
 }
@@ -19,10 +19,14 @@
  */
 package com.xpn.xwiki.store;
 
+import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -34,22 +38,30 @@
 import org.hibernate.dialect.Dialect;
 import org.hibernate.engine.SessionFactoryImplementor;
 import org.hibernate.id.SequenceGenerator;
+import org.hibernate.metadata.ClassMetadata;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.xwiki.bridge.event.ActionExecutingEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.ObservationManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.internal.store.PropertyConverter;
+import com.xpn.xwiki.objects.BaseCollection;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.DBStringListProperty;
+import com.xpn.xwiki.objects.IntegerProperty;
 import com.xpn.xwiki.objects.LargeStringProperty;
 import com.xpn.xwiki.objects.StringProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.objects.classes.PropertyClass;
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
 import com.xpn.xwiki.store.migration.DataMigrationManager;
@@ -389,6 +401,138 @@ public void migrateLocalProperty() throws Exception
         verify(localObject).put("color", newProperty);
     }
 
+    @Test
+    public void loadXWikiProperties() throws Exception
+    {
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getFullName()).thenReturn("Space.Page");
+        when(doc.getDocumentReference()).thenReturn(documentReference);
+
+        BaseObject object1 = mock(BaseObject.class, "object1");
+        BaseObject object2 = mock(BaseObject.class, "object2");
+        when(object2.getXClassReference()).thenReturn(new DocumentReference("wiki", "Space", "Class"));
+        Map<Long, BaseCollection> objects = new HashMap<Long, BaseCollection>();
+        objects.put(1L, object1);
+        objects.put(2L, object2);
+
+        when(context.get("hibsession")).thenReturn(session);
+        SessionFactoryImplementor sessionFactory = mock(SessionFactoryImplementor.class);
+        when(session.getSessionFactory()).thenReturn(sessionFactory);
+        when(sessionFactory.getClassMetadata(any(Class.class))).thenReturn(mock(ClassMetadata.class));
+
+        // All the properties of the document are listed with a single query
+        Query propertiesQuery = mock(Query.class);
+        when(session.createQuery("select prop.id.id, prop.name, prop.classType from BaseProperty as prop, "
+            + "BaseObject as bobject where bobject.name = :name and bobject.id = prop.id.id")).thenReturn(
+            propertiesQuery);
+        List<Object[]> declaredProperties =
+            Arrays.asList(new Object[] {1L, "age", IntegerProperty.class.getName()}, new Object[] {1L, "name",
+                StringProperty.class.getName()}, new Object[] {2L, "tags", DBStringListProperty.class.getName()},
+                new Object[] {2L, "description", StringProperty.class.getName()});
+        when(propertiesQuery.list()).thenReturn(declaredProperties);
+
+        // The values are loaded with one query per property type
+        IntegerProperty age = new IntegerProperty();
+        age.setId(1L);
+        age.setName("age");
+        age.setValue(42);
+        Query integerQuery = mockPropertyValuesQuery("prop from " + IntegerProperty.class.getName() + " as prop, ");
+        when(integerQuery.list()).thenReturn(Arrays.asList(age));
+
+        // The description is declared as a String but stored as a LargeString so it's not found by the query
+        StringProperty name = new StringProperty();
+        name.setId(1L);
+        name.setName("name");
+        name.setValue("John");
+        Query stringQuery = mockPropertyValuesQuery("prop from " + StringProperty.class.getName() + " as prop, ");
+        when(stringQuery.list()).thenReturn(Arrays.asList(name));
+
+        DBStringListProperty tags = new DBStringListProperty();
+        tags.setId(2L);
+        tags.setName("tags");
+        tags.setList(Arrays.asList("a", "b"));
+        Query listQuery = mockPropertyValuesQuery("distinct prop from " + DBStringListProperty.class.getName()
+            + " as prop left join fetch prop.list, ");
+        when(listQuery.list()).thenReturn(Arrays.asList(tags));
+
+        // The missing property is loaded alone, falling back on the LargeString table
+        doThrow(new HibernateException("not in the String table")).when(session).load(isA(StringProperty.class),
+            any(Serializable.class));
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                ((LargeStringProperty) invocation.getArguments()[0]).setValue("A long description");
+
+                return null;
+            }
+        }).when(session).load(isA(LargeStringProperty.class), any(Serializable.class));
+
+        Method loadXWikiProperties = store.getClass().getDeclaredMethod("loadXWikiProperties", Map.class,
+            XWikiDocument.class, Session.class, XWikiContext.class);
+        loadXWikiProperties.setAccessible(true);
+        loadXWikiProperties.invoke(store, objects, doc, session, context);
+
+        verify(propertiesQuery).setText("name", "Space.Page");
+        verify(integerQuery).setText("classType", IntegerProperty.class.getName());
+        verify(stringQuery).setText("classType", StringProperty.class.getName());
+        verify(listQuery).setText("classType", DBStringListProperty.class.getName());
+
+        verify(object1).addField("age", age);
+        verify(object1).addField("name", name);
+        verify(object2).addField("tags", tags);
+        assertFalse(age.isValueDirty());
+        assertFalse(name.isValueDirty());
+        assertEquals(2, tags.getList().size());
+
+        ArgumentCaptor<BaseProperty> description = ArgumentCaptor.forClass(BaseProperty.class);
+        verify(object2).addField(eq("description"), description.capture());
+        assertEquals("A long description", description.getValue().getValue());
+
+        // The properties are never listed object by object
+        verify(session, never()).createQuery(
+            "select prop.name, prop.classType from BaseProperty as prop where prop.id.id = :id");
+    }
+
+    @Test
+    public void hasCustomMapping() throws Exception
+    {
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(documentReference);
+
+        // The class of the object is the document itself
+        BaseClass localClass = mock(BaseClass.class, "local");
+        when(localClass.hasCustomMapping()).thenReturn(true);
+        when(doc.getXClass()).thenReturn(localClass);
+        BaseObject localObject = mock(BaseObject.class, "local");
+        when(localObject.getXClassReference()).thenReturn(documentReference);
+
+        BaseObject otherObject = mock(BaseObject.class, "other");
+        when(otherObject.getXClassReference()).thenReturn(new DocumentReference("wiki", "Space", "Class"));
+        when(otherObject.getXClass(context)).thenReturn(mock(BaseClass.class, "other"));
+
+        Method hasCustomMapping = store.getClass().getDeclaredMethod("hasCustomMapping", BaseCollection.class,
+            XWikiDocument.class, XWikiContext.class);
+        hasCustomMapping.setAccessible(true);
+
+        // Custom mapped objects keep being loaded from their dedicated table
+        assertTrue((Boolean) hasCustomMapping.invoke(store, localObject, doc, context));
+        verify(localObject, never()).getXClass(context);
+        assertFalse((Boolean) hasCustomMapping.invoke(store, otherObject, doc, context));
+    }
+
+    private Query mockPropertyValuesQuery(String select)
+    {
+        Query query = mock(Query.class);
+        when(session.createQuery("select " + select + "BaseObject as bobject where bobject.name = :name"
+            + " and bobject.id = prop.id.id and prop.classType = :classType")).thenReturn(query);
+
+        return query;
+    }
+
     /**
      * This is a utility method used to call the private XWikiHibernateStore#migrateProperty(), which should be moved
      * outside XWikiHibernateStore and we keep it private until then.
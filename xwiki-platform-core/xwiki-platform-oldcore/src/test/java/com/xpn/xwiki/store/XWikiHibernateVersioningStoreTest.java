@@ -0,0 +1,272 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hibernate.Query;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.suigeneris.jrcs.rcs.Version;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.doc.XWikiDocumentArchive;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the {@link XWikiHibernateVersioningStore} class.
+ *
+ * @version $Id$
+ */
+public class XWikiHibernateVersioningStoreTest extends AbstractXWikiHibernateStoreTest<XWikiVersioningStoreInterface>
+{
+    /**
+     * A special component manager that mocks automatically all the dependencies of the component under test.
+     */
+    @Rule
+    public MockitoComponentMockingRule<XWikiVersioningStoreInterface> mocker =
+        new MockitoComponentMockingRule<XWikiVersioningStoreInterface>(XWikiHibernateVersioningStore.class);
+
+    /**
+     * The component being tested.
+     */
+    private XWikiHibernateVersioningStore store;
+
+    /**
+     * The document for which versions are loaded.
+     */
+    private XWikiDocument document = mock(XWikiDocument.class, "document");
+
+    /**
+     * The query used to load the versions from the database.
+     */
+    private Query query = mock(Query.class);
+
+    @Override
+    protected MockitoComponentMockingRule<XWikiVersioningStoreInterface> getMocker()
+    {
+        return mocker;
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        CacheManager cacheManager = mocker.getInstance(CacheManager.class);
+        when(cacheManager.createNewCache(any(CacheConfiguration.class))).thenAnswer(new Answer<Cache<Object>>()
+        {
+            @Override
+            public Cache<Object> answer(InvocationOnMock invocation) throws Throwable
+            {
+                return mockCache();
+            }
+        });
+
+        when(document.getId()).thenReturn(42L);
+        when(document.getCreationDate()).thenReturn(new Date(1000));
+
+        // No version in the database
+        when(session.createQuery(anyString())).thenReturn(query);
+        when(query.setLong(anyString(), anyLong())).thenReturn(query);
+        when(query.setLong(anyInt(), anyLong())).thenReturn(query);
+        when(query.setInteger(anyString(), anyInt())).thenReturn(query);
+        when(query.setMaxResults(anyInt())).thenReturn(query);
+
+        store = (XWikiHibernateVersioningStore) mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void loadCachedVersion() throws Exception
+    {
+        XWikiDocument cachedVersion = cacheVersion("1.1");
+
+        assertSame(cachedVersion, store.loadXWikiDocVersion(document, new Version("1.1"), context));
+
+        verify(session, never()).createQuery(anyString());
+    }
+
+    @Test
+    public void loadVersionNotInCache() throws Exception
+    {
+        cacheVersion("1.1");
+
+        assertNull(store.loadXWikiDocVersion(document, new Version("1.2"), context));
+
+        verify(session).createQuery(anyString());
+    }
+
+    @Test
+    public void saveArchiveInvalidatesCachedVersions() throws Exception
+    {
+        cacheVersion("1.1");
+
+        store.saveXWikiDocArchive(new XWikiDocumentArchive(42L), true, context);
+
+        // The version is not in the database anymore
+        assertNull(store.loadXWikiDocVersion(document, new Version("1.1"), context));
+    }
+
+    @Test
+    public void saveArchiveOfAnotherDocumentKeepsCachedVersions() throws Exception
+    {
+        XWikiDocument cachedVersion = cacheVersion("1.1");
+
+        store.saveXWikiDocArchive(new XWikiDocumentArchive(43L), true, context);
+
+        assertSame(cachedVersion, store.loadXWikiDocVersion(document, new Version("1.1"), context));
+    }
+
+    @Test
+    public void deleteArchiveInvalidatesCachedVersions() throws Exception
+    {
+        cacheVersion("1.1");
+
+        store.deleteArchive(document, true, context);
+
+        assertNull(store.loadXWikiDocVersion(document, new Version("1.1"), context));
+    }
+
+    @Test
+    public void remoteDocumentEventInvalidatesCachedVersions() throws Exception
+    {
+        cacheVersion("1.1");
+
+        RemoteObservationManagerContext remoteContext = mocker.getInstance(RemoteObservationManagerContext.class);
+        when(remoteContext.isRemoteState()).thenReturn(true);
+        getVersionCacheListener().onEvent(new DocumentUpdatedEvent(), document, context);
+
+        assertNull(store.loadXWikiDocVersion(document, new Version("1.1"), context));
+    }
+
+    @Test
+    public void localDocumentEventKeepsCachedVersions() throws Exception
+    {
+        XWikiDocument cachedVersion = cacheVersion("1.1");
+
+        getVersionCacheListener().onEvent(new DocumentUpdatedEvent(), document, context);
+
+        assertSame(cachedVersion, store.loadXWikiDocVersion(document, new Version("1.1"), context));
+    }
+
+    /**
+     * Put a version of the tested document in the version cache.
+     *
+     * @param version the version to cache
+     * @return the document returned when loading the cached version
+     */
+    private XWikiDocument cacheVersion(String version) throws Exception
+    {
+        Method getVersionCache =
+            XWikiHibernateVersioningStore.class.getDeclaredMethod("getVersionCache", XWikiContext.class);
+        getVersionCache.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        Cache<XWikiDocument> versionCache = (Cache<XWikiDocument>) getVersionCache.invoke(store, context);
+
+        Method getVersionCacheKey = XWikiHibernateVersioningStore.class.getDeclaredMethod("getVersionCacheKey",
+            XWikiDocument.class, Version.class, XWikiContext.class);
+        getVersionCacheKey.setAccessible(true);
+        String key = (String) getVersionCacheKey.invoke(store, document, new Version(version), context);
+
+        XWikiDocument cachedVersion = mock(XWikiDocument.class, version);
+        XWikiDocument cachedVersionCopy = mock(XWikiDocument.class, version + " copy");
+        when(cachedVersion.clone()).thenReturn(cachedVersionCopy);
+        versionCache.set(key, cachedVersion);
+
+        return cachedVersionCopy;
+    }
+
+    /**
+     * @return the listener registered by the store to invalidate the version cache
+     */
+    private EventListener getVersionCacheListener() throws Exception
+    {
+        ArgumentCaptor<EventListener> listenerCaptor = ArgumentCaptor.forClass(EventListener.class);
+        verify(mocker.<ObservationManager>getInstance(ObservationManager.class)).addListener(listenerCaptor.capture());
+
+        return listenerCaptor.getValue();
+    }
+
+    /**
+     * @return a cache backed by a map
+     */
+    @SuppressWarnings("unchecked")
+    private Cache<Object> mockCache()
+    {
+        final Map<String, Object> content = new HashMap<String, Object>();
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                return content.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                content.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(anyString(), any());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                content.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(cache).remove(anyString());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                content.clear();
+                return null;
+            }
+        }).when(cache).removeAll();
+
+        return cache;
+    }
+}
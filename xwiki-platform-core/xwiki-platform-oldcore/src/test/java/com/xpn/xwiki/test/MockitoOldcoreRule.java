@@ -73,6 +73,7 @@
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -410,6 +411,10 @@ public Void answer(InvocationOnMock invocation) throws Throwable
                 return null;
             }
         }).when(getMockXWiki()).saveDocument(any(XWikiDocument.class), any(XWikiContext.class));
+        doCallRealMethod().when(getMockXWiki()).saveDocumentWithoutSavedNotification(any(XWikiDocument.class),
+            any(String.class), anyBoolean(), any(XWikiContext.class));
+        doCallRealMethod().when(getMockXWiki()).notifyDocumentSaved(any(XWikiDocument.class), any(XWikiDocument.class),
+            any(XWikiContext.class));
         doAnswer(new Answer<Void>()
         {
             @Override
@@ -397,6 +397,30 @@ public void testValidMiddleRange() throws XWikiException, IOException
         Assert.assertNull(this.action.render(getContext()));
     }
 
+    @Test
+    public void testValidMiddleRangeInLargeFile() throws XWikiException, IOException
+    {
+        // The content is big enough to be stored in a file, which is read from the start of the range.
+        this.fileContent = new byte[20000];
+        for (int i = 0; i < this.fileContent.length; ++i) {
+            this.fileContent[i] = (byte) ('a' + i % 26);
+        }
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        setRequestExpectations(DEFAULT_URI, null, null, "bytes=15000-15009", -1l);
+        setResponseExpectations(d.getTime(), 10);
+        setOutputExpectations(15000, 15010);
+        getMockery().checking(new Expectations()
+        {
+            {
+                one(DownloadActionTest.this.response).setStatus(with(HttpServletResponse.SC_PARTIAL_CONTENT));
+                one(DownloadActionTest.this.response).setHeader(with("Content-Range"),
+                    with("bytes 15000-15009/" + DownloadActionTest.this.fileContent.length));
+            }
+        });
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
     @Test
     public void testValidEndRange() throws XWikiException, IOException
     {
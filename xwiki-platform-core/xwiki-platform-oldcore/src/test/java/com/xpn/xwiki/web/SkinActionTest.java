@@ -20,54 +20,131 @@
 package com.xpn.xwiki.web;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Date;
 
-import org.jmock.cglib.MockObjectTestCase;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.internal.skin.SkinResourceCache;
+
+import static org.junit.Assert.*;
+import static org.mockito.AdditionalAnswers.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
 
 /**
  * Unit tests for the {@link com.xpn.xwiki.web.SkinAction} class.
- * 
+ *
  * @version $Id$
  */
-public class SkinActionTest extends MockObjectTestCase
+public class SkinActionTest
 {
+    private static final String PATH = "/skins/flamingo/style.css";
+
+    private static final String CONTENT = StringUtils.repeat(".class { color: red; }\n", 100);
+
+    @Rule
+    public MockitoComponentMockingRule<SkinResourceCache> mocker =
+        new MockitoComponentMockingRule<SkinResourceCache>(SkinResourceCache.class);
+
     private SkinAction action;
 
-    @Override
-    protected void setUp()
+    private XWikiContext context = mock(XWikiContext.class);
+
+    private XWiki xwiki = mock(XWiki.class);
+
+    private XWikiRequest request = mock(XWikiRequest.class);
+
+    private XWikiResponse response = mock(XWikiResponse.class);
+
+    private ServletOutputStream output = mock(ServletOutputStream.class);
+
+    private ConfigurationSource xwikicfg;
+
+    @Before
+    public void setUp() throws Exception
     {
         this.action = new SkinAction();
+
+        Utils.setComponentManager(this.mocker);
+
+        this.xwikicfg = this.mocker.getInstance(ConfigurationSource.class, "xwikicfg");
+        when(this.xwikicfg.getProperty("xwiki.skin.resourcecache.maxsize", 16 * 1024 * 1024L)).thenReturn(
+            16 * 1024 * 1024L);
+        when(this.xwikicfg.getProperty("xwiki.skin.resourcecache.checkinterval", 5L)).thenReturn(5L);
+        when(this.xwikicfg.getProperty("xwiki.skin.resourcecache.gzip", 0)).thenReturn(0);
+
+        XWikiEngineContext engineContext = mock(XWikiEngineContext.class);
+        when(engineContext.getMimeType("style.css")).thenReturn("text/css");
+
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.context.getRequest()).thenReturn(this.request);
+        when(this.context.getResponse()).thenReturn(this.response);
+        when(this.context.getEngineContext()).thenReturn(engineContext);
+
+        when(this.xwiki.getResourceContentAsBytes(PATH)).thenReturn(CONTENT.getBytes("UTF-8"));
+        when(this.xwiki.getResourceLastModificationDate(PATH)).thenReturn(new Date(10000));
+        when(this.xwiki.parseContent(anyString(), same(this.context))).then(returnsFirstArg());
+
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        when(this.response.getOutputStream()).thenReturn(this.output);
     }
 
+    @After
+    public void tearDown()
+    {
+        Utils.setComponentManager(null);
+    }
+
+    @Test
     public void testIsTextJavascriptJavaScriptMimetype()
     {
         assertTrue(this.action.isJavascriptMimeType("text/javascript"));
     }
 
+    @Test
     public void testIsApplicationJavascriptJavaScriptMimetype()
     {
         assertTrue(this.action.isJavascriptMimeType("application/javascript"));
     }
 
+    @Test
     public void testIsApplicationXJavascriptJavaScriptMimetype()
     {
         assertTrue(this.action.isJavascriptMimeType("application/x-javascript"));
     }
 
+    @Test
     public void testIsTextEcmascriptJavaScriptMimetype()
     {
         assertTrue(this.action.isJavascriptMimeType("text/ecmascript"));
     }
 
+    @Test
     public void testIsApplicationEcmascriptJavaScriptMimetype()
     {
         assertTrue(this.action.isJavascriptMimeType("application/ecmascript"));
     }
 
+    @Test
     public void testNPEJavascriptMimetype()
     {
         assertFalse(this.action.isJavascriptMimeType(null));
     }
 
+    @Test
     public void testIncorrectSkinFile()
     {
         try {
@@ -96,6 +173,7 @@ public void testIncorrectSkinFile()
         }
     }
 
+    @Test
     public void testIncorrectResourceFile()
     {
         try {
@@ -117,4 +195,135 @@ public void testIncorrectResourceFile()
             // good
         }
     }
+
+    @Test
+    public void testStaticFileIsServedFromMemory() throws Exception
+    {
+        assertTrue(renderFileFromFilesystem());
+        assertTrue(renderFileFromFilesystem());
+
+        verify(this.xwiki, times(1)).getResourceContentAsBytes(PATH);
+        verify(this.output, times(2)).write(CONTENT.getBytes("UTF-8"));
+        // Gzip is disabled by default
+        verify(this.response, never()).setHeader(eq("Vary"), anyString());
+        verify(this.response, never()).setHeader(eq("Content-Encoding"), anyString());
+        assertNotNull(getLastETag());
+    }
+
+    @Test
+    public void testDynamicFileIsNotServedFromMemory() throws Exception
+    {
+        when(this.xwiki.parseContent(anyString(), same(this.context))).thenReturn("parsed");
+
+        assertTrue(renderFileFromFilesystem());
+        assertTrue(renderFileFromFilesystem());
+
+        verify(this.xwiki, times(2)).getResourceContentAsBytes(PATH);
+        verify(this.output, times(2)).write("parsed".getBytes("UTF-8"));
+        verify(this.response, never()).setHeader(eq("ETag"), anyString());
+    }
+
+    @Test
+    public void testNotModifiedWhenETagMatches() throws Exception
+    {
+        renderFileFromFilesystem();
+        String etag = getLastETag();
+
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\", " + etag);
+        renderFileFromFilesystem();
+
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.output, times(1)).write(any(byte[].class));
+    }
+
+    @Test
+    public void testModifiedWhenETagDoesNotMatch() throws Exception
+    {
+        renderFileFromFilesystem();
+
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\"");
+        // If-Modified-Since is ignored when If-None-Match is present
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(20000L);
+        renderFileFromFilesystem();
+
+        verify(this.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.output, times(2)).write(any(byte[].class));
+    }
+
+    @Test
+    public void testModifiedWhenNoneOfTheETagsMatch() throws Exception
+    {
+        renderFileFromFilesystem();
+        String etag = getLastETag();
+
+        // Entity tags close to the one of the file
+        String otherETag = etag.substring(0, etag.length() - 2) + '"';
+        when(this.request.getHeader("If-None-Match")).thenReturn(otherETag + ", \"other\", W/" + otherETag);
+        renderFileFromFilesystem();
+
+        verify(this.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.output, times(2)).write(any(byte[].class));
+
+        // A weak version of the entity tag of the file matches
+        when(this.request.getHeader("If-None-Match")).thenReturn("W/" + etag);
+        renderFileFromFilesystem();
+
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void testNotModifiedSinceLastModificationDate() throws Exception
+    {
+        renderFileFromFilesystem();
+
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(10000L);
+        renderFileFromFilesystem();
+
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.output, times(1)).write(any(byte[].class));
+    }
+
+    @Test
+    public void testGzipHasItsOwnETag() throws Exception
+    {
+        when(this.xwikicfg.getProperty("xwiki.skin.resourcecache.gzip", 0)).thenReturn(1);
+
+        renderFileFromFilesystem();
+        String identityETag = getLastETag();
+
+        when(this.request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+        renderFileFromFilesystem();
+        String gzipETag = getLastETag();
+
+        assertFalse(identityETag.equals(gzipETag));
+        assertTrue(gzipETag.endsWith("-gz\""));
+        verify(this.response, times(2)).setHeader("Vary", "Accept-Encoding");
+        verify(this.response, times(1)).setHeader("Content-Encoding", "gzip");
+
+        // The identity entity tag doesn't match the gzipped content
+        when(this.request.getHeader("If-None-Match")).thenReturn(identityETag);
+        renderFileFromFilesystem();
+        verify(this.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+        when(this.request.getHeader("If-None-Match")).thenReturn(gzipETag);
+        renderFileFromFilesystem();
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    private boolean renderFileFromFilesystem() throws Exception
+    {
+        Method method = SkinAction.class.getDeclaredMethod("renderFileFromFilesystem", String.class,
+            XWikiContext.class);
+        method.setAccessible(true);
+
+        return (Boolean) method.invoke(this.action, PATH, this.context);
+    }
+
+    private String getLastETag()
+    {
+        ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+        verify(this.response, atLeastOnce()).setHeader(eq("ETag"), etagCaptor.capture());
+
+        return etagCaptor.getValue();
+    }
 }
@@ -0,0 +1,535 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.search.solr.internal.api.FieldUtils;
+import org.xwiki.search.solr.internal.api.SolrAccessControl;
+import org.xwiki.search.solr.internal.api.SolrException;
+import org.xwiki.search.solr.internal.api.SolrIndexerException;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.GroupsClass;
+import com.xpn.xwiki.objects.classes.LevelsClass;
+import com.xpn.xwiki.objects.classes.UsersClass;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+/**
+ * Default implementation of {@link SolrAccessControl}.
+ * <p>
+ * The view right of a document is decided by the first level of the rights hierarchy (the document, its space, its
+ * wiki and then the main wiki) having a rule matching the user or one of its groups, or having a rule allowing the view
+ * right to someone else (which implicitly denies it to everyone else). At each level, the rules matching the user win
+ * over the rules matching its groups, and a deny wins over an allow. When no level decides, the view right is allowed.
+ * <p>
+ * The principals having a rule at each level are indexed in separate fields so that this evaluation can be expressed as
+ * a filter query on the principals of the current user. Being a filter query, it is cached by Solr and applied before
+ * the results are counted, paged and faceted.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component
+@Singleton
+public class DefaultSolrAccessControl implements SolrAccessControl
+{
+    /**
+     * The token matching everyone, indexed in the {@link FieldUtils#ACCESS_LEVEL} field of the levels allowing the view
+     * right to someone.
+     */
+    private static final String ANYONE = "*";
+
+    /**
+     * The token matching the users who are not logged in.
+     */
+    private static final String GUEST = "guest";
+
+    /**
+     * The name of the user used for the users who are not logged in.
+     */
+    private static final String GUEST_USER = "XWikiGuest";
+
+    /**
+     * The number of levels in the rights hierarchy: document, space, wiki and main wiki.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * The level of the space in the rights hierarchy.
+     */
+    private static final int SPACE_LEVEL = 1;
+
+    private static final String XWIKI_SPACE = "XWiki";
+
+    private static final LocalDocumentReference RIGHTS_CLASS = new LocalDocumentReference(XWIKI_SPACE,
+        "XWikiRights");
+
+    private static final LocalDocumentReference GLOBAL_RIGHTS_CLASS = new LocalDocumentReference(XWIKI_SPACE,
+        "XWikiGlobalRights");
+
+    private static final String SPACE_PREFERENCES = "WebPreferences";
+
+    private static final LocalDocumentReference WIKI_PREFERENCES = new LocalDocumentReference(XWIKI_SPACE,
+        "XWikiPreferences");
+
+    private static final String LEVELS_FIELD = "levels";
+
+    private static final String VIEW = Right.VIEW.getName();
+
+    private static final String EDIT = Right.EDIT.getName();
+
+    private static final String ADMIN = Right.ADMIN.getName();
+
+    /**
+     * The parameter holding the token of the current user.
+     */
+    private static final String PARAM_USER = "xwiki.view.user";
+
+    /**
+     * The parameter holding the tokens of the groups of the current user.
+     */
+    private static final String PARAM_GROUPS = "xwiki.view.groups";
+
+    /**
+     * The parameter holding all the tokens of the current user: its own token, its groups and {@link #ANYONE}.
+     */
+    private static final String PARAM_PRINCIPALS = "xwiki.view.principals";
+
+    /**
+     * The parameter holding the separator of the tokens in the previous parameters.
+     */
+    private static final String PARAM_SEPARATOR = "xwiki.view.separator";
+
+    /**
+     * The separator of the tokens, not expected in the reference of a user or a group.
+     */
+    private static final String SEPARATOR = "\n";
+
+    private static final String OR = " OR ";
+
+    private static final String NOT = " -";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * Used to resolve the users and groups listed by the rights objects, the same way the security module does.
+     */
+    @Inject
+    @Named("user")
+    private DocumentReferenceResolver<String> userResolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private AuthorizationManager authorization;
+
+    /**
+     * The view right tokens of a level of the rights hierarchy.
+     */
+    private static class Level
+    {
+        private final Set<String> allowedUsers = new LinkedHashSet<>();
+
+        private final Set<String> allowedGroups = new LinkedHashSet<>();
+
+        private final Set<String> deniedUsers = new LinkedHashSet<>();
+
+        private final Set<String> deniedGroups = new LinkedHashSet<>();
+
+        private boolean deciding;
+
+        void setFields(SolrInputDocument solrDocument, int level)
+        {
+            Set<String> principals = new LinkedHashSet<>();
+
+            principals.addAll(addField(solrDocument, FieldUtils.ACCESS_ALLOW_USERS, level, this.allowedUsers));
+            principals.addAll(addField(solrDocument, FieldUtils.ACCESS_ALLOW_GROUPS, level, this.allowedGroups));
+            principals.addAll(addField(solrDocument, FieldUtils.ACCESS_DENY_USERS, level, this.deniedUsers));
+            principals.addAll(addField(solrDocument, FieldUtils.ACCESS_DENY_GROUPS, level, this.deniedGroups));
+
+            if (this.deciding) {
+                principals.add(ANYONE);
+            }
+
+            addField(solrDocument, FieldUtils.ACCESS_LEVEL, level, principals);
+        }
+
+        private Set<String> addField(SolrInputDocument solrDocument, String field, int level, Set<String> tokens)
+        {
+            if (!tokens.isEmpty()) {
+                solrDocument.setField(FieldUtils.getAccessFieldName(field, level), new ArrayList<>(tokens));
+            }
+
+            return tokens;
+        }
+    }
+
+    @Override
+    public void setAccessFields(SolrInputDocument solrDocument, DocumentReference documentReference)
+        throws SolrIndexerException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        WikiReference wikiReference = documentReference.getWikiReference();
+        WikiReference mainWikiReference = new WikiReference(xcontext.getMainXWiki());
+
+        List<DocumentReference> rightsDocuments = new ArrayList<>(LEVELS);
+        rightsDocuments.add(new DocumentReference(documentReference, null));
+        rightsDocuments.add(new DocumentReference(SPACE_PREFERENCES, documentReference.getLastSpaceReference()));
+        rightsDocuments.add(new DocumentReference(WIKI_PREFERENCES, wikiReference));
+        if (!wikiReference.equals(mainWikiReference)) {
+            rightsDocuments.add(new DocumentReference(WIKI_PREFERENCES, mainWikiReference));
+        }
+
+        Set<String> admins = new LinkedHashSet<>();
+        boolean decided = false;
+        for (int i = 0; i < rightsDocuments.size(); ++i) {
+            // The levels above the one deciding for everyone don't matter, except for the space admins
+            if (decided && i != SPACE_LEVEL) {
+                continue;
+            }
+
+            DocumentReference rightsDocument = rightsDocuments.get(i);
+
+            Level level = new Level();
+            readRules(rightsDocument, i == 0 ? RIGHTS_CLASS : GLOBAL_RIGHTS_CLASS, i == SPACE_LEVEL ? admins : null,
+                level, xcontext);
+
+            if (!decided) {
+                level.setFields(solrDocument, i);
+                decided = level.deciding;
+            }
+        }
+
+        // The admin right on the wiki (which includes the wiki owner and the users having the programming right) is
+        // checked when querying
+        if (!admins.isEmpty()) {
+            solrDocument.setField(FieldUtils.ACCESS_ADMIN, new ArrayList<>(admins));
+        }
+    }
+
+    private void readRules(DocumentReference rightsDocumentReference, LocalDocumentReference classReference,
+        Set<String> admins, Level level, XWikiContext xcontext) throws SolrIndexerException
+    {
+        XWikiDocument rightsDocument;
+        try {
+            rightsDocument = xcontext.getWiki().getDocument(rightsDocumentReference, xcontext);
+        } catch (XWikiException e) {
+            throw new SolrIndexerException(String.format("Failed to get the rights of document [%s]",
+                rightsDocumentReference), e);
+        }
+
+        List<BaseObject> rules = rightsDocument.getXObjects(classReference);
+        if (rules == null) {
+            return;
+        }
+
+        WikiReference wikiReference = rightsDocumentReference.getWikiReference();
+        for (BaseObject rule : rules) {
+            if (rule != null) {
+                readRule(rule, wikiReference, admins, level);
+            }
+        }
+    }
+
+    private void readRule(BaseObject rule, WikiReference wikiReference, Set<String> admins, Level level)
+    {
+        List<String> rights = LevelsClass.getListFromString(rule.getStringValue(LEVELS_FIELD));
+        boolean allow = rule.getIntValue("allow") == 1;
+
+        List<String> users = getTokens(UsersClass.getListFromString(rule.getStringValue("users")), wikiReference);
+        List<String> groups = getTokens(GroupsClass.getListFromString(rule.getStringValue("groups")), wikiReference);
+
+        if (allow) {
+            // The edit right implies the view right, but only an explicit view rule denies it to everyone else
+            if (rights.contains(VIEW) || rights.contains(EDIT)) {
+                level.allowedUsers.addAll(users);
+                level.allowedGroups.addAll(groups);
+                level.deciding |= rights.contains(VIEW);
+            }
+            // The admin right implies the view right and can't be overwritten by a lower level
+            if (admins != null && rights.contains(ADMIN)) {
+                admins.addAll(users);
+                admins.addAll(groups);
+            }
+        } else if (rights.contains(VIEW)) {
+            level.deniedUsers.addAll(users);
+            level.deniedGroups.addAll(groups);
+        }
+    }
+
+    private List<String> getTokens(List<String> principals, WikiReference wikiReference)
+    {
+        List<String> tokens = new ArrayList<>(principals.size());
+        for (String principal : principals) {
+            DocumentReference principalReference = this.userResolver.resolve(principal, wikiReference);
+            if (principalReference != null) {
+                tokens.add(getToken(principalReference));
+            }
+        }
+
+        return tokens;
+    }
+
+    private String getToken(DocumentReference principalReference)
+    {
+        if (principalReference == null || GUEST_USER.equals(principalReference.getName())) {
+            return GUEST;
+        }
+
+        return this.serializer.serialize(principalReference);
+    }
+
+    @Override
+    public void filter(SolrQuery solrQuery) throws SolrException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        DocumentReference userReference = xcontext.getUserReference();
+
+        // The groups are resolved in the wikis the search is the most likely to target. The documents of the other
+        // wikis are not filtered here and are left to the results filtering done after the query.
+        Set<WikiReference> wikis = new LinkedHashSet<>();
+        wikis.add(new WikiReference(xcontext.getWikiId()));
+        wikis.add(new WikiReference(xcontext.getMainXWiki()));
+        if (userReference != null) {
+            wikis.add(userReference.getWikiReference());
+        }
+
+        String user = getToken(userReference);
+        Collection<String> groups = getGroups(userReference, wikis, xcontext);
+
+        List<String> principals = new ArrayList<>(groups.size() + 2);
+        principals.add(user);
+        principals.addAll(groups);
+        principals.add(ANYONE);
+
+        solrQuery.set(PARAM_SEPARATOR, SEPARATOR);
+        solrQuery.set(PARAM_USER, user);
+        solrQuery.set(PARAM_PRINCIPALS, StringUtils.join(principals, SEPARATOR));
+        if (!groups.isEmpty()) {
+            solrQuery.set(PARAM_GROUPS, StringUtils.join(groups, SEPARATOR));
+        }
+
+        solrQuery.addFilterQuery(getFilterQuery(userReference, wikis, !groups.isEmpty()));
+    }
+
+    private Collection<String> getGroups(DocumentReference userReference, Set<WikiReference> wikis,
+        XWikiContext xcontext) throws SolrException
+    {
+        if (userReference == null || GUEST_USER.equals(userReference.getName())) {
+            return Collections.emptyList();
+        }
+
+        Set<DocumentReference> groups = new LinkedHashSet<>();
+
+        String currentWiki = xcontext.getWikiId();
+        try {
+            XWikiGroupService groupService = xcontext.getWiki().getGroupService(xcontext);
+
+            Deque<DocumentReference> members = new ArrayDeque<>();
+            members.add(userReference);
+            while (!members.isEmpty()) {
+                DocumentReference member = members.poll();
+                for (WikiReference wiki : wikis) {
+                    xcontext.setWikiId(wiki.getName());
+                    for (DocumentReference group : groupService.getAllGroupsReferencesForMember(member, 0, 0,
+                        xcontext)) {
+                        if (groups.add(group)) {
+                            members.add(group);
+                        }
+                    }
+                }
+            }
+        } catch (XWikiException e) {
+            throw new SolrException(String.format("Failed to get the groups of user [%s]", userReference), e);
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+
+        List<String> tokens = new ArrayList<>(groups.size());
+        for (DocumentReference group : groups) {
+            tokens.add(getToken(group));
+        }
+
+        return tokens;
+    }
+
+    private String getFilterQuery(DocumentReference userReference, Set<WikiReference> wikis, boolean hasGroups)
+    {
+        List<String> wikiNames = new ArrayList<>(wikis.size());
+        List<String> adminWikiNames = new ArrayList<>(wikis.size());
+        for (WikiReference wiki : wikis) {
+            String wikiName = ClientUtils.escapeQueryChars(wiki.getName());
+            wikiNames.add(wikiName);
+            if (this.authorization.hasAccess(Right.ADMIN, userReference, wiki)) {
+                adminWikiNames.add(wikiName);
+            }
+        }
+
+        List<String> clauses = new ArrayList<>();
+
+        // The wikis for which the groups of the user have not been resolved
+        clauses.add("(*:* -" + getWikiQuery(wikiNames) + ')');
+
+        // The wikis administrated by the user
+        if (!adminWikiNames.isEmpty()) {
+            clauses.add(getWikiQuery(adminWikiNames));
+        }
+
+        // The spaces administrated by the user
+        clauses.add(getTermsQuery(FieldUtils.ACCESS_ADMIN, PARAM_PRINCIPALS));
+
+        // The first level matching the user allows the view right
+        StringBuilder upperLevels = new StringBuilder();
+        for (int level = 0; level < LEVELS; ++level) {
+            clauses.add("(+" + getLevelQuery(level, hasGroups) + upperLevels + ')');
+
+            upperLevels.append(NOT).append(getAccessTermsQuery(FieldUtils.ACCESS_LEVEL, level, PARAM_PRINCIPALS));
+        }
+
+        // No level matches the user
+        clauses.add("(*:*" + upperLevels + ')');
+
+        return "{!lucene}" + StringUtils.join(clauses, OR);
+    }
+
+    private String getWikiQuery(List<String> wikiNames)
+    {
+        return FieldUtils.WIKI + ":(" + StringUtils.join(wikiNames, OR) + ')';
+    }
+
+    private String getLevelQuery(int level, boolean hasGroups)
+    {
+        String allowedUser = getAccessTermsQuery(FieldUtils.ACCESS_ALLOW_USERS, level, PARAM_USER);
+        String deniedUser = getAccessTermsQuery(FieldUtils.ACCESS_DENY_USERS, level, PARAM_USER);
+
+        // A deny wins over an allow at the same level
+        StringBuilder query = new StringBuilder();
+        query.append("((+").append(allowedUser).append(NOT).append(deniedUser).append(')');
+
+        if (hasGroups) {
+            // The rules matching the user win over the rules matching its groups
+            query.append(OR).append("(+");
+            query.append(getAccessTermsQuery(FieldUtils.ACCESS_ALLOW_GROUPS, level, PARAM_GROUPS));
+            query.append(NOT).append(getAccessTermsQuery(FieldUtils.ACCESS_DENY_GROUPS, level, PARAM_GROUPS));
+            query.append(NOT).append(allowedUser);
+            query.append(NOT).append(deniedUser);
+            query.append(')');
+        }
+
+        query.append(')');
+
+        return query.toString();
+    }
+
+    private String getAccessTermsQuery(String field, int level, String tokensParameter)
+    {
+        return getTermsQuery(FieldUtils.getAccessFieldName(field, level), tokensParameter);
+    }
+
+    private String getTermsQuery(String field, String tokensParameter)
+    {
+        return String.format("_query_:\"{!terms f=%s separator=$%s v=$%s}\"", field, PARAM_SEPARATOR,
+            tokensParameter);
+    }
+
+    @Override
+    public Collection<EntityReference> getProtectedEntities(DocumentReference documentReference,
+        DocumentReference classReference)
+    {
+        LocalDocumentReference localClassReference = new LocalDocumentReference(classReference);
+
+        if (RIGHTS_CLASS.equals(localClassReference)) {
+            // All the translations, attachments and objects of the document
+            return Collections.<EntityReference>singletonList(new DocumentReference(documentReference, null));
+        }
+
+        if (GLOBAL_RIGHTS_CLASS.equals(localClassReference)) {
+            if (documentReference.getName().equals(SPACE_PREFERENCES)) {
+                return Collections.<EntityReference>singletonList(documentReference.getLastSpaceReference());
+            }
+
+            if (WIKI_PREFERENCES.equals(new LocalDocumentReference(documentReference))) {
+                return getProtectedWikis(documentReference.getWikiReference());
+            }
+        }
+
+        return Collections.emptyList();
+    }
+
+    private Collection<EntityReference> getProtectedWikis(WikiReference wikiReference)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        if (!wikiReference.getName().equals(xcontext.getMainXWiki())) {
+            return Collections.<EntityReference>singletonList(wikiReference);
+        }
+
+        // The rights of the main wiki apply to all the wikis
+        List<EntityReference> wikis = new ArrayList<>();
+        try {
+            for (String wiki : xcontext.getWiki().getVirtualWikisDatabaseNames(xcontext)) {
+                wikis.add(new WikiReference(wiki));
+            }
+        } catch (XWikiException e) {
+            this.logger.error("Failed to get the list of wikis", e);
+
+            wikis.add(wikiReference);
+        }
+
+        return wikis;
+    }
+}
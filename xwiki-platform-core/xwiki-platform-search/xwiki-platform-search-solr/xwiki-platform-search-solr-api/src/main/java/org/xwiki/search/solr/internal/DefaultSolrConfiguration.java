@@ -104,6 +104,56 @@ public class DefaultSolrConfiguration implements SolrConfiguration
      */
     public static final int SOLR_INDEXER_QUEUE_CAPACITY_DEFAULT = 100000;
 
+    /**
+     * The name of the configuration property containing the number of extraction threads.
+     */
+    public static final String SOLR_INDEXER_THREADS_PROPERTY = "solr.indexer.threads";
+
+    /**
+     * The default number of extraction threads.
+     */
+    public static final int SOLR_INDEXER_THREADS_DEFAULT = 1;
+
+    /**
+     * The name of the configuration property containing the maximum number of characters extracted from an attachment.
+     */
+    public static final String SOLR_ATTACHMENT_TEXT_MAXLENGTH_PROPERTY = "solr.indexer.attachment.text.maxLength";
+
+    /**
+     * The default maximum number of characters extracted from an attachment (same as Tika default).
+     */
+    public static final int SOLR_ATTACHMENT_TEXT_MAXLENGTH_DEFAULT = 100000;
+
+    /**
+     * The name of the configuration property containing the maximum size of the attachments to extract.
+     */
+    public static final String SOLR_ATTACHMENT_MAXSIZE_PROPERTY = "solr.indexer.attachment.maxSize";
+
+    /**
+     * The default maximum size of the attachments to extract.
+     */
+    public static final long SOLR_ATTACHMENT_MAXSIZE_DEFAULT = 0;
+
+    /**
+     * The name of the configuration property containing the maximum duration of an attachment text extraction.
+     */
+    public static final String SOLR_ATTACHMENT_TIMEOUT_PROPERTY = "solr.indexer.attachment.timeout";
+
+    /**
+     * The default maximum duration of an attachment text extraction.
+     */
+    public static final int SOLR_ATTACHMENT_TIMEOUT_DEFAULT = 0;
+
+    /**
+     * The name of the configuration property containing the maximum size of the attachment text store.
+     */
+    public static final String SOLR_ATTACHMENT_STORE_MAXSIZE_PROPERTY = "solr.indexer.attachment.store.maxSize";
+
+    /**
+     * The default maximum size of the attachment text store (100MB).
+     */
+    public static final long SOLR_ATTACHMENT_STORE_MAXSIZE_DEFAULT = 100 * 1024 * 1024L;
+
     /**
      * The name of the configuration property indicating if a synchronization should be run at startup.
      */
@@ -160,6 +210,38 @@ public int getIndexerQueueCapacity()
             .getProperty(SOLR_INDEXER_QUEUE_CAPACITY_PROPERTY, SOLR_INDEXER_QUEUE_CAPACITY_DEFAULT);
     }
 
+    @Override
+    public int getIndexerThreads()
+    {
+        return this.configuration.getProperty(SOLR_INDEXER_THREADS_PROPERTY, SOLR_INDEXER_THREADS_DEFAULT);
+    }
+
+    @Override
+    public int getAttachmentTextMaxLength()
+    {
+        return this.configuration.getProperty(SOLR_ATTACHMENT_TEXT_MAXLENGTH_PROPERTY,
+            SOLR_ATTACHMENT_TEXT_MAXLENGTH_DEFAULT);
+    }
+
+    @Override
+    public long getAttachmentMaxSize()
+    {
+        return this.configuration.getProperty(SOLR_ATTACHMENT_MAXSIZE_PROPERTY, SOLR_ATTACHMENT_MAXSIZE_DEFAULT);
+    }
+
+    @Override
+    public int getAttachmentExtractionTimeout()
+    {
+        return this.configuration.getProperty(SOLR_ATTACHMENT_TIMEOUT_PROPERTY, SOLR_ATTACHMENT_TIMEOUT_DEFAULT);
+    }
+
+    @Override
+    public long getAttachmentTextStoreMaxSize()
+    {
+        return this.configuration.getProperty(SOLR_ATTACHMENT_STORE_MAXSIZE_PROPERTY,
+            SOLR_ATTACHMENT_STORE_MAXSIZE_DEFAULT);
+    }
+
     @Override
     public boolean synchronizeAtStartup()
     {
@@ -20,10 +20,19 @@
 package org.xwiki.search.solr.internal;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -56,14 +65,25 @@
 import org.xwiki.search.solr.internal.metadata.SolrMetadataExtractor;
 import org.xwiki.search.solr.internal.reference.SolrReferenceResolver;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.monitor.api.MonitorPlugin;
 import com.xpn.xwiki.util.AbstractXWikiRunnable;
 
 /**
  * Default implementation of {@link SolrIndexer}.
  * <p/>
- * This implementation does not directly process the given leaf-references, but adds them to a processing queue, in the
- * order they were received. The {@link Runnable} part of this implementation is the one that sequentially reads and
- * processes the queue.
+ * This implementation does not directly process the given leaf-references, but adds them to a processing pipeline, in
+ * the order they were received:
+ * <ol>
+ * <li>the resolve thread extracts the leaf-references from the given references and adds them to the index queue</li>
+ * <li>the dispatch thread reads the index queue and sends the entries to a pool of threads which load the entities and
+ * extract their metadata in parallel</li>
+ * <li>the {@link Runnable} part of this implementation sends the extracted metadata to the Solr server and commits them
+ * in batches</li>
+ * </ol>
+ * The stages are connected by bounded queues so that a slow stage blocks the previous ones. The extracted entries are
+ * sent to the Solr server in the order they were received so that a delete never overtakes an index of the same
+ * entity.
  * 
  * @version $Id$
  * @since 5.1M2
@@ -173,6 +193,70 @@ public ResolveQueueEntry(EntityReference reference, boolean recurse, IndexOperat
         }
     }
 
+    /**
+     * The result of the metadata extraction of an index queue entry, ready to be sent to the Solr server.
+     * 
+     * @version $Id$
+     */
+    private static class CommitQueueEntry
+    {
+        /**
+         * The extracted index queue entry.
+         */
+        public IndexQueueEntry queueEntry;
+
+        /**
+         * The document to add to the index.
+         */
+        public LengthSolrInputDocument solrDocument;
+
+        /**
+         * The identifier of the document to remove from the index.
+         */
+        public String deleteId;
+
+        /**
+         * @param queueEntry the extracted index queue entry
+         */
+        public CommitQueueEntry(IndexQueueEntry queueEntry)
+        {
+            this.queueEntry = queueEntry;
+        }
+    }
+
+    /**
+     * The number of entries processed by a stage of the indexing pipeline and the time spent processing them.
+     * 
+     * @version $Id$
+     */
+    private static class StageStatistics
+    {
+        /**
+         * The number of processed entries.
+         */
+        public final AtomicLong processed = new AtomicLong();
+
+        /**
+         * The time spent processing the entries, in nanoseconds.
+         */
+        public final AtomicLong time = new AtomicLong();
+
+        /**
+         * @param count the number of entries just processed
+         * @param start the time when the processing of the entries started, in nanoseconds
+         * @return the time spent processing the entries, in nanoseconds
+         */
+        public long add(int count, long start)
+        {
+            long duration = System.nanoTime() - start;
+
+            this.processed.addAndGet(count);
+            this.time.addAndGet(duration);
+
+            return duration;
+        }
+    }
+
     /**
      * Extract children references from passed references and dispatch them to the index queue.
      * 
@@ -195,12 +279,12 @@ public void runInternal()
                 }
 
                 if (queueEntry == RESOLVE_QUEUE_ENTRY_STOP) {
-                    // Stop the index thread: clear the queue and send the stop signal without blocking.
-                    indexQueue.clear();
-                    indexQueue.offer(INDEX_QUEUE_ENTRY_STOP);
+                    // Stop the dispatch thread once it has dispatched the entries already in the index queue
+                    stop(indexQueue, INDEX_QUEUE_ENTRY_STOP);
                     break;
                 }
 
+                long start = System.nanoTime();
                 try {
                     if (queueEntry.operation == IndexOperation.INDEX) {
                         Iterable<EntityReference> references;
@@ -225,12 +309,112 @@ public void runInternal()
                     logger.warn("Failed to apply operation [{}] on root reference [{}]", queueEntry.operation,
                         queueEntry.reference, e);
                 }
+                recordTimer("solr.resolve", resolveStatistics.add(1, start));
             }
 
             logger.debug("Stop SOLR resolver thread");
         }
     }
 
+    /**
+     * Send the entries of the index queue to the extraction threads, in order.
+     * 
+     * @version $Id$
+     */
+    private class Dispatcher implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            logger.debug("Start SOLR dispatch thread");
+
+            while (!Thread.interrupted()) {
+                IndexQueueEntry queueEntry;
+                try {
+                    queueEntry = indexQueue.take();
+                } catch (InterruptedException e) {
+                    logger.warn("The SOLR dispatch thread has been interrupted", e);
+                    queueEntry = INDEX_QUEUE_ENTRY_STOP;
+                }
+
+                if (queueEntry == INDEX_QUEUE_ENTRY_STOP) {
+                    // Stop the index thread once it has sent the entries already in the commit queue
+                    stop(commitQueue, COMMIT_QUEUE_ENTRY_STOP);
+                    break;
+                }
+
+                FutureTask<CommitQueueEntry> task = new FutureTask<CommitQueueEntry>(new Extractor(queueEntry));
+                try {
+                    // Block when too many entries are waiting to be sent to the Solr server
+                    commitQueue.put(task);
+                } catch (InterruptedException e) {
+                    logger.warn("The SOLR dispatch thread has been interrupted", e);
+                    commitQueue.clear();
+                    commitQueue.offer(COMMIT_QUEUE_ENTRY_STOP);
+                    break;
+                }
+
+                try {
+                    extractors.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // The component is being disposed
+                    task.cancel(false);
+                }
+            }
+
+            logger.debug("Stop SOLR dispatch thread");
+        }
+    }
+
+    /**
+     * Load the entity of an index queue entry and extract its metadata.
+     * 
+     * @version $Id$
+     */
+    private class Extractor implements Callable<CommitQueueEntry>
+    {
+        /**
+         * The entry to extract.
+         */
+        private final IndexQueueEntry queueEntry;
+
+        /**
+         * @param queueEntry the entry to extract
+         */
+        public Extractor(IndexQueueEntry queueEntry)
+        {
+            this.queueEntry = queueEntry;
+        }
+
+        @Override
+        public CommitQueueEntry call()
+        {
+            long start = System.nanoTime();
+
+            CommitQueueEntry commitEntry = new CommitQueueEntry(this.queueEntry);
+            try {
+                ecim.initialize(new ExecutionContext());
+
+                if (IndexOperation.INDEX.equals(this.queueEntry.operation)) {
+                    commitEntry.solrDocument = getSolrDocument(this.queueEntry.reference);
+                } else if (IndexOperation.DELETE.equals(this.queueEntry.operation)
+                    && this.queueEntry.reference != null) {
+                    commitEntry.deleteId = solrRefereceResolver.getId(this.queueEntry.reference);
+                }
+            } catch (Throwable e) {
+                logger.error("Failed to process entry [{}]", this.queueEntry, e);
+
+                commitEntry = null;
+            } finally {
+                execution.removeContext();
+            }
+
+            recordTimer("solr.extract", extractStatistics.add(1, start));
+
+            return commitEntry;
+        }
+    }
+
     /**
      * Stop resolver thread.
      */
@@ -243,6 +427,30 @@ public void runInternal()
     private static final IndexQueueEntry INDEX_QUEUE_ENTRY_STOP = new IndexQueueEntry((String) null,
         IndexOperation.STOP);
 
+    /**
+     * Stop indexer thread.
+     */
+    private static final Future<CommitQueueEntry> COMMIT_QUEUE_ENTRY_STOP = new FutureTask<CommitQueueEntry>(
+        new Callable<CommitQueueEntry>()
+        {
+            @Override
+            public CommitQueueEntry call()
+            {
+                return null;
+            }
+        });
+
+    /**
+     * The number of entries waiting to be sent to the Solr server for each extraction thread.
+     */
+    private static final int COMMIT_QUEUE_CAPACITY_PER_THREAD = 10;
+
+    /**
+     * The maximum number of seconds to wait for the entries already queued to be sent to the Solr server when the
+     * component is disposed.
+     */
+    private static final long DISPOSE_TIMEOUT = 30;
+
     /**
      * Logging framework.
      */
@@ -276,6 +484,9 @@ public void runInternal()
     @Inject
     private Execution execution;
 
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
     @Inject
     private ExecutionContextManager ecim;
 
@@ -289,6 +500,37 @@ public void runInternal()
      */
     private BlockingQueue<ResolveQueueEntry> resolveQueue;
 
+    /**
+     * The queue of extracted entries to send to the Solr server, in the order they were added to the index queue.
+     */
+    private BlockingQueue<Future<CommitQueueEntry>> commitQueue;
+
+    /**
+     * The threads loading the entities and extracting their metadata.
+     */
+    private ThreadPoolExecutor extractors;
+
+    /**
+     * Statistics of the resolve stage.
+     */
+    private final StageStatistics resolveStatistics = new StageStatistics();
+
+    /**
+     * Statistics of the extraction stage.
+     */
+    private final StageStatistics extractStatistics = new StageStatistics();
+
+    /**
+     * Statistics of the Solr add/commit stage.
+     */
+    private final StageStatistics commitStatistics = new StageStatistics();
+
+    /**
+     * The monitor plugin to report the time spent in each stage to, resolved the first time a XWiki context is
+     * available.
+     */
+    private volatile MonitorPlugin monitor;
+
     /**
      * Indexer jobs.
      */
@@ -300,6 +542,11 @@ public void runInternal()
      */
     private Thread indexThread;
 
+    /**
+     * Thread in which the index queue entries are sent to the extraction threads.
+     */
+    private Thread dispatchThread;
+
     /**
      * Thread in which the provided references children will be resolved.
      */
@@ -316,6 +563,18 @@ public void initialize() throws InitializationException
         // Initialize the queues before starting the threads.
         this.resolveQueue = new LinkedBlockingQueue<ResolveQueueEntry>();
         this.indexQueue = new LinkedBlockingQueue<IndexQueueEntry>(this.configuration.getIndexerQueueCapacity());
+        int threads = Math.max(1, this.configuration.getIndexerThreads());
+        this.commitQueue = new LinkedBlockingQueue<Future<CommitQueueEntry>>(
+            Math.max(threads * COMMIT_QUEUE_CAPACITY_PER_THREAD, this.configuration.getIndexerBatchSize()));
+
+        // Setup the extraction threads. The number of tasks waiting to be executed is limited by the capacity of the
+        // commit queue.
+        BasicThreadFactory extractorFactory =
+            new BasicThreadFactory.Builder().namingPattern("XWiki Solr extraction thread %d").daemon(true)
+                .priority(Thread.NORM_PRIORITY - 1).build();
+        this.extractors =
+            new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                extractorFactory);
 
         // Launch the resolve thread
         this.resolveThread = new Thread(new Resolver());
@@ -324,6 +583,13 @@ public void initialize() throws InitializationException
         this.resolveThread.start();
         this.resolveThread.setPriority(Thread.NORM_PRIORITY - 1);
 
+        // Launch the dispatch thread
+        this.dispatchThread = new Thread(new Dispatcher());
+        this.dispatchThread.setName("XWiki Solr dispatch thread");
+        this.dispatchThread.setDaemon(true);
+        this.dispatchThread.start();
+        this.dispatchThread.setPriority(Thread.NORM_PRIORITY - 1);
+
         // Launch the index thread
         this.indexThread = new Thread(this);
         this.indexThread.setName("XWiki Solr index thread");
@@ -347,17 +613,60 @@ public void dispose() throws ComponentLifecycleException
         // Shutdown indexer jobs queue
         this.indexerJobs.shutdownNow();
 
-        // Stop the resolve thread. Clear the queue and send the stop signal without blocking. We know that the resolve
-        // queue will remain empty after the clear call because we set the disposed flag above.
-        this.resolveQueue.clear();
+        // Stop the resolve thread once the entries already queued have been resolved. The stop signal then goes down
+        // the pipeline behind the queued entries. The resolve queue is not bounded so this never blocks, and nothing
+        // can be added after the stop signal because we set the disposed flag above.
         this.resolveQueue.offer(RESOLVE_QUEUE_ENTRY_STOP);
 
-        // Stop the index thread. Clear the queue and send the stop signal without blocking. There should be enough
-        // space in the index queue before the special stop entry is added as long the the index queue capacity is
-        // greater than 1. In the worse case, the clear call will unblock the resolve thread (which was waiting because
-        // the index queue was full) and just one entry will be added to the queue before the special stop entry.
-        this.indexQueue.clear();
-        this.indexQueue.offer(INDEX_QUEUE_ENTRY_STOP);
+        // Give some time to the pipeline to send the queued entries to the Solr server
+        boolean stopped = false;
+        try {
+            this.indexThread.join(TimeUnit.SECONDS.toMillis(DISPOSE_TIMEOUT));
+            stopped = !this.indexThread.isAlive();
+        } catch (InterruptedException e) {
+            this.logger.warn("Interrupted while waiting for the SOLR index thread to stop", e);
+            Thread.currentThread().interrupt();
+        }
+
+        if (!stopped) {
+            // Drop what's left. The stop signals are sent without blocking after the queues are cleared.
+            int dropped = this.resolveQueue.size() + this.indexQueue.size() + this.commitQueue.size();
+            this.resolveQueue.clear();
+            this.resolveQueue.offer(RESOLVE_QUEUE_ENTRY_STOP);
+            this.indexQueue.clear();
+            this.indexQueue.offer(INDEX_QUEUE_ENTRY_STOP);
+            this.commitQueue.clear();
+            this.commitQueue.offer(COMMIT_QUEUE_ENTRY_STOP);
+
+            this.logger.warn("The SOLR index has not been updated for [{}] queued entries which could not be processed"
+                + " in less than [{}] seconds. They will be indexed again by the next index synchronization.",
+                dropped, DISPOSE_TIMEOUT);
+        }
+
+        // Stop the extraction threads and cancel the extractions which did not start yet so that the index thread does
+        // not wait for them (there should not be any left when the pipeline stopped in time).
+        for (Runnable task : this.extractors.shutdownNow()) {
+            ((Future<?>) task).cancel(false);
+        }
+    }
+
+    /**
+     * Send the stop signal to the next stage of the pipeline, after the entries it still has to process.
+     *
+     * @param queue the queue of the next stage
+     * @param stopEntry the stop signal
+     * @param <E> the type of the queue entries
+     */
+    private <E> void stop(BlockingQueue<E> queue, E stopEntry)
+    {
+        try {
+            // Block until the next stage makes some room in the queue
+            queue.put(stopEntry);
+        } catch (InterruptedException e) {
+            // Stop without waiting
+            queue.clear();
+            queue.offer(stopEntry);
+        }
     }
 
     @Override
@@ -367,16 +676,16 @@ public void run()
 
         while (!Thread.interrupted()) {
             // Block until there is at least one entry in the queue
-            IndexQueueEntry queueEntry = null;
+            Future<CommitQueueEntry> queueEntry = null;
             try {
-                queueEntry = this.indexQueue.take();
+                queueEntry = this.commitQueue.take();
             } catch (InterruptedException e) {
                 this.logger.warn("The SOLR index thread has been interrupted", e);
 
-                queueEntry = INDEX_QUEUE_ENTRY_STOP;
+                queueEntry = COMMIT_QUEUE_ENTRY_STOP;
             }
 
-            if (queueEntry == INDEX_QUEUE_ENTRY_STOP) {
+            if (queueEntry == COMMIT_QUEUE_ENTRY_STOP) {
                 break;
             }
 
@@ -388,59 +697,83 @@ public void run()
     }
 
     /**
-     * Process a batch of operations that were just read from the index operations queue. This method also commits the
-     * batch when it finishes to process it.
+     * Process a batch of operations that were just read from the commit queue. This method also commits the batch when
+     * it finishes to process it.
      * 
      * @param queueEntry the batch to process
      */
-    private void processBatch(IndexQueueEntry queueEntry)
+    private void processBatch(Future<CommitQueueEntry> queueEntry)
     {
         SolrInstance solrInstance = this.solrInstanceProvider.get();
 
         int length = 0;
         int size = 0;
 
-        for (IndexQueueEntry batchEntry = queueEntry; batchEntry != null; batchEntry = this.indexQueue.poll()) {
-            IndexOperation operation = batchEntry.operation;
+        long start = System.nanoTime();
 
-            // For the current contiguous operations queue, group the changes
+        for (Future<CommitQueueEntry> batchEntry = queueEntry; batchEntry != null; batchEntry =
+            this.commitQueue.poll()) {
+            if (batchEntry == COMMIT_QUEUE_ENTRY_STOP) {
+                // Put back the stop signal for the main loop
+                this.commitQueue.clear();
+                this.commitQueue.offer(COMMIT_QUEUE_ENTRY_STOP);
+                break;
+            }
+
+            // Wait for the extraction to finish, the entries are sent in the order they were added to the index queue
+            CommitQueueEntry commitEntry;
             try {
-                this.ecim.initialize(new ExecutionContext());
+                commitEntry = batchEntry.get();
+            } catch (InterruptedException e) {
+                this.logger.warn("The SOLR index thread has been interrupted", e);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                this.logger.debug("The extraction of the entry has been cancelled", e);
+                continue;
+            }
 
-                if (IndexOperation.INDEX.equals(operation)) {
-                    LengthSolrInputDocument solrDocument = getSolrDocument(batchEntry.reference);
-                    if (solrDocument != null) {
-                        solrInstance.add(solrDocument);
-                        length += solrDocument.getLength();
+            if (commitEntry == null) {
+                // The extraction failed (and has already been logged)
+                continue;
+            }
+
+            // For the current contiguous operations queue, group the changes
+            try {
+                if (IndexOperation.INDEX.equals(commitEntry.queueEntry.operation)) {
+                    if (commitEntry.solrDocument != null) {
+                        solrInstance.add(commitEntry.solrDocument);
+                        length += commitEntry.solrDocument.getLength();
                         ++size;
                     }
-                } else if (IndexOperation.DELETE.equals(operation)) {
-                    if (batchEntry.reference == null) {
-                        solrInstance.deleteByQuery(batchEntry.deleteQuery);
+                } else if (IndexOperation.DELETE.equals(commitEntry.queueEntry.operation)) {
+                    if (commitEntry.queueEntry.reference == null) {
+                        solrInstance.deleteByQuery(commitEntry.queueEntry.deleteQuery);
                     } else {
-                        solrInstance.delete(this.solrRefereceResolver.getId(batchEntry.reference));
+                        solrInstance.delete(commitEntry.deleteId);
                     }
 
                     ++size;
                 }
             } catch (Throwable e) {
-                this.logger.error("Failed to process entry [{}]", batchEntry, e);
-            } finally {
-                this.execution.removeContext();
+                this.logger.error("Failed to process entry [{}]", commitEntry.queueEntry, e);
             }
 
             // Commit the index changes so that they become available to queries. This is a costly operation and that is
             // the reason why we perform it at the end of the batch.
             if (shouldCommit(length, size)) {
                 commit();
+                recordTimer("solr.commit", this.commitStatistics.add(size, start));
                 length = 0;
                 size = 0;
+                start = System.nanoTime();
             }
         }
 
         // Commit what's left
         if (size > 0) {
             commit();
+            recordTimer("solr.commit", this.commitStatistics.add(size, start));
         }
     }
 
@@ -547,10 +880,60 @@ private void addToQueue(EntityReference reference, boolean recurse, IndexOperati
         }
     }
 
+    /**
+     * Report the time spent in a stage of the indexing pipeline to the monitor plugin.
+     *
+     * @param timer the name of the timer
+     * @param duration the time spent, in nanoseconds
+     */
+    private void recordTimer(String timer, long duration)
+    {
+        MonitorPlugin currentMonitor = this.monitor;
+        if (currentMonitor == null) {
+            // The index thread has no XWiki context so the plugin found by the other threads is remembered
+            XWikiContext xcontext = this.xcontextProvider.get();
+            if (xcontext != null && xcontext.getWiki() != null && xcontext.getWiki().getPluginManager() != null) {
+                currentMonitor = (MonitorPlugin) xcontext.getWiki().getPluginManager().getPlugin("monitor");
+                this.monitor = currentMonitor;
+            }
+        }
+
+        if (currentMonitor != null) {
+            currentMonitor.recordTimer(timer, duration);
+        }
+    }
+
     @Override
     public int getQueueSize()
     {
-        return this.indexQueue.size() + this.resolveQueue.size();
+        return this.indexQueue.size() + this.resolveQueue.size() + this.commitQueue.size();
+    }
+
+    @Override
+    public Map<String, Long> getStatistics()
+    {
+        Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+
+        statistics.put("resolve.queue", (long) this.resolveQueue.size());
+        addStatistics(statistics, "resolve", this.resolveStatistics);
+        statistics.put("extract.queue", (long) this.indexQueue.size());
+        statistics.put("extract.threads", (long) this.extractors.getMaximumPoolSize());
+        addStatistics(statistics, "extract", this.extractStatistics);
+        statistics.put("commit.queue", (long) this.commitQueue.size());
+        addStatistics(statistics, "commit", this.commitStatistics);
+
+        return statistics;
+    }
+
+    /**
+     * @param statistics the statistics to fill
+     * @param stage the name of the stage
+     * @param stageStatistics the statistics of the stage
+     */
+    private void addStatistics(Map<String, Long> statistics, String stage, StageStatistics stageStatistics)
+    {
+        statistics.put(stage + ".processed", stageStatistics.processed.get());
+        statistics.put(stage + ".time", TimeUnit.NANOSECONDS.toMillis(stageStatistics.time.get()));
     }
 
     @Override
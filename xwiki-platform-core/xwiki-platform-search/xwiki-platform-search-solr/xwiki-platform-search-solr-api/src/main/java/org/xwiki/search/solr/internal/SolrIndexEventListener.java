@@ -34,10 +34,13 @@
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.bridge.event.WikiDeletedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
+import org.xwiki.search.solr.internal.api.SolrAccessControl;
 import org.xwiki.search.solr.internal.api.SolrIndexer;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
@@ -53,6 +56,7 @@
 import com.xpn.xwiki.internal.event.XObjectPropertyDeletedEvent;
 import com.xpn.xwiki.internal.event.XObjectPropertyUpdatedEvent;
 import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+import com.xpn.xwiki.objects.BaseObjectReference;
 
 /**
  * Event listener that monitors changes in the wiki and updates the Solr index accordingly.
@@ -88,6 +92,12 @@ public class SolrIndexEventListener implements EventListener
     @Inject
     private Provider<SolrIndexer> solrIndexer;
 
+    /**
+     * Used to find the entities to reindex when a rights object is modified.
+     */
+    @Inject
+    private Provider<SolrAccessControl> accessControl;
+
     @Override
     public List<Event> getEvents()
     {
@@ -149,10 +159,14 @@ public void onEvent(Event event, Object source, Object data)
                 EntityEvent entityEvent = (EntityEvent) event;
 
                 this.solrIndexer.get().index(entityEvent.getReference(), false);
+
+                indexProtectedEntities(entityEvent.getReference());
             } else if (event instanceof XObjectDeletedEvent) {
                 EntityEvent entityEvent = (EntityEvent) event;
 
                 this.solrIndexer.get().delete(entityEvent.getReference(), false);
+
+                indexProtectedEntities(entityEvent.getReference());
             } else if (event instanceof XObjectPropertyUpdatedEvent || event instanceof XObjectPropertyAddedEvent) {
                 EntityEvent entityEvent = (EntityEvent) event;
 
@@ -171,4 +185,21 @@ public void onEvent(Event event, Object source, Object data)
             this.logger.error("Failed to handle event [{}] with source [{}]", event, source, e);
         }
     }
+
+    /**
+     * Reindex the entities whose view right depends on the modified object, if it's a rights object.
+     *
+     * @param objectReference the reference of the modified object
+     */
+    private void indexProtectedEntities(EntityReference objectReference)
+    {
+        DocumentReference documentReference =
+            new DocumentReference(objectReference.extractReference(EntityType.DOCUMENT));
+        DocumentReference classReference = new BaseObjectReference(objectReference).getXClassReference();
+
+        for (EntityReference protectedEntity : this.accessControl.get().getProtectedEntities(documentReference,
+            classReference)) {
+            this.solrIndexer.get().index(protectedEntity, true);
+        }
+    }
 }
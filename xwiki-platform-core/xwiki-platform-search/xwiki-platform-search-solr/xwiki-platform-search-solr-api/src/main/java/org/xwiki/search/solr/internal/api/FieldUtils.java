@@ -284,6 +284,38 @@
      */
     public static final String PROPERTY_VALUE = "propertyvalue";
 
+    /**
+     * The users explicitly allowed to view the document at a level of the rights hierarchy. Used by
+     * {@link SolrAccessControl} with {@link #getAccessFieldName(String, int)}.
+     */
+    public static final String ACCESS_ALLOW_USERS = "acl_allow_user";
+
+    /**
+     * The groups explicitly allowed to view the document at a level of the rights hierarchy.
+     */
+    public static final String ACCESS_ALLOW_GROUPS = "acl_allow_group";
+
+    /**
+     * The users explicitly denied to view the document at a level of the rights hierarchy.
+     */
+    public static final String ACCESS_DENY_USERS = "acl_deny_user";
+
+    /**
+     * The groups explicitly denied to view the document at a level of the rights hierarchy.
+     */
+    public static final String ACCESS_DENY_GROUPS = "acl_deny_group";
+
+    /**
+     * All the principals for which a level of the rights hierarchy decides the view right, i.e. the users and groups
+     * having a rule at this level, and everyone when the level allows the view right to someone.
+     */
+    public static final String ACCESS_LEVEL = "acl_level";
+
+    /**
+     * The users and groups having the admin right on the space of the document (and thus the view right on it).
+     */
+    public static final String ACCESS_ADMIN = "acl_admin";
+
     /**
      * Underscore character, used to separate the field name from the suffix.
      */
@@ -320,6 +352,17 @@ public static String getFieldName(String field, Locale locale)
         return builder.toString();
     }
 
+    /**
+     * @param field the access field name (e.g. {@link #ACCESS_ALLOW_USERS})
+     * @param level the level in the rights hierarchy, starting with 0 for the document itself
+     * @return the name of the field holding the view right tokens of the passed level
+     * @since 7.1M1
+     */
+    public static String getAccessFieldName(String field, int level)
+    {
+        return field + USCORE + level;
+    }
+
     /**
      * Get the name of a dynamic field based on its type or the given locale. If the field type is specified then it is
      * suffixed to the field name so that its value is indexed properly (see schema.xml). Otherwise, the locale is
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal.api;
+
+import java.util.Collection;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.SolrInputDocument;
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Enforce the view right inside Solr: the principals (users and groups) allowed or denied to view a document are
+ * indexed with each of its entities and the queries are restricted to the entities the current user can view, so that
+ * the number of results, the paging and the facets are right.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Role
+public interface SolrAccessControl
+{
+    /**
+     * Add to the passed Solr document the view right tokens of the passed XWiki document.
+     *
+     * @param solrDocument the Solr document of the document or of one of its attachments, objects or properties
+     * @param documentReference the reference of the XWiki document owning the indexed entity
+     * @throws SolrIndexerException when failing to read the rights of the document
+     */
+    void setAccessFields(SolrInputDocument solrDocument, DocumentReference documentReference)
+        throws SolrIndexerException;
+
+    /**
+     * Restrict the passed query to the entities the current user is allowed to view.
+     *
+     * @param solrQuery the query to restrict
+     * @throws SolrException when failing to resolve the groups or the rights of the current user
+     */
+    void filter(SolrQuery solrQuery) throws SolrException;
+
+    /**
+     * @param documentReference the reference of the document holding an object
+     * @param classReference the class of the object
+     * @return the entities whose indexed view right tokens depend on such object and which need to be reindexed when
+     *         the object is modified, empty if the object is not a rights object
+     */
+    Collection<EntityReference> getProtectedEntities(DocumentReference documentReference,
+        DocumentReference classReference);
+}
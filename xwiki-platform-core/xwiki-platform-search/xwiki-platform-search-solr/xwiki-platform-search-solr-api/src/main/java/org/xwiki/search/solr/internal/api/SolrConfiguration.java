@@ -73,6 +73,37 @@
      */
     int getIndexerQueueCapacity();
 
+    /**
+     * @return the number of threads loading the entities and extracting their metadata in parallel
+     * @since 7.1M1
+     */
+    int getIndexerThreads();
+
+    /**
+     * @return the maximum number of characters extracted from an attachment, 0 for the default
+     * @since 7.1M1
+     */
+    int getAttachmentTextMaxLength();
+
+    /**
+     * @return the maximum size (in bytes) of an attachment for its text to be extracted, 0 for no limit
+     * @since 7.1M1
+     */
+    long getAttachmentMaxSize();
+
+    /**
+     * @return the maximum number of seconds the extraction of the text of an attachment can take, 0 for no limit
+     * @since 7.1M1
+     */
+    int getAttachmentExtractionTimeout();
+
+    /**
+     * @return the maximum size (in bytes) of the store of the text extracted from the attachments, 0 to disable the
+     *         store
+     * @since 7.1M1
+     */
+    long getAttachmentTextStoreMaxSize();
+
     /**
      * @return true if a full synchronization job between the database and SOLR index should be run when XWiki starts
      * @since 6.1M2
@@ -19,6 +19,8 @@
  */
 package org.xwiki.search.solr.internal.api;
 
+import java.util.Map;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.search.solr.internal.job.IndexerJob;
@@ -60,6 +62,17 @@
      */
     int getQueueSize();
 
+    /**
+     * Statistics about the stages of the indexing pipeline. For each stage ({@code resolve}, {@code extract} and
+     * {@code commit}) the map contains the number of entries waiting in the stage queue ({@code <stage>.queue}), the
+     * number of processed entries ({@code <stage>.processed}) and the time spent processing them in milliseconds
+     * ({@code <stage>.time}).
+     * 
+     * @return the statistics of the indexer
+     * @since 7.1M1
+     */
+    Map<String, Long> getStatistics();
+
     /**
      * Start an indexing with specific criteria.
      * 
@@ -19,7 +19,6 @@
  */
 package org.xwiki.search.solr.internal.metadata;
 
-import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -33,8 +32,6 @@
 import javax.inject.Provider;
 
 import org.apache.solr.common.SolrInputDocument;
-import org.apache.tika.Tika;
-import org.apache.tika.metadata.Metadata;
 import org.slf4j.Logger;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
@@ -44,6 +41,7 @@
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.search.solr.internal.api.FieldUtils;
+import org.xwiki.search.solr.internal.api.SolrAccessControl;
 import org.xwiki.search.solr.internal.api.SolrIndexerException;
 import org.xwiki.search.solr.internal.reference.SolrReferenceResolver;
 
@@ -113,6 +111,18 @@ public abstract class AbstractSolrMetadataExtractor implements SolrMetadataExtra
     @Inject
     protected ComponentManager componentManager;
 
+    /**
+     * Used to extract the text of the attachments.
+     */
+    @Inject
+    protected AttachmentTextExtractor attachmentTextExtractor;
+
+    /**
+     * Used to index the view right of the document owning the entity.
+     */
+    @Inject
+    protected SolrAccessControl accessControl;
+
     @Override
     public LengthSolrInputDocument getSolrDocument(EntityReference entityReference) throws SolrIndexerException,
         IllegalArgumentException
@@ -240,6 +250,8 @@ protected boolean setDocumentFields(DocumentReference documentReference, SolrInp
         solrDocument.setField(FieldUtils.LOCALE, locale.toString());
         solrDocument.setField(FieldUtils.LANGUAGE, locale.getLanguage());
 
+        this.accessControl.setAccessFields(solrDocument, documentReference);
+
         return true;
     }
 
@@ -470,18 +482,7 @@ protected void setPropertyValue(SolrInputDocument solrDocument, BaseProperty<Ent
     protected String getContentAsText(XWikiAttachment attachment)
     {
         try {
-            Tika tika = new Tika();
-
-            Metadata metadata = new Metadata();
-            metadata.set(Metadata.RESOURCE_NAME_KEY, attachment.getFilename());
-
-            InputStream in = attachment.getContentInputStream(this.xcontextProvider.get());
-
-            try {
-                return tika.parseToString(in, metadata);
-            } finally {
-                in.close();
-            }
+            return this.attachmentTextExtractor.getText(attachment);
         } catch (Exception e) {
             this.logger.error("Failed to retrieve the content of attachment [{}]", attachment.getReference(), e);
             return null;
@@ -0,0 +1,597 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal.metadata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.tika.Tika;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+import org.xwiki.search.solr.internal.api.SolrConfiguration;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Extract the text of the attachments to index.
+ * <p>
+ * The extracted text is stored on the filesystem, in the permanent directory, with the digest of the attachment content
+ * as key so that the same content is never parsed twice, even if the attachment or its document is indexed again or
+ * the attachment is copied. The store is bounded by the size of the files it contains and the least recently used
+ * entries are removed first.
+ * <p>
+ * When the extraction time is limited, the content of the attachment is first copied in a temporary file and the text
+ * is extracted from that file by a bounded pool of threads, which never access the XWiki context. The attachments
+ * whose extraction failed or took too long are remembered (for a given version) so that they are not parsed again
+ * each time they are indexed.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component(roles = AttachmentTextExtractor.class)
+@Singleton
+public class AttachmentTextExtractor implements Initializable, Disposable
+{
+    /**
+     * The version of the format of the stored text. To increase when the way the text is extracted changes.
+     */
+    private static final String FORMAT_VERSION = "1";
+
+    /**
+     * The directory (in the permanent directory) where the extracted text is stored.
+     */
+    private static final String STORE_DIRECTORY = "cache/solr/attachmenttext";
+
+    /**
+     * The extension of the stored text files.
+     */
+    private static final String FILE_EXTENSION = ".txt.gz";
+
+    /**
+     * The encoding of the stored text.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The maximum number of attachment versions whose extraction failed to remember.
+     */
+    private static final int FAILURES_MAX_SIZE = 10000;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SolrConfiguration configuration;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    private Tika tika;
+
+    /**
+     * The directory where the text extracted by the current version of the extractor is stored, null if the store is
+     * disabled.
+     */
+    private File storeDirectory;
+
+    /**
+     * The digest of the stored entries and the size of the corresponding files, in access order.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(1024, 0.75f, true);
+
+    /**
+     * The total size of the stored files.
+     */
+    private long size;
+
+    private long maxSize;
+
+    /**
+     * The threads used to extract the text when the extraction time is limited.
+     */
+    private ThreadPoolExecutor extractionThreads;
+
+    /**
+     * The attachment versions whose text extraction failed or took too long, in access order.
+     */
+    private final Set<String> failures = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f,
+        true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+        {
+            return size() > FAILURES_MAX_SIZE;
+        }
+    });
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.tika = new Tika();
+        int maxLength = this.configuration.getAttachmentTextMaxLength();
+        if (maxLength > 0) {
+            this.tika.setMaxStringLength(maxLength);
+        }
+
+        if (this.configuration.getAttachmentExtractionTimeout() > 0) {
+            BasicThreadFactory factory =
+                new BasicThreadFactory.Builder().namingPattern("XWiki Solr attachment text extraction thread %d")
+                    .daemon(true).priority(Thread.NORM_PRIORITY - 1).build();
+            // Only the indexer threads extract text so there's no need for more extraction threads. A thread stuck on
+            // an extraction which ignores the interruption stays stuck but never leads to the creation of a new one.
+            int threads = Math.max(1, this.configuration.getIndexerThreads());
+            this.extractionThreads =
+                new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
+                    threads), factory);
+        }
+
+        this.maxSize = this.configuration.getAttachmentTextStoreMaxSize();
+        if (this.maxSize > 0) {
+            // The text extracted by a different version of Tika or with a different maximum length can't be reused
+            String version =
+                String.format("%s-%s-%d", FORMAT_VERSION, Tika.class.getPackage().getImplementationVersion(),
+                    this.tika.getMaxStringLength()).replaceAll("[^\\w.-]", "_");
+            File rootDirectory = new File(this.environment.getPermanentDirectory(), STORE_DIRECTORY);
+            this.storeDirectory = new File(rootDirectory, version);
+
+            // Cleanup the text extracted by other versions
+            File[] versionDirectories = rootDirectory.listFiles();
+            if (versionDirectories != null) {
+                for (File versionDirectory : versionDirectories) {
+                    if (!versionDirectory.equals(this.storeDirectory)) {
+                        FileUtils.deleteQuietly(versionDirectory);
+                    }
+                }
+            }
+
+            loadEntries();
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.extractionThreads != null) {
+            this.extractionThreads.shutdownNow();
+        }
+    }
+
+    /**
+     * Load the existing entries, in the order they were last used.
+     */
+    private void loadEntries()
+    {
+        if (!this.storeDirectory.isDirectory()) {
+            return;
+        }
+
+        List<File> files = new ArrayList<File>(FileUtils.listFiles(this.storeDirectory, null, true));
+        Collections.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File file1, File file2)
+            {
+                long date1 = file1.lastModified();
+                long date2 = file2.lastModified();
+
+                return date1 < date2 ? -1 : (date1 == date2 ? 0 : 1);
+            }
+        });
+
+        synchronized (this.entries) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(FILE_EXTENSION)) {
+                    this.entries.put(name.substring(0, name.length() - FILE_EXTENSION.length()), file.length());
+                    this.size += file.length();
+                } else {
+                    // Probably a temporary file left by a crash
+                    FileUtils.deleteQuietly(file);
+                }
+            }
+
+            evict();
+        }
+    }
+
+    /**
+     * @param attachment the attachment to extract the text from
+     * @return the text representation of the attachment's content, null if the attachment is too big or the extraction
+     *         failed or took too long
+     * @throws Exception when failing to read the attachment or to extract its text
+     */
+    public String getText(XWikiAttachment attachment) throws Exception
+    {
+        long maxAttachmentSize = this.configuration.getAttachmentMaxSize();
+        if (maxAttachmentSize > 0 && attachment.getFilesize() > maxAttachmentSize) {
+            this.logger.debug("Attachment [{}] is too big to be extracted", attachment.getReference());
+
+            return null;
+        }
+
+        String failureKey = String.format("%s@%s", attachment.getReference(), attachment.getVersion());
+        synchronized (this.failures) {
+            if (this.failures.contains(failureKey)) {
+                this.logger.debug("The extraction of the text of attachment [{}] in version [{}] already failed",
+                    attachment.getReference(), attachment.getVersion());
+
+                return null;
+            }
+        }
+
+        if (this.extractionThreads != null) {
+            return getTextInExtractionThread(attachment, failureKey);
+        }
+
+        String digest = null;
+        if (this.storeDirectory != null) {
+            InputStream in = attachment.getContentInputStream(this.xcontextProvider.get());
+            try {
+                digest = DigestUtils.md5Hex(in);
+            } finally {
+                in.close();
+            }
+
+            String text = load(digest);
+            if (text != null) {
+                return text;
+            }
+        }
+
+        String text;
+        InputStream in = attachment.getContentInputStream(this.xcontextProvider.get());
+        try {
+            text = parse(in, attachment.getFilename());
+        } catch (Exception e) {
+            addFailure(failureKey);
+
+            throw e;
+        } finally {
+            in.close();
+        }
+
+        if (digest != null) {
+            store(digest, text);
+        }
+
+        return text;
+    }
+
+    /**
+     * Copy the content of the attachment in a temporary file and extract its text in an extraction thread.
+     *
+     * @param attachment the attachment to extract the text from
+     * @param failureKey the key identifying the attachment version in case the extraction fails
+     * @return the text representation of the attachment's content, null if the extraction took too long
+     * @throws Exception when failing to read the attachment or to extract its text
+     */
+    private String getTextInExtractionThread(XWikiAttachment attachment, String failureKey) throws Exception
+    {
+        // The extraction thread must not access the XWiki context or the attachment so we give it a copy
+        File file = File.createTempFile("solrattachment", ".tmp", this.environment.getTemporaryDirectory());
+        boolean handedOver = false;
+        try {
+            String digest = copy(attachment, file);
+
+            if (this.storeDirectory != null) {
+                String text = load(digest);
+                if (text != null) {
+                    return text;
+                }
+            }
+
+            AttachmentExtraction extraction = new AttachmentExtraction(file, attachment.getFilename());
+            Future<String> future;
+            try {
+                future = this.extractionThreads.submit(extraction);
+            } catch (RejectedExecutionException e) {
+                this.logger.warn("No thread available to extract the text of attachment [{}], skipping it",
+                    attachment.getReference());
+
+                return null;
+            }
+            handedOver = true;
+
+            String text = waitForExtraction(future, extraction, attachment, failureKey);
+            if (text != null && this.storeDirectory != null) {
+                store(digest, text);
+            }
+
+            return text;
+        } finally {
+            if (!handedOver) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    private String waitForExtraction(Future<String> future, AttachmentExtraction extraction,
+        XWikiAttachment attachment, String failureKey) throws Exception
+    {
+        int timeout = this.configuration.getAttachmentExtractionTimeout();
+        try {
+            return future.get(timeout, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            addFailure(failureKey);
+
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+
+            if (extraction.claim()) {
+                // The extraction did not even start because all the threads are busy (or stuck)
+                FileUtils.deleteQuietly(extraction.file);
+
+                this.logger.warn("No thread became available in [{}] seconds to extract the text of attachment [{}],"
+                    + " skipping it", timeout, attachment.getReference());
+            } else {
+                addFailure(failureKey);
+
+                this.logger.warn("The extraction of the text of attachment [{}] took more than [{}] seconds,"
+                    + " skipping it", attachment.getReference(), timeout);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * @param attachment the attachment to copy
+     * @param file the file where to copy the attachment content
+     * @return the digest of the attachment content
+     * @throws Exception when failing to read the attachment or to write the file
+     */
+    private String copy(XWikiAttachment attachment, File file) throws Exception
+    {
+        DigestInputStream in =
+            new DigestInputStream(attachment.getContentInputStream(this.xcontextProvider.get()),
+                MessageDigest.getInstance("MD5"));
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        return Hex.encodeHexString(in.getMessageDigest().digest());
+    }
+
+    /**
+     * @param in the content to parse
+     * @param fileName the name of the attachment, used to detect the content type
+     * @return the text representation of the content
+     * @throws Exception when failing to extract the text
+     */
+    private String parse(InputStream in, String fileName) throws Exception
+    {
+        Metadata metadata = new Metadata();
+        metadata.set(Metadata.RESOURCE_NAME_KEY, fileName);
+
+        return this.tika.parseToString(in, metadata);
+    }
+
+    private void addFailure(String failureKey)
+    {
+        synchronized (this.failures) {
+            this.failures.add(failureKey);
+        }
+    }
+
+    private File getFile(String digest)
+    {
+        return new File(new File(this.storeDirectory, digest.substring(0, 2)), digest + FILE_EXTENSION);
+    }
+
+    /**
+     * @param digest the digest of the attachment content
+     * @return the stored text, null if there is none
+     */
+    private String load(String digest)
+    {
+        synchronized (this.entries) {
+            if (this.entries.get(digest) == null) {
+                return null;
+            }
+        }
+
+        File file = getFile(digest);
+        try {
+            InputStream in = new GZIPInputStream(new FileInputStream(file));
+            try {
+                String text = IOUtils.toString(in, ENCODING);
+
+                // Remember the last use for the next restart
+                file.setLastModified(System.currentTimeMillis());
+
+                return text;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to read the stored text [{}]: {}", file, e.getMessage());
+
+            remove(digest);
+
+            return null;
+        }
+    }
+
+    /**
+     * @param digest the digest of the attachment content
+     * @param text the extracted text to store
+     */
+    private void store(String digest, String text)
+    {
+        File file = getFile(digest);
+        try {
+            file.getParentFile().mkdirs();
+
+            // Write in a temporary file first so that another thread never reads a partial file
+            File tmpFile = File.createTempFile(digest, ".tmp", file.getParentFile());
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(tmpFile));
+            try {
+                IOUtils.write(text, out, ENCODING);
+            } finally {
+                out.close();
+            }
+
+            synchronized (this.entries) {
+                if (!tmpFile.renameTo(file)) {
+                    FileUtils.deleteQuietly(tmpFile);
+                    return;
+                }
+
+                Long previousSize = this.entries.put(digest, file.length());
+                if (previousSize != null) {
+                    this.size -= previousSize;
+                }
+                this.size += file.length();
+
+                evict();
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to store the extracted text in [{}]: {}", file, e.getMessage());
+        }
+    }
+
+    private void remove(String digest)
+    {
+        synchronized (this.entries) {
+            Long fileSize = this.entries.remove(digest);
+            if (fileSize != null) {
+                this.size -= fileSize;
+                FileUtils.deleteQuietly(getFile(digest));
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used entries until the store size is below the maximum.
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<String, Long>> it = this.entries.entrySet().iterator();
+        while (this.size > this.maxSize && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            this.size -= entry.getValue();
+            FileUtils.deleteQuietly(getFile(entry.getKey()));
+        }
+    }
+
+    /**
+     * Extract the text of a copy of the attachment content and delete the copy.
+     */
+    private class AttachmentExtraction implements Callable<String>
+    {
+        private final File file;
+
+        private final String fileName;
+
+        /**
+         * Used to know who, between the extraction thread and the thread waiting for it, is responsible for the copy.
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        AttachmentExtraction(File file, String fileName)
+        {
+            this.file = file;
+            this.fileName = fileName;
+        }
+
+        /**
+         * @return true if the extraction did not start and will never start, false if it already started
+         */
+        boolean claim()
+        {
+            return this.claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public String call() throws Exception
+        {
+            if (!claim()) {
+                // Gave up by the waiting thread before we start
+                return null;
+            }
+
+            try {
+                InputStream in = new FileInputStream(this.file);
+                try {
+                    return parse(in, this.fileName);
+                } finally {
+                    in.close();
+                }
+            } finally {
+                FileUtils.deleteQuietly(this.file);
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -173,6 +174,15 @@ public int getQueueSize()
         return this.solrIndexer.getQueueSize();
     }
 
+    /**
+     * @return statistics about the stages of the indexing pipeline (queue sizes, processed entries and time spent)
+     * @since 7.1M1
+     */
+    public Map<String, Long> getStatistics()
+    {
+        return this.solrIndexer.getStatistics();
+    }
+
     /**
      * Log exception and store the exception in the context.
      * 
@@ -0,0 +1,252 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import javax.inject.Provider;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.search.solr.internal.api.SolrAccessControl;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+/**
+ * Unit tests for {@link DefaultSolrAccessControl}.
+ *
+ * @version $Id$
+ */
+public class DefaultSolrAccessControlTest
+{
+    @Rule
+    public MockitoComponentMockingRule<SolrAccessControl> mocker = new MockitoComponentMockingRule<SolrAccessControl>(
+        DefaultSolrAccessControl.class);
+
+    private static final LocalDocumentReference RIGHTS_CLASS = new LocalDocumentReference("XWiki", "XWikiRights");
+
+    private static final LocalDocumentReference GLOBAL_RIGHTS_CLASS = new LocalDocumentReference("XWiki",
+        "XWikiGlobalRights");
+
+    private XWikiContext xcontext;
+
+    private XWiki xwiki;
+
+    private DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.xcontext = mock(XWikiContext.class);
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(this.xcontext);
+
+        this.xwiki = mock(XWiki.class);
+        when(this.xcontext.getWiki()).thenReturn(this.xwiki);
+        when(this.xcontext.getMainXWiki()).thenReturn("wiki");
+        when(this.xcontext.getWikiId()).thenReturn("wiki");
+
+        when(this.xwiki.getDocument(any(DocumentReference.class), same(this.xcontext))).thenReturn(
+            mock(XWikiDocument.class));
+
+        DocumentReferenceResolver<String> userResolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "user");
+        when(userResolver.resolve(anyString(), any(WikiReference.class))).then(new Answer<DocumentReference>()
+        {
+            @Override
+            public DocumentReference answer(InvocationOnMock invocation) throws Throwable
+            {
+                String name = (String) invocation.getArguments()[0];
+                WikiReference wiki = (WikiReference) invocation.getArguments()[1];
+
+                return new DocumentReference(wiki.getName(), "XWiki", name.substring(name.indexOf('.') + 1));
+            }
+        });
+
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(any(EntityReference.class))).then(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable
+            {
+                DocumentReference reference = (DocumentReference) invocation.getArguments()[0];
+
+                return reference.getWikiReference().getName() + ':' + reference.getLastSpaceReference().getName()
+                    + '.' + reference.getName();
+            }
+        });
+    }
+
+    private BaseObject addRule(DocumentReference reference, LocalDocumentReference classReference, String levels,
+        String users, String groups, boolean allow) throws Exception
+    {
+        XWikiDocument document = this.xwiki.getDocument(reference, this.xcontext);
+        if (document.getDocumentReference() == null) {
+            document = mock(XWikiDocument.class);
+            when(document.getDocumentReference()).thenReturn(reference);
+            when(this.xwiki.getDocument(reference, this.xcontext)).thenReturn(document);
+        }
+
+        BaseObject rule = mock(BaseObject.class);
+        when(rule.getStringValue("levels")).thenReturn(levels);
+        when(rule.getStringValue("users")).thenReturn(users);
+        when(rule.getStringValue("groups")).thenReturn(groups);
+        when(rule.getIntValue("allow")).thenReturn(allow ? 1 : 0);
+
+        when(document.getXObjects(classReference)).thenReturn(Arrays.asList(rule));
+
+        return rule;
+    }
+
+    @Test
+    public void setAccessFieldsWithDocumentRights() throws Exception
+    {
+        addRule(this.documentReference, RIGHTS_CLASS, "view,edit", "XWiki.Alice", "XWiki.Readers", true);
+        addRule(new DocumentReference("wiki", "Space", "WebPreferences"), GLOBAL_RIGHTS_CLASS, "view,admin", "",
+            "XWiki.SpaceAdmins", true);
+        addRule(new DocumentReference("wiki", "XWiki", "XWikiPreferences"), GLOBAL_RIGHTS_CLASS, "view",
+            "XWiki.XWikiGuest", "", false);
+
+        SolrInputDocument solrDocument = new SolrInputDocument();
+        this.mocker.getComponentUnderTest().setAccessFields(solrDocument, this.documentReference);
+
+        assertEquals(Arrays.asList("wiki:XWiki.Alice"), solrDocument.getFieldValues("acl_allow_user_0"));
+        assertEquals(Arrays.asList("wiki:XWiki.Readers"), solrDocument.getFieldValues("acl_allow_group_0"));
+        assertEquals(Arrays.asList("wiki:XWiki.Alice", "wiki:XWiki.Readers", "*"),
+            solrDocument.getFieldValues("acl_level_0"));
+
+        // The document decides for everyone so the upper levels are not indexed, except for the space admins
+        assertNull(solrDocument.getFieldValues("acl_level_1"));
+        assertNull(solrDocument.getFieldValues("acl_deny_user_2"));
+        assertEquals(Arrays.asList("wiki:XWiki.SpaceAdmins"), solrDocument.getFieldValues("acl_admin"));
+    }
+
+    @Test
+    public void setAccessFieldsWithInheritedRights() throws Exception
+    {
+        when(this.xcontext.getMainXWiki()).thenReturn("main");
+
+        // An edit right doesn't deny the view right to everyone else
+        addRule(this.documentReference, RIGHTS_CLASS, "edit", "XWiki.Bob", "", true);
+        addRule(new DocumentReference("wiki", "XWiki", "XWikiPreferences"), GLOBAL_RIGHTS_CLASS, "view",
+            "XWiki.XWikiGuest", "", false);
+        addRule(new DocumentReference("main", "XWiki", "XWikiPreferences"), GLOBAL_RIGHTS_CLASS, "view", "",
+            "XWiki.XWikiAllGroup", true);
+
+        SolrInputDocument solrDocument = new SolrInputDocument();
+        this.mocker.getComponentUnderTest().setAccessFields(solrDocument, this.documentReference);
+
+        assertEquals(Arrays.asList("wiki:XWiki.Bob"), solrDocument.getFieldValues("acl_allow_user_0"));
+        assertEquals(Arrays.asList("wiki:XWiki.Bob"), solrDocument.getFieldValues("acl_level_0"));
+        assertNull(solrDocument.getFieldValues("acl_level_1"));
+        assertEquals(Arrays.asList("guest"), solrDocument.getFieldValues("acl_deny_user_2"));
+        assertEquals(Arrays.asList("main:XWiki.XWikiAllGroup"), solrDocument.getFieldValues("acl_allow_group_3"));
+        assertEquals(Arrays.asList("main:XWiki.XWikiAllGroup", "*"), solrDocument.getFieldValues("acl_level_3"));
+        assertNull(solrDocument.getFieldValues("acl_admin"));
+    }
+
+    @Test
+    public void filter() throws Exception
+    {
+        DocumentReference userReference = new DocumentReference("wiki", "XWiki", "Alice");
+        DocumentReference groupReference = new DocumentReference("wiki", "XWiki", "Readers");
+        DocumentReference parentGroupReference = new DocumentReference("wiki", "XWiki", "XWikiAllGroup");
+        when(this.xcontext.getUserReference()).thenReturn(userReference);
+
+        XWikiGroupService groupService = mock(XWikiGroupService.class);
+        when(this.xwiki.getGroupService(this.xcontext)).thenReturn(groupService);
+        when(groupService.getAllGroupsReferencesForMember(userReference, 0, 0, this.xcontext)).thenReturn(
+            Arrays.asList(groupReference));
+        when(groupService.getAllGroupsReferencesForMember(groupReference, 0, 0, this.xcontext)).thenReturn(
+            Arrays.asList(parentGroupReference));
+
+        SolrQuery solrQuery = new SolrQuery("*:*");
+        this.mocker.getComponentUnderTest().filter(solrQuery);
+
+        assertEquals("wiki:XWiki.Alice", solrQuery.get("xwiki.view.user"));
+        assertEquals("wiki:XWiki.Readers\nwiki:XWiki.XWikiAllGroup", solrQuery.get("xwiki.view.groups"));
+        assertEquals("wiki:XWiki.Alice\nwiki:XWiki.Readers\nwiki:XWiki.XWikiAllGroup\n*",
+            solrQuery.get("xwiki.view.principals"));
+
+        String filterQuery = solrQuery.getFilterQueries()[0];
+        assertTrue(filterQuery.startsWith("{!lucene}(*:* -wiki:(wiki)) OR "));
+        assertTrue(filterQuery.contains("{!terms f=acl_allow_group_3 separator=$xwiki.view.separator"
+            + " v=$xwiki.view.groups}"));
+    }
+
+    @Test
+    public void filterForGuest() throws Exception
+    {
+        SolrQuery solrQuery = new SolrQuery("*:*");
+        this.mocker.getComponentUnderTest().filter(solrQuery);
+
+        assertEquals("guest", solrQuery.get("xwiki.view.user"));
+        assertNull(solrQuery.get("xwiki.view.groups"));
+        assertEquals("guest\n*", solrQuery.get("xwiki.view.principals"));
+    }
+
+    @Test
+    public void getProtectedEntities() throws Exception
+    {
+        when(this.xwiki.getVirtualWikisDatabaseNames(this.xcontext)).thenReturn(Arrays.asList("wiki", "other"));
+
+        SolrAccessControl accessControl = this.mocker.getComponentUnderTest();
+
+        DocumentReference rightsClass = new DocumentReference("wiki", "XWiki", "XWikiRights");
+        DocumentReference globalRightsClass = new DocumentReference("wiki", "XWiki", "XWikiGlobalRights");
+
+        assertEquals(Arrays.<EntityReference>asList(this.documentReference),
+            accessControl.getProtectedEntities(this.documentReference, rightsClass));
+        assertEquals(Arrays.<EntityReference>asList(new SpaceReference("Space", new WikiReference("wiki"))),
+            accessControl.getProtectedEntities(new DocumentReference("wiki", "Space", "WebPreferences"),
+                globalRightsClass));
+        assertEquals(Arrays.<EntityReference>asList(new WikiReference("wiki"), new WikiReference("other")),
+            accessControl.getProtectedEntities(new DocumentReference("wiki", "XWiki", "XWikiPreferences"),
+                globalRightsClass));
+        assertTrue(accessControl.getProtectedEntities(this.documentReference,
+            new DocumentReference("wiki", "XWiki", "TagClass")).isEmpty());
+    }
+}
@@ -19,25 +19,55 @@
  */
 package org.xwiki.search.solr.internal;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import javax.inject.Provider;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.context.Execution;
 import org.xwiki.context.internal.DefaultExecution;
 import org.xwiki.model.internal.DefaultModelConfiguration;
 import org.xwiki.model.internal.DefaultModelContext;
 import org.xwiki.model.internal.reference.DefaultEntityReferenceValueProvider;
 import org.xwiki.model.internal.reference.LocalStringEntityReferenceSerializer;
 import org.xwiki.model.internal.reference.RelativeStringEntityReferenceResolver;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.search.solr.internal.api.SolrConfiguration;
 import org.xwiki.search.solr.internal.api.SolrIndexer;
+import org.xwiki.search.solr.internal.api.SolrInstance;
+import org.xwiki.search.solr.internal.metadata.LengthSolrInputDocument;
+import org.xwiki.search.solr.internal.metadata.SolrMetadataExtractor;
+import org.xwiki.search.solr.internal.reference.SolrReferenceResolver;
 import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
@@ -73,6 +103,12 @@
 
     private SolrConfiguration mockConfig;
 
+    private SolrInstance solrInstance;
+
+    private SolrMetadataExtractor documentExtractor;
+
+    private SolrReferenceResolver referenceResolver;
+
     @Before
     public void configure() throws Exception
     {
@@ -94,6 +130,52 @@ public void configure() throws Exception
         this.mockConfig = this.mocker.getInstance(SolrConfiguration.class);
         when(this.mockConfig.getInstanceConfiguration(eq(EmbeddedSolrInstance.TYPE), eq("home"), anyString()))
             .thenReturn(url.getPath());
+        when(this.mockConfig.getIndexerQueueCapacity()).thenReturn(1000);
+        when(this.mockConfig.getIndexerThreads()).thenReturn(4);
+        when(this.mockConfig.getIndexerBatchSize()).thenReturn(10);
+        when(this.mockConfig.getIndexerBatchMaxLengh()).thenReturn(100000);
+
+        // The extraction threads don't have any execution context
+        this.mocker.registerMockComponent(Execution.class);
+
+        this.solrInstance = mock(SolrInstance.class);
+        Provider<SolrInstance> solrInstanceProvider =
+            this.mocker.registerMockComponent(new DefaultParameterizedType(null, Provider.class, SolrInstance.class));
+        when(solrInstanceProvider.get()).thenReturn(this.solrInstance);
+
+        this.documentExtractor = this.mocker.registerMockComponent(SolrMetadataExtractor.class, "document");
+        when(this.documentExtractor.getSolrDocument(any(EntityReference.class))).then(
+            new Answer<LengthSolrInputDocument>()
+            {
+                @Override
+                public LengthSolrInputDocument answer(InvocationOnMock invocation) throws Throwable
+                {
+                    return createSolrDocument((EntityReference) invocation.getArguments()[0]);
+                }
+            });
+
+        this.referenceResolver = this.mocker.getInstance(SolrReferenceResolver.class);
+        when(this.referenceResolver.getId(any(EntityReference.class))).then(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable
+            {
+                return getId((EntityReference) invocation.getArguments()[0]);
+            }
+        });
+    }
+
+    private String getId(EntityReference reference)
+    {
+        return reference.toString();
+    }
+
+    private LengthSolrInputDocument createSolrDocument(EntityReference reference)
+    {
+        LengthSolrInputDocument solrDocument = new LengthSolrInputDocument();
+        solrDocument.setField("id", getId(reference));
+
+        return solrDocument;
     }
 
     @Test
@@ -107,4 +189,122 @@ public void testIndexEmptyWiki() throws Exception
 
         // index.index(wikiReference);
     }
+
+    @Test
+    public void deleteAndIndexSameReferenceKeepOrder() throws Exception
+    {
+        final DocumentReference reference = new DocumentReference("wiki", "Space", "Page");
+
+        // The extractions of the index operations finish after the extraction of the delete operation
+        final CountDownLatch deleteExtracted = new CountDownLatch(1);
+        when(this.documentExtractor.getSolrDocument(reference)).then(new Answer<LengthSolrInputDocument>()
+        {
+            @Override
+            public LengthSolrInputDocument answer(InvocationOnMock invocation) throws Throwable
+            {
+                assertTrue(deleteExtracted.await(10, TimeUnit.SECONDS));
+                return createSolrDocument(reference);
+            }
+        });
+        when(this.referenceResolver.getId(reference)).then(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable
+            {
+                deleteExtracted.countDown();
+                return getId(reference);
+            }
+        });
+
+        SolrIndexer indexer = this.mocker.getComponentUnderTest();
+        indexer.index(reference, false);
+        indexer.delete(reference, false);
+        indexer.index(reference, false);
+
+        verify(this.solrInstance, timeout(10000).times(2)).add(any(SolrInputDocument.class));
+
+        // The entries are sent to the Solr server in the order they were queued
+        InOrder inOrder = inOrder(this.solrInstance);
+        inOrder.verify(this.solrInstance).add(any(SolrInputDocument.class));
+        inOrder.verify(this.solrInstance).delete(getId(reference));
+        inOrder.verify(this.solrInstance).add(any(SolrInputDocument.class));
+    }
+
+    @Test
+    public void indexInParallel() throws Exception
+    {
+        // All the extraction threads are busy at the same time
+        final CountDownLatch allStarted = new CountDownLatch(4);
+        when(this.documentExtractor.getSolrDocument(any(EntityReference.class))).then(
+            new Answer<LengthSolrInputDocument>()
+            {
+                @Override
+                public LengthSolrInputDocument answer(InvocationOnMock invocation) throws Throwable
+                {
+                    allStarted.countDown();
+                    allStarted.await(10, TimeUnit.SECONDS);
+                    return createSolrDocument((EntityReference) invocation.getArguments()[0]);
+                }
+            });
+
+        SolrIndexer indexer = this.mocker.getComponentUnderTest();
+        assertEquals(Long.valueOf(4), indexer.getStatistics().get("extract.threads"));
+
+        List<DocumentReference> references = new ArrayList<DocumentReference>();
+        for (int i = 0; i < 25; ++i) {
+            DocumentReference reference = new DocumentReference("wiki", "Space", "Page" + i);
+            references.add(reference);
+            indexer.index(reference, false);
+        }
+
+        verify(this.solrInstance, timeout(10000).times(references.size())).add(any(SolrInputDocument.class));
+        assertEquals(0, allStarted.getCount());
+
+        // Still sent in order
+        InOrder inOrder = inOrder(this.solrInstance);
+        for (DocumentReference reference : references) {
+            inOrder.verify(this.solrInstance).add(createSolrDocumentMatcher(reference));
+        }
+        verify(this.solrInstance, timeout(10000).atLeastOnce()).commit();
+    }
+
+    @Test
+    public void disposeSendsQueuedEntries() throws Exception
+    {
+        SolrIndexer indexer = this.mocker.getComponentUnderTest();
+
+        for (int i = 0; i < 25; ++i) {
+            indexer.index(new DocumentReference("wiki", "Space", "Page" + i), false);
+        }
+        indexer.delete(new DocumentReference("wiki", "Space", "Deleted"), false);
+
+        ((Disposable) indexer).dispose();
+
+        verify(this.solrInstance, times(25)).add(any(SolrInputDocument.class));
+        verify(this.solrInstance).delete(getId(new DocumentReference("wiki", "Space", "Deleted")));
+
+        // Nothing is accepted anymore
+        indexer.index(new DocumentReference("wiki", "Space", "Other"), false);
+        verify(this.documentExtractor, never()).getSolrDocument(new DocumentReference("wiki", "Space", "Other"));
+        assertEquals(0, indexer.getQueueSize());
+    }
+
+    private SolrInputDocument createSolrDocumentMatcher(final EntityReference reference)
+    {
+        return argThat(new BaseMatcher<SolrInputDocument>()
+        {
+            @Override
+            public boolean matches(Object item)
+            {
+                return item instanceof SolrInputDocument
+                    && getId(reference).equals(((SolrInputDocument) item).getFieldValue("id"));
+            }
+
+            @Override
+            public void describeTo(Description description)
+            {
+                description.appendText("Solr document of " + reference);
+            }
+        });
+    }
 }
@@ -0,0 +1,220 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Date;
+
+import javax.inject.Provider;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.search.solr.internal.api.SolrConfiguration;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Unit tests for {@link AttachmentTextExtractor}.
+ *
+ * @version $Id$
+ */
+public class AttachmentTextExtractorTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<AttachmentTextExtractor> mocker =
+        new MockitoComponentMockingRule<AttachmentTextExtractor>(AttachmentTextExtractor.class);
+
+    private File permanentDirectory = new File("target", "data-" + new Date().getTime());
+
+    private XWikiContext xcontext = mock(XWikiContext.class);
+
+    private SolrConfiguration configuration;
+
+    @BeforeComponent
+    public void registerComponents() throws Exception
+    {
+        FileUtils.deleteDirectory(this.permanentDirectory);
+
+        Environment environment = this.mocker.registerMockComponent(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(this.xcontext);
+
+        this.configuration = this.mocker.registerMockComponent(SolrConfiguration.class);
+        when(this.configuration.getAttachmentTextStoreMaxSize()).thenReturn(1024L * 1024L);
+    }
+
+    private XWikiAttachment createMockAttachment(String fileName, final String content) throws Exception
+    {
+        XWikiAttachment attachment = mock(XWikiAttachment.class, fileName);
+        when(attachment.getReference()).thenReturn(
+            new AttachmentReference(fileName, new DocumentReference("wiki", "Space", "Page")));
+        when(attachment.getFilename()).thenReturn(fileName);
+        when(attachment.getFilesize()).thenReturn(content.length());
+        when(attachment.getVersion()).thenReturn("1.1");
+        when(attachment.getContentInputStream(this.xcontext)).then(new Answer<InputStream>()
+        {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable
+            {
+                return new ByteArrayInputStream(content.getBytes("UTF-8"));
+            }
+        });
+
+        return attachment;
+    }
+
+    @Test
+    public void getText() throws Exception
+    {
+        XWikiAttachment attachment = createMockAttachment("todo.txt", "content");
+
+        assertEquals("content\n", this.mocker.getComponentUnderTest().getText(attachment));
+    }
+
+    @Test
+    public void getTextTwiceWithSameContent() throws Exception
+    {
+        XWikiAttachment attachment = createMockAttachment("todo.txt", "content");
+        XWikiAttachment copy = createMockAttachment("copy.txt", "content");
+
+        assertEquals("content\n", this.mocker.getComponentUnderTest().getText(attachment));
+        assertEquals("content\n", this.mocker.getComponentUnderTest().getText(copy));
+
+        // Read once to compute the digest and once to extract the text
+        verify(attachment, times(2)).getContentInputStream(this.xcontext);
+        // Only read to compute the digest, the text comes from the store
+        verify(copy, times(1)).getContentInputStream(this.xcontext);
+    }
+
+    @Test
+    public void getTextWithAttachmentTooBig() throws Exception
+    {
+        when(this.configuration.getAttachmentMaxSize()).thenReturn(3L);
+
+        XWikiAttachment attachment = createMockAttachment("todo.txt", "content");
+
+        assertNull(this.mocker.getComponentUnderTest().getText(attachment));
+    }
+
+    @Test
+    public void getTextWithExtractionTimeout() throws Exception
+    {
+        when(this.configuration.getAttachmentExtractionTimeout()).thenReturn(10);
+        when(this.configuration.getIndexerThreads()).thenReturn(2);
+
+        XWikiAttachment attachment = createMockAttachment("todo.txt", "content");
+        XWikiAttachment copy = createMockAttachment("copy.txt", "content");
+
+        assertEquals("content\n", this.mocker.getComponentUnderTest().getText(attachment));
+        assertEquals("content\n", this.mocker.getComponentUnderTest().getText(copy));
+
+        // The content is copied once and the text is extracted from the copy
+        verify(attachment, times(1)).getContentInputStream(this.xcontext);
+        verify(copy, times(1)).getContentInputStream(this.xcontext);
+    }
+
+    @Test
+    public void getTextWhenExtractionFailed() throws Exception
+    {
+        when(this.configuration.getAttachmentExtractionTimeout()).thenReturn(10);
+
+        XWikiAttachment attachment = createMockAttachment("broken.pdf", "%PDF-1.4\nbroken");
+
+        try {
+            this.mocker.getComponentUnderTest().getText(attachment);
+            fail("The extraction should have failed");
+        } catch (Exception e) {
+            // Expected
+        }
+
+        // The failure is remembered for this version of the attachment
+        assertNull(this.mocker.getComponentUnderTest().getText(attachment));
+        verify(attachment, times(1)).getContentInputStream(this.xcontext);
+
+        XWikiAttachment otherAttachment = createMockAttachment("other.pdf", "%PDF-1.4\nbroken");
+        try {
+            this.mocker.getComponentUnderTest().getText(otherAttachment);
+            fail("The extraction should have failed");
+        } catch (Exception e) {
+            // Expected
+        }
+
+        // A new version of the attachment is extracted again
+        when(attachment.getVersion()).thenReturn("1.2");
+        try {
+            this.mocker.getComponentUnderTest().getText(attachment);
+            fail("The extraction should have failed");
+        } catch (Exception e) {
+            // Expected
+        }
+        verify(attachment, times(2)).getContentInputStream(this.xcontext);
+    }
+
+    @Test
+    public void getTextWhenExtractionFailedWithoutTimeout() throws Exception
+    {
+        XWikiAttachment attachment = createMockAttachment("broken.pdf", "%PDF-1.4\nbroken");
+
+        try {
+            this.mocker.getComponentUnderTest().getText(attachment);
+            fail("The extraction should have failed");
+        } catch (Exception e) {
+            // Expected
+        }
+
+        // Read once to compute the digest and once to extract the text, and never again
+        assertNull(this.mocker.getComponentUnderTest().getText(attachment));
+        verify(attachment, times(2)).getContentInputStream(this.xcontext);
+    }
+
+    @Test
+    public void getTextWithAttachmentTooBigIsNotRead() throws Exception
+    {
+        when(this.configuration.getAttachmentMaxSize()).thenReturn(3L);
+        when(this.configuration.getAttachmentExtractionTimeout()).thenReturn(10);
+
+        XWikiAttachment attachment = createMockAttachment("todo.txt", "content");
+
+        assertNull(this.mocker.getComponentUnderTest().getText(attachment));
+        verify(attachment, never()).getContentInputStream(this.xcontext);
+    }
+}
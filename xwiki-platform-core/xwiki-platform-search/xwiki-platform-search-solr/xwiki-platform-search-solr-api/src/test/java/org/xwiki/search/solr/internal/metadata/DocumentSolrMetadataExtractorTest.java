@@ -510,6 +510,10 @@ private XWikiAttachment createMockAttachment(String fileName, String mimeType, D
         when(attachment.getFilesize()).thenReturn(size);
         when(attachment.getContentInputStream(this.xcontext)).thenReturn(new ByteArrayInputStream(content.getBytes()));
 
+        // The text extraction itself is covered by AttachmentTextExtractorTest
+        AttachmentTextExtractor textExtractor = this.mocker.getInstance(AttachmentTextExtractor.class);
+        when(textExtractor.getText(attachment)).thenReturn(content + "\n");
+
         String authorFullName = "XWiki." + authorAlias;
         DocumentReference authorReference = new DocumentReference("wiki", "XWiki", authorAlias);
         when(attachment.getAuthorReference()).thenReturn(authorReference);
@@ -50,6 +50,7 @@
 import org.xwiki.model.internal.reference.DefaultStringDocumentReferenceResolver;
 import org.xwiki.model.internal.reference.DefaultStringEntityReferenceResolver;
 import org.xwiki.model.internal.reference.DefaultStringEntityReferenceSerializer;
+import org.xwiki.model.internal.reference.EntityReferencePool;
 import org.xwiki.model.internal.reference.LocalStringEntityReferenceSerializer;
 import org.xwiki.model.internal.reference.RelativeStringEntityReferenceResolver;
 import org.xwiki.model.reference.AttachmentReference;
@@ -102,9 +103,10 @@
 CurrentMixedStringDocumentReferenceResolver.class, CurrentMixedEntityReferenceValueProvider.class,
 DefaultEntityReferenceValueProvider.class, CompactWikiStringEntityReferenceSerializer.class,
 DefaultStringDocumentReferenceResolver.class, DefaultStringEntityReferenceResolver.class,
-DefaultStringEntityReferenceSerializer.class, DefaultExecution.class, AttachmentSolrReferenceResolver.class,
-DefaultSolrReferenceResolver.class, DocumentSolrReferenceResolver.class, ObjectPropertySolrReferenceResolver.class,
-ObjectSolrReferenceResolver.class, SpaceSolrReferenceResolver.class, WikiSolrReferenceResolver.class})
+DefaultStringEntityReferenceSerializer.class, EntityReferencePool.class, DefaultExecution.class,
+AttachmentSolrReferenceResolver.class, DefaultSolrReferenceResolver.class, DocumentSolrReferenceResolver.class,
+ObjectPropertySolrReferenceResolver.class, ObjectSolrReferenceResolver.class, SpaceSolrReferenceResolver.class,
+WikiSolrReferenceResolver.class})
 public class SolrReferenceResolverTest
 {
     @Rule
@@ -43,6 +43,7 @@
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryExecutor;
 import org.xwiki.search.solr.internal.api.FieldUtils;
+import org.xwiki.search.solr.internal.api.SolrAccessControl;
 import org.xwiki.search.solr.internal.api.SolrInstance;
 
 import com.xpn.xwiki.XWikiContext;
@@ -96,21 +97,28 @@ public class SolrQueryExecutor implements QueryExecutor
     @Inject
     private Provider<XWikiContext> xcontextProvider;
 
+    /**
+     * Used to restrict the query to the entities the current user can view.
+     */
+    @Inject
+    private SolrAccessControl accessControl;
+
     @Override
     public <T> List<T> execute(Query query) throws QueryException
     {
         try {
             SolrInstance solrInstance = solrInstanceProvider.get();
             SolrQuery solrQuery = createSolrQuery(query);
+
+            // Restrict the query to the entities the current user can view so that the number of results, the paging
+            // and the facets are right.
+            this.accessControl.filter(solrQuery);
+
             QueryResponse response = solrInstance.query(solrQuery);
 
-            // Check access rights need to be checked before returning the response.
-            // FIXME: this is not really the best way, mostly because at this point all grouping operations
-            // have already been performed and any change on the result will not ensure that the grouping
-            // information (facets, highlighting, maxScore, etc.) is still relevant.
-            // A better way would be using a PostFilter as described in this article:
-            // http://java.dzone.com/articles/custom-security-filtering-solr
-            // Basically, we would be asking
+            // The filter query can't be trusted for the entities which have not been reindexed since their rights
+            // changed (or since the view right tokens were introduced), nor for the wikis whose groups are not
+            // resolved, so the access rights are still checked before returning the response.
             this.filterResponse(response);
 
             return (List<T>) Arrays.asList(response);
@@ -19,6 +19,9 @@
  */
 package org.xwiki.security.authorization;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -73,6 +76,23 @@ void checkAccess(Right right, DocumentReference userReference, EntityReference e
      */
     boolean hasAccess(Right right, DocumentReference userReference, EntityReference entityReference);
 
+    /**
+     * Filter the entities on which the user identified by {@code userReference} has the access identified by
+     * {@code right}. This gives the same result as calling {@link #hasAccess(Right, DocumentReference, EntityReference)}
+     * for each entity, but the user and the entries shared by the entities (like those of their common spaces and
+     * wiki) are only resolved once, which makes it a lot faster to filter many entities (like search results).
+     * This function should be used for interface matters, use {@link #checkAccess} at security checkpoints.
+     *
+     * @param <T> the type of the entity references
+     * @param right the right to check
+     * @param userReference the user to check the right for
+     * @param entityReferences the entities on which to check the right
+     * @return the entities on which the user has the specified right, in the same order as the provided entities
+     * @since 7.1M1
+     */
+    <T extends EntityReference> List<T> filterAccessible(Right right, DocumentReference userReference,
+        Collection<T> entityReferences);
+
     /**
      * Register a new custom {@link Right}.
      *
@@ -19,6 +19,12 @@
  */
 package org.xwiki.security.authorization;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -115,6 +121,70 @@ public boolean hasAccess(Right right, DocumentReference userReference, EntityRef
         }
     }
 
+    @Override
+    public <T extends EntityReference> List<T> filterAccessible(Right right, DocumentReference userReference,
+        Collection<T> entityReferences)
+    {
+        if (isSuperAdmin(userReference)) {
+            return new ArrayList<T>(entityReferences);
+        }
+
+        List<T> accessibleReferences = new ArrayList<T>();
+
+        if (right == null || right == Right.ILLEGAL
+            || (!right.isReadOnly() && xwikiBridge.isWikiReadOnly())
+            || (userReference == null && xwikiBridge.needsAuthentication(right))) {
+            return accessibleReferences;
+        }
+
+        try {
+            UserSecurityReference user = securityReferenceFactory.newUserReference(userReference);
+
+            // Resolve the access available in the cache and collect the entities which need to be loaded
+            List<SecurityReference> entities = new ArrayList<SecurityReference>(entityReferences.size());
+            List<SecurityAccess> accesses = new ArrayList<SecurityAccess>(entityReferences.size());
+            Collection<SecurityReference> entitiesToLoad = new LinkedHashSet<SecurityReference>();
+            for (T entityReference : entityReferences) {
+                SecurityReference entity = securityReferenceFactory.newEntityReference(entityReference);
+                SecurityAccess access = getCachedAccess(user, entity);
+                if (access == null) {
+                    entitiesToLoad.add(entity);
+                }
+                entities.add(entity);
+                accesses.add(access);
+            }
+
+            // Load all the missing access at once
+            Map<SecurityReference, SecurityAccessEntry> loadedEntries = null;
+            if (!entitiesToLoad.isEmpty()) {
+                loadedEntries = securityCacheLoader.load(user, entitiesToLoad);
+
+                this.logger.debug("Loaded {} new entries for user {} into cache", loadedEntries.size(), user);
+            }
+
+            int index = 0;
+            for (T entityReference : entityReferences) {
+                SecurityAccess access = accesses.get(index);
+                if (access == null) {
+                    access = loadedEntries.get(entities.get(index)).getAccess();
+                }
+                RuleState state = access.get(right);
+                logAccess(state, userReference, entityReference, right, "access filtering", true);
+                if (state == RuleState.ALLOW) {
+                    accessibleReferences.add(entityReference);
+                }
+                index++;
+            }
+        } catch (Exception e) {
+            this.logger.error(String.format("Failed to load rights for user [%s] on %d entities.",
+                (userReference == null) ? AuthorizationException.NULL_USER : userReference,
+                entityReferences.size()), e);
+            accessibleReferences.clear();
+        }
+
+        return accessibleReferences;
+    }
+
     /**
      * Verifies if the user identified by {@code userReference} has the access identified by {@code right} on the
      * entity identified by {@code entityReference}. Note that some rights may be checked higher in hierarchy of the
@@ -199,24 +269,39 @@ public Right register(RightDescription rightDescription) throws UnableToRegister
     private SecurityAccess getAccess(UserSecurityReference user, SecurityReference entity)
         throws AuthorizationException
     {
+        SecurityAccess access = getCachedAccess(user, entity);
+
+        if (access == null) {
+            access = securityCacheLoader.load(user, entity).getAccess();
 
+            this.logger.debug("Loaded a new entry for user {} on {} into cache: [{}]", user, entity, access);
+        }
+
+        return access;
+    }
+
+    /**
+     * Obtain the access for the user on the given entity from the cache.
+     *
+     * @param user The user identity.
+     * @param entity The entity.  May be of type DOCUMENT, WIKI, or SPACE.
+     * @return the cached access entry, null if it should be loaded into the cache.
+     */
+    private SecurityAccess getCachedAccess(UserSecurityReference user, SecurityReference entity)
+    {
         for (SecurityReference ref = entity; ref != null; ref = ref.getParentSecurityReference()) {
             SecurityRuleEntry entry = securityCache.get(ref);
             if (entry == null) {
-                SecurityAccess access = securityCacheLoader.load(user, entity).getAccess();
-
-                this.logger.debug("1. Loaded a new entry for user {} on {} into cache: [{}]", user, entity, access);
+                this.logger.debug("1. Missing rule entry on {} for user {}", ref, user);
 
-                return access;
+                return null;
             }
             if (!entry.isEmpty()) {
                 SecurityAccessEntry accessEntry = securityCache.get(user, ref);
                 if (accessEntry == null) {
-                    SecurityAccess access = securityCacheLoader.load(user, entity).getAccess();
+                    logger.debug("2. Missing access entry for user {} on {}", user, ref);
 
-                    logger.debug("2. Loaded a new entry for user {} on {} into cache: [{}]", user, entity, access);
-
-                    return access;
+                    return null;
                 } else {
                     SecurityAccess access = accessEntry.getAccess();
 
@@ -224,14 +309,12 @@ private SecurityAccess getAccess(UserSecurityReference user, SecurityReference e
 
                     return access;
                 }
-            } 
+            }
         }
 
-        SecurityAccess access = securityCacheLoader.load(user, entity).getAccess();
+        logger.debug("4. Missing default entry for user {} on {}", user, entity);
 
-        logger.debug("4. Loaded a new default entry for user {} on {} into cache: [{}]", user, entity, access);
-
-        return access;
+        return null;
     }
 
     /**
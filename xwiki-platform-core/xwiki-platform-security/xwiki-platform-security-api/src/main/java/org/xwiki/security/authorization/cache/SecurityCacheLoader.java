@@ -19,6 +19,9 @@
  */
 package org.xwiki.security.authorization.cache;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.security.SecurityReference;
 import org.xwiki.security.UserSecurityReference;
@@ -49,4 +52,18 @@
      */
     SecurityAccessEntry load(UserSecurityReference user, SecurityReference entity)
         throws AuthorizationException;
+
+    /**
+     * Load the cache with the required entries to look up the access for a given user on several entities. The user
+     * entries, and the rule entries shared by several entities (like those of their common spaces and wiki), are only
+     * retrieved once.
+     *
+     * @param user The user to check access for.
+     * @param entities The entities to check access to.
+     * @return The resulting access level for the user at each entity.
+     * @exception org.xwiki.security.authorization.AuthorizationException if an error occurs.
+     * @since 7.1M1
+     */
+    Map<SecurityReference, SecurityAccessEntry> load(UserSecurityReference user,
+        Collection<SecurityReference> entities) throws AuthorizationException;
 }
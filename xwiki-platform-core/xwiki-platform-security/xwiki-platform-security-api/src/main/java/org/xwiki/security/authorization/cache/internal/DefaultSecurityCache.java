@@ -26,8 +26,7 @@
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -73,14 +72,12 @@ public class DefaultSecurityCache implements SecurityCache, Initializable
     @Inject
     private Logger logger;
 
-    /** Fair read-write lock used for fair scheduling of cache access. */
-    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
-
-    /** Fair read lock. */
-    private final Lock readLock = readWriteLock.readLock();
-
-    /** Fair write lock. */
-    private final Lock writeLock = readWriteLock.writeLock();
+    /**
+     * Lock serializing the modifications of the cache. Readers never take it: an entry being removed is marked as
+     * disposed, together with all its descendants, before being unlinked, and disposed entries are never returned,
+     * so a lookup never waits for an unrelated invalidation and never sees an entry whose parent has been removed.
+     */
+    private final Lock writeLock = new ReentrantLock();
 
     /** The keys in the cache are generated from instances of {@link org.xwiki.model.reference.EntityReference}. */
     @Inject
@@ -128,12 +125,13 @@ public void initialize() throws InitializationException
         /**
          * The cached security entry.
          */
-        private SecurityEntry entry;
+        private volatile SecurityEntry entry;
 
         /**
-         * Parents of this cached entry.
+         * Parents of this cached entry. The collection is never modified once published since it is read without
+         * locking.
          */
-        private Collection<SecurityCacheEntry> parents;
+        private volatile Collection<SecurityCacheEntry> parents;
 
         /**
          * Children of this cached entry.
@@ -143,7 +141,12 @@ public void initialize() throws InitializationException
         /**
          * True if this entry has been removed.
          */
-        private boolean disposed;
+        private volatile boolean disposed;
+
+        /**
+         * True if this entry has been detached from its parents and children.
+         */
+        private boolean unlinked;
 
         /**
          * Create a new cache entry for a security rule, linking it to its parent.
@@ -261,16 +264,17 @@ private SecurityCacheEntry(SecurityEntry entry, Collection<GroupSecurityReferenc
             this.entry = entry;
             int parentSize = groups.size() + ((parentReference == null) ? 0 : 1);
             if (parentSize > 0) {
-                this.parents = new ArrayList<SecurityCacheEntry>(parentSize);
+                Collection<SecurityCacheEntry> newParents = new ArrayList<SecurityCacheEntry>(parentSize);
                 if (parentReference != null) {
                     SecurityCacheEntry parent = DefaultSecurityCache.this.getEntry(parentReference);
                     if (parent == null) {
                         throw new ParentEntryEvictedException();
                     }
-                    this.parents.add(parent);
+                    newParents.add(parent);
                     parent.addChild(this);
                 }
-                addParentGroups(groups, parentReference);
+                addParentGroups(newParents, groups, parentReference);
+                this.parents = newParents;
                 logNewEntry();
             } else {
                 this.parents = null;
@@ -281,12 +285,14 @@ private SecurityCacheEntry(SecurityEntry entry, Collection<GroupSecurityReferenc
         /**
          * Add provided groups as parent of this entry, excluding the main parent reference.
          *
+         * @param newParents the parents of this entry, being built.
          * @param groups the list of groups to add.
          * @param parentReference the main parent reference to exclude.
          * @throws ParentEntryEvictedException if the parents required are no more available in the cache.
          */
-        private void addParentGroups(Collection<GroupSecurityReference> groups,
-            SecurityReference parentReference) throws ParentEntryEvictedException
+        private void addParentGroups(Collection<SecurityCacheEntry> newParents,
+            Collection<GroupSecurityReference> groups, SecurityReference parentReference)
+            throws ParentEntryEvictedException
         {
             for (GroupSecurityReference group : groups) {
                 if (group.equals(parentReference)) {
@@ -299,7 +305,7 @@ private void addParentGroups(Collection<GroupSecurityReference> groups,
                 if (parent == null) {
                     throw new ParentEntryEvictedException();
                 }
-                this.parents.add(parent);
+                newParents.add(parent);
                 parent.addChild(this);
             }
         }
@@ -318,15 +324,17 @@ boolean updateParentGroups(Collection<GroupSecurityReference> groups)
             }
 
             if (groups != null && !groups.isEmpty()) {
+                Collection<SecurityCacheEntry> newParents;
                 if (this.parents == null) {
-                    this.parents = new ArrayList<SecurityCacheEntry>(groups.size());
-                    addParentGroups(groups, null);
+                    newParents = new ArrayList<SecurityCacheEntry>(groups.size());
+                    addParentGroups(newParents, groups, null);
                 } else {
                     SecurityCacheEntry parent = this.parents.iterator().next();
-                    this.parents = new ArrayList<SecurityCacheEntry>(groups.size() + 1);
-                    this.parents.add(parent);
-                    addParentGroups(groups, parent.entry.getReference());
+                    newParents = new ArrayList<SecurityCacheEntry>(groups.size() + 1);
+                    newParents.add(parent);
+                    addParentGroups(newParents, groups, parent.entry.getReference());
                 }
+                this.parents = newParents;
             }
 
             return true;
@@ -378,6 +386,10 @@ String getKey()
          * Dispose this entry from the cache, removing all children relation in its parents, and removing
          * all its children recursively. This method is not thread safe in regards to the cache, proper
          * locking should be done externally.
+         * <p>
+         * The entry and its descendants are marked as disposed before anything is unlinked, so that concurrent readers,
+         * which do not lock, stop seeing them as soon as possible.
+         *
          * @return false if the entry was already disposed, true in all other cases.
          */
         boolean dispose()
@@ -385,8 +397,40 @@ boolean dispose()
             if (disposed) {
                 return false;
             }
-            if (parents != null) {
-                for (SecurityCacheEntry parent : parents) {
+            markDisposed();
+            unlink();
+            return true;
+        }
+
+        /**
+         * Mark this entry and all its descendants as disposed.
+         */
+        private void markDisposed()
+        {
+            disposed = true;
+            if (children != null) {
+                for (SecurityCacheEntry child : children) {
+                    if (!child.disposed) {
+                        child.markDisposed();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Remove all children relation in the parents of this entry, and remove all its children recursively from
+         * the cache.
+         * @return false if the entry was already unlinked, true in all other cases.
+         */
+        private boolean unlink()
+        {
+            if (unlinked) {
+                return false;
+            }
+            unlinked = true;
+            Collection<SecurityCacheEntry> currentParents = parents;
+            if (currentParents != null) {
+                for (SecurityCacheEntry parent : currentParents) {
                     parent.removeChild(this);
                 }
                 parents = null;
@@ -395,15 +439,22 @@ boolean dispose()
                 Collection<SecurityCacheEntry> childrenToClean = children;
                 children = null;
                 for (SecurityCacheEntry child : childrenToClean) {
-                    if (child.dispose()) {
+                    if (child.unlink()) {
                         DefaultSecurityCache.this.cache.remove(child.getKey());
                     }
                 }
             }
-            disposed = true;
             return true;
         }
 
+        /**
+         * @return true if this entry has been removed from the cache.
+         */
+        boolean isDisposed()
+        {
+            return disposed;
+        }
+
         /**
          * Add a children to this cache entry.
          * @param entry the children entry to add.
@@ -519,12 +570,7 @@ private String getEntryKey(SecurityAccessEntry entry)
      */
     private SecurityCacheEntry getEntry(SecurityReference reference)
     {
-        readLock.lock();
-        try {
-            return cache.get(getEntryKey(reference));
-        } finally {
-            readLock.unlock();
-        }
+        return getValidEntry(getEntryKey(reference));
     }
 
     /**
@@ -535,12 +581,7 @@ private SecurityCacheEntry getEntry(SecurityReference reference)
      */
     private SecurityCacheEntry getEntry(UserSecurityReference userReference, SecurityReference reference)
     {
-        readLock.lock();
-        try {
-            return cache.get(getEntryKey(userReference, reference));
-        } finally {
-            readLock.unlock();
-        }
+        return getValidEntry(getEntryKey(userReference, reference));
     }
 
     /**
@@ -551,12 +592,18 @@ private SecurityCacheEntry getEntry(UserSecurityReference userReference, Securit
      */
     private SecurityCacheEntry getShadowEntry(SecurityReference userReference, SecurityReference wiki)
     {
-        readLock.lock();
-        try {
-            return cache.get(getShadowEntryKey(userReference, wiki));
-        } finally {
-            readLock.unlock();
-        }
+        return getValidEntry(getShadowEntryKey(userReference, wiki));
+    }
+
+    /**
+     * @param key the key of the entry.
+     * @return the security cache entry stored with the given key, null if none is available in the cache or if it is
+     *         being removed.
+     */
+    private SecurityCacheEntry getValidEntry(String key)
+    {
+        SecurityCacheEntry entry = cache.get(key);
+        return (entry != null && !entry.isDisposed()) ? entry : null;
     }
 
     /**
@@ -578,7 +625,7 @@ private boolean isAlreadyInserted(String key, SecurityEntry entry) throws Confli
     private boolean isAlreadyInserted(String key, SecurityEntry entry, Collection<GroupSecurityReference> groups)
         throws ConflictingInsertionException, ParentEntryEvictedException
     {
-        SecurityCacheEntry oldEntry = cache.get(key);
+        SecurityCacheEntry oldEntry = getValidEntry(key);
         if (oldEntry != null) {
             if (!oldEntry.getEntry().equals(entry)) {
                 // Another thread have inserted an entry which is different from this entry!
@@ -721,7 +768,7 @@ private void internalAdd(SecurityAccessEntry entry, SecurityReference wiki)
      * @return the entry stored in the internal cache or Null if no entry was found.
      */
     SecurityEntry get(String entryKey) {
-        SecurityCacheEntry entry = cache.get(entryKey);
+        SecurityCacheEntry entry = getValidEntry(entryKey);
         return (entry != null) ? entry.getEntry() : null;
     }
 
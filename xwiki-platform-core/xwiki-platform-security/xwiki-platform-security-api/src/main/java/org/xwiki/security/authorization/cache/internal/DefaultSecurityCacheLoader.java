@@ -22,8 +22,11 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -120,6 +123,92 @@ public SecurityAccessEntry load(UserSecurityReference user, SecurityReference en
         }
     }
 
+    @Override
+    public Map<SecurityReference, SecurityAccessEntry> load(UserSecurityReference user,
+        Collection<SecurityReference> entities) throws AuthorizationException
+    {
+        // Keep the entries loaded by a failed attempt, they are still valid
+        Map<SecurityReference, SecurityAccessEntry> accessEntries =
+            new LinkedHashMap<SecurityReference, SecurityAccessEntry>(entities.size());
+        int retries = 0;
+
+        while (true) {
+            rulesInvalidator.suspend();
+
+            try {
+                retries++;
+                loadRequiredEntries(user, entities, accessEntries);
+                return accessEntries;
+            } catch (ParentEntryEvictedException e) {
+                if (retries < MAX_RETRIES) {
+                    this.logger.debug("The parent entry was evicted. Have tried {} times.  Trying again...", retries);
+                    continue;
+                }
+            } catch (ConflictingInsertionException e) {
+                if (retries < MAX_RETRIES) {
+                    this.logger.debug("There were conflicting insertions. Have tried {} times.  Retrying...", retries);
+                    continue;
+                }
+            } finally {
+                rulesInvalidator.resume();
+            }
+            String message = String.format("Failed to load the cache in %d attempts.  Giving up.", retries);
+            this.logger.error(message);
+            throw new AuthorizationException(user.getOriginalDocumentReference(), null, message);
+        }
+    }
+
+    /**
+     * Load entity entries, group entries, and user entries required to settle the access of the user on several
+     * entities, settle them and add these decisions into the cache. The user and group entries are loaded once for
+     * each wiki, and the rule entries shared by several entities are retrieved once.
+     *
+     * @param user The user to check access for.
+     * @param entities The entities to check access to.
+     * @param accessEntries The resulting access for the user on each entity, entities already having an access are
+     *            skipped.
+     * @throws ParentEntryEvictedException If one of the parent entries are evicted before the load is completed.
+     * @throws ConflictingInsertionException When different threads have inserted conflicting entries into the cache.
+     * @throws org.xwiki.security.authorization.AuthorizationException On error.
+     */
+    private void loadRequiredEntries(UserSecurityReference user, Collection<SecurityReference> entities,
+        Map<SecurityReference, SecurityAccessEntry> accessEntries)
+        throws ParentEntryEvictedException, ConflictingInsertionException, AuthorizationException
+    {
+        AuthorizationSettler settler = authorizationSettlerProvider.get();
+        Map<SecurityReference, SecurityRuleEntry> loadedRules = new HashMap<SecurityReference, SecurityRuleEntry>();
+        Map<SecurityReference, Collection<GroupSecurityReference>> groupsByWiki =
+            new HashMap<SecurityReference, Collection<GroupSecurityReference>>();
+
+        for (SecurityReference entity : entities) {
+            if (accessEntries.containsKey(entity)) {
+                continue;
+            }
+
+            SecurityAccessEntry accessEntry;
+            if (entity == null) {
+                accessEntry = loadRequiredEntries(user, null);
+            } else {
+                // Retrieve rules for the entity from the cache
+                Deque<SecurityRuleEntry> ruleEntries = getRules(entity, loadedRules);
+
+                // Load user and related groups into the cache, only once per wiki
+                SecurityReference entityWiki = getEntityWiki(user, entity);
+                Collection<GroupSecurityReference> groups = groupsByWiki.get(entityWiki);
+                if (groups == null) {
+                    groups = loadUserEntry(user, user.getWikiReference(), entityWiki);
+                    groupsByWiki.put(entityWiki, groups);
+                }
+
+                // Settle the access and store it into the cache
+                accessEntry = settler.settle(user, groups, ruleEntries);
+                securityCache.add(accessEntry, entityWiki);
+            }
+
+            accessEntries.put(entity, accessEntry);
+        }
+    }
+
     /**
      * Load entity entries, group entries, and user entries required to settle the access, settle it,
      * add this decision into the cache and return the access.
@@ -166,10 +255,7 @@ private SecurityAccessEntry loadAccessEntries(UserSecurityReference user, Securi
         // userWiki is the wiki of the user
         SecurityReference userWiki = user.getWikiReference();
         // entityWiki is the wiki of the entity when the user is global and the entity is local
-        SecurityReference entityWiki = user.isGlobal() ? entity.getWikiReference() : null;
-        if (entityWiki != null && userWiki.equals(entityWiki)) {
-            entityWiki = null;
-        }
+        SecurityReference entityWiki = getEntityWiki(user, entity);
 
         // Load user and related groups into the cache (global and shadowed locals) as needed
         Collection<GroupSecurityReference> groups = loadUserEntry(user, userWiki, entityWiki);
@@ -184,6 +270,20 @@ private SecurityAccessEntry loadAccessEntries(UserSecurityReference user, Securi
         return accessEntry;
     }
 
+    /**
+     * @param user The user to check access for.
+     * @param entity The entity to check access to.
+     * @return the wiki of the entity when the user is global and the entity is local, null otherwise
+     */
+    private SecurityReference getEntityWiki(UserSecurityReference user, SecurityReference entity)
+    {
+        SecurityReference entityWiki = user.isGlobal() ? entity.getWikiReference() : null;
+        if (entityWiki != null && user.getWikiReference().equals(entityWiki)) {
+            entityWiki = null;
+        }
+        return entityWiki;
+    }
+
     /**
      * Load user/group entry in the cache as needed, load related group entries and return the list of all groups
      * associated with the given user/group in both the user wiki and the given entity wiki. Groups containing
@@ -358,13 +458,40 @@ private void loadUserEntry(UserSecurityReference user, Collection<GroupSecurityR
      */
     private Deque<SecurityRuleEntry> getRules(SecurityReference entity)
         throws AuthorizationException, ParentEntryEvictedException, ConflictingInsertionException
+    {
+        return getRules(entity, null);
+    }
+
+    /**
+     * Retrieve rules for all hierarchy levels of the provided reference.
+     * Rules may be read from the given already retrieved rules, from the cache, or from the entities and fill the
+     * cache.
+     *
+     * @param entity The entity for which rules should be loaded and retrieve.
+     * @param loadedRules The rules already retrieved, updated with the newly retrieved rules. May be null.
+     * @return A collection of security rule entry, once for each level of the hierarchy.
+     * @exception org.xwiki.security.authorization.AuthorizationException if an error occurs
+     * @exception ParentEntryEvictedException if any parent entry is
+     * evicted before the operation completes.
+     * @throws ConflictingInsertionException When different threads
+     * have inserted conflicting entries into the cache.
+     */
+    private Deque<SecurityRuleEntry> getRules(SecurityReference entity,
+        Map<SecurityReference, SecurityRuleEntry> loadedRules)
+        throws AuthorizationException, ParentEntryEvictedException, ConflictingInsertionException
     {
         Deque<SecurityRuleEntry> rules = new LinkedList<SecurityRuleEntry>();
         for (SecurityReference ref : entity.getReversedSecurityReferenceChain()) {
-            SecurityRuleEntry entry = securityCache.get(ref);
+            SecurityRuleEntry entry = (loadedRules != null) ? loadedRules.get(ref) : null;
             if (entry == null) {
-                entry = securityEntryReader.read(ref);
-                securityCache.add(entry);
+                entry = securityCache.get(ref);
+                if (entry == null) {
+                    entry = securityEntryReader.read(ref);
+                    securityCache.add(entry);
+                }
+                if (loadedRules != null) {
+                    loadedRules.put(ref, entry);
+                }
             }
             rules.push(entry);
         }
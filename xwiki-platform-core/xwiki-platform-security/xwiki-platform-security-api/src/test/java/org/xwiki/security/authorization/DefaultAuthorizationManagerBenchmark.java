@@ -0,0 +1,335 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.security.authorization;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.helpers.NOPLogger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.internal.reference.DefaultStringEntityReferenceSerializer;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.security.DefaultSecurityReferenceFactory;
+import org.xwiki.security.GroupSecurityReference;
+import org.xwiki.security.SecurityReference;
+import org.xwiki.security.UserSecurityReference;
+import org.xwiki.security.authorization.cache.SecurityCacheRulesInvalidator;
+import org.xwiki.security.authorization.cache.internal.DefaultSecurityCache;
+import org.xwiki.security.authorization.cache.internal.DefaultSecurityCacheLoader;
+import org.xwiki.security.authorization.internal.AbstractSecurityRuleEntry;
+import org.xwiki.security.authorization.internal.DefaultAuthorizationSettler;
+import org.xwiki.security.internal.UserBridge;
+import org.xwiki.security.internal.XWikiBridge;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * JMH benchmark of {@link DefaultAuthorizationManager#hasAccess(Right, DocumentReference,
+ * org.xwiki.model.reference.EntityReference)} throughput, alone and while the security cache is being invalidated.
+ * <p>
+ * It is not executed during the build, run it with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main DefaultAuthorizationManagerBenchmark}.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DefaultAuthorizationManagerBenchmark
+{
+    private static final WikiReference WIKI = new WikiReference("xwiki");
+
+    private static final int SPACES = 10;
+
+    private static final int DOCUMENTS_PER_SPACE = 100;
+
+    private static final int USERS = 50;
+
+    /** Number of tokens consumed between two invalidations, to keep reads dominant. */
+    private static final long INVALIDATION_PAUSE = 100000;
+
+    private AuthorizationManager authorizationManager;
+
+    private DefaultSecurityCache securityCache;
+
+    private DefaultSecurityReferenceFactory securityReferenceFactory;
+
+    private SpaceReference[] spaces = new SpaceReference[SPACES];
+
+    private DocumentReference[] documents = new DocumentReference[SPACES * DOCUMENTS_PER_SPACE];
+
+    private DocumentReference[] users = new DocumentReference[USERS];
+
+    /**
+     * A thread safe unbounded cache, sending the events the security cache relies on.
+     *
+     * @param <T> the type of the cached values
+     */
+    private static class ConcurrentCache<T> implements Cache<T>
+    {
+        private final ConcurrentMap<String, T> map = new ConcurrentHashMap<String, T>();
+
+        private volatile CacheEntryListener<T> listener;
+
+        @Override
+        public void set(String key, T value)
+        {
+            this.map.put(key, value);
+        }
+
+        @Override
+        public T get(String key)
+        {
+            return this.map.get(key);
+        }
+
+        @Override
+        public void remove(final String key)
+        {
+            final T value = this.map.remove(key);
+            if (value != null && this.listener != null) {
+                this.listener.cacheEntryRemoved(new CacheEntryEvent<T>()
+                {
+                    @Override
+                    public CacheEntry<T> getEntry()
+                    {
+                        return new CacheEntry<T>()
+                        {
+                            @Override
+                            public Cache<T> getCache()
+                            {
+                                return ConcurrentCache.this;
+                            }
+
+                            @Override
+                            public String getKey()
+                            {
+                                return key;
+                            }
+
+                            @Override
+                            public T getValue()
+                            {
+                                return value;
+                            }
+                        };
+                    }
+
+                    @Override
+                    public Cache<T> getCache()
+                    {
+                        return ConcurrentCache.this;
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void removeAll()
+        {
+            this.map.clear();
+        }
+
+        @Override
+        public void addCacheEntryListener(CacheEntryListener<T> listener)
+        {
+            this.listener = listener;
+        }
+
+        @Override
+        public void removeCacheEntryListener(CacheEntryListener<T> listener)
+        {
+            this.listener = null;
+        }
+
+        @Override
+        public void dispose()
+        {
+            this.map.clear();
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        XWikiBridge xwikiBridge = mock(XWikiBridge.class);
+        when(xwikiBridge.getMainWikiReference()).thenReturn(WIKI);
+
+        UserBridge userBridge = mock(UserBridge.class);
+        when(userBridge.getAllGroupsFor(any(UserSecurityReference.class), any(WikiReference.class))).thenReturn(
+            Collections.<GroupSecurityReference>emptyList());
+
+        SecurityEntryReader securityEntryReader = new SecurityEntryReader()
+        {
+            @Override
+            public SecurityRuleEntry read(final SecurityReference entityReference)
+            {
+                return new AbstractSecurityRuleEntry()
+                {
+                    @Override
+                    public SecurityReference getReference()
+                    {
+                        return entityReference;
+                    }
+
+                    @Override
+                    public Collection<SecurityRule> getRules()
+                    {
+                        return Collections.emptyList();
+                    }
+                };
+            }
+        };
+
+        CacheManager cacheManager = mock(CacheManager.class);
+        when(cacheManager.createNewCache(any(CacheConfiguration.class))).thenReturn(new ConcurrentCache<Object>());
+
+        this.securityReferenceFactory = new DefaultSecurityReferenceFactory();
+        ReflectionUtils.setFieldValue(this.securityReferenceFactory, "wikiBridge", xwikiBridge);
+
+        this.securityCache = new DefaultSecurityCache();
+        ReflectionUtils.setFieldValue(this.securityCache, "logger", NOPLogger.NOP_LOGGER);
+        ReflectionUtils.setFieldValue(this.securityCache, "keySerializer",
+            new DefaultStringEntityReferenceSerializer());
+        ReflectionUtils.setFieldValue(this.securityCache, "cacheManager", cacheManager);
+        this.securityCache.initialize();
+
+        DefaultSecurityCacheLoader securityCacheLoader = new DefaultSecurityCacheLoader();
+        ReflectionUtils.setFieldValue(securityCacheLoader, "logger", NOPLogger.NOP_LOGGER);
+        ReflectionUtils.setFieldValue(securityCacheLoader, "securityCache", this.securityCache);
+        ReflectionUtils.setFieldValue(securityCacheLoader, "rulesInvalidator",
+            mock(SecurityCacheRulesInvalidator.class));
+        ReflectionUtils.setFieldValue(securityCacheLoader, "securityEntryReader", securityEntryReader);
+        ReflectionUtils.setFieldValue(securityCacheLoader, "userBridge", userBridge);
+        ReflectionUtils.setFieldValue(securityCacheLoader, "authorizationSettlerProvider",
+            new Provider<AuthorizationSettler>()
+            {
+                private final AuthorizationSettler settler = new DefaultAuthorizationSettler();
+
+                @Override
+                public AuthorizationSettler get()
+                {
+                    return this.settler;
+                }
+            });
+
+        DefaultAuthorizationManager manager = new DefaultAuthorizationManager();
+        ReflectionUtils.setFieldValue(manager, "logger", NOPLogger.NOP_LOGGER);
+        ReflectionUtils.setFieldValue(manager, "securityCache", this.securityCache);
+        ReflectionUtils.setFieldValue(manager, "securityCacheLoader", securityCacheLoader);
+        ReflectionUtils.setFieldValue(manager, "securityReferenceFactory", this.securityReferenceFactory);
+        ReflectionUtils.setFieldValue(manager, "entityReferenceSerializer",
+            new DefaultStringEntityReferenceSerializer());
+        ReflectionUtils.setFieldValue(manager, "xwikiBridge", xwikiBridge);
+        this.authorizationManager = manager;
+
+        for (int i = 0; i < SPACES; i++) {
+            this.spaces[i] = new SpaceReference("Space" + i, WIKI);
+            for (int j = 0; j < DOCUMENTS_PER_SPACE; j++) {
+                this.documents[i * DOCUMENTS_PER_SPACE + j] = new DocumentReference("Page" + j, this.spaces[i]);
+            }
+        }
+        for (int i = 0; i < USERS; i++) {
+            this.users[i] = new DocumentReference(WIKI.getName(), "XWiki", "User" + i);
+        }
+
+        // Start with a warm cache
+        for (DocumentReference user : this.users) {
+            for (DocumentReference document : this.documents) {
+                this.authorizationManager.hasAccess(Right.VIEW, user, document);
+            }
+        }
+    }
+
+    private boolean hasRandomAccess()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        return this.authorizationManager.hasAccess(Right.VIEW, this.users[random.nextInt(USERS)],
+            this.documents[random.nextInt(this.documents.length)]);
+    }
+
+    @Benchmark
+    public boolean hasAccess()
+    {
+        return hasRandomAccess();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public boolean hasAccessWhileInvalidating()
+    {
+        return hasRandomAccess();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void invalidate()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if (random.nextInt(10) == 0) {
+            // Same as a modification of the rights of a space
+            this.securityCache.remove(
+                this.securityReferenceFactory.newEntityReference(this.spaces[random.nextInt(SPACES)]));
+        } else {
+            // Same as a modification of the rights of a document
+            this.securityCache.remove(
+                this.securityReferenceFactory.newEntityReference(this.documents[random.nextInt(this.documents.length)]));
+        }
+
+        Blackhole.consumeCPU(INVALIDATION_PAUSE);
+    }
+}
@@ -21,8 +21,10 @@
 package org.xwiki.security.authorization;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -65,6 +67,7 @@
 import org.xwiki.test.annotation.BeforeComponent;
 import org.xwiki.test.annotation.ComponentList;
 
+import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
@@ -720,4 +723,34 @@ public void testLoadUserInAnotherWikiAfterUserDoc() throws Exception
             securityReferenceFactory.newEntityReference(getDoc("any document", "any space", "subwiki"))),
             nullValue());
     }
+
+    @Test
+    public void testFilterAccessible() throws Exception
+    {
+        initialiseWikiMock("inheritancePolicyForLocalWikiAccess");
+
+        DocumentReference user = getUser("userA", "wikiDenyA");
+        List<DocumentReference> documents = Arrays.asList(
+            getDoc("any document", "any space", "wikiDenyA"),
+            getDoc("any document", "spaceAllowA", "wikiDenyA"),
+            getDoc("docDenyA", "spaceAllowA", "wikiDenyA"),
+            getDoc("docDenyA", "spaceAllowANoAdmin", "wikiDenyA"),
+            getDoc("docAllowA", "any space", "wikiDenyA"));
+
+        List<DocumentReference> expected = Arrays.asList(documents.get(1), documents.get(2), documents.get(4));
+
+        // From an empty cache
+        assertThat(authorizationManager.filterAccessible(VIEW, user, documents), equalTo(expected));
+
+        // From the cache
+        assertThat(authorizationManager.filterAccessible(VIEW, user, documents), equalTo(expected));
+
+        // Same result as checking the entities one by one
+        for (DocumentReference document : documents) {
+            Assert.assertEquals(expected.contains(document), authorizationManager.hasAccess(VIEW, user, document));
+        }
+
+        assertThat(authorizationManager.filterAccessible(VIEW, SUPERADMIN, documents), equalTo(documents));
+        assertThat(authorizationManager.filterAccessible(ILLEGAL, user, documents).isEmpty(), equalTo(true));
+    }
 }
@@ -19,6 +19,10 @@
  */
 package org.xwiki.security.authorization.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
@@ -101,6 +105,29 @@ public boolean hasAccess(Right right, EntityReference entity)
         return hasAccess(right, user, entity);
     }
 
+    @Override
+    public <T extends EntityReference> List<T> filterAccessible(Right right, Collection<T> entities)
+    {
+        if (!checkPreAccess(right)) {
+            return new ArrayList<T>();
+        }
+
+        if (right == Right.PROGRAM) {
+            // The user depends on the entity for programming right
+            List<T> accessibleEntities = new ArrayList<T>();
+            for (T entity : entities) {
+                if (this.authorizationManager.hasAccess(right, getCurrentUser(right, entity), entity)) {
+                    accessibleEntities.add(entity);
+                }
+            }
+
+            return accessibleEntities;
+        }
+
+        return this.authorizationManager.filterAccessible(right, this.xcontextProvider.get().getUserReference(),
+            entities);
+    }
+
     private boolean hasAccess(Right right, DocumentReference user, EntityReference entity)
     {
         return checkPreAccess(right) && this.authorizationManager.hasAccess(right, user, entity);
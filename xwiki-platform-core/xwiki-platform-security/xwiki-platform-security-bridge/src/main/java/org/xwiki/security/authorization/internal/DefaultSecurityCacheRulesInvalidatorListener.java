@@ -48,6 +48,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.user.GroupMembershipGraph;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.user.api.XWikiGroupService;
 
@@ -101,6 +102,10 @@ public class DefaultSecurityCacheRulesInvalidatorListener implements EventListen
     @Inject
     private Provider<XWikiContext> xcontextProvider;
 
+    /** The in-memory group memberships, which must be up to date before the rights are computed again. */
+    @Inject
+    private GroupMembershipGraph groupMembershipGraph;
+
     @Override
     public String getName()
     {
@@ -184,6 +189,9 @@ public void onEvent(Event event, Object source, Object data)
         DocumentReference ref = getDocumentReference(source);
         readWriteLock.writeLock().lock();
         try {
+            // Update the group members before invalidating the cache, while no rights can be loaded, otherwise the
+            // rights could be loaded again from the previous members of the group once the cache is invalidated
+            this.groupMembershipGraph.update((XWikiDocument) source);
             deliverUpdateEvent(ref);
             if (isGroupDocument(source)) {
                 // When a group receive a new member, the update event is triggered and the above invalidate the group
@@ -38,6 +38,7 @@
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.user.api.XWikiGroupService;
+import com.xpn.xwiki.user.impl.xwiki.XWikiGroupServiceImpl;
 
 /**
  * Temporary implementation of the (@link UserBridge} interface to access user information.
@@ -107,7 +108,16 @@ private Collection<DocumentReference> getGroupsReferencesFor(WikiReference wiki,
         String currentWiki = xwikiContext.getWikiId();
         Collection<DocumentReference> groupReferences = new HashSet<>();
         try {
-            xwikiContext.setWikiId(wiki.getName());            
+            xwikiContext.setWikiId(wiki.getName());
+
+            // The in-memory membership graph is not a cache: it's updated by applying the changes made to the groups,
+            // it never needs to be reloaded from the database and it can be used directly
+            if (groupService instanceof XWikiGroupServiceImpl
+                && ((XWikiGroupServiceImpl) groupService).isMembershipGraphEnabled(xwikiContext)) {
+                return groupService.getAllGroupsReferencesForMember(userOrGroupDocumentReference, 0, 0,
+                    xwikiContext);
+            }
+
             // We get the groups of the member via the group service but we make sure to not use the group service's
             // cache by calling the method with a limit and an offset.
             //
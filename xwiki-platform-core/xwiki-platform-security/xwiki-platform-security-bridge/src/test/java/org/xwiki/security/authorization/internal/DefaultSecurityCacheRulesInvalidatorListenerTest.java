@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.security.authorization.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import javax.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.security.SecurityReference;
+import org.xwiki.security.SecurityReferenceFactory;
+import org.xwiki.security.UserSecurityReference;
+import org.xwiki.security.authorization.cache.SecurityCache;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.user.GroupMembershipGraph;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DefaultSecurityCacheRulesInvalidatorListener}.
+ *
+ * @version $Id$
+ */
+public class DefaultSecurityCacheRulesInvalidatorListenerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<EventListener> mocker = new MockitoComponentMockingRule<EventListener>(
+        DefaultSecurityCacheRulesInvalidatorListener.class);
+
+    private DocumentReference groupReference = new DocumentReference("wiki", "XWiki", "group");
+
+    private XWikiDocument groupDocument = mock(XWikiDocument.class);
+
+    private Lock writeLock = mock(Lock.class);
+
+    private SecurityReference groupSecurityReference = mock(SecurityReference.class, "group");
+
+    private UserSecurityReference memberSecurityReference = mock(UserSecurityReference.class, "member");
+
+    @Before
+    public void setUp() throws Exception
+    {
+        ReadWriteLock readWriteLock =
+            this.mocker.getInstance(ReadWriteLock.class, DefaultSecurityCacheRulesInvalidator.NAME);
+        when(readWriteLock.writeLock()).thenReturn(this.writeLock);
+
+        // The group document, from which a member has just been removed
+        DocumentReference groupClassReference = new DocumentReference("wiki", "XWiki", "XWikiGroups");
+        DocumentReferenceResolver<String> resolver = this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        when(resolver.resolve("XWiki.XWikiGroups", this.groupReference)).thenReturn(groupClassReference);
+        when(this.groupDocument.getDocumentReference()).thenReturn(this.groupReference);
+        when(this.groupDocument.getXObjects(groupClassReference)).thenReturn(Arrays.asList(mock(BaseObject.class)));
+
+        // The remaining member of the group
+        XWikiContext xcontext = mock(XWikiContext.class);
+        Provider<XWikiContext> xcontextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(xcontext);
+        XWiki xwiki = mock(XWiki.class);
+        when(xcontext.getWiki()).thenReturn(xwiki);
+        XWikiGroupService groupService = mock(XWikiGroupService.class);
+        when(xwiki.getGroupService(xcontext)).thenReturn(groupService);
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(this.groupReference)).thenReturn("wiki:XWiki.group");
+        when(groupService.getAllMembersNamesForGroup("wiki:XWiki.group", 100, 0, xcontext)).thenReturn(
+            Collections.singletonList("XWiki.member"));
+        DocumentReference memberReference = new DocumentReference("wiki", "XWiki", "member");
+        DocumentReferenceResolver<String> userResolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "user");
+        when(userResolver.resolve("XWiki.member", this.groupReference.getWikiReference())).thenReturn(
+            memberReference);
+
+        SecurityReferenceFactory factory = this.mocker.getInstance(SecurityReferenceFactory.class);
+        when(factory.newEntityReference(this.groupReference)).thenReturn(this.groupSecurityReference);
+        when(factory.newUserReference(memberReference)).thenReturn(this.memberSecurityReference);
+    }
+
+    @Test
+    public void onGroupUpdatedUpdatesTheMembershipsBeforeInvalidating() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(), this.groupDocument, null);
+
+        GroupMembershipGraph graph = this.mocker.getInstance(GroupMembershipGraph.class);
+        SecurityCache securityCache = this.mocker.getInstance(SecurityCache.class);
+
+        // The rights can't be loaded again from the removed members once the group entry is invalidated
+        InOrder inOrder = inOrder(this.writeLock, graph, securityCache);
+        inOrder.verify(this.writeLock).lock();
+        inOrder.verify(graph).update(this.groupDocument);
+        inOrder.verify(securityCache).remove(this.groupSecurityReference);
+        inOrder.verify(securityCache).remove(this.memberSecurityReference);
+        inOrder.verify(this.writeLock).unlock();
+    }
+}
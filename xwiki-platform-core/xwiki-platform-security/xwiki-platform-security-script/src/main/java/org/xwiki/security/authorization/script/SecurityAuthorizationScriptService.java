@@ -19,6 +19,9 @@
  */
 package org.xwiki.security.authorization.script;
 
+import java.util.Collection;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -115,6 +118,22 @@ public boolean hasAccess(Right right, EntityReference entityReference)
         return contextualAuthorizationManager.hasAccess(right, entityReference);
     }
 
+    /**
+     * Filter the entities on which access identified by {@code right} would be allowed in the current context.
+     * This gives the same result as calling {@link #hasAccess(Right, EntityReference)} for each entity, but is a lot
+     * faster for many entities (like search results).
+     *
+     * @param <T> the type of the entity references
+     * @param right the right to check
+     * @param entityReferences the entities on which to check the right
+     * @return the entities on which the right is allowed, in the same order as the provided entities
+     * @since 7.1M1
+     */
+    public <T extends EntityReference> List<T> filterAccessible(Right right, Collection<T> entityReferences)
+    {
+        return contextualAuthorizationManager.filterAccessible(right, entityReferences);
+    }
+
     /**
      * Check if the user identified by {@code userReference} has the access identified by {@code right} on the
      * entity identified by {@code entityReference}. Note that some rights may be checked higher in hierarchy of the
@@ -147,4 +166,22 @@ public boolean hasAccess(Right right, DocumentReference userReference, EntityRef
     {
         return authorizationManager.hasAccess(right, userReference, entityReference);
     }
+
+    /**
+     * Filter the entities on which the user identified by {@code userReference} has the access identified by
+     * {@code right}. This gives the same result as calling {@link #hasAccess(Right, DocumentReference,
+     * EntityReference)} for each entity, but is a lot faster for many entities (like search results).
+     *
+     * @param <T> the type of the entity references
+     * @param right the right to check
+     * @param userReference the user to check the right for
+     * @param entityReferences the entities on which to check the right
+     * @return the entities on which the user has the specified right, in the same order as the provided entities
+     * @since 7.1M1
+     */
+    public <T extends EntityReference> List<T> filterAccessible(Right right, DocumentReference userReference,
+        Collection<T> entityReferences)
+    {
+        return authorizationManager.filterAccessible(right, userReference, entityReferences);
+    }
 }
@@ -19,17 +19,28 @@
  */
 package com.xpn.xwiki.web.sx;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
+import org.xwiki.skinx.internal.CachedSxResponse;
+import org.xwiki.skinx.internal.SxResponseCache;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.web.ConditionalRequestUtils;
+import com.xpn.xwiki.web.Utils;
 import com.xpn.xwiki.web.XWikiAction;
 import com.xpn.xwiki.web.XWikiRequest;
 import com.xpn.xwiki.web.XWikiResponse;
@@ -68,6 +79,39 @@ public abstract class AbstractSxAction extends XWikiAction
     /** If the user specifies this url parameter equals false, we will send uncompressed script content. */
     private static final String COMPRESS_SCRIPT_REQUEST_PARAMETER = "minify";
 
+    /** What http header parameter is used to specify the entity tag of the response. */
+    private static final String ETAG_HEADER = "ETag";
+
+    /** What http header parameter is used by the client to send the encodings it accepts. */
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
+    /** What http header parameter is used to specify the encoding of the response. */
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    /** What http header parameter is used to specify the request headers the response depends on. */
+    private static final String VARY_HEADER = "Vary";
+
+    /** The gzip content encoding. */
+    private static final String GZIP_ENCODING = "gzip";
+
+    /** The configuration parameter indicating if a gzipped copy of the cached responses should be kept. */
+    private static final String GZIP_PARAMETER = "xwiki.plugin.skinx.cache.gzip";
+
+    /**
+     * The configuration parameter indicating how many seconds the response of an extension containing Velocity code is
+     * cached, since it can depend on anything.
+     */
+    private static final String PARSED_TIME_TO_LIVE_PARAMETER = "xwiki.plugin.skinx.cache.parsedTimeToLive";
+
+    /** The default number of seconds the response of an extension containing Velocity code is cached. */
+    private static final long DEFAULT_PARSED_TIME_TO_LIVE = 60;
+
+    /** The name of the color theme preference and request parameter. */
+    private static final String COLOR_THEME_PARAMETER = "colorTheme";
+
+    /** The separator between the parts of the response cache keys. */
+    private static final char CACHE_KEY_SEPARATOR = '\u0000';
+
     /** @return the logging object of the concrete subclass. */
     protected abstract Logger getLogger();
 
@@ -86,18 +130,35 @@ public void renderExtension(SxSource sxSource, Extension sxType, XWikiContext co
         XWikiRequest request = context.getRequest();
         XWikiResponse response = context.getResponse();
 
-        String extensionContent = sxSource.getContent();
+        CachePolicy cachePolicy = sxSource.getCachePolicy();
+
+        // Avoid parsing and compressing again the same extension
+        String cacheKey = getCacheKey(sxSource, sxType, cachePolicy, context);
+        SxResponseCache responseCache = cacheKey != null ? Utils.getComponent(SxResponseCache.class) : null;
+        CachedSxResponse cachedResponse = responseCache != null ? responseCache.get(cacheKey) : null;
+        if (cachedResponse == null || cachedResponse.isExpired()) {
+            cachedResponse = createResponse(sxSource, sxType, cacheKey != null, context);
+            if (responseCache != null) {
+                responseCache.set(cacheKey, cachedResponse);
+            }
+        }
 
         response.setContentType(sxType.getContentType());
 
-        if (sxSource.getLastModifiedDate() > 0) {
-            response.setDateHeader(LAST_MODIFIED_HEADER, sxSource.getLastModifiedDate());
+        if (cachedResponse.getLastModified() > 0) {
+            response.setDateHeader(LAST_MODIFIED_HEADER, cachedResponse.getLastModified());
         }
 
-        CachePolicy cachePolicy = sxSource.getCachePolicy();
+        boolean gzip = false;
+        if (cachedResponse.getGzipContent() != null) {
+            response.setHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+            gzip = StringUtils.contains(request.getHeader(ACCEPT_ENCODING_HEADER), GZIP_ENCODING);
+        }
+        String etag = gzip ? cachedResponse.getGzipETag() : cachedResponse.getETag();
 
         if (cachePolicy != CachePolicy.FORBID) {
             response.setHeader(CACHE_CONTROL_HEADER, "public");
+            response.setHeader(ETAG_HEADER, etag);
         }
         if (cachePolicy == CachePolicy.LONG) {
             // Cache for one month (30 days)
@@ -109,20 +170,156 @@ public void renderExtension(SxSource sxSource, Extension sxType, XWikiContext co
             response.setHeader(CACHE_CONTROL_HEADER, "no-cache, no-store, must-revalidate");
         }
 
-        if (BooleanUtils.toBoolean(StringUtils.defaultIfEmpty(
-            request.get(COMPRESS_SCRIPT_REQUEST_PARAMETER), "true"))) {
-            extensionContent = sxType.getCompressor().compress(extensionContent);
+        if (cachePolicy != CachePolicy.FORBID
+            && ConditionalRequestUtils.isNotModified(etag, cachedResponse.getLastModified(), request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] content = cachedResponse.getContent();
+        if (gzip) {
+            response.setHeader(CONTENT_ENCODING_HEADER, GZIP_ENCODING);
+            content = cachedResponse.getGzipContent();
         }
 
         try {
-            response.setContentLength(extensionContent.getBytes(RESPONSE_CHARACTER_SET).length);
-            response.getOutputStream().write(extensionContent.getBytes(RESPONSE_CHARACTER_SET));
+            response.setContentLength(content.length);
+            response.getOutputStream().write(content);
         } catch (IOException ex) {
             getLogger().warn("Failed to send SX content: [{}]", ex.getMessage());
         }
 
     }
 
+    /**
+     * Parse and compress the extension.
+     *
+     * @param sxSource the source of the extension.
+     * @param sxType the type of extension
+     * @param cached true if the response is going to be cached
+     * @param context the XWiki context when rendering the skin extension.
+     * @return the response to send
+     */
+    private CachedSxResponse createResponse(SxSource sxSource, Extension sxType, boolean cached,
+        XWikiContext context)
+    {
+        String extensionContent = sxSource.getContent();
+
+        if (BooleanUtils.toBoolean(StringUtils.defaultIfEmpty(
+            context.getRequest().get(COMPRESS_SCRIPT_REQUEST_PARAMETER), "true"))) {
+            extensionContent = sxType.getCompressor().compress(extensionContent);
+        }
+
+        byte[] content;
+        try {
+            content = extensionContent.getBytes(RESPONSE_CHARACTER_SET);
+        } catch (UnsupportedEncodingException e) {
+            // Should never happen since UTF-8 is always supported
+            throw new RuntimeException(e);
+        }
+
+        byte[] gzipContent = null;
+        if (cached && "1".equals(context.getWiki().Param(GZIP_PARAMETER, "0"))) {
+            try {
+                ByteArrayOutputStream gzipStream = new ByteArrayOutputStream(content.length / 4);
+                GZIPOutputStream gzip = new GZIPOutputStream(gzipStream);
+                gzip.write(content);
+                gzip.close();
+                gzipContent = gzipStream.toByteArray();
+            } catch (IOException e) {
+                getLogger().warn("Failed to gzip SX content: [{}]", e.getMessage());
+            }
+        }
+
+        // The result of the Velocity code can change at any time
+        long expirationDate = 0;
+        if (isParsed(sxSource)) {
+            expirationDate = System.currentTimeMillis() + getParsedTimeToLive(context) * 1000L;
+        }
+
+        return new CachedSxResponse(content, gzipContent, '"' + DigestUtils.md5Hex(content) + '"',
+            sxSource.getLastModifiedDate(), expirationDate);
+    }
+
+    /**
+     * @param sxSource the source of the extension
+     * @return true if the extension contains Velocity code
+     */
+    private boolean isParsed(SxSource sxSource)
+    {
+        return sxSource instanceof SxDocumentSource && ((SxDocumentSource) sxSource).isParsed();
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return how many seconds the response of an extension containing Velocity code is cached
+     */
+    private long getParsedTimeToLive(XWikiContext context)
+    {
+        return context.getWiki().ParamAsLong(PARSED_TIME_TO_LIVE_PARAMETER, DEFAULT_PARSED_TIME_TO_LIVE);
+    }
+
+    /**
+     * Compute the key used to cache the response of the extension, made of everything which can have an impact on its
+     * content: the extension document and its version, the locale, the skin, the color theme, the request parameters
+     * and, when the extension is parsed, the current user. The responses of the parsed extensions are only cached for
+     * a short time since their Velocity code can depend on anything else.
+     *
+     * @param sxSource the source of the extension.
+     * @param sxType the type of extension
+     * @param cachePolicy the cache policy of the extension
+     * @param context the XWiki context when rendering the skin extension.
+     * @return the key to use to cache the response, null if the response should not be cached
+     */
+    protected String getCacheKey(SxSource sxSource, Extension sxType, CachePolicy cachePolicy, XWikiContext context)
+    {
+        if (cachePolicy == CachePolicy.FORBID) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(sxType.getClassName());
+        if (sxSource instanceof SxDocumentSource) {
+            XWikiDocument document = context.getDoc();
+            appendCacheKeyPart(key, document.getPrefixedFullName());
+            appendCacheKeyPart(key, document.getVersion());
+            appendCacheKeyPart(key, String.valueOf(context.getLocale()));
+            appendCacheKeyPart(key, context.getWiki().getSkin(context));
+            appendCacheKeyPart(key, context.getWiki().getUserPreference(COLOR_THEME_PARAMETER, context));
+            if (isParsed(sxSource)) {
+                if (getParsedTimeToLive(context) <= 0) {
+                    return null;
+                }
+                appendCacheKeyPart(key, String.valueOf(context.getUserReference()));
+            }
+        } else if (sxSource instanceof SxResourceSource) {
+            appendCacheKeyPart(key, String.valueOf(context.getLocale()));
+            appendCacheKeyPart(key, context.getWiki().getSkin(context));
+        } else {
+            return null;
+        }
+
+        // The request parameters (which include the resource name and the color theme when provided)
+        @SuppressWarnings("unchecked")
+        Map<String, String[]> parameters = new TreeMap<String, String[]>(context.getRequest().getParameterMap());
+        for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            appendCacheKeyPart(key, parameter.getKey());
+            for (String value : parameter.getValue()) {
+                appendCacheKeyPart(key, value);
+            }
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * @param key the key being built
+     * @param part the part to add to the key
+     */
+    private void appendCacheKeyPart(StringBuilder key, String part)
+    {
+        key.append(CACHE_KEY_SEPARATOR).append(part);
+    }
+
     @Override
     public String render(XWikiContext context) throws XWikiException
     {
@@ -118,6 +118,25 @@ public CachePolicy getCachePolicy()
         return finalCache;
     }
 
+    /**
+     * @return true if the content of at least one of the extension objects is parsed, in which case the content
+     *         depends on the current user
+     * @since 7.1M1
+     */
+    public boolean isParsed()
+    {
+        List<BaseObject> objects = this.document.getObjects(this.extension.getClassName());
+        if (objects != null) {
+            for (BaseObject sxObj : objects) {
+                if (sxObj != null && sxObj.getIntValue(PARSE_CONTENT_PROPERTY_NAME) == 1) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public String getContent()
     {
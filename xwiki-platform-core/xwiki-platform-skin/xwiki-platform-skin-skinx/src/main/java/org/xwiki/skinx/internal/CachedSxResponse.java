@@ -0,0 +1,105 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+/**
+ * The final content of a skin extension response, kept in cache to avoid parsing and compressing it again for each
+ * request.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class CachedSxResponse
+{
+    private final byte[] content;
+
+    private final byte[] gzipContent;
+
+    private final String etag;
+
+    private final long lastModified;
+
+    private final long expirationDate;
+
+    /**
+     * @param content the content to send
+     * @param gzipContent the gzipped content to send to the clients accepting it, null if not available
+     * @param etag the strong entity tag of the content
+     * @param lastModified the date when the source of the content was last modified, 0 if unknown
+     * @param expirationDate the date after which the content must be generated again, 0 if it never expires
+     */
+    public CachedSxResponse(byte[] content, byte[] gzipContent, String etag, long lastModified, long expirationDate)
+    {
+        this.content = content;
+        this.gzipContent = gzipContent;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.expirationDate = expirationDate;
+    }
+
+    /**
+     * @return the content to send
+     */
+    public byte[] getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return the gzipped content to send to the clients accepting it, null if not available
+     */
+    public byte[] getGzipContent()
+    {
+        return this.gzipContent;
+    }
+
+    /**
+     * @return the strong entity tag of the content, including the quotes
+     */
+    public String getETag()
+    {
+        return this.etag;
+    }
+
+    /**
+     * @return the strong entity tag of the gzipped content, including the quotes; it's different from the one of the
+     *         content since a strong entity tag identifies the exact bytes sent
+     */
+    public String getGzipETag()
+    {
+        return this.etag.substring(0, this.etag.length() - 1) + "-gz\"";
+    }
+
+    /**
+     * @return the date when the source of the content was last modified, 0 if unknown
+     */
+    public long getLastModified()
+    {
+        return this.lastModified;
+    }
+
+    /**
+     * @return true if the content must be generated again
+     */
+    public boolean isExpired()
+    {
+        return this.expirationDate > 0 && System.currentTimeMillis() >= this.expirationDate;
+    }
+}
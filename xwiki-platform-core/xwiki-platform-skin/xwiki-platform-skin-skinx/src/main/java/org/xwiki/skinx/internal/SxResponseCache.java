@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+/**
+ * Cache of the skin extension responses, so that the same extensions are not parsed and compressed again for each
+ * request.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component(roles = SxResponseCache.class)
+@Singleton
+public class SxResponseCache implements Initializable
+{
+    /** The number of responses to keep in cache. */
+    private static final int CAPACITY = 500;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    private Cache<CachedSxResponse> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache =
+                this.cacheManager.createNewCache(new LRUCacheConfiguration("skinx.responses", CAPACITY));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the skin extension responses cache", e);
+        }
+    }
+
+    /**
+     * @param key the key of the response
+     * @return the cached response, null if none is available
+     */
+    public CachedSxResponse get(String key)
+    {
+        return this.cache.get(key);
+    }
+
+    /**
+     * @param key the key of the response
+     * @param response the response to cache
+     */
+    public void set(String key, CachedSxResponse response)
+    {
+        this.cache.set(key, response);
+    }
+
+    /**
+     * Remove all the cached responses.
+     */
+    public void clear()
+    {
+        this.cache.removeAll();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Clear the cache of skin extension responses when a document which may be involved in their content is modified: a
+ * skin extension (which can include others) or a color theme (used by the LESS extensions).
+ * <p>
+ * The version of the extension document is part of the cache key, but the responses may also depend on other
+ * documents.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component
+@Named("skinx.responsecache")
+@Singleton
+public class SxResponseCacheListener implements EventListener
+{
+    private static final String XWIKI_SPACE = "XWiki";
+
+    private static final List<LocalDocumentReference> CLASSES = Arrays.asList(
+        new LocalDocumentReference(XWIKI_SPACE, "StyleSheetExtension"),
+        new LocalDocumentReference(XWIKI_SPACE, "JavaScriptExtension"),
+        new LocalDocumentReference("ColorThemes", "ColorThemeClass"),
+        new LocalDocumentReference("FlamingoThemesCode", "ThemeClass"));
+
+    @Inject
+    private SxResponseCache cache;
+
+    @Override
+    public String getName()
+    {
+        return "skinx.responsecache";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+
+        // A deleted document does not have any object anymore, look at the document before the deletion
+        if (event instanceof DocumentDeletedEvent) {
+            document = document.getOriginalDocument();
+        }
+
+        for (LocalDocumentReference classReference : CLASSES) {
+            if (hasObjects(document, classReference) || hasObjects(document.getOriginalDocument(), classReference)) {
+                this.cache.clear();
+                return;
+            }
+        }
+    }
+
+    private boolean hasObjects(XWikiDocument document, LocalDocumentReference classReference)
+    {
+        if (document == null) {
+            return false;
+        }
+
+        List<BaseObject> objects = document.getXObjects(classReference);
+
+        return objects != null && !objects.isEmpty();
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.web.sx;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.skinx.internal.CachedSxResponse;
+import org.xwiki.skinx.internal.SxResponseCache;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
+import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.XWikiResponse;
+import com.xpn.xwiki.web.sx.SxSource.CachePolicy;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the response cache and the conditional requests support of {@link AbstractSxAction}.
+ *
+ * @version $Id$
+ */
+public class AbstractSxActionTest
+{
+    private static final String GZIP_PARAMETER = "xwiki.plugin.skinx.cache.gzip";
+
+    private static final String PARSED_TIME_TO_LIVE_PARAMETER = "xwiki.plugin.skinx.cache.parsedTimeToLive";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private AbstractSxAction action = new AbstractSxAction()
+    {
+        @Override
+        protected Logger getLogger()
+        {
+            return LoggerFactory.getLogger(AbstractSxActionTest.class);
+        }
+
+        @Override
+        public Extension getExtensionType()
+        {
+            return extension;
+        }
+    };
+
+    private Extension extension = mock(Extension.class);
+
+    private SxDocumentSource source = mock(SxDocumentSource.class);
+
+    private XWikiContext context = mock(XWikiContext.class);
+
+    private XWiki xwiki = mock(XWiki.class);
+
+    private XWikiDocument document = mock(XWikiDocument.class);
+
+    private XWikiRequest request = mock(XWikiRequest.class);
+
+    private XWikiResponse response = mock(XWikiResponse.class);
+
+    private ServletOutputStream output = mock(ServletOutputStream.class);
+
+    private Map<String, String[]> parameters = new HashMap<String, String[]>();
+
+    private Map<String, CachedSxResponse> cachedResponses = new HashMap<String, CachedSxResponse>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Utils.setComponentManager(this.mocker);
+
+        SxResponseCache responseCache = this.mocker.registerMockComponent(SxResponseCache.class);
+        when(responseCache.get(anyString())).thenAnswer(new Answer<CachedSxResponse>()
+        {
+            @Override
+            public CachedSxResponse answer(InvocationOnMock invocation) throws Throwable
+            {
+                return cachedResponses.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                cachedResponses.put((String) invocation.getArguments()[0],
+                    (CachedSxResponse) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(responseCache).set(anyString(), any(CachedSxResponse.class));
+
+        when(this.extension.getClassName()).thenReturn("XWiki.StyleSheetExtension");
+        when(this.extension.getContentType()).thenReturn("text/css");
+        when(this.extension.getCompressor()).thenReturn(new SxCompressor()
+        {
+            @Override
+            public String compress(String source)
+            {
+                return source.trim();
+            }
+        });
+
+        when(this.source.getContent()).thenReturn(" .content {} ");
+        when(this.source.getCachePolicy()).thenReturn(CachePolicy.LONG);
+        when(this.source.getLastModifiedDate()).thenReturn(10000L);
+
+        when(this.context.getRequest()).thenReturn(this.request);
+        when(this.context.getResponse()).thenReturn(this.response);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.context.getDoc()).thenReturn(this.document);
+        when(this.context.getLocale()).thenReturn(Locale.ENGLISH);
+        when(this.context.getUserReference()).thenReturn(new DocumentReference("wiki", "XWiki", "User"));
+
+        when(this.document.getPrefixedFullName()).thenReturn("wiki:Space.Page");
+        when(this.document.getVersion()).thenReturn("1.1");
+
+        when(this.xwiki.getSkin(this.context)).thenReturn("flamingo");
+        when(this.xwiki.getUserPreference("colorTheme", this.context)).thenReturn("theme");
+        when(this.xwiki.Param(GZIP_PARAMETER, "0")).thenReturn("0");
+        when(this.xwiki.ParamAsLong(PARSED_TIME_TO_LIVE_PARAMETER, 60L)).thenReturn(60L);
+
+        when(this.request.getParameterMap()).thenReturn(this.parameters);
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        when(this.response.getOutputStream()).thenReturn(this.output);
+    }
+
+    @After
+    public void tearDown()
+    {
+        Utils.setComponentManager(null);
+    }
+
+    @Test
+    public void renderTwiceUsesCachedResponse() throws Exception
+    {
+        this.action.renderExtension(this.source, this.extension, this.context);
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.source, times(1)).getContent();
+        verify(this.output, times(2)).write(".content {}".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void renderNewVersionMissesCache() throws Exception
+    {
+        this.action.renderExtension(this.source, this.extension, this.context);
+        when(this.document.getVersion()).thenReturn("1.2");
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.source, times(2)).getContent();
+    }
+
+    @Test
+    public void renderForbiddenCachePolicyIsNotCached() throws Exception
+    {
+        when(this.source.getCachePolicy()).thenReturn(CachePolicy.FORBID);
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.source, times(2)).getContent();
+        assertTrue(this.cachedResponses.isEmpty());
+        verify(this.response, never()).setHeader(eq("ETag"), anyString());
+    }
+
+    @Test
+    public void renderExpiredResponseMissesCache() throws Exception
+    {
+        when(this.source.isParsed()).thenReturn(true);
+        String key = this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context);
+        this.cachedResponses.put(key,
+            new CachedSxResponse(new byte[0], null, "\"expired\"", 0, System.currentTimeMillis() - 1));
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.source).getContent();
+        assertFalse(this.cachedResponses.get(key).isExpired());
+    }
+
+    @Test
+    public void cacheKeyParts() throws Exception
+    {
+        String key = this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context);
+        assertNotNull(key);
+        assertEquals(key, this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context));
+
+        when(this.xwiki.getSkin(this.context)).thenReturn("colibri");
+        String skinKey = this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context);
+        assertFalse(key.equals(skinKey));
+
+        when(this.context.getLocale()).thenReturn(Locale.FRENCH);
+        String localeKey = this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context);
+        assertFalse(skinKey.equals(localeKey));
+
+        when(this.xwiki.getUserPreference("colorTheme", this.context)).thenReturn("otherTheme");
+        String colorThemeKey = this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context);
+        assertFalse(localeKey.equals(colorThemeKey));
+
+        this.parameters.put("language", new String[] {"fr"});
+        String parametersKey = this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context);
+        assertFalse(colorThemeKey.equals(parametersKey));
+
+        // The current user only matters for the parsed extensions
+        when(this.context.getUserReference()).thenReturn(new DocumentReference("wiki", "XWiki", "Other"));
+        assertEquals(parametersKey,
+            this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context));
+        when(this.source.isParsed()).thenReturn(true);
+        assertFalse(parametersKey.equals(
+            this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context)));
+    }
+
+    @Test
+    public void cacheKeyWhenNotCached() throws Exception
+    {
+        assertNull(this.action.getCacheKey(this.source, this.extension, CachePolicy.FORBID, this.context));
+
+        when(this.source.isParsed()).thenReturn(true);
+        when(this.xwiki.ParamAsLong(PARSED_TIME_TO_LIVE_PARAMETER, 60L)).thenReturn(0L);
+        assertNull(this.action.getCacheKey(this.source, this.extension, CachePolicy.LONG, this.context));
+    }
+
+    @Test
+    public void renderNotModifiedWhenETagMatches() throws Exception
+    {
+        this.action.renderExtension(this.source, this.extension, this.context);
+        String etag = getLastETag();
+
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\", " + etag);
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.output, times(1)).write(any(byte[].class));
+    }
+
+    @Test
+    public void renderModifiedWhenETagDoesNotMatch() throws Exception
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\"");
+        // If-Modified-Since is ignored when If-None-Match is present
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(20000L);
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.output).write(any(byte[].class));
+    }
+
+    @Test
+    public void renderModifiedWhenExtensionChanged() throws Exception
+    {
+        this.action.renderExtension(this.source, this.extension, this.context);
+        String oldETag = getLastETag();
+
+        // The client sends the entity tag of the previous version of the extension
+        when(this.document.getVersion()).thenReturn("1.2");
+        when(this.source.getContent()).thenReturn(" .other {} ");
+        when(this.request.getHeader("If-None-Match")).thenReturn(oldETag);
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.output).write(".other {}".getBytes("UTF-8"));
+        assertFalse(oldETag.equals(getLastETag()));
+    }
+
+    @Test
+    public void renderNotModifiedSinceLastModifiedDate() throws Exception
+    {
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(10000L);
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.output, never()).write(any(byte[].class));
+    }
+
+    @Test
+    public void renderGzipHasItsOwnETag() throws Exception
+    {
+        when(this.xwiki.Param(GZIP_PARAMETER, "0")).thenReturn("1");
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+        String identityETag = getLastETag();
+
+        when(this.request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+        this.action.renderExtension(this.source, this.extension, this.context);
+        String gzipETag = getLastETag();
+
+        assertFalse(identityETag.equals(gzipETag));
+        assertTrue(gzipETag.endsWith("-gz\""));
+        verify(this.response, times(2)).setHeader("Vary", "Accept-Encoding");
+        verify(this.response, times(1)).setHeader("Content-Encoding", "gzip");
+
+        // The identity entity tag doesn't match the gzipped content
+        when(this.request.getHeader("If-None-Match")).thenReturn(identityETag);
+        this.action.renderExtension(this.source, this.extension, this.context);
+        verify(this.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+        when(this.request.getHeader("If-None-Match")).thenReturn(gzipETag);
+        this.action.renderExtension(this.source, this.extension, this.context);
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    /**
+     * @return the last entity tag sent
+     */
+    private String getLastETag()
+    {
+        ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+        verify(this.response, atLeastOnce()).setHeader(eq("ETag"), etagCaptor.capture());
+        return etagCaptor.getValue();
+    }
+}
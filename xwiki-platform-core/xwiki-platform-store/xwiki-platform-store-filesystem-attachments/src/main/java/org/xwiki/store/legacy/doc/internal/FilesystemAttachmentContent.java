@@ -108,6 +108,16 @@ public InputStream getContentInputStream()
         }
     }
 
+    @Override
+    public InputStream getContentInputStream(long offset) throws IOException
+    {
+        if (this.getFileItem() != null) {
+            return super.getContentInputStream(offset);
+        }
+
+        return getContentInputStream(this.storageFile, offset);
+    }
+
     @Override
     public int getSize()
     {
@@ -23,12 +23,9 @@
 import java.util.List;
 
 import javax.inject.Inject;
-import javax.inject.Named;
-import javax.inject.Provider;
+import javax.inject.Singleton;
 
-import org.slf4j.Logger;
-import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.annotation.Component;
 import org.xwiki.uiextension.UIExtension;
 import org.xwiki.uiextension.UIExtensionManager;
 
@@ -38,39 +35,20 @@
  * @version $Id$
  * @since 4.3.1
  */
+@Component
+@Singleton
 public class DefaultUIExtensionManager implements UIExtensionManager
 {
     /**
-     * The logger to log.
+     * The UI extensions visible from the Context Component Manager, indexed by extension point.
      */
     @Inject
-    private Logger logger;
-
-    /**
-     * We use the Context Component Manager to lookup UI Extensions registered as components.
-     * The Context Component Manager allows Extensions to be registered for a specific user, for a specific wiki or for
-     * a whole farm.
-     */
-    @Inject
-    @Named("context")
-    private Provider<ComponentManager> contextComponentManagerProvider;
+    private UIExtensionRegistry registry;
 
     @Override
     public List<UIExtension> get(String extensionPointId)
     {
-        List<UIExtension> extensions = new ArrayList<UIExtension>();
-
-        try {
-            List<UIExtension> allExtensions = contextComponentManagerProvider.get().getInstanceList(UIExtension.class);
-            for (UIExtension extension : allExtensions) {
-                if (extension.getExtensionPointId().equals(extensionPointId)) {
-                    extensions.add(extension);
-                }
-            }
-        } catch (ComponentLookupException e) {
-            logger.error("Failed to lookup UIExtension instances, error: [{}]", e);
-        }
-
-        return extensions;
+        // The indexed list is shared, callers are free to sort or filter their own copy
+        return new ArrayList<UIExtension>(this.registry.get(extensionPointId));
     }
 }
@@ -0,0 +1,397 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.uiextension.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.manager.NamespacedComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.uiextension.UIExtension;
+import org.xwiki.uiextension.UIExtensionFilter;
+import org.xwiki.uiextension.internal.filter.ExcludeFilter;
+import org.xwiki.uiextension.internal.filter.SelectFilter;
+import org.xwiki.uiextension.internal.filter.SortByCustomOrderFilter;
+import org.xwiki.uiextension.internal.filter.SortByIdFilter;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Index the {@link UIExtension}s visible from the Context Component Manager by extension point.
+ * <p>
+ * An index is built the first time UI extensions are requested for a given wiki and user, with a single lookup of all
+ * the UI extensions, and is then kept up to date from the component registration and unregistration events instead of
+ * looking up and filtering all the UI extensions each time an extension point is displayed.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+@Component(roles = UIExtensionRegistry.class)
+@Singleton
+public class UIExtensionRegistry implements Initializable
+{
+    /**
+     * The maximum number of wiki and user combinations for which an index is kept.
+     */
+    private static final int MAX_INDEXES = 1000;
+
+    private static final String WIKI_NAMESPACE_PREFIX = "wiki:";
+
+    private static final String USER_NAMESPACE_PREFIX = "user:";
+
+    /**
+     * The filters which only depend on the identifiers of the UI extensions, whose results can be reused until the UI
+     * extensions change. The other filters (like the ones sorting by parameter) can depend on the current request.
+     */
+    private static final List<Class<?>> CACHEABLE_FILTERS = Arrays.<Class<?>>asList(SelectFilter.class,
+        ExcludeFilter.class, SortByIdFilter.class, SortByCustomOrderFilter.class);
+
+    private static final Comparator<UIExtension> ID_COMPARATOR = new Comparator<UIExtension>()
+    {
+        @Override
+        public int compare(UIExtension extension1, UIExtension extension2)
+        {
+            return StringUtils.defaultString(extension1.getId()).compareToIgnoreCase(
+                StringUtils.defaultString(extension2.getId()));
+        }
+    };
+
+    /**
+     * The UI extensions visible for a wiki and a user.
+     *
+     * @version $Id$
+     */
+    private static final class Index
+    {
+        private final String wiki;
+
+        private final String user;
+
+        /**
+         * The UI extensions, indexed by role hint.
+         */
+        private final Map<String, UIExtension> extensions;
+
+        /**
+         * The UI extensions sorted by identifier, indexed by extension point.
+         */
+        private final Map<String, List<UIExtension>> extensionsByPoint;
+
+        /**
+         * The results of the filters which only depend on the identifiers of the UI extensions.
+         */
+        private final ConcurrentMap<String, List<UIExtension>> filtered =
+            new ConcurrentHashMap<String, List<UIExtension>>();
+
+        private Index(String wiki, String user, Map<String, UIExtension> extensions)
+        {
+            this.wiki = wiki;
+            this.user = user;
+            this.extensions = extensions;
+
+            Map<String, List<UIExtension>> lists = new HashMap<String, List<UIExtension>>();
+            for (UIExtension extension : extensions.values()) {
+                List<UIExtension> list = lists.get(extension.getExtensionPointId());
+                if (list == null) {
+                    list = new ArrayList<UIExtension>();
+                    lists.put(extension.getExtensionPointId(), list);
+                }
+                list.add(extension);
+            }
+            this.extensionsByPoint = new HashMap<String, List<UIExtension>>(lists.size());
+            for (Map.Entry<String, List<UIExtension>> entry : lists.entrySet()) {
+                this.extensionsByPoint.put(entry.getKey(), sort(entry.getValue()));
+            }
+        }
+
+        private Index(Index index, String roleHint, UIExtension extension)
+        {
+            this.wiki = index.wiki;
+            this.user = index.user;
+            this.extensions = new HashMap<String, UIExtension>(index.extensions);
+            this.extensions.put(roleHint, extension);
+
+            this.extensionsByPoint = new HashMap<String, List<UIExtension>>(index.extensionsByPoint);
+            List<UIExtension> list = new ArrayList<UIExtension>();
+            List<UIExtension> previousList = index.extensionsByPoint.get(extension.getExtensionPointId());
+            if (previousList != null) {
+                list.addAll(previousList);
+            }
+            list.add(extension);
+            this.extensionsByPoint.put(extension.getExtensionPointId(), sort(list));
+        }
+
+        private static List<UIExtension> sort(List<UIExtension> list)
+        {
+            Collections.sort(list, ID_COMPARATOR);
+
+            return Collections.unmodifiableList(list);
+        }
+
+        private List<UIExtension> get(String extensionPointId)
+        {
+            List<UIExtension> list = this.extensionsByPoint.get(extensionPointId);
+
+            return list != null ? list : Collections.<UIExtension>emptyList();
+        }
+
+        /**
+         * @param namespace the namespace of the component manager where a UI extension has been registered or
+         *            unregistered, null for the root component manager
+         * @return true if the UI extensions of that namespace are visible from this index
+         */
+        private boolean isVisible(String namespace)
+        {
+            if (namespace == null) {
+                return true;
+            } else if (namespace.startsWith(WIKI_NAMESPACE_PREFIX)) {
+                return namespace.substring(WIKI_NAMESPACE_PREFIX.length()).equals(this.wiki);
+            } else if (namespace.startsWith(USER_NAMESPACE_PREFIX)) {
+                return namespace.substring(USER_NAMESPACE_PREFIX.length()).equals(this.user);
+            }
+
+            // Space or document level, don't take any risk
+            return true;
+        }
+    }
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * We use the Context Component Manager to lookup UI Extensions registered as components. The Context Component
+     * Manager allows Extensions to be registered for a specific user, for a specific wiki or for a whole farm.
+     */
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> contextComponentManagerProvider;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private ObservationManager observation;
+
+    /**
+     * The indexes, by wiki and user, in access order.
+     */
+    private final Map<String, Index> indexes = new LinkedHashMap<String, Index>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Index> eldest)
+        {
+            return size() > MAX_INDEXES;
+        }
+    };
+
+    /**
+     * Incremented each time a UI extension is registered or unregistered so that an index built concurrently is not
+     * kept.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observation.addListener(new AbstractEventListener("uiextensionregistry",
+            new ComponentDescriptorAddedEvent(UIExtension.class), new ComponentDescriptorRemovedEvent(
+                UIExtension.class))
+        {
+            @Override
+            public void onEvent(Event event, Object componentManager, Object descriptor)
+            {
+                onComponentEvent((ComponentDescriptorEvent) event, (ComponentManager) componentManager);
+            }
+        });
+    }
+
+    /**
+     * @param extensionPointId the identifier of the extension point
+     * @return the UI extensions of the extension point, sorted by identifier
+     */
+    public List<UIExtension> get(String extensionPointId)
+    {
+        return getIndex().get(extensionPointId);
+    }
+
+    /**
+     * @param extensionPointId the identifier of the extension point
+     * @param filters the hints of the {@link UIExtensionFilter}s to apply, in order, and their parameters
+     * @return the filtered UI extensions of the extension point
+     */
+    public List<UIExtension> get(String extensionPointId, Map<String, String> filters)
+    {
+        Index index = getIndex();
+        List<UIExtension> extensions = index.get(extensionPointId);
+
+        if (filters.isEmpty()) {
+            return extensions;
+        }
+
+        String key = extensionPointId + '\n' + filters;
+        List<UIExtension> filteredExtensions = index.filtered.get(key);
+        if (filteredExtensions != null) {
+            return filteredExtensions;
+        }
+
+        boolean cacheable = true;
+        // Filters are allowed to modify the list they receive
+        filteredExtensions = new ArrayList<UIExtension>(extensions);
+        for (Map.Entry<String, String> entry : filters.entrySet()) {
+            String filterHint = entry.getKey();
+
+            try {
+                UIExtensionFilter filter =
+                    this.contextComponentManagerProvider.get().getInstance(UIExtensionFilter.class, filterHint);
+                filteredExtensions = filter.filter(filteredExtensions, parseFilterParameters(entry.getValue()));
+                cacheable &= CACHEABLE_FILTERS.contains(filter.getClass());
+            } catch (ComponentLookupException e) {
+                this.logger.warn("Unable to find a UIExtensionFilter for hint [{}] "
+                    + "while getting UIExtensions for extension point [{}]", filterHint, extensionPointId);
+            }
+        }
+
+        filteredExtensions = Collections.unmodifiableList(filteredExtensions);
+        if (cacheable) {
+            index.filtered.put(key, filteredExtensions);
+        }
+
+        return filteredExtensions;
+    }
+
+    private String[] parseFilterParameters(String nameList)
+    {
+        return nameList.replaceAll(" ", "").split(",");
+    }
+
+    private Index getIndex()
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String wiki = null;
+        String user = null;
+        if (xcontext != null) {
+            wiki = xcontext.getWikiId();
+            DocumentReference userReference = xcontext.getUserReference();
+            if (userReference != null) {
+                user = this.serializer.serialize(userReference);
+            }
+        }
+        String key = wiki + '/' + user;
+
+        Index index;
+        synchronized (this.indexes) {
+            index = this.indexes.get(key);
+        }
+
+        if (index == null) {
+            long indexGeneration = this.generation.get();
+
+            Map<String, UIExtension> extensions;
+            try {
+                extensions = this.contextComponentManagerProvider.get().getInstanceMap(UIExtension.class);
+            } catch (ComponentLookupException e) {
+                this.logger.error("Failed to lookup UIExtension instances, error: [{}]", e);
+
+                return new Index(wiki, user, Collections.<String, UIExtension>emptyMap());
+            }
+
+            index = new Index(wiki, user, new HashMap<String, UIExtension>(extensions));
+
+            synchronized (this.indexes) {
+                if (this.generation.get() == indexGeneration) {
+                    this.indexes.put(key, index);
+                }
+            }
+        }
+
+        return index;
+    }
+
+    private void onComponentEvent(ComponentDescriptorEvent event, ComponentManager componentManager)
+    {
+        this.generation.incrementAndGet();
+
+        String namespace = null;
+        if (componentManager instanceof NamespacedComponentManager) {
+            namespace = ((NamespacedComponentManager) componentManager).getNamespace();
+        }
+
+        String roleHint = event.getRoleHint();
+
+        UIExtension addedExtension = null;
+        if (event instanceof ComponentDescriptorAddedEvent) {
+            try {
+                addedExtension = componentManager.getInstance(UIExtension.class, roleHint);
+            } catch (ComponentLookupException e) {
+                this.logger.warn("Failed to lookup the new UI extension [{}]: {}", roleHint, e.getMessage());
+            }
+        }
+
+        synchronized (this.indexes) {
+            for (Iterator<Map.Entry<String, Index>> it = this.indexes.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Index> entry = it.next();
+                Index index = entry.getValue();
+                if (index.isVisible(namespace)) {
+                    if (addedExtension != null && !index.extensions.containsKey(roleHint)) {
+                        entry.setValue(new Index(index, roleHint, addedExtension));
+                    } else {
+                        // An existing UI extension is replaced or removed and another one with the same hint might
+                        // be visible from another namespace: rebuild the index the next time it's needed
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.xwiki.uiextension.script;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -35,6 +36,8 @@
 import org.xwiki.uiextension.UIExtension;
 import org.xwiki.uiextension.UIExtensionFilter;
 import org.xwiki.uiextension.UIExtensionManager;
+import org.xwiki.uiextension.internal.DefaultUIExtensionManager;
+import org.xwiki.uiextension.internal.UIExtensionRegistry;
 
 /**
  * Allows scripts to easily access Interface Extensions APIs.
@@ -68,6 +71,12 @@ public class UIExtensionScriptService implements ScriptService
     @Inject
     private UIExtensionManager uiExtensionManager;
 
+    /**
+     * The UI extensions indexed by extension point, along with the results of the filters applied to them.
+     */
+    @Inject
+    private UIExtensionRegistry registry;
+
     /**
      * Utility method to split a list of extension names, for example {code}"Panels.Apps,Panels.QuickLinks"{code} to get
      * a List containing those names.
@@ -87,6 +96,15 @@ private String[] parseFilterParameters(String nameList)
      * @return the list of {@link UIExtension} for the given Extension Point
      */
     public List<UIExtension> getExtensions(String extensionPointId)
+    {
+        return getManager(extensionPointId).get(extensionPointId);
+    }
+
+    /**
+     * @param extensionPointId The ID of the Extension Point to retrieve the {@link UIExtensionManager} for
+     * @return the specific {@link UIExtensionManager} of the extension point if any, the default one otherwise
+     */
+    private UIExtensionManager getManager(String extensionPointId)
     {
         UIExtensionManager manager = this.uiExtensionManager;
 
@@ -100,7 +118,7 @@ public List<UIExtension> getExtensions(String extensionPointId)
             }
         }
 
-        return manager.get(extensionPointId);
+        return manager;
     }
 
     /**
@@ -128,7 +146,13 @@ public List<UIExtension> getExtensions(String extensionPointId)
      */
     public List<UIExtension> getExtensions(String extensionPointId, Map<String, String> filters)
     {
-        List<UIExtension> extensions = getExtensions(extensionPointId);
+        UIExtensionManager manager = getManager(extensionPointId);
+        if (manager instanceof DefaultUIExtensionManager) {
+            // The registry reuses the result of the filters as long as the UI extensions don't change
+            return new ArrayList<UIExtension>(this.registry.get(extensionPointId, filters));
+        }
+
+        List<UIExtension> extensions = manager.get(extensionPointId);
 
         for (Map.Entry<String, String> entry : filters.entrySet()) {
             String filterHint = entry.getKey();
@@ -20,40 +20,119 @@
 package org.xwiki.uiextension;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
 
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
 import org.xwiki.component.internal.ContextComponentManagerProvider;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.annotation.BeforeComponent;
 import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.uiextension.internal.DefaultUIExtensionManager;
+import org.xwiki.uiextension.internal.UIExtensionRegistry;
+
+import com.xpn.xwiki.XWikiContext;
 
-@ComponentList(ContextComponentManagerProvider.class)
+@ComponentList({ContextComponentManagerProvider.class, UIExtensionRegistry.class})
 public class UIExtensionManagerTest
 {
     @Rule
     public MockitoComponentMockingRule<UIExtensionManager> mocker =
         new MockitoComponentMockingRule<UIExtensionManager>(DefaultUIExtensionManager.class);
 
+    @BeforeComponent
+    public void registerComponents() throws Exception
+    {
+        this.mocker.registerMockComponent(ObservationManager.class);
+        this.mocker.registerMockComponent(EntityReferenceSerializer.TYPE_STRING);
+
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(xcontext.getWikiId()).thenReturn("wiki");
+        when(xcontextProvider.get()).thenReturn(xcontext);
+    }
+
+    private UIExtension registerExtension(String hint, String id, String extensionPointId) throws Exception
+    {
+        UIExtension uix = this.mocker.registerMockComponent(UIExtension.class, hint);
+        when(uix.getId()).thenReturn(id);
+        when(uix.getExtensionPointId()).thenReturn(extensionPointId);
+
+        return uix;
+    }
+
+    private EventListener getRegistryListener() throws Exception
+    {
+        ArgumentCaptor<EventListener> listenerCaptor = ArgumentCaptor.forClass(EventListener.class);
+        verify(this.mocker.<ObservationManager>getInstance(ObservationManager.class)).addListener(
+            listenerCaptor.capture());
+
+        return listenerCaptor.getValue();
+    }
+
     @Test
     public void testGet() throws Exception
     {
-        assertEquals(Arrays.asList(), this.mocker.getComponentUnderTest().get("extensionpoint"));
+        UIExtension uix1 = registerExtension("uix1", "id2", "extensionpoint");
+        UIExtension uix2 = registerExtension("uix2", "id1", "extensionpoint");
+        registerExtension("notuix", "id3", "notuix");
+
+        // Sorted by identifier
+        assertEquals(Arrays.asList(uix2, uix1), this.mocker.getComponentUnderTest().get("extensionpoint"));
+        assertEquals(Arrays.asList(), this.mocker.getComponentUnderTest().get("unknown"));
+    }
+
+    @Test
+    public void testGetReturnsAModifiableList() throws Exception
+    {
+        UIExtension uix1 = registerExtension("uix1", "id1", "extensionpoint");
+        UIExtension uix2 = registerExtension("uix2", "id2", "extensionpoint");
+
+        // Callers used to sort or filter the returned list
+        List<UIExtension> extensions = this.mocker.getComponentUnderTest().get("extensionpoint");
+        Collections.reverse(extensions);
+        extensions.remove(uix1);
+        assertEquals(Arrays.asList(uix2), extensions);
+
+        List<UIExtension> noExtensions = this.mocker.getComponentUnderTest().get("unknown");
+        noExtensions.add(uix1);
+
+        // The following calls are not affected
+        assertEquals(Arrays.asList(uix1, uix2), this.mocker.getComponentUnderTest().get("extensionpoint"));
+        assertEquals(Arrays.asList(), this.mocker.getComponentUnderTest().get("unknown"));
+    }
+
+    @Test
+    public void testGetAfterRegistrationAndUnregistration() throws Exception
+    {
+        UIExtension uix1 = registerExtension("uix1", "id1", "extensionpoint");
+
+        assertEquals(Arrays.asList(uix1), this.mocker.getComponentUnderTest().get("extensionpoint"));
 
-        UIExtension uix1 = mocker.registerMockComponent(UIExtension.class, "uix1");
-        when(uix1.getExtensionPointId()).thenReturn("extensionpoint");
+        UIExtension uix2 = registerExtension("uix2", "id2", "extensionpoint");
+        getRegistryListener().onEvent(new ComponentDescriptorAddedEvent(UIExtension.class, "uix2"), this.mocker,
+            null);
 
-        UIExtension uix2 = mocker.registerMockComponent(UIExtension.class, "uix2");
-        when(uix2.getExtensionPointId()).thenReturn("extensionpoint");
+        assertEquals(Arrays.asList(uix1, uix2), this.mocker.getComponentUnderTest().get("extensionpoint"));
 
-        UIExtension notuix = mocker.registerMockComponent(UIExtension.class, "notuix");
-        when(notuix.getExtensionPointId()).thenReturn("notuix");
+        this.mocker.unregisterComponent(UIExtension.class, "uix1");
+        getRegistryListener().onEvent(new ComponentDescriptorRemovedEvent(UIExtension.class, "uix1"), this.mocker,
+            null);
 
-        assertEquals(new HashSet<UIExtension>(Arrays.asList(uix1, uix2)), new HashSet<UIExtension>(this.mocker
-            .getComponentUnderTest().get("extensionpoint")));
+        assertEquals(Arrays.asList(uix2), this.mocker.getComponentUnderTest().get("extensionpoint"));
     }
 }
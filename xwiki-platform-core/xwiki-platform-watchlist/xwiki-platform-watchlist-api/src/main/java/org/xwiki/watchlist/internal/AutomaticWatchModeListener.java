@@ -44,6 +44,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.DocumentsImportingEvent;
 import com.xpn.xwiki.internal.event.XARImportingEvent;
 
 /**
@@ -76,7 +77,7 @@ public boolean matches(Object otherEvent)
             // initializers, etc.)
 
             return otherEvent instanceof WikiCreatingEvent || otherEvent instanceof XARImportingEvent
-                || otherEvent instanceof JobEvent;
+                || otherEvent instanceof DocumentsImportingEvent || otherEvent instanceof JobEvent;
         }
     };
 
@@ -23,7 +23,13 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -129,16 +135,17 @@ public List<WatchListEvent> getEventsSince(Date start)
             // delete after update events we want to discard the update events since we won't be able to display
             // diff from a deleted document. See WatchListEvent#addEvent(WatchListEvent) and
             // WatchListEvent#equals(WatchListEvent).
+            Map<WatchListEvent, WatchListEvent> compositeEvents = new HashMap<>();
             for (ActivityEvent rawEvent : rawEvents) {
                 WatchListEvent event = this.eventConverter.convert(rawEvent);
 
-                int existingIndex = events.indexOf(event);
-                if (existingIndex == -1) {
+                WatchListEvent existingCompositeEvent = compositeEvents.get(event);
+                if (existingCompositeEvent == null) {
                     // An event on a new document, add the new event.
                     events.add(event);
+                    compositeEvents.put(event, event);
                 } else {
                     // An event on an existing document, add to the events of that document.
-                    WatchListEvent existingCompositeEvent = events.get(existingIndex);
                     existingCompositeEvent.addEvent(event);
                 }
             }
@@ -179,6 +186,91 @@ public List<WatchListEvent> getMatchingVisibleEvents(List<WatchListEvent> events
         return result;
     }
 
+    @Override
+    public Map<String, List<WatchListEvent>> getMatchingVisibleEvents(List<WatchListEvent> events,
+        Collection<String> subscribers)
+    {
+        Map<WatchedElementType, Map<String, Set<String>>> index = indexSubscribers(subscribers);
+
+        Map<String, List<WatchListEvent>> result = new LinkedHashMap<>();
+
+        for (WatchListEvent event : events) {
+            if (isEventSkipped(event)) {
+                // Skip events that are on a blacklist for various reasons (performance, security, etc.)
+                continue;
+            }
+
+            // Find the subscribers interested in the event.
+            Set<String> eventSubscribers = new LinkedHashSet<>();
+            addSubscribers(index, WatchedElementType.WIKI, event.getWiki(), eventSubscribers);
+            addSubscribers(index, WatchedElementType.SPACE, event.getPrefixedSpace(), eventSubscribers);
+            addSubscribers(index, WatchedElementType.DOCUMENT, event.getPrefixedFullName(), eventSubscribers);
+            for (String author : event.getAuthors()) {
+                addSubscribers(index, WatchedElementType.USER, author, eventSubscribers);
+            }
+
+            for (String subscriber : eventSubscribers) {
+                // Skip events on documents that are not visible to the subscriber.
+                if (isEventViewable(event, subscriber)) {
+                    List<WatchListEvent> subscriberEvents = result.get(subscriber);
+                    if (subscriberEvents == null) {
+                        subscriberEvents = new ArrayList<>();
+                        result.put(subscriber, subscriberEvents);
+                    }
+                    subscriberEvents.add(event);
+                }
+            }
+        }
+
+        // Sort the matching events by document.
+        for (List<WatchListEvent> subscriberEvents : result.values()) {
+            Collections.sort(subscriberEvents);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param subscribers the subscribers to index
+     * @return the subscribers indexed by type and watched element
+     */
+    private Map<WatchedElementType, Map<String, Set<String>>> indexSubscribers(Collection<String> subscribers)
+    {
+        Map<WatchedElementType, Map<String, Set<String>>> index = new EnumMap<>(WatchedElementType.class);
+        for (WatchedElementType type : WatchedElementType.values()) {
+            index.put(type, new HashMap<String, Set<String>>());
+        }
+
+        for (String subscriber : subscribers) {
+            try {
+                for (WatchedElementType type : WatchedElementType.values()) {
+                    Map<String, Set<String>> typeIndex = index.get(type);
+                    for (String element : this.store.getWatchedElements(subscriber, type)) {
+                        Set<String> elementSubscribers = typeIndex.get(element);
+                        if (elementSubscribers == null) {
+                            elementSubscribers = new LinkedHashSet<>();
+                            typeIndex.put(element, elementSubscribers);
+                        }
+                        elementSubscribers.add(subscriber);
+                    }
+                }
+            } catch (Exception e) {
+                this.logger.error("Failed to get the elements watched by [{}]", subscriber, e);
+            }
+        }
+
+        return index;
+    }
+
+    private void addSubscribers(Map<WatchedElementType, Map<String, Set<String>>> index, WatchedElementType type,
+        String element, Set<String> subscribers)
+    {
+        Set<String> elementSubscribers = index.get(type).get(element);
+        if (elementSubscribers != null) {
+            subscribers.addAll(elementSubscribers);
+        }
+    }
+
     @Override
     public boolean isEventMatching(WatchListEvent event, String subscriber)
     {
@@ -19,8 +19,10 @@
  */
 package org.xwiki.watchlist.internal;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.watchlist.internal.api.WatchListEvent;
@@ -50,6 +52,19 @@
      */
     List<WatchListEvent> getMatchingVisibleEvents(List<WatchListEvent> events, String subscriber);
 
+    /**
+     * Route the events to all the subscribers at once. The subscriptions are indexed by watched element so that each
+     * event is matched only against the subscribers watching one of its elements.
+     *
+     * @param events the events to filter
+     * @param subscribers the subscribers whose watched elements to check against
+     * @return for each subscriber having at least one matching event, the sorted list of events matching his watched
+     *         elements and that occurred on documents that are visible to him
+     * @since 7.1M1
+     */
+    Map<String, List<WatchListEvent>> getMatchingVisibleEvents(List<WatchListEvent> events,
+        Collection<String> subscribers);
+
     /**
      * Checks if an event matches a subscriber's watched elements.
      * 
@@ -231,7 +231,7 @@ public Date getDate()
      * @return Get all the dates of a composite event, if this event is not a composite this list will contain single
      *         entry.
      */
-    public List<Date> getDates()
+    public synchronized List<Date> getDates()
     {
         if (dates == null) {
             dates = new ArrayList<Date>();
@@ -264,7 +264,7 @@ public String getAuthor()
      * @return Get all the authors of a composite event, if this event is not a composite this list will contain single
      *         entry.
      */
-    public List<String> getAuthors()
+    public synchronized List<String> getAuthors()
     {
         if (authors == null) {
             authors = new ArrayList<String>();
@@ -300,7 +300,7 @@ public String getVersion()
      * @return All the versions from a composite event, if the event is not a composite the list will contain a single
      *         entry
      */
-    public List<String> getVersions()
+    public synchronized List<String> getVersions()
     {
         if (versions == null) {
             versions = new ArrayList<String>();
@@ -318,7 +318,7 @@ public List<String> getVersions()
     /**
      * @return The version of the document which has generated the event, before the actual event.
      */
-    public String getPreviousVersion()
+    public synchronized String getPreviousVersion()
     {
         if (previousVersion == null) {
             String initialVersion = "";
@@ -362,10 +362,12 @@ public boolean isComposite()
      * @return The diff, formatted in HTML, to display to the user when a document has been updated, or null if an error
      *         occurred while computing the diff
      */
-    public String getHTMLDiff()
+    public synchronized String getHTMLDiff()
     {
         // TODO: Deprecate this method and offer an alternative to compute it from a script service that accesses the
         // WatchListEventHTMLDiffExtractor component.
+        // The diff is computed once and shared by all the subscribers notified about this event (possibly from
+        // different threads).
         if (htmlDiff == null) {
             try {
                 htmlDiff = Utils.getComponent(WatchListEventHTMLDiffExtractor.class).getHTMLDiff(this);
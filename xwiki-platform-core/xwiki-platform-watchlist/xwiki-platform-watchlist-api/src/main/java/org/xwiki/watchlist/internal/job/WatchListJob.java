@@ -19,9 +19,13 @@
  */
 package org.xwiki.watchlist.internal.job;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.commons.lang3.StringUtils;
 import org.quartz.Job;
@@ -44,6 +48,7 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.plugin.scheduler.AbstractJob;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
 import com.xpn.xwiki.web.Utils;
 
 /**
@@ -63,6 +68,11 @@ public class WatchListJob extends AbstractJob implements Job
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(WatchListJob.class);
 
+    /**
+     * The xwiki.cfg property holding the maximum number of threads used to render and send the notifications.
+     */
+    private static final String NOTIFICATION_THREADS_PARAM = "xwiki.plugin.watchlist.notificationThreads";
+
     /**
      * Scheduler Job XObject.
      */
@@ -175,9 +185,10 @@ private void setPreviousFireTime() throws XWikiException
 
     /**
      * @param userWiki wiki from which the user comes from
+     * @param xcontext the XWiki context of the current thread
      * @return the name of the page that should be used as email template for this job
      */
-    private String getEmailTemplate(String userWiki)
+    private String getEmailTemplate(String userWiki, XWikiContext xcontext)
     {
         String fullName = this.watchListJobObject.getStringValue(WatchListJobClassDocumentInitializer.TEMPLATE_FIELD);
         String prefixedFullName;
@@ -187,7 +198,7 @@ private String getEmailTemplate(String userWiki)
             prefixedFullName = fullName;
         } else {
             prefixedFullName = userWiki + DefaultWatchListStore.WIKI_SPACE_SEP + fullName;
-            if (this.context.getWiki().exists(prefixedFullName, this.context)) {
+            if (xcontext.getWiki().exists(prefixedFullName, xcontext)) {
                 // If the configured template exists in the user wiki, use it.
                 return prefixedFullName;
             }
@@ -251,23 +262,12 @@ public void executeJob(JobExecutionContext jobContext) throws JobExecutionExcept
                 return;
             }
 
-            // Notify all interested subscribers, one at a time.
-            for (String subscriber : subscribers) {
-                try {
-                    // Determine what happened since the last execution on the watched elements of the current
-                    // subscriber only.
-                    List<WatchListEvent> matchingEvents = eventMatcher.getMatchingVisibleEvents(events, subscriber);
-                    String userWiki = StringUtils.substringBefore(subscriber, DefaultWatchListStore.WIKI_SPACE_SEP);
-
-                    // If events have occurred on at least one element watched by the user, send the email
-                    if (matchingEvents.size() > 0) {
-                        this.watchlist.getNotifier().sendNotification(subscriber, matchingEvents,
-                            getEmailTemplate(userWiki), previousFireTime);
-                    }
-                } catch (Exception e) {
-                    LOGGER.error("Failed to send watchlist notification to user [{}]", subscriber, e);
-                }
-            }
+            // Determine what happened since the last execution on the watched elements of each subscriber.
+            Map<String, List<WatchListEvent>> matchingEvents =
+                eventMatcher.getMatchingVisibleEvents(events, subscribers);
+
+            // Notify all interested subscribers.
+            sendNotifications(new ConcurrentLinkedQueue<>(matchingEvents.entrySet()), previousFireTime);
         } catch (Exception e) {
             // We're in a job, we don't throw exceptions
             LOGGER.error("Exception while running job", e);
@@ -276,4 +276,69 @@ public void executeJob(JobExecutionContext jobContext) throws JobExecutionExcept
             cleanupComponents();
         }
     }
+
+    /**
+     * Send the notifications, in parallel if more than one notification thread is configured.
+     *
+     * @param notifications the events to send to each subscriber
+     * @param previousFireTime the previous job fire time
+     * @throws InterruptedException when interrupted while waiting for the notification threads
+     */
+    private void sendNotifications(final Queue<Map.Entry<String, List<WatchListEvent>>> notifications,
+        final Date previousFireTime) throws InterruptedException
+    {
+        int threadCount =
+            (int) Math.min(this.context.getWiki().ParamAsLong(NOTIFICATION_THREADS_PARAM, 1), notifications.size());
+
+        if (threadCount <= 1) {
+            sendNotifications(notifications, previousFireTime, this.context);
+        } else {
+            List<Thread> threads = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; ++i) {
+                // Each thread gets its own XWiki context since it's not thread safe
+                final XWikiContext threadContext = this.context.clone();
+                Runnable runnable = new AbstractXWikiRunnable()
+                {
+                    @Override
+                    protected void declareProperties(ExecutionContext executionContext)
+                    {
+                        threadContext.declareInExecutionContext(executionContext);
+                    }
+
+                    @Override
+                    protected void runInternal()
+                    {
+                        sendNotifications(notifications, previousFireTime, Utils.getContext());
+                    }
+                };
+                Thread thread = new Thread(runnable, "WatchList notification thread " + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    private void sendNotifications(Queue<Map.Entry<String, List<WatchListEvent>>> notifications,
+        Date previousFireTime, XWikiContext xcontext)
+    {
+        for (Map.Entry<String, List<WatchListEvent>> notification = notifications.poll(); notification != null;
+            notification = notifications.poll()) {
+            String subscriber = notification.getKey();
+            try {
+                String userWiki = StringUtils.substringBefore(subscriber, DefaultWatchListStore.WIKI_SPACE_SEP);
+
+                this.watchlist.getNotifier().sendNotification(subscriber, notification.getValue(),
+                    getEmailTemplate(userWiki, xcontext), previousFireTime);
+            } catch (Exception e) {
+                LOGGER.error("Failed to send watchlist notification to user [{}]", subscriber, e);
+            } finally {
+                xcontext.getWiki().getStore().cleanUp(xcontext);
+            }
+        }
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.watchlist.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.watchlist.internal.api.WatchListEvent;
+import org.xwiki.watchlist.internal.api.WatchListStore;
+import org.xwiki.watchlist.internal.api.WatchedElementType;
+
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Unit tests for {@link DefaultWatchListEventMatcher}.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class DefaultWatchListEventMatcherTest
+{
+    private static final List<String> SUBSCRIBERS = Arrays.asList("xwiki:XWiki.Alice", "xwiki:XWiki.Bob",
+        "xwiki:XWiki.Carol", "xwiki:XWiki.Dave", "xwiki:XWiki.Erin");
+
+    @Rule
+    public MockitoComponentMockingRule<WatchListEventMatcher> mocker =
+        new MockitoComponentMockingRule<WatchListEventMatcher>(DefaultWatchListEventMatcher.class);
+
+    private WatchListStore store;
+
+    private AuthorizationManager authorizationManager;
+
+    private WatchListEvent eventInWiki1;
+
+    private WatchListEvent eventOnWatchedPage;
+
+    private WatchListEvent eventInOtherSpace;
+
+    private List<WatchListEvent> events;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.store = this.mocker.getInstance(WatchListStore.class);
+        when(this.store.getIntervals()).thenReturn(Arrays.asList("Scheduler.WatchListHourlyNotifier"));
+
+        DocumentReferenceResolver<String> resolver = this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        for (String subscriber : SUBSCRIBERS) {
+            when(resolver.resolve(subscriber)).thenReturn(getUserReference(subscriber));
+        }
+
+        this.authorizationManager = this.mocker.getInstance(AuthorizationManager.class);
+        when(this.authorizationManager.hasAccess(eq(Right.VIEW), any(DocumentReference.class),
+            any(EntityReference.class))).thenReturn(true);
+
+        watch("xwiki:XWiki.Alice", WatchedElementType.WIKI, "wiki1");
+        watch("xwiki:XWiki.Bob", WatchedElementType.SPACE, "wiki2:Space");
+        watch("xwiki:XWiki.Carol", WatchedElementType.DOCUMENT, "wiki2:Space.Page");
+        watch("xwiki:XWiki.Dave", WatchedElementType.USER, "xwiki:XWiki.Editor");
+
+        this.eventInWiki1 = mockEvent("wiki1", "Main", "WebHome", "xwiki:XWiki.Admin");
+        this.eventOnWatchedPage = mockEvent("wiki2", "Space", "Page", "xwiki:XWiki.Editor");
+        this.eventInOtherSpace = mockEvent("wiki2", "Other", "Page", "xwiki:XWiki.Admin");
+        this.events = Arrays.asList(this.eventInWiki1, this.eventOnWatchedPage, this.eventInOtherSpace);
+    }
+
+    private DocumentReference getUserReference(String subscriber)
+    {
+        return new DocumentReference("xwiki", "XWiki", subscriber.substring(subscriber.indexOf('.') + 1));
+    }
+
+    private void watch(String subscriber, WatchedElementType type, String element) throws XWikiException
+    {
+        when(this.store.getWatchedElements(subscriber, type)).thenReturn(Collections.singletonList(element));
+        when(this.store.isWatched(element, subscriber, type)).thenReturn(true);
+    }
+
+    private WatchListEvent mockEvent(String wiki, String space, String page, String author)
+    {
+        WatchListEvent event = mock(WatchListEvent.class, wiki + ':' + space + '.' + page);
+
+        when(event.getWiki()).thenReturn(wiki);
+        when(event.getPrefixedSpace()).thenReturn(wiki + ':' + space);
+        when(event.getFullName()).thenReturn(space + '.' + page);
+        when(event.getPrefixedFullName()).thenReturn(wiki + ':' + space + '.' + page);
+        when(event.getAuthors()).thenReturn(Collections.singletonList(author));
+        when(event.getDocumentReference()).thenReturn(new DocumentReference(wiki, space, page));
+
+        return event;
+    }
+
+    @Test
+    public void getMatchingVisibleEventsRoutesEachEventToItsSubscribers() throws Exception
+    {
+        Map<String, List<WatchListEvent>> result = this.mocker.getComponentUnderTest().getMatchingVisibleEvents(
+            this.events, SUBSCRIBERS);
+
+        assertEquals(Arrays.asList(this.eventInWiki1), result.get("xwiki:XWiki.Alice"));
+        assertEquals(Arrays.asList(this.eventOnWatchedPage), result.get("xwiki:XWiki.Bob"));
+        assertEquals(Arrays.asList(this.eventOnWatchedPage), result.get("xwiki:XWiki.Carol"));
+        assertEquals(Arrays.asList(this.eventOnWatchedPage), result.get("xwiki:XWiki.Dave"));
+        // Subscribers who are not interested in any event are not notified
+        assertFalse(result.containsKey("xwiki:XWiki.Erin"));
+        assertEquals(4, result.size());
+
+        // The watched elements are read once per subscriber and type, not once per event
+        verify(this.store, times(1)).getWatchedElements("xwiki:XWiki.Alice", WatchedElementType.WIKI);
+    }
+
+    @Test
+    public void getMatchingVisibleEventsIsConsistentWithTheSubscriberMatcher() throws Exception
+    {
+        WatchListEventMatcher matcher = this.mocker.getComponentUnderTest();
+
+        Map<String, List<WatchListEvent>> result = matcher.getMatchingVisibleEvents(this.events, SUBSCRIBERS);
+
+        for (String subscriber : SUBSCRIBERS) {
+            List<WatchListEvent> expected = matcher.getMatchingVisibleEvents(this.events, subscriber);
+            List<WatchListEvent> actual = result.get(subscriber);
+            assertEquals(expected, actual != null ? actual : Collections.<WatchListEvent>emptyList());
+        }
+    }
+
+    @Test
+    public void getMatchingVisibleEventsAddsAnEventOncePerSubscriber() throws Exception
+    {
+        // Carol watches the page, its space and its author
+        watch("xwiki:XWiki.Carol", WatchedElementType.SPACE, "wiki2:Space");
+        watch("xwiki:XWiki.Carol", WatchedElementType.USER, "xwiki:XWiki.Editor");
+
+        Map<String, List<WatchListEvent>> result = this.mocker.getComponentUnderTest().getMatchingVisibleEvents(
+            this.events, SUBSCRIBERS);
+
+        assertEquals(Arrays.asList(this.eventOnWatchedPage), result.get("xwiki:XWiki.Carol"));
+        DocumentReference documentReference = this.eventOnWatchedPage.getDocumentReference();
+        verify(this.authorizationManager).hasAccess(Right.VIEW, getUserReference("xwiki:XWiki.Carol"),
+            documentReference);
+    }
+
+    @Test
+    public void getMatchingVisibleEventsSkipsEventsNotViewableBySubscriber() throws Exception
+    {
+        when(this.authorizationManager.hasAccess(Right.VIEW, getUserReference("xwiki:XWiki.Carol"),
+            this.eventOnWatchedPage.getDocumentReference())).thenReturn(false);
+
+        Map<String, List<WatchListEvent>> result = this.mocker.getComponentUnderTest().getMatchingVisibleEvents(
+            this.events, SUBSCRIBERS);
+
+        assertFalse(result.containsKey("xwiki:XWiki.Carol"));
+        assertEquals(Arrays.asList(this.eventOnWatchedPage), result.get("xwiki:XWiki.Bob"));
+    }
+
+    @Test
+    public void getMatchingVisibleEventsSkipsWatchListJobEvents() throws Exception
+    {
+        WatchListEvent jobEvent = mockEvent("wiki1", "Scheduler", "WatchListHourlyNotifier", "xwiki:XWiki.Admin");
+
+        Map<String, List<WatchListEvent>> result = this.mocker.getComponentUnderTest().getMatchingVisibleEvents(
+            Arrays.asList(jobEvent, this.eventInWiki1), SUBSCRIBERS);
+
+        assertEquals(Arrays.asList(this.eventInWiki1), result.get("xwiki:XWiki.Alice"));
+    }
+
+    @Test
+    public void getMatchingVisibleEventsWhenWatchedElementsCannotBeRead() throws Exception
+    {
+        when(this.store.getWatchedElements("xwiki:XWiki.Alice", WatchedElementType.WIKI)).thenThrow(
+            new XWikiException());
+
+        Map<String, List<WatchListEvent>> result = this.mocker.getComponentUnderTest().getMatchingVisibleEvents(
+            this.events, SUBSCRIBERS);
+
+        assertFalse(result.containsKey("xwiki:XWiki.Alice"));
+        assertEquals(Arrays.asList(this.eventOnWatchedPage), result.get("xwiki:XWiki.Dave"));
+        verify(this.mocker.getMockedLogger()).error(eq("Failed to get the elements watched by [{}]"),
+            eq("xwiki:XWiki.Alice"), any(XWikiException.class));
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.watchlist.internal.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+import org.xwiki.watchlist.internal.WatchListEventMatcher;
+import org.xwiki.watchlist.internal.api.WatchList;
+import org.xwiki.watchlist.internal.api.WatchListEvent;
+import org.xwiki.watchlist.internal.api.WatchListNotifier;
+import org.xwiki.watchlist.internal.api.WatchListStore;
+import org.xwiki.watchlist.internal.documents.WatchListJobClassDocumentInitializer;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Unit tests for {@link WatchListJob}.
+ *
+ * @version $Id$
+ * @since 7.1M1
+ */
+public class WatchListJobTest
+{
+    private static final List<String> SUBSCRIBERS = Arrays.asList("xwiki:XWiki.Alice", "xwiki:XWiki.Bob",
+        "xwiki:XWiki.Carol");
+
+    private static final Date PREVIOUS_FIRE_TIME = new Date(1000);
+
+    private static final String TEMPLATE = "XWiki.WatchListMessage";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private XWikiContext xcontext = mock(XWikiContext.class);
+
+    private XWiki xwiki = mock(XWiki.class);
+
+    private XWikiStoreInterface xwikiStore = mock(XWikiStoreInterface.class);
+
+    private WatchListNotifier notifier = mock(WatchListNotifier.class);
+
+    private JobExecutionContext jobContext = mock(JobExecutionContext.class);
+
+    private Map<String, List<WatchListEvent>> matchingEvents = new LinkedHashMap<String, List<WatchListEvent>>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Utils.setComponentManager(this.mocker);
+
+        this.mocker.registerMockComponent(Execution.class);
+        this.mocker.registerMockComponent(ExecutionContextManager.class);
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(this.xcontext);
+
+        when(this.xcontext.clone()).thenReturn(this.xcontext);
+        when(this.xcontext.getWiki()).thenReturn(this.xwiki);
+        when(this.xwiki.getStore()).thenReturn(this.xwikiStore);
+
+        // The scheduler job and its watchlist job object
+        BaseObject schedulerJobObject = mock(BaseObject.class, "xjob");
+        when(schedulerJobObject.getName()).thenReturn("Scheduler.WatchListHourlyNotifier");
+        BaseObject watchListJobObject = mock(BaseObject.class, "watchListJob");
+        when(watchListJobObject.getDateValue(WatchListJobClassDocumentInitializer.LAST_FIRE_TIME_FIELD)).thenReturn(
+            PREVIOUS_FIRE_TIME);
+        when(watchListJobObject.getStringValue(WatchListJobClassDocumentInitializer.TEMPLATE_FIELD)).thenReturn(
+            TEMPLATE);
+        XWikiDocument jobDocument = mock(XWikiDocument.class);
+        when(jobDocument.getXObject(any(EntityReference.class))).thenReturn(watchListJobObject);
+        when(this.xwiki.getDocument(any(DocumentReference.class), same(this.xcontext))).thenReturn(jobDocument);
+
+        JobDataMap data = new JobDataMap();
+        data.put("context", this.xcontext);
+        data.put("xjob", schedulerJobObject);
+        JobDetail jobDetail = mock(JobDetail.class);
+        when(jobDetail.getJobDataMap()).thenReturn(data);
+        when(this.jobContext.getJobDetail()).thenReturn(jobDetail);
+
+        // The subscribers and the events they are interested in
+        WatchList watchList = this.mocker.registerMockComponent(WatchList.class);
+        WatchListStore watchListStore = mock(WatchListStore.class);
+        when(watchList.getStore()).thenReturn(watchListStore);
+        when(watchList.getNotifier()).thenReturn(this.notifier);
+        when(watchListStore.getSubscribers("Scheduler.WatchListHourlyNotifier")).thenReturn(SUBSCRIBERS);
+
+        List<WatchListEvent> events = Arrays.asList(mock(WatchListEvent.class));
+        for (String subscriber : SUBSCRIBERS) {
+            this.matchingEvents.put(subscriber, events);
+        }
+        WatchListEventMatcher eventMatcher = this.mocker.registerMockComponent(WatchListEventMatcher.class);
+        when(eventMatcher.getEventsSince(PREVIOUS_FIRE_TIME)).thenReturn(events);
+        when(eventMatcher.getMatchingVisibleEvents(events, SUBSCRIBERS)).thenReturn(this.matchingEvents);
+    }
+
+    @After
+    public void tearDown()
+    {
+        Utils.setComponentManager(null);
+    }
+
+    private void setNotificationThreads(long threads)
+    {
+        when(this.xwiki.ParamAsLong("xwiki.plugin.watchlist.notificationThreads", 1)).thenReturn(threads);
+    }
+
+    @Test
+    public void executeJobSendsNotificationsInTheJobThreadByDefault() throws Exception
+    {
+        setNotificationThreads(1);
+
+        final Thread jobThread = Thread.currentThread();
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                threads.add(Thread.currentThread());
+                return null;
+            }
+        }).when(this.notifier).sendNotification(anyString(), anyListOf(WatchListEvent.class), anyString(),
+            any(Date.class));
+
+        new WatchListJob().executeJob(this.jobContext);
+
+        for (String subscriber : SUBSCRIBERS) {
+            verify(this.notifier).sendNotification(subscriber, this.matchingEvents.get(subscriber), TEMPLATE,
+                PREVIOUS_FIRE_TIME);
+        }
+        assertEquals(Collections.singleton(jobThread), threads);
+        // The last fire time is updated before sending the notifications
+        verify(this.xwiki).saveDocument(any(XWikiDocument.class), eq("Updated last fire time"), anyBoolean(),
+            same(this.xcontext));
+    }
+
+    @Test
+    public void executeJobSendsNotificationsInParallel() throws Exception
+    {
+        setNotificationThreads(5);
+
+        // Each notification waits for the two others, which only works if they are sent concurrently
+        final CyclicBarrier barrier = new CyclicBarrier(SUBSCRIBERS.size());
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                threads.add(Thread.currentThread());
+                barrier.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(this.notifier).sendNotification(anyString(), anyListOf(WatchListEvent.class), anyString(),
+            any(Date.class));
+
+        new WatchListJob().executeJob(this.jobContext);
+
+        for (String subscriber : SUBSCRIBERS) {
+            verify(this.notifier).sendNotification(subscriber, this.matchingEvents.get(subscriber), TEMPLATE,
+                PREVIOUS_FIRE_TIME);
+        }
+        // No more threads than notifications
+        assertEquals(SUBSCRIBERS.size(), threads.size());
+        assertFalse(threads.contains(Thread.currentThread()));
+        assertEquals(0, barrier.getNumberWaiting());
+    }
+
+    @Test
+    public void executeJobWhenANotificationFails() throws Exception
+    {
+        setNotificationThreads(2);
+
+        doThrow(new XWikiException()).when(this.notifier).sendNotification(eq("xwiki:XWiki.Bob"),
+            anyListOf(WatchListEvent.class), anyString(), any(Date.class));
+
+        new WatchListJob().executeJob(this.jobContext);
+
+        verify(this.notifier).sendNotification("xwiki:XWiki.Alice", this.matchingEvents.get("xwiki:XWiki.Alice"),
+            TEMPLATE, PREVIOUS_FIRE_TIME);
+        verify(this.notifier).sendNotification("xwiki:XWiki.Carol", this.matchingEvents.get("xwiki:XWiki.Carol"),
+            TEMPLATE, PREVIOUS_FIRE_TIME);
+        // The database connections are cleaned after each notification, after init and at the end of the job
+        verify(this.xwikiStore, times(SUBSCRIBERS.size() + 2)).cleanUp(this.xcontext);
+    }
+}